@@ -0,0 +1,58 @@
+package email_app;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures what publishing to an {@link AccountEventStream} adds to the
+ * mutators of {@link EmailDirectory}.
+ * <p>
+ * Each operation changes the mail capacity of a random account through
+ * the directory, first with no subscriber, then with two subscribers
+ * receiving batches of up to 256 events. The difference in time per
+ * operation is the cost of publishing, including the subscribers'
+ * competition for the same cores.</p>
+ * <p>
+ * Usage: {@code AccountEventStreamBenchmark [accounts]}, default 100,000;
+ * see {@link Benchmark} for settings.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class AccountEventStreamBenchmark {
+
+	public static void main(String[] args) throws InterruptedException, IOException {
+		final int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		final AccountEventStream stream = new AccountEventStream();
+		final EmailDirectory directory = new EmailDirectory(stream);
+		final Email[] emails = new Email[accounts];
+		for (int i = 0; i < accounts; i++) {
+			emails[i] = new Email("user" + i, "staff", "dept" + (i % 32));
+			directory.add(emails[i]);
+		}
+		final Benchmark benchmark = new Benchmark();
+
+		for (int threads : new int[] {1, Benchmark.THREADS}) {
+			benchmark.run("EmailDirectory.setMailCapacity no subscribers", threads, () -> () -> change(directory, emails));
+		}
+		final LongAdder received = new LongAdder();
+		stream.subscribe("router", 256, batch -> received.add(batch.size()));
+		stream.subscribe("replica", 256, batch -> received.add(batch.size()));
+		for (int threads : new int[] {1, Benchmark.THREADS}) {
+			benchmark.run("EmailDirectory.setMailCapacity 2 subscribers", threads, () -> () -> change(directory, emails));
+		}
+		stream.close();
+		System.out.printf("published: %,d, received: %,d, backpressure waits: %,d%n",
+				stream.getPublishedCount(), received.sum(), stream.getBackpressureCount());
+		for (AccountEventStream.Subscription subscription : stream.getSubscriptions()) {
+			System.out.println(subscription);
+		}
+		benchmark.writeJson();
+	}
+
+	private static int change(final EmailDirectory directory, final Email[] emails) {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		return directory.setMailCapacity(emails[random.nextInt(emails.length)], 100 + random.nextInt(400));
+	}
+}
@@ -0,0 +1,111 @@
+package email_app;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Measures full snapshots, incremental snapshots and restores of an
+ * {@link EmailDirectory} by an {@link AccountSnapshotter}, while a writer
+ * keeps changing mail capacities.
+ * <p>
+ * Usage: {@code AccountSnapshotBenchmark [accounts] [threads] [folder]},
+ * default 10,000,000 accounts, {@code bench.threads} threads and a
+ * temporary folder, deleted afterwards. 10M accounts need a heap of about
+ * 12 GB, e.g. {@code -Xmx12g}: the directory and the restored accounts
+ * are held at the same time. Every account gets a password hashed with
+ * a single PBKDF2 iteration, which gives the encoded hashes their real
+ * size and randomness. {@code -Dbench.writer=false} leaves the writer out, to
+ * measure snapshots of an idle directory.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class AccountSnapshotBenchmark {
+	private static final boolean WRITER = Boolean.parseBoolean(System.getProperty("bench.writer", "true"));
+	private static final String[] DEPARTMENTS = {
+			"accounts", "engineering", "sales", "marketing", "legal", "support", "research", ""};
+
+	public static void main(String[] args) throws Exception {
+		final int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+		final int threads = args.length > 1 ? Integer.parseInt(args[1]) : Benchmark.THREADS;
+		final boolean temporary = args.length <= 2;
+		final Path folder = temporary ? Files.createTempDirectory("snapshots") : Paths.get(args[2]);
+		Email.setPasswordHasher(new Pbkdf2PasswordHasher(1));
+
+		final EmailDirectory directory = new EmailDirectory();
+		final Email[] emails = new Email[accounts];
+		for (int i = 0; i < accounts; i++) {
+			emails[i] = new Email("user" + i, "staff", DEPARTMENTS[i % DEPARTMENTS.length]);
+			emails[i].resetPassword("password" + i);
+			if (i % 10 == 0) {
+				emails[i].createAlternateEmail("alt" + i, "mail");
+			}
+			directory.add(emails[i]);
+		}
+		System.out.printf("%,d accounts, %d threads, folder %s%n", accounts, threads, folder);
+
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final LongAdder changes = new LongAdder();
+		final Thread writer = new Thread(() -> {
+			final ThreadLocalRandom random = ThreadLocalRandom.current();
+			while (running.get()) {
+				directory.setMailCapacity(emails[random.nextInt(accounts)], 100 + random.nextInt(400));
+				changes.increment();
+			}
+		}, "snapshot-writer");
+		writer.setDaemon(true);
+
+		try (AccountSnapshotter snapshotter = new AccountSnapshotter(directory, folder, threads)) {
+			if (WRITER) {
+				writer.start();
+			}
+			long start = System.nanoTime();
+			final AccountSnapshotter.Manifest full = snapshotter.snapshot();
+			report("full snapshot", full.getAccountCount(), full.getBytes(), System.nanoTime() - start);
+
+			start = System.nanoTime();
+			final AccountSnapshotter.Manifest incremental = snapshotter.snapshotChanges();
+			report("incremental", incremental.getAccountCount(), incremental.getBytes(), System.nanoTime() - start);
+			running.set(false);
+			if (WRITER) {
+				writer.join();
+			}
+			System.out.printf("changes made while snapshotting: %,d%n", changes.sum());
+		}
+
+		long start = System.nanoTime();
+		final Map<String, Email> restored = AccountSnapshotter.restore(folder, threads);
+		report("restore", restored.size(), 0, System.nanoTime() - start);
+
+		if (temporary) {
+			delete(folder);
+		}
+	}
+
+	private static void report(final String name, final int accounts, final long bytes, final long nanos) {
+		final double seconds = nanos / 1e9;
+		System.out.printf("%-14s accounts: %,d, %.2f s, %,.0f accounts/s", name, accounts, seconds,
+				accounts / seconds);
+		if (bytes > 0) {
+			System.out.printf(", %,.1f MB compressed, %.1f bytes/account", bytes / 1e6,
+					(double) bytes / Math.max(1, accounts));
+		}
+		System.out.println();
+	}
+
+	private static void delete(final Path folder) throws IOException {
+		try (Stream<Path> files = Files.walk(folder)) {
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(file);
+			}
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package email_app;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures end-to-end rows per second of importing a generated CSV file
+ * with {@link AccountImporter} and exporting the accounts again with
+ * {@link AccountExporter}, in both formats.
+ * <p>
+ * Usage: {@code AccountTransferBenchmark [rows]}, default 1,000,000.
+ * Imported accounts have no password yet, so the run measures parsing,
+ * provisioning and encoding.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class AccountTransferBenchmark {
+	public static void main(String[] args) throws IOException {
+		final int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		final Path input = Files.createTempFile("accounts", ".csv");
+		final Path csv = Files.createTempFile("report", ".csv");
+		final Path jsonl = Files.createTempFile("report", ".jsonl");
+		try {
+			try (BufferedWriter out = Files.newBufferedWriter(input, StandardCharsets.UTF_8)) {
+				out.write("firstname,lastname,department\n");
+				for (int i = 0; i < rows; i++) {
+					out.write("first" + i + ",\"last, " + (i % 1000) + "\",dept" + (i % 16) + "\n");
+				}
+			}
+
+			final long start = System.nanoTime();
+			try (AccountExporter csvOut = AccountExporter.open(csv, AccountExporter.Format.CSV);
+					AccountExporter jsonlOut = AccountExporter.open(jsonl, AccountExporter.Format.JSONL)) {
+				final AccountImporter.Summary summary = new AccountImporter().importCsv(input, email -> {
+					try {
+						csvOut.write(email);
+						jsonlOut.write(email);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+				System.out.println("import:   " + summary);
+			}
+			final long elapsed = System.nanoTime() - start;
+			System.out.printf("transfer: rows: %,d, input: %,d bytes, csv: %,d bytes, jsonl: %,d bytes, rowsPerSecond: %.1f%n",
+					rows, Files.size(input), Files.size(csv), Files.size(jsonl), rows * 1e9 / elapsed);
+		} finally {
+			Files.deleteIfExists(input);
+			Files.deleteIfExists(csv);
+			Files.deleteIfExists(jsonl);
+		}
+	}
+}
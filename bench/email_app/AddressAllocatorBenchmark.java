@@ -0,0 +1,94 @@
+package email_app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import email_app.BulkProvisioner.Report;
+import email_app.BulkProvisioner.Request;
+
+/**
+ * Measures address allocation for a large onboarding with many shared
+ * names: N requests are drawn from Zipf-distributed first and last names,
+ * so the most common names are shared by thousands of employees.
+ * <p>
+ * The benchmark reports the time of {@link AddressAllocator#reserve} alone
+ * on a fresh directory, then provisions all requests with a
+ * {@link BulkProvisioner} using an allocator, and checks that every
+ * address is unique.</p>
+ * <p>
+ * Usage: {@code AddressAllocatorBenchmark [requests]}, default 1,000,000.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class AddressAllocatorBenchmark {
+	private static final String[] FIRSTNAMES = {
+			"james", "mary", "john", "patricia", "robert", "jennifer", "michael", "linda",
+			"william", "elizabeth", "david", "barbara", "richard", "susan", "joseph", "jessica",
+			"thomas", "sarah", "charles", "karen", "christopher", "lisa", "daniel", "nancy",
+			"matthew", "betty", "anthony", "margaret", "mark", "sandra", "donald", "ashley"};
+	private static final String[] LASTNAMES = {
+			"smith", "johnson", "williams", "brown", "jones", "garcia", "miller", "davis",
+			"rodriguez", "martinez", "hernandez", "lopez", "gonzalez", "wilson", "anderson", "thomas",
+			"taylor", "moore", "jackson", "martin", "lee", "perez", "thompson", "white",
+			"harris", "sanchez", "clark", "ramirez", "lewis", "robinson", "walker", "young"};
+	private static final String[] DEPARTMENTS = {
+			"accounts", "engineering", "sales", "marketing", "legal", "support", "research", ""};
+
+	public static void main(String[] args) {
+		final int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		final Random random = new Random(42);
+		final double[] firstWeights = zipf(FIRSTNAMES.length);
+		final double[] lastWeights = zipf(LASTNAMES.length);
+		final List<Request> requests = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			// one in four employees has a rarer, numbered first name
+			final String firstname = random.nextInt(4) == 0
+					? FIRSTNAMES[random.nextInt(FIRSTNAMES.length)] + random.nextInt(1000)
+					: FIRSTNAMES[sample(firstWeights, random)];
+			requests.add(new Request(firstname, LASTNAMES[sample(lastWeights, random)],
+					DEPARTMENTS[random.nextInt(DEPARTMENTS.length)]));
+		}
+
+		final AddressAllocator reserveOnly = new AddressAllocator(new EmailDirectory());
+		long start = System.nanoTime();
+		int maxSuffix = 0;
+		for (Request request : requests) {
+			maxSuffix = Math.max(maxSuffix,
+					reserveOnly.reserve(request.getFirstname(), request.getLastname(), request.getDepartment()));
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("reserve:   %,d names in %.0f ms, %.0f ns/name, largest suffix: %,d%n",
+				count, elapsed / 1e6, (double) elapsed / count, maxSuffix);
+
+		final AddressAllocator allocator = new AddressAllocator(new EmailDirectory());
+		final Report report = new BulkProvisioner(Runtime.getRuntime().availableProcessors(),
+				BulkProvisioner.DEFAULT_BATCH_SIZE, allocator).provision(requests);
+		System.out.println("provision: " + report);
+		System.out.printf("unique addresses: %,d of %,d%n", allocator.getDirectory().size(), report.getSuccessCount());
+	}
+
+	/** Returns cumulative Zipf(1) weights for n ranks */
+	private static double[] zipf(final int n) {
+		final double[] cumulative = new double[n];
+		double sum = 0;
+		for (int rank = 0; rank < n; rank++) {
+			sum += 1.0 / (rank + 1);
+			cumulative[rank] = sum;
+		}
+		for (int rank = 0; rank < n; rank++) {
+			cumulative[rank] /= sum;
+		}
+		return cumulative;
+	}
+
+	private static int sample(final double[] cumulative, final Random random) {
+		final double u = random.nextDouble();
+		int rank = 0;
+		while (rank < cumulative.length - 1 && cumulative[rank] < u) {
+			rank++;
+		}
+		return rank;
+	}
+}
@@ -0,0 +1,73 @@
+package email_app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import email_app.AddressParser.ParsedAddress;
+
+/**
+ * Benchmarks {@link AddressParser} on typical addresses from byte arrays,
+ * direct buffers and Strings, and resolution of parsed addresses in an
+ * {@link EmailDirectory}. Parsing is expected to report zero bytes per
+ * operation.
+ * <p>
+ * Usage: {@code AddressParserBenchmark}, see {@link Benchmark} for settings.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class AddressParserBenchmark {
+	private static final String[] ADDRESSES = {
+			"sterling.archer@field.company.com", "Lana.Kane@Field.Company.com",
+			"cyril.figgis@accounts.company.com", "john.smith2@sales.company.com",
+			"not-an-address@company.com", "pam.poovey@hr.company.com",
+			"ray.gillette@field.company.com", "malory.archer@general.company.com"};
+
+	public static void main(String[] args) throws InterruptedException, IOException {
+		final byte[][] bytes = new byte[ADDRESSES.length][];
+		final ByteBuffer[] direct = new ByteBuffer[ADDRESSES.length];
+		final EmailDirectory directory = new EmailDirectory();
+		for (int i = 0; i < ADDRESSES.length; i++) {
+			bytes[i] = ADDRESSES[i].getBytes(StandardCharsets.UTF_8);
+			direct[i] = ByteBuffer.allocateDirect(bytes[i].length);
+			direct[i].put(bytes[i]).flip();
+			final ParsedAddress parsed = new ParsedAddress();
+			if (AddressParser.parse(ADDRESSES[i], parsed)) {
+				directory.add(new Email(parsed.getFirstname(), parsed.getLastname(), parsed.getDepartment()));
+			}
+		}
+		final Benchmark benchmark = new Benchmark();
+
+		for (int threads : new int[] {1, Benchmark.THREADS}) {
+			benchmark.run("AddressParser.parse(byte[])", threads, () -> {
+				final ParsedAddress out = new ParsedAddress();
+				final int[] next = {0};
+				return () -> {
+					final byte[] address = bytes[next[0]++ & 7];
+					return AddressParser.parse(address, 0, address.length, out);
+				};
+			});
+			benchmark.run("AddressParser.parse(direct ByteBuffer)", threads, () -> {
+				final ParsedAddress out = new ParsedAddress();
+				final int[] next = {0};
+				return () -> AddressParser.parse(direct[next[0]++ & 7], out);
+			});
+			benchmark.run("AddressParser.parse(String)", threads, () -> {
+				final ParsedAddress out = new ParsedAddress();
+				final int[] next = {0};
+				return () -> AddressParser.parse(ADDRESSES[next[0]++ & 7], out);
+			});
+			benchmark.run("AddressParser.parse+resolve(byte[])", threads, () -> {
+				final ParsedAddress out = new ParsedAddress();
+				final int[] next = {0};
+				return () -> {
+					final byte[] address = bytes[next[0]++ & 7];
+					return AddressParser.parse(address, 0, address.length, out)
+							? AddressParser.resolve(out, directory) : null;
+				};
+			});
+		}
+		benchmark.writeJson();
+	}
+}
@@ -0,0 +1,155 @@
+package email_app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives an {@link AdminServer} with a closed loop of clients and reports
+ * throughput and latency percentiles.
+ * <p>
+ * Every client thread keeps one HTTP/1.1 connection alive and sends its
+ * next request as soon as the previous one is answered. Nine requests in
+ * ten look up a random account, the others set its capacity. With a batch
+ * size above 1, each request is a {@code /batch} of that many such
+ * operations.</p>
+ * <p>
+ * Usage: {@code AdminServerLoadGenerator [clients] [seconds] [batch] [url]},
+ * default {@code bench.threads} clients, 10 seconds and single
+ * operations. Without a url, an embedded server with 10,000 accounts is
+ * started on a free port; against another server, the accounts
+ * {@code user0.staff@dept0.company.com} to {@code user9999.staff@dept9.company.com}
+ * are expected to exist. Run the server, embedded or not, with
+ * {@code -Dsun.net.httpserver.nodelay=true}, or every answer waits for a
+ * delayed ACK.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class AdminServerLoadGenerator {
+	private static final int ACCOUNTS = 10_000;
+
+	public static void main(String[] args) throws Exception {
+		final int clients = args.length > 0 ? Integer.parseInt(args[0]) : Benchmark.THREADS;
+		final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		final int batch = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		AdminServer embedded = null;
+		final String url;
+		if (args.length > 3) {
+			url = args[3];
+		} else {
+			final EmailDirectory directory = new EmailDirectory();
+			for (int i = 0; i < ACCOUNTS; i++) {
+				directory.add(new Email("user" + i, "staff", "dept" + (i % 10)));
+			}
+			embedded = new AdminServer(directory, new InetSocketAddress("127.0.0.1", 0),
+					Runtime.getRuntime().availableProcessors());
+			embedded.start();
+			url = "http://127.0.0.1:" + embedded.getPort();
+		}
+
+		// the first run warms up both sides and is not reported
+		run(url, clients, 2, batch);
+		final LatencyHistogram latency = new LatencyHistogram();
+		final long requests = run(url, clients, seconds, batch, latency);
+		System.out.printf("%d clients, batch %d: %,.0f requests/s, %,.0f operations/s%n",
+				clients, batch, requests / (double) seconds, requests * batch / (double) seconds);
+		System.out.printf("latency: p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us%n",
+				latency.getPercentileNanos(50) / 1e3, latency.getPercentileNanos(99) / 1e3,
+				latency.getPercentileNanos(99.9) / 1e3, latency.getMaxNanos() / 1e3);
+		if (embedded != null) {
+			System.out.print(embedded.getMetrics().snapshot());
+			embedded.close();
+		}
+	}
+
+	private static long run(final String url, final int clients, final int seconds, final int batch)
+			throws InterruptedException {
+		return run(url, clients, seconds, batch, new LatencyHistogram());
+	}
+
+	/** Runs clients for seconds and returns the number of requests answered */
+	private static long run(final String url, final int clients, final int seconds, final int batch,
+			final LatencyHistogram latency) throws InterruptedException {
+		final LongAdder answered = new LongAdder();
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		final Thread[] threads = new Thread[clients];
+		for (int t = 0; t < clients; t++) {
+			threads[t] = new Thread(() -> {
+				try {
+					while (System.nanoTime() < deadline) {
+						final long start = System.nanoTime();
+						send(url, batch);
+						latency.record(System.nanoTime() - start);
+						answered.increment();
+					}
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}, "load-" + t);
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return answered.sum();
+	}
+
+	private static void send(final String url, final int batch) throws IOException {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final HttpURLConnection connection;
+		if (batch == 1) {
+			final String address = address(random);
+			if (random.nextInt(10) == 0) {
+				connection = post(url + "/accounts/" + address + "/capacity",
+						"capacity=" + (100 + random.nextInt(400)));
+			} else {
+				connection = (HttpURLConnection) new URL(url + "/accounts/" + address).openConnection();
+			}
+		} else {
+			final StringBuilder body = new StringBuilder();
+			for (int i = 0; i < batch; i++) {
+				if (random.nextInt(10) == 0) {
+					body.append("CAPACITY ").append(address(random)).append(' ').append(100 + random.nextInt(400));
+				} else {
+					body.append("GET ").append(address(random));
+				}
+				body.append('\n');
+			}
+			connection = post(url + "/batch", body.toString());
+		}
+		final int status = connection.getResponseCode();
+		if (status != 200) {
+			throw new IOException("unexpected status " + status);
+		}
+		// reading the whole answer lets the connection be reused
+		try (InputStream in = connection.getInputStream()) {
+			final byte[] buffer = new byte[8192];
+			while (in.read(buffer) > 0) {
+				// discard
+			}
+		}
+	}
+
+	private static HttpURLConnection post(final String url, final String body) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(body.getBytes(StandardCharsets.UTF_8));
+		}
+		return connection;
+	}
+
+	private static String address(final ThreadLocalRandom random) {
+		final int i = random.nextInt(ACCOUNTS);
+		return "user" + i + ".staff@dept" + (i % 10) + ".company.com";
+	}
+}
@@ -0,0 +1,111 @@
+package email_app;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures logins of {@link AuthenticationService} served from its cache
+ * of verified credentials.
+ * <p>
+ * The throughput variants log in to random accounts by primary and
+ * alternate address after every account has been verified once. The
+ * latency run then issues logins at a fixed rate, 50,000 per second by
+ * default, spread over {@code bench.threads} threads, and reports latency
+ * percentiles. Latency is measured from the time each login was scheduled
+ * rather than the time it started, so a stall also counts against the
+ * logins queued behind it.</p>
+ * <p>
+ * Usage: {@code AuthenticationBenchmark [accounts] [loginsPerSecond] [seconds]},
+ * default 100,000, 50,000 and 10; see {@link Benchmark} for settings.
+ * Passwords are hashed with a single PBKDF2 iteration to build the
+ * directory quickly; cache hits never run the hasher.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class AuthenticationBenchmark {
+
+	public static void main(String[] args) throws InterruptedException, IOException {
+		final int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		final int rate = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+		final int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		Email.setPasswordHasher(new Pbkdf2PasswordHasher(1));
+
+		final EmailDirectory directory = new EmailDirectory();
+		final String[] addresses = new String[2 * accounts];
+		for (int i = 0; i < accounts; i++) {
+			final Email email = new Email("user" + i, "staff", "dept" + (i % 32));
+			email.resetPassword("password" + i);
+			directory.add(email);
+			directory.createAlternateEmail(email, "alias" + i, "staff");
+			addresses[2 * i] = email.getEmailAddress();
+			addresses[2 * i + 1] = email.getAltEmailAddress();
+		}
+		final AuthenticationService auth = new AuthenticationService(directory, 2 * accounts,
+				TimeUnit.HOURS.toMillis(1), AuthenticationService.DEFAULT_BURST,
+				AuthenticationService.DEFAULT_ATTEMPTS_PER_SECOND);
+		for (int i = 0; i < accounts; i++) {
+			auth.authenticate(addresses[2 * i], "password" + i);
+		}
+		final String[] passwords = new String[accounts];
+		for (int i = 0; i < accounts; i++) {
+			passwords[i] = "password" + i;
+		}
+
+		final Benchmark benchmark = new Benchmark();
+		for (int threads : new int[] {1, Benchmark.THREADS}) {
+			benchmark.run("AuthenticationService.authenticate cache hit", threads, () -> () -> {
+				final int i = ThreadLocalRandom.current().nextInt(2 * accounts);
+				return auth.authenticate(addresses[i], passwords[i / 2]);
+			});
+		}
+
+		final int threads = Benchmark.THREADS;
+		final long[][] latencies = new long[threads][];
+		final Thread[] workers = new Thread[threads];
+		final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			workers[t] = new Thread(() -> {
+				final long interval = TimeUnit.SECONDS.toNanos(1) * threads / rate;
+				final long[] recorded = new long[(int) ((long) rate * seconds / threads)];
+				final ThreadLocalRandom random = ThreadLocalRandom.current();
+				long scheduled = start + id * interval / threads;
+				for (int n = 0; n < recorded.length; n++, scheduled += interval) {
+					long now;
+					while ((now = System.nanoTime()) < scheduled) {
+						LockSupport.parkNanos(scheduled - now);
+					}
+					final int i = random.nextInt(2 * accounts);
+					auth.authenticate(addresses[i], passwords[i / 2]);
+					recorded[n] = System.nanoTime() - scheduled;
+				}
+				latencies[id] = recorded;
+			});
+			workers[t].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		long[] all = new long[0];
+		for (long[] recorded : latencies) {
+			final int offset = all.length;
+			all = Arrays.copyOf(all, offset + recorded.length);
+			System.arraycopy(recorded, 0, all, offset, recorded.length);
+		}
+		Arrays.sort(all);
+		System.out.printf("%,d logins at %,d/s on %d threads: p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us%n",
+				all.length, rate, threads, percentile(all, 0.50), percentile(all, 0.99),
+				percentile(all, 0.999), all[all.length - 1] / 1e3);
+		System.out.println(auth);
+		benchmark.writeJson();
+	}
+
+	/** Returns the value below which fraction of the sorted latencies fall, in microseconds */
+	private static double percentile(final long[] sorted, final double fraction) {
+		return sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))] / 1e3;
+	}
+}
@@ -0,0 +1,186 @@
+package email_app;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+/**
+ * A small throughput harness for the benchmarks in this folder.
+ * <p>
+ * Each benchmark runs one warmup iteration followed by
+ * {@code bench.iterations} measured iterations of {@code bench.time}
+ * milliseconds on the requested number of threads. For every benchmark the
+ * harness reports operations per second (mean and standard deviation over
+ * iterations) and bytes allocated per operation, measured with the
+ * per-thread allocation counters of the HotSpot {@code ThreadMXBean} (the
+ * same source as JMH's {@code -prof gc}).</p>
+ * <p>
+ * Settings are read from system properties:
+ * <blockquote><pre>
+ * bench.warmup      warmup time in milliseconds, default 1000
+ * bench.time        measured iteration time in milliseconds, default 2000
+ * bench.iterations  measured iterations, default 3
+ * bench.threads     thread count of multi-threaded variants, default: cores
+ * bench.json        file to write the JSON results to, default: stdout
+ * </pre></blockquote></p>
+ *
+ * @author dawiditer
+ *
+ */
+final class Benchmark {
+	static final long WARMUP_MILLIS = Long.getLong("bench.warmup", 1000);
+	static final long TIME_MILLIS = Long.getLong("bench.time", 2000);
+	static final int ITERATIONS = Integer.getInteger("bench.iterations", 3);
+	static final int THREADS = Integer.getInteger("bench.threads", Runtime.getRuntime().availableProcessors());
+
+	private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private static volatile Object blackhole;
+
+	private final List<Result> results = new ArrayList<>();
+
+	/** A benchmarked operation; instances are confined to one thread */
+	interface Op {
+		/** Runs the operation once and returns its result, which is kept alive to defeat dead-code elimination */
+		Object run();
+	}
+
+	/**
+	 * Runs a benchmark and records its result
+	 *
+	 * @param name benchmark name, e.g. Email.toString
+	 * @param threads number of threads running the operation concurrently
+	 * @param ops called once per thread and iteration to create that thread's operation
+	 * @return the measured result
+	 */
+	Result run(final String name, final int threads, final Supplier<Op> ops) throws InterruptedException {
+		iteration(threads, ops, WARMUP_MILLIS);
+		final double[] scores = new double[ITERATIONS];
+		long totalOps = 0;
+		long totalBytes = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			final long[] measured = iteration(threads, ops, TIME_MILLIS);
+			scores[i] = measured[0] * 1000.0 / TIME_MILLIS;
+			totalOps += measured[0];
+			totalBytes += measured[1];
+		}
+		final Result result = new Result(name, threads, scores, totalOps == 0 ? 0 : (double) totalBytes / totalOps);
+		results.add(result);
+		System.out.println(result);
+		return result;
+	}
+
+	/** Returns {operations, bytes allocated} summed over all threads for one iteration */
+	private static long[] iteration(final int threads, final Supplier<Op> ops, final long millis) throws InterruptedException {
+		final long[] totals = new long[2];
+		final CountDownLatch ready = new CountDownLatch(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final long[] deadline = new long[1];
+		for (int t = 0; t < threads; t++) {
+			new Thread(() -> {
+				final Op op = ops.get();
+				ready.countDown();
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				final long id = Thread.currentThread().getId();
+				final long end = deadline[0];
+				final long bytesBefore = THREAD_BEAN.getThreadAllocatedBytes(id);
+				long count = 0;
+				Object sink = null;
+				while (System.nanoTime() < end) {
+					sink = op.run();
+					count++;
+				}
+				final long bytes = THREAD_BEAN.getThreadAllocatedBytes(id) - bytesBefore;
+				// publishing sink keeps the JIT from eliminating op.run()
+				blackhole = sink;
+				synchronized (totals) {
+					totals[0] += count;
+					totals[1] += bytes;
+				}
+				done.countDown();
+			}).start();
+		}
+		ready.await();
+		deadline[0] = System.nanoTime() + millis * 1_000_000L;
+		start.countDown();
+		done.await();
+		return totals;
+	}
+
+	/** Writes all recorded results as a JSON array to the file named by bench.json, or to stdout if unset */
+	void writeJson() throws IOException {
+		final String path = System.getProperty("bench.json");
+		if (path == null) {
+			System.out.println(toJson());
+		} else {
+			Files.write(Paths.get(path), toJson().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private String toJson() {
+		final StringBuilder json = new StringBuilder("[\n");
+		for (int i = 0; i < results.size(); i++) {
+			json.append("  ").append(results.get(i).toJson()).append(i + 1 < results.size() ? ",\n" : "\n");
+		}
+		return json.append("]").toString();
+	}
+
+	/** The immutable result of one benchmark */
+	static final class Result {
+		private final String name;
+		private final int threads;
+		private final double mean;
+		private final double error;
+		private final double bytesPerOp;
+
+		Result(final String name, final int threads, final double[] scores, final double bytesPerOp) {
+			double sum = 0;
+			for (double score : scores) {
+				sum += score;
+			}
+			final double mean = sum / scores.length;
+			double squares = 0;
+			for (double score : scores) {
+				squares += (score - mean) * (score - mean);
+			}
+			this.name = name;
+			this.threads = threads;
+			this.mean = mean;
+			this.error = scores.length > 1 ? Math.sqrt(squares / (scores.length - 1)) : 0;
+			this.bytesPerOp = bytesPerOp;
+		}
+
+		double getOpsPerSecond() {
+			return mean;
+		}
+		double getBytesPerOp() {
+			return bytesPerOp;
+		}
+
+		String toJson() {
+			return String.format(Locale.ROOT,
+					"{\"benchmark\": \"%s\", \"threads\": %d, \"opsPerSecond\": %.1f, "
+					+ "\"opsPerSecondError\": %.1f, \"bytesPerOp\": %.1f}",
+					name, threads, mean, error, bytesPerOp);
+		}
+
+		@Override public String toString() {
+			return String.format("%-40s threads: %2d, ops/sec: %,15.0f +- %,.0f, bytes/op: %,.1f",
+					name, threads, mean, error, bytesPerOp);
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package email_app;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import email_app.CapacityPlanner.Plan;
+import email_app.CapacityPlanner.Policy;
+
+/**
+ * Measures how long {@link CapacityPlanner} takes to simulate a policy over
+ * a large directory, and to apply the resulting plan.
+ * <p>
+ * The directory spreads its accounts over 300 departments, and one in
+ * eight holds messages in a {@link QuotaManager}. The policy sets the
+ * capacity of 100 departments and of two address patterns. Simulations
+ * are repeated to let the JIT warm up; the last one is reported.</p>
+ * <p>
+ * Usage: {@code CapacityPlannerBenchmark [accounts] [threads]}, default
+ * 10,000,000 accounts and {@code bench.threads} threads. 10M accounts need a
+ * heap of about 10 GB, e.g. {@code -Xmx10g}. Accounts are built from
+ * stored state, without hashing passwords.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class CapacityPlannerBenchmark {
+	private static final int DEPARTMENTS = 300;
+
+	public static void main(String[] args) {
+		final int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+		final int threads = args.length > 1 ? Integer.parseInt(args[1]) : Benchmark.THREADS;
+		final EmailDirectory directory = new EmailDirectory();
+		final QuotaManager quotas = new QuotaManager(directory);
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < accounts; i++) {
+			final Email email = Email.restore("user" + i, "staff", "dept" + (i % DEPARTMENTS), "", "", "hash",
+					100 + random.nextInt(400), 0);
+			directory.add(email);
+			if (i % 8 == 0) {
+				quotas.deliver(email, 1 + random.nextInt(email.getMailCapacity()));
+			}
+		}
+		Policy policy = new Policy()
+				.withPattern("user1?.staff@*", 1000)
+				.withPattern("*@dept7.company.com", 50);
+		for (int d = 0; d < 100; d++) {
+			policy = policy.withDepartment("dept" + d, 150 + d);
+		}
+		final CapacityPlanner planner = new CapacityPlanner(directory, quotas, threads,
+				CapacityPlanner.DEFAULT_BATCH_SIZE);
+		System.out.printf("%,d accounts, %d threads%n", accounts, threads);
+
+		Plan plan = null;
+		for (int i = 0; i < 5; i++) {
+			plan = planner.simulate(policy);
+		}
+		System.out.printf("simulate: %.2f s, %,.0f accounts/s%n", plan.getElapsedNanos() / 1e9,
+				accounts * 1e9 / plan.getElapsedNanos());
+		System.out.println(plan.getTotal());
+
+		final long start = System.nanoTime();
+		final boolean applied = planner.apply(plan);
+		final long nanos = System.nanoTime() - start;
+		System.out.printf("apply: %s, %,d changes in %.2f s, %,.0f changes/s%n", applied ? "applied" : "rolled back",
+				plan.getChangeCount(), nanos / 1e9, plan.getChangeCount() * 1e9 / nanos);
+	}
+}
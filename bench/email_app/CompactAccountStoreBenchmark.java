@@ -0,0 +1,77 @@
+package email_app;
+
+/**
+ * Compares the heap used by N {@link Email} objects with the same N
+ * accounts held in a {@link CompactAccountStore}.
+ * <p>
+ * Usage: {@code CompactAccountStoreBenchmark [accounts]}, default 10,000,000.
+ * 10M accounts need a heap of about 8 GB, e.g. {@code -Xmx8g}. Every
+ * account gets a password hashed with a single PBKDF2 iteration: the
+ * encoded hash has the same size as with the default cost, but building
+ * the accounts is much faster.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class CompactAccountStoreBenchmark {
+	private static final String[] FIRSTNAMES = {
+			"james", "mary", "john", "patricia", "robert", "jennifer", "michael", "linda",
+			"william", "elizabeth", "david", "barbara", "richard", "susan", "joseph", "jessica"};
+	private static final String[] LASTNAMES = {
+			"smith", "johnson", "williams", "brown", "jones", "garcia", "miller", "davis",
+			"rodriguez", "martinez", "hernandez", "lopez", "gonzalez", "wilson", "anderson", "thomas"};
+	private static final String[] DEPARTMENTS = {
+			"accounts", "engineering", "sales", "marketing", "legal", "support", "research", ""};
+
+	public static void main(String[] args) {
+		final int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+		Email.setPasswordHasher(new Pbkdf2PasswordHasher(1));
+
+		final long baseline = usedHeap();
+		final Email[] emails = new Email[accounts];
+		for (int i = 0; i < accounts; i++) {
+			emails[i] = newEmail(i);
+		}
+		final long emailBytes = usedHeap() - baseline;
+		report("Email objects", accounts, emailBytes);
+		for (int i = 0; i < accounts; i++) {
+			emails[i] = null;
+		}
+
+		final long storeBaseline = usedHeap();
+		final CompactAccountStore store = new CompactAccountStore();
+		for (int i = 0; i < accounts; i++) {
+			store.add(newEmail(i));
+		}
+		store.trimToSize();
+		final long storeBytes = usedHeap() - storeBaseline;
+		report("CompactAccountStore", store.size(), storeBytes);
+		System.out.printf("saving: %.1f%%%n", 100.0 * (emailBytes - storeBytes) / emailBytes);
+	}
+
+	/** Returns the i-th account, with realistic name and department repetition */
+	private static Email newEmail(final int i) {
+		final Email email = new Email(
+				FIRSTNAMES[i % FIRSTNAMES.length] + (i / 256),
+				LASTNAMES[(i / FIRSTNAMES.length) % LASTNAMES.length],
+				DEPARTMENTS[i % DEPARTMENTS.length]);
+		email.resetPassword("password" + i);
+		if (i % 10 == 0) {
+			email.createAlternateEmail("alt" + i, "mail");
+		}
+		return email;
+	}
+
+	private static long usedHeap() {
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static void report(final String name, final int accounts, final long bytes) {
+		System.out.printf("%-20s accounts: %,d, heap: %,d bytes, bytes/account: %.1f%n",
+				name, accounts, bytes, (double) bytes / accounts);
+	}
+}
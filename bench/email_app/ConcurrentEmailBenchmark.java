@@ -0,0 +1,88 @@
+package email_app;
+
+import java.io.IOException;
+
+/**
+ * Compares {@link ConcurrentEmail} with an {@link Email} guarded by a
+ * monitor when every thread uses the same account, the worst case for
+ * contention.
+ * <p>
+ * Each variant runs a read-only mix ({@code toString}), a read-mostly mix
+ * (one {@code setMailCapacity} or {@code createAlternateEmail} in eight
+ * operations) and a write-only mix, single-threaded and on
+ * {@code bench.threads} threads.</p>
+ * <p>
+ * Usage: {@code ConcurrentEmailBenchmark}, see {@link Benchmark} for settings.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class ConcurrentEmailBenchmark {
+
+	/** The operations measured, implemented by both variants */
+	private interface Account {
+		String read();
+		void write(int i);
+	}
+
+	/** The baseline: every operation holds the monitor of a plain Email */
+	private static final class SynchronizedEmail implements Account {
+		private final Email email = new Email("sterling", "archer", "field");
+
+		@Override public synchronized String read() {
+			return email.toString();
+		}
+		@Override public synchronized void write(final int i) {
+			if ((i & 16) == 0) {
+				email.setMailCapacity(250 + (i & 1));
+			} else {
+				email.createAlternateEmail((i & 1) == 0 ? "dean" : "mike", "archer");
+			}
+		}
+	}
+
+	private static final class LockFreeEmail implements Account {
+		private final ConcurrentEmail email = new ConcurrentEmail("sterling", "archer", "field");
+
+		@Override public String read() {
+			return email.toString();
+		}
+		@Override public void write(final int i) {
+			if ((i & 16) == 0) {
+				email.setMailCapacity(250 + (i & 1));
+			} else {
+				email.createAlternateEmail((i & 1) == 0 ? "dean" : "mike", "archer");
+			}
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException, IOException {
+		final Benchmark benchmark = new Benchmark();
+
+		for (int threads : new int[] {1, Benchmark.THREADS}) {
+			for (Account account : new Account[] {new SynchronizedEmail(), new LockFreeEmail()}) {
+				final String name = account.getClass().getSimpleName();
+				benchmark.run(name + ".read", threads, () -> account::read);
+				benchmark.run(name + ".readMostly", threads, () -> {
+					final int[] next = {0};
+					return () -> {
+						final int i = next[0]++;
+						if ((i & 7) == 0) {
+							account.write(i >> 3);
+							return null;
+						}
+						return account.read();
+					};
+				});
+				benchmark.run(name + ".write", threads, () -> {
+					final int[] next = {0};
+					return () -> {
+						account.write(next[0]++);
+						return null;
+					};
+				});
+			}
+		}
+		benchmark.writeJson();
+	}
+}
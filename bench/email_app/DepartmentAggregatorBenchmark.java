@@ -0,0 +1,40 @@
+package email_app;
+
+import java.io.IOException;
+
+/**
+ * Compares the incrementally maintained department totals of
+ * {@link EmailDirectory#getDepartmentStats(String)} with a full parallel
+ * scan by {@link DepartmentAggregator#aggregate(java.util.stream.Stream)},
+ * for growing directories. The incremental query is expected to take the
+ * same time at every size.
+ * <p>
+ * Usage: {@code DepartmentAggregatorBenchmark [maxAccounts]}, default
+ * 1,000,000; see {@link Benchmark} for settings.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class DepartmentAggregatorBenchmark {
+
+	public static void main(String[] args) throws InterruptedException, IOException {
+		final int maxAccounts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		final Benchmark benchmark = new Benchmark();
+
+		final EmailDirectory directory = new EmailDirectory();
+		int accounts = 0;
+		for (int size = 1_000; size <= maxAccounts; size *= 10) {
+			for (; accounts < size; accounts++) {
+				final Email email = new Email("user" + accounts, "staff", "dept" + (accounts % 32));
+				directory.add(email);
+				directory.setMailCapacity(email, 100 + accounts % 1000);
+			}
+			benchmark.run("getDepartmentStats(department) n=" + size, 1,
+					() -> () -> directory.getDepartmentStats("dept7"));
+			benchmark.run("getDepartmentStats() n=" + size, 1, () -> directory::getDepartmentStats);
+			benchmark.run("aggregate(parallel scan) n=" + size, 1,
+					() -> () -> DepartmentAggregator.aggregate(directory.stream().parallel()));
+		}
+		benchmark.writeJson();
+	}
+}
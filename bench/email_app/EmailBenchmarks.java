@@ -0,0 +1,79 @@
+package email_app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Benchmarks every hot path of {@link Email}, single-threaded and on
+ * {@code bench.threads} threads, reporting throughput and bytes allocated
+ * per operation. The address getters and writers are expected to report
+ * zero bytes per operation.
+ * <p>
+ * Usage: {@code EmailBenchmarks}, see {@link Benchmark} for settings. The
+ * PBKDF2 cost used by password operations can be set
+ * with {@code -Dbench.hashIterations}, and the metrics of {@link Email}
+ * turned off with {@code -Dbench.metrics=false} to measure their
+ * overhead.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class EmailBenchmarks {
+
+	public static void main(String[] args) throws InterruptedException, IOException {
+		Email.setPasswordHasher(new Pbkdf2PasswordHasher(
+				Integer.getInteger("bench.hashIterations", Pbkdf2PasswordHasher.DEFAULT_ITERATIONS)));
+		Email.getMetrics().setEnabled(Boolean.parseBoolean(System.getProperty("bench.metrics", "true")));
+		final Benchmark benchmark = new Benchmark();
+
+		for (int threads : new int[] {1, Benchmark.THREADS}) {
+			benchmark.run("Email.<init>", threads, () -> () -> new Email("sterling", "archer", "field"));
+			benchmark.run("Email.generateRandomPassword", threads, () -> Email::generateRandomPassword);
+			benchmark.run("Email.getEmailAddress", threads, () -> withAlternate()::getEmailAddress);
+			benchmark.run("Email.getAltEmailAddress", threads, () -> withAlternate()::getAltEmailAddress);
+			benchmark.run("Email.toString", threads, () -> withAlternate()::toString);
+			benchmark.run("Email.appendEmailAddress(StringBuilder)", threads, () -> {
+				final Email email = withAlternate();
+				final StringBuilder out = new StringBuilder(64);
+				return () -> {
+					out.setLength(0);
+					return email.appendEmailAddress(out);
+				};
+			});
+			benchmark.run("Email.writeEmailAddress(ByteBuffer)", threads, () -> {
+				final Email email = withAlternate();
+				final ByteBuffer out = ByteBuffer.allocateDirect(64);
+				return () -> {
+					out.clear();
+					email.writeEmailAddress(out);
+					return out;
+				};
+			});
+			benchmark.run("Email.createAlternateEmail", threads, () -> {
+				final Email email = withAlternate();
+				final String[] names = {"dean", "mike"};
+				final int[] next = {0};
+				return () -> email.createAlternateEmail(names[next[0]++ & 1], "archer");
+			});
+			benchmark.run("Email.resetPassword", threads, () -> {
+				final Email email = withAlternate();
+				final String[] passwords = {"12345678", "87654321"};
+				final int[] next = {0};
+				return () -> email.resetPassword(passwords[next[0]++ & 1]);
+			});
+			benchmark.run("Email.setMailCapacity", threads, () -> {
+				final Email email = withAlternate();
+				final int[] next = {0};
+				return () -> email.setMailCapacity(250 + (next[0]++ & 1));
+			});
+		}
+		benchmark.writeJson();
+	}
+
+	/** Returns a new email with an alternate address, confined to the calling thread */
+	private static Email withAlternate() {
+		final Email email = new Email("sterling", "archer", "field");
+		email.createAlternateEmail("duchess", "archer");
+		return email;
+	}
+}
@@ -0,0 +1,64 @@
+package email_app;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures cold start of a {@link MappedAccountStore}: the time to open a
+ * store of N accounts and serve its first random lookups.
+ * <p>
+ * Usage: {@code MappedAccountStoreBenchmark [accounts] [file]}, default
+ * 10,000,000 accounts (about 5 GB) in a temporary file that is deleted
+ * afterwards. An existing file is reopened instead of rebuilt.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class MappedAccountStoreBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		final int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+		final boolean temporary = args.length < 2;
+		final Path file = temporary ? Files.createTempFile("accounts", ".store") : Paths.get(args[1]);
+		try {
+			if (temporary) {
+				Files.delete(file);
+			}
+			if (!Files.exists(file)) {
+				build(file, accounts);
+			}
+
+			long start = System.nanoTime();
+			try (MappedAccountStore store = MappedAccountStore.open(file)) {
+				final double openMillis = (System.nanoTime() - start) / 1e6;
+				start = System.nanoTime();
+				final int lookups = 100_000;
+				long capacity = 0;
+				for (int i = 0; i < lookups; i++) {
+					capacity += store.get(ThreadLocalRandom.current().nextInt(store.size())).getMailCapacity();
+				}
+				final double lookupMicros = (System.nanoTime() - start) / 1e3 / lookups;
+				System.out.printf("accounts: %,d, open: %.2f ms, first %,d random gets: %.2f us/get (checksum %d)%n",
+						store.size(), openMillis, lookups, lookupMicros, capacity);
+			}
+		} finally {
+			if (temporary) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	private static void build(final Path file, final int accounts) throws IOException {
+		final String hash = new Pbkdf2PasswordHasher().hash("12345678");
+		final long start = System.nanoTime();
+		try (MappedAccountStore store = MappedAccountStore.open(file)) {
+			for (int i = 0; i < accounts; i++) {
+				store.append(Email.restore("first" + i, "last" + (i % 1000), "dept" + (i % 50), "", "", hash, 250, 0));
+			}
+		}
+		System.out.printf("built %,d accounts in %.1f s%n", accounts, (System.nanoTime() - start) / 1e9);
+	}
+}
@@ -0,0 +1,94 @@
+package email_app;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares {@link NameNormalizer} with {@code trim().toLowerCase(Locale.ROOT)} on
+ * realistic HR records: throughput and allocation per name, then the heap
+ * retained by the normalized names of 1M records.
+ * <p>
+ * Records draw from 200 firstnames, 1,000 lastnames and 300 departments,
+ * as exported: capitalized, some in uppercase, some padded with spaces.
+ * </p>
+ * <p>
+ * Usage: {@code NameNormalizerBenchmark [records]}, default 1,000,000; see
+ * {@link Benchmark} for settings.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class NameNormalizerBenchmark {
+	private static final int FIRSTNAMES = 200;
+	private static final int LASTNAMES = 1_000;
+	private static final int DEPARTMENTS = 300;
+
+	public static void main(String[] args) throws InterruptedException, IOException {
+		final int records = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		final String[] names = new String[records * 3];
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < records; i++) {
+			names[3 * i] = exported("first" + random.nextInt(FIRSTNAMES), random);
+			names[3 * i + 1] = exported("last" + random.nextInt(LASTNAMES), random);
+			names[3 * i + 2] = exported("department " + random.nextInt(DEPARTMENTS), random);
+		}
+		final NameNormalizer normalizer = new NameNormalizer();
+		final Benchmark benchmark = new Benchmark();
+
+		for (int threads : new int[] {1, Benchmark.THREADS}) {
+			benchmark.run("String.trim().toLowerCase(ROOT)", threads, () -> {
+				final int[] next = {ThreadLocalRandom.current().nextInt(names.length)};
+				return () -> names[next[0]++ % names.length].trim().toLowerCase(Locale.ROOT);
+			});
+			benchmark.run("NameNormalizer.normalize", threads, () -> {
+				final int[] next = {ThreadLocalRandom.current().nextInt(names.length)};
+				return () -> normalizer.normalize(names[next[0]++ % names.length]);
+			});
+		}
+		benchmark.writeJson();
+
+		final String[] kept = new String[names.length];
+		final long baseline = usedHeap();
+		for (int i = 0; i < names.length; i++) {
+			kept[i] = names[i].trim().toLowerCase(Locale.ROOT);
+		}
+		final long plain = usedHeap() - baseline;
+		for (int i = 0; i < names.length; i++) {
+			kept[i] = null;
+		}
+		// a fresh normalizer, so that its cached names are part of the measure
+		final NameNormalizer fresh = new NameNormalizer();
+		final long normalizedBaseline = usedHeap();
+		for (int i = 0; i < names.length; i++) {
+			kept[i] = fresh.normalize(names[i]);
+		}
+		final long interned = usedHeap() - normalizedBaseline;
+		System.out.printf("retained by %,d records: trim().toLowerCase(ROOT) %,d bytes, NameNormalizer %,d bytes"
+				+ " (%.1f%% saved)%n", records, plain, interned, 100.0 * (plain - interned) / plain);
+		System.out.println(fresh);
+	}
+
+	/** Returns name as an HR export might spell it */
+	private static String exported(final String name, final ThreadLocalRandom random) {
+		final String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+		switch (random.nextInt(10)) {
+		case 0:
+			return capitalized.toUpperCase(Locale.ROOT);
+		case 1:
+			return " " + capitalized + " ";
+		case 2:
+			return name;
+		default:
+			return capitalized;
+		}
+	}
+
+	private static long usedHeap() {
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,61 @@
+package email_app;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures quota checks per second of {@link QuotaManager} over a large
+ * directory, with delivery threads picking accounts at random.
+ * <p>
+ * Each operation delivers one message to a random account by address and,
+ * one time in two, releases a message of another random account, so
+ * mailboxes stay below capacity and deliveries keep succeeding. A second
+ * variant delivers to a handful of accounts to show contention on hot
+ * mailboxes.</p>
+ * <p>
+ * Usage: {@code QuotaManagerBenchmark [accounts]}, default 1,000,000; see
+ * {@link Benchmark} for settings.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class QuotaManagerBenchmark {
+
+	public static void main(String[] args) throws InterruptedException, IOException {
+		final int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		final EmailDirectory directory = new EmailDirectory();
+		final Email[] emails = new Email[accounts];
+		final String[] addresses = new String[accounts];
+		for (int i = 0; i < accounts; i++) {
+			emails[i] = new Email("user" + i, "staff", "dept" + (i % 32));
+			directory.add(emails[i]);
+			addresses[i] = emails[i].getEmailAddress();
+		}
+		final QuotaManager quotas = new QuotaManager(directory);
+		final Benchmark benchmark = new Benchmark();
+
+		for (int threads : new int[] {1, Benchmark.THREADS}) {
+			benchmark.run("QuotaManager.deliver(address) uniform", threads, () -> () -> {
+				final ThreadLocalRandom random = ThreadLocalRandom.current();
+				final boolean accepted = quotas.deliver(addresses[random.nextInt(accounts)], 1);
+				if (random.nextBoolean()) {
+					quotas.release(emails[random.nextInt(accounts)], 1);
+				}
+				return accepted;
+			});
+			benchmark.run("QuotaManager.deliver(email) hot", threads, () -> () -> {
+				final ThreadLocalRandom random = ThreadLocalRandom.current();
+				final Email email = emails[random.nextInt(8)];
+				final boolean accepted = quotas.deliver(email, 1);
+				quotas.release(email, 1);
+				return accepted;
+			});
+		}
+		final long start = System.nanoTime();
+		final int over = quotas.setDepartmentCapacity("dept0", 100);
+		System.out.printf("setDepartmentCapacity: %,d accounts in %.1f ms, %d over capacity%n",
+				directory.findByDepartment("dept0").size(), (System.nanoTime() - start) / 1e6, over);
+		System.out.printf("delivered: %,d, rejected: %,d%n", quotas.getDeliveredCount(), quotas.getRejectedCount());
+		benchmark.writeJson();
+	}
+}
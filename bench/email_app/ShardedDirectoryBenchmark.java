@@ -0,0 +1,68 @@
+package email_app;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures the aggregate throughput of a {@link ShardedDirectory} with 1,
+ * 2, 4 and 8 shards, and the cost of growing it one shard at a time.
+ * <p>
+ * Nine operations in ten look up a random account by address, the others
+ * set its capacity; every thread picks accounts at random. Growing
+ * reports how many accounts {@link ShardedDirectory#addShard()} moved and
+ * how evenly the accounts are spread afterwards.</p>
+ * <p>
+ * Usage: {@code ShardedDirectoryBenchmark [accounts]}, default 1,000,000;
+ * see {@link Benchmark} for settings. Accounts are built from stored
+ * state, without hashing passwords.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class ShardedDirectoryBenchmark {
+
+	public static void main(String[] args) throws InterruptedException, IOException {
+		final int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		final Email[] emails = new Email[accounts];
+		final String[] addresses = new String[accounts];
+		for (int i = 0; i < accounts; i++) {
+			emails[i] = Email.restore("user" + i, "staff", "dept" + (i % 100), "", "", "hash", 100, 0);
+			addresses[i] = emails[i].getEmailAddress();
+		}
+		final Benchmark benchmark = new Benchmark();
+
+		for (int shards : new int[] {1, 2, 4, 8}) {
+			final ShardedDirectory directory = new ShardedDirectory(shards);
+			for (Email email : emails) {
+				directory.add(email);
+			}
+			benchmark.run("ShardedDirectory(" + shards + ") lookup/setMailCapacity", Benchmark.THREADS, () -> () -> {
+				final ThreadLocalRandom random = ThreadLocalRandom.current();
+				final int i = random.nextInt(accounts);
+				if (random.nextInt(10) == 0) {
+					return directory.setMailCapacity(emails[i], 100 + random.nextInt(400));
+				}
+				return directory.lookup(addresses[i]);
+			});
+		}
+		benchmark.writeJson();
+
+		final ShardedDirectory growing = new ShardedDirectory(1);
+		for (Email email : emails) {
+			growing.add(email);
+		}
+		for (int shards = 2; shards <= 8; shards++) {
+			final long start = System.nanoTime();
+			final int moved = growing.addShard();
+			final long nanos = System.nanoTime() - start;
+			int min = Integer.MAX_VALUE;
+			int max = 0;
+			for (int size : growing.getShardSizes()) {
+				min = Math.min(min, size);
+				max = Math.max(max, size);
+			}
+			System.out.printf("grow to %d shards: moved %,d accounts (%.1f%%) in %.0f ms,"
+					+ " shard sizes %,d..%,d%n", shards, moved, 100.0 * moved / accounts, nanos / 1e6, min, max);
+		}
+	}
+}
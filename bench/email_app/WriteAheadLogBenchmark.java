@@ -0,0 +1,44 @@
+package email_app;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Measures durable mutations per second through a {@link WriteAheadLog}
+ * for increasing group commit batch sizes and flush intervals of 0 and 1
+ * ms, with {@code bench.threads}
+ * (at least 64) threads each logging {@code setMailCapacity} and waiting
+ * for it to become durable.
+ * <p>
+ * Usage: {@code WriteAheadLogBenchmark [directory]}, default: the
+ * temporary directory. See {@link Benchmark} for settings.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class WriteAheadLogBenchmark {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		final Path directory = args.length > 0 ? Paths.get(args[0])
+				: Paths.get(System.getProperty("java.io.tmpdir"));
+		final int threads = Math.max(64, Benchmark.THREADS);
+		final Benchmark benchmark = new Benchmark();
+		final Email email = Email.restore("sterling", "archer", "field", "", "",
+				new Pbkdf2PasswordHasher().hash("12345678"), 250, 0);
+
+		for (long flushIntervalMillis : new long[] {0, 1}) {
+			for (int batchSize : new int[] {1, 8, 64, 512, 4096}) {
+				final Path file = Files.createTempFile(directory, "bench", ".wal");
+				try (WriteAheadLog log = new WriteAheadLog(file, batchSize, flushIntervalMillis)) {
+					benchmark.run("WriteAheadLog batch=" + batchSize + " interval=" + flushIntervalMillis + "ms",
+							threads, () -> () -> log.logSetMailCapacity(email).join());
+				} finally {
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+		benchmark.writeJson();
+	}
+}
@@ -0,0 +1,471 @@
+package email_app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * The {@code AccountEventStream} class tells in-process subscribers, such
+ * as mail routers or directory replicas, about changes made to the
+ * accounts of an {@link EmailDirectory}.
+ * <p>
+ * Events are published into a ring buffer of fixed capacity. Publishing
+ * is lock-free: a publisher claims the next sequence number with one
+ * atomic increment, stores its event in the slot of that sequence and
+ * marks the slot as published, without waking anyone. Every subscriber
+ * runs on a thread of its own, which follows the ring at its own pace and
+ * hands over all events available at once, up to a maximum batch size,
+ * in publication order.</p>
+ * <p>
+ * A slot is only reused once every subscriber has received its event, so
+ * no subscriber ever misses one. A publisher that would overwrite an
+ * event not yet received waits for the slowest subscriber: this is the
+ * backpressure that keeps a slow consumer from falling behind without
+ * bound. How far behind each subscriber is can be read with
+ * {@link Subscription#getLag()}. Subscribers must not wait for changes to
+ * the directory they follow, which may be waiting for them.</p>
+ * <p>
+ * Publishers hold the lock of the account they publish, so they never wait
+ * longer than {@code maxPublishWaitMillis}: a subscriber holding one back
+ * longer than that is <em>dropped</em>. It is cancelled and receives no
+ * further events, which {@link Subscription#isCancelled()} tells it. A
+ * subscriber throwing an {@code Error} is cancelled too, since its thread
+ * dies.</p>
+ * <p>
+ * Publishing with no subscribers costs a single volatile read.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class AccountEventStream implements AutoCloseable {
+	/** Default number of events the ring holds */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	/** Default longest time a publisher waits for the slowest subscriber before dropping it */
+	public static final long DEFAULT_MAX_PUBLISH_WAIT_MILLIS = 1000;
+	private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	private static final int IDLE_SPINS = 100;
+
+	private final Event[] ring;
+	private final AtomicLongArray published;
+	private final int mask;
+	private final AtomicLong next = new AtomicLong();
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+	private final long maxPublishWaitNanos;
+	private final LongAdder waits = new LongAdder();
+	private final LongAdder drops = new LongAdder();
+	private volatile long gatingCache = Long.MIN_VALUE;
+	private volatile boolean closed = false;
+
+	// Abstraction Function
+	//  Represents the sequence of events numbered 0 to next - 1, of which
+	//  event s, once published[s & mask] == s, is ring[s & mask], and each
+	//  subscription in subscriptions, which has received the events up to
+	//  its cursor.
+	//
+	// Representation Invariant
+	//  - ring.length == published.length() is a power of two, mask == ring.length - 1
+	//  - for every subscription: cursor < next and next - 1 - cursor <= ring.length
+	//  - maxPublishWaitNanos >= 0
+	//  - gatingCache <= every cursor
+	//
+	// Safety from Exposure
+	//  - All fields are private and final or volatile primitives
+	//  - events are immutable; lists handed to subscribers are unmodifiable
+	//
+	// Thread Safety Argument
+	//  - a sequence is claimed by exactly one publisher, with getAndIncrement
+	//  - the slot of sequence s is only written once every cursor is
+	//    >= s - ring.length, so no subscriber still needs its previous event
+	//  - a publisher writes ring[i] before publishing s into published[i],
+	//    a subscriber reads published[i] before ring[i], so the event is
+	//    safely published through the AtomicLongArray
+	//  - cursors only grow and new subscriptions start at next - 1, which
+	//    minCursor() never exceeds, so a stale gatingCache is conservative
+	//  - a dropped subscription is cancelled before it leaves subscriptions,
+	//    after which its slots may be overwritten; the subscriber checks the
+	//    sequence of every event it reads, so it never delivers one of them
+	//  - subscriptions is a CopyOnWriteArrayList
+
+	/** Creates a stream holding up to {@value #DEFAULT_CAPACITY} events not yet received */
+	public AccountEventStream() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a stream whose publishers wait at most
+	 * {@value #DEFAULT_MAX_PUBLISH_WAIT_MILLIS} ms for a slow subscriber
+	 *
+	 * @param capacity number of events the ring holds, rounded up to a
+	 *        power of two, requires capacity > 0
+	 */
+	public AccountEventStream(final int capacity) {
+		this(capacity, DEFAULT_MAX_PUBLISH_WAIT_MILLIS);
+	}
+
+	/**
+	 * Creates a stream
+	 *
+	 * @param capacity number of events the ring holds, rounded up to a
+	 *        power of two, requires capacity > 0
+	 * @param maxPublishWaitMillis longest time a publisher waits for a full
+	 *        ring to make room before dropping the subscribers holding it
+	 *        back, requires maxPublishWaitMillis >= 0
+	 */
+	public AccountEventStream(final int capacity, final long maxPublishWaitMillis) {
+		if (capacity <= 0 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("capacity must be in 1..2^30: " + capacity);
+		}
+		if (maxPublishWaitMillis < 0) {
+			throw new IllegalArgumentException("maxPublishWaitMillis must be >= 0: " + maxPublishWaitMillis);
+		}
+		this.maxPublishWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxPublishWaitMillis);
+		final int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		this.ring = new Event[size];
+		this.published = new AtomicLongArray(size);
+		this.mask = size - 1;
+		for (int i = 0; i < size; i++) {
+			published.set(i, -1);
+		}
+
+		checkRep();
+	}
+
+	private void checkRep() {
+		assert Integer.bitCount(ring.length) == 1 && mask == ring.length - 1;
+		assert maxPublishWaitNanos >= 0;
+	}
+
+	/** Returns the number of events the ring holds */
+	public int getCapacity() {
+		return ring.length;
+	}
+
+	/**
+	 * Starts delivering events published from now on to subscriber, on a
+	 * thread of its own
+	 *
+	 * @param name non-empty name of the subscriber, used to name its thread
+	 * @param maxBatch maximum number of events per call of subscriber, requires maxBatch > 0
+	 * @param subscriber receives every event, in publication order, in
+	 *        unmodifiable lists of 1 to maxBatch events that are only
+	 *        valid during the call; exceptions it throws are counted and
+	 *        the events dropped, while an Error cancels the subscription
+	 * @return the subscription, to follow its lag or cancel it
+	 */
+	public Subscription subscribe(final String name, final int maxBatch, final Consumer<List<Event>> subscriber) {
+		if (maxBatch <= 0) {
+			throw new IllegalArgumentException("maxBatch must be > 0: " + maxBatch);
+		}
+		if (closed) {
+			throw new IllegalStateException("stream is closed");
+		}
+		// events claimed before this point are not delivered, even if their
+		// publishers have not finished writing them yet
+		final Subscription subscription = new Subscription(name, maxBatch, subscriber, next.get() - 1);
+		subscriptions.add(subscription);
+		subscription.thread.start();
+		return subscription;
+	}
+
+	/**
+	 * Publishes a change of email, waiting while the ring is full
+	 *
+	 * @param type kind of change
+	 * @param email changed account, read by the calling thread, which must
+	 *        hold its lock or otherwise keep it from changing concurrently
+	 */
+	void publish(final Event.Type type, final Email email) {
+		if (subscriptions.isEmpty() || closed) {
+			return;
+		}
+		final long sequence = next.getAndIncrement();
+		final long wrap = sequence - ring.length;
+		if (wrap > gatingCache) {
+			awaitRoom(wrap);
+		}
+		final int slot = (int) sequence & mask;
+		ring[slot] = new Event(sequence, type, email.getEmailAddress(), email.getAltEmailAddress(),
+				email.getMailCapacity());
+		published.lazySet(slot, sequence);
+	}
+
+	/**
+	 * Waits until every subscriber has received the event of sequence wrap,
+	 * dropping those that have not after maxPublishWaitNanos
+	 */
+	private void awaitRoom(final long wrap) {
+		long gating;
+		boolean waited = false;
+		long deadline = 0;
+		while (wrap > (gating = minCursor()) && !closed) {
+			if (!waited) {
+				waits.increment();
+				waited = true;
+				deadline = System.nanoTime() + maxPublishWaitNanos;
+			} else if (System.nanoTime() - deadline >= 0) {
+				for (Subscription subscription : subscriptions) {
+					if (subscription.cursor.get() < wrap) {
+						subscription.drop();
+					}
+				}
+				continue;
+			}
+			LockSupport.parkNanos(1000);
+		}
+		gatingCache = gating;
+	}
+
+	private long minCursor() {
+		long min = next.get() - 1;
+		for (Subscription subscription : subscriptions) {
+			min = Math.min(min, subscription.cursor.get());
+		}
+		return min;
+	}
+
+	/** Returns the number of events published so far */
+	public long getPublishedCount() {
+		return next.get();
+	}
+
+	/** Returns the number of publications that had to wait for a slow subscriber */
+	public long getBackpressureCount() {
+		return waits.sum();
+	}
+
+	/** Returns the number of subscribers dropped for holding a publisher back too long */
+	public long getDroppedCount() {
+		return drops.sum();
+	}
+
+	/** Returns the current subscriptions */
+	public List<Subscription> getSubscriptions() {
+		return Collections.unmodifiableList(subscriptions);
+	}
+
+	/**
+	 * Stops publishing, lets every subscriber receive the events already
+	 * published and stops their threads
+	 */
+	@Override public void close() {
+		closed = true;
+		for (Subscription subscription : subscriptions) {
+			subscription.stopping = true;
+		}
+		try {
+			for (Subscription subscription : subscriptions) {
+				subscription.thread.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override public String toString() {
+		return "capacity: " + ring.length + ","
+				+ "published: " + getPublishedCount() + ","
+				+ "subscribers: " + subscriptions.size() + ","
+				+ "backpressure: " + getBackpressureCount() + ","
+				+ "dropped: " + getDroppedCount();
+	}
+
+	/** An immutable change of an account, as it was right after the change */
+	public static final class Event {
+		/** The kinds of changes */
+		public enum Type { ADDED, REMOVED, ALTERNATE_CREATED, PASSWORD_RESET, CAPACITY_CHANGED }
+
+		private final long sequence;
+		private final Type type;
+		private final String emailAddress;
+		private final String altEmailAddress;
+		private final int mailCapacity;
+
+		Event(final long sequence, final Type type, final String emailAddress, final String altEmailAddress,
+				final int mailCapacity) {
+			this.sequence = sequence;
+			this.type = type;
+			this.emailAddress = emailAddress;
+			this.altEmailAddress = altEmailAddress;
+			this.mailCapacity = mailCapacity;
+		}
+
+		/** Returns the position of this event in the stream, from 0 */
+		public long getSequence() {
+			return sequence;
+		}
+		/** Returns the kind of change */
+		public Type getType() {
+			return type;
+		}
+		/** Returns the primary address of the changed account */
+		public String getEmailAddress() {
+			return emailAddress;
+		}
+		/** Returns the alternate address of the changed account, "" if none */
+		public String getAltEmailAddress() {
+			return altEmailAddress;
+		}
+		/** Returns the mail capacity of the changed account */
+		public int getMailCapacity() {
+			return mailCapacity;
+		}
+
+		@Override public String toString() {
+			return "sequence: " + sequence + ","
+					+ "type: " + type + ","
+					+ "email: " + emailAddress + ","
+					+ "alternate: " + altEmailAddress + ","
+					+ "mailCapacity: " + mailCapacity;
+		}
+	}
+
+	/** A subscriber of the stream and the thread delivering events to it */
+	public final class Subscription {
+		private final String name;
+		private final int maxBatch;
+		private final Consumer<List<Event>> subscriber;
+		private final AtomicLong cursor;
+		private final Thread thread;
+		private final LongAdder delivered = new LongAdder();
+		private final LongAdder batches = new LongAdder();
+		private final LongAdder failures = new LongAdder();
+		private volatile long maxLag = 0;
+		private volatile boolean stopping = false;
+		private volatile boolean cancelled = false;
+
+		// Representation Invariant
+		//  - cursor is the sequence of the last event handed to subscriber
+		//  - only thread advances cursor
+
+		Subscription(final String name, final int maxBatch, final Consumer<List<Event>> subscriber,
+				final long cursor) {
+			this.name = name;
+			this.maxBatch = maxBatch;
+			this.subscriber = subscriber;
+			this.cursor = new AtomicLong(cursor);
+			this.thread = new Thread(this::run, "account-events-" + name);
+			thread.setDaemon(true);
+		}
+
+		private void run() {
+			boolean stopped = false;
+			try {
+				deliver();
+				stopped = true;
+			} finally {
+				if (!stopped) {
+					// the subscriber threw an Error, which ends this thread:
+					// publishers must not wait for it
+					failures.increment();
+					cancel();
+				}
+			}
+		}
+
+		private void deliver() {
+			final List<Event> batch = new ArrayList<>(Math.min(maxBatch, ring.length));
+			int idle = 0;
+			while (!cancelled) {
+				long sequence = cursor.get() + 1;
+				while (batch.size() < maxBatch && published.get((int) sequence & mask) == sequence) {
+					final Event event = ring[(int) sequence & mask];
+					if (event.sequence != sequence) {
+						// overwritten since this subscription was dropped
+						break;
+					}
+					batch.add(event);
+					sequence++;
+				}
+				if (batch.isEmpty()) {
+					if (stopping && cursor.get() + 1 >= next.get()) {
+						return;
+					}
+					if (++idle < IDLE_SPINS) {
+						Thread.yield();
+					} else {
+						LockSupport.parkNanos(IDLE_PARK_NANOS);
+					}
+					continue;
+				}
+				idle = 0;
+				final long lag = next.get() - 1 - cursor.get();
+				if (lag > maxLag) {
+					maxLag = lag;
+				}
+				try {
+					subscriber.accept(Collections.unmodifiableList(batch));
+				} catch (RuntimeException e) {
+					failures.increment();
+				}
+				delivered.add(batch.size());
+				batches.increment();
+				batch.clear();
+				// the slots may be reused as soon as the cursor moves
+				cursor.set(sequence - 1);
+			}
+		}
+
+		/** Stops delivery to this subscriber after the current batch; publishers stop waiting for it */
+		public void cancel() {
+			cancelled = true;
+			subscriptions.remove(this);
+		}
+
+		/** Cancels this subscription on behalf of a publisher it held back too long */
+		private void drop() {
+			cancelled = true;
+			if (subscriptions.remove(this)) {
+				drops.increment();
+			}
+		}
+
+		/** Returns true if and only if this subscription was cancelled or dropped, or its subscriber threw an Error */
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		/** Returns the name of this subscriber */
+		public String getName() {
+			return name;
+		}
+		/** Returns the number of events published but not yet delivered to this subscriber */
+		public long getLag() {
+			return Math.max(0, next.get() - 1 - cursor.get());
+		}
+		/** Returns the sequence of the last event delivered to this subscriber */
+		long getCursor() {
+			return cursor.get();
+		}
+		/** Returns the largest lag seen by this subscriber when it received a batch */
+		public long getMaxLag() {
+			return maxLag;
+		}
+		/** Returns the number of events delivered to this subscriber */
+		public long getDeliveredCount() {
+			return delivered.sum();
+		}
+		/** Returns the number of batches delivered to this subscriber */
+		public long getBatchCount() {
+			return batches.sum();
+		}
+		/** Returns the number of batches whose delivery threw an exception */
+		public long getFailureCount() {
+			return failures.sum();
+		}
+
+		@Override public String toString() {
+			return "name: " + name + ","
+					+ "lag: " + getLag() + ","
+					+ "maxLag: " + getMaxLag() + ","
+					+ "delivered: " + getDeliveredCount() + ","
+					+ "batches: " + getBatchCount();
+		}
+	}
+}
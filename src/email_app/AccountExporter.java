@@ -0,0 +1,237 @@
+package email_app;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The {@code AccountExporter} class writes a report of {@link Email}
+ * accounts as CSV or JSON Lines, streaming rows straight into a fixed-size
+ * output buffer.
+ * <p>
+ * Each row holds the fields printed by {@link Email#toString()}:
+ * <blockquote><pre>
+ * CSV:   email,alternate,department,mailCapacity
+ * JSONL: {"email": ..., "alternate": ..., "department": ..., "mailCapacity": ...}
+ * </pre></blockquote>
+ * The CSV output starts with the header row above. Values are quoted and
+ * escaped as each format requires. Writing a row allocates nothing: the
+ * cached address Strings of {@code Email} are encoded as UTF-8 directly
+ * into the buffer, which is written to the channel whenever it fills.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class AccountExporter implements Closeable {
+	/** Output formats */
+	public enum Format { CSV, JSONL }
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	/** Upper bound of a row's size besides its String values */
+	private static final int ROW_OVERHEAD = 96;
+
+	private final WritableByteChannel out;
+	private final Format format;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final long start = System.nanoTime();
+	private long rows = 0;
+
+	// Abstraction Function
+	//  Represents a report in format made of the bytes already written to
+	//  out followed by the bytes in buffer[0, position).
+	//
+	// Representation Invariant
+	//  - rows >= 0
+	//
+	// Safety from Exposure
+	//  - All fields are private and final, except the row count
+
+	/**
+	 * Creates or truncates file and starts a report in it
+	 *
+	 * @param file path of the report
+	 * @param format non-null output format
+	 * @throws IOException if file cannot be opened
+	 */
+	public static AccountExporter open(final Path file, final Format format) throws IOException {
+		return new AccountExporter(FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), format);
+	}
+
+	/**
+	 * Starts a report in out; closing the exporter closes out
+	 *
+	 * @param out non-null channel
+	 * @param format non-null output format
+	 */
+	public AccountExporter(final WritableByteChannel out, final Format format) {
+		this.out = out;
+		this.format = format;
+		if (format == Format.CSV) {
+			putAscii("email,alternate,department,mailCapacity\n");
+		}
+	}
+
+	/**
+	 * Appends a row for email to the report
+	 *
+	 * @param email non-null account
+	 * @throws IOException if the report cannot be written
+	 */
+	public void write(final Email email) throws IOException {
+		final String address = email.getEmailAddress();
+		final String alternate = email.getAltEmailAddress();
+		final String department = email.getDepartment();
+		// every char takes at most 3 UTF-8 bytes, and escaping at most doubles them
+		final int bound = 6 * (address.length() + alternate.length() + department.length()) + ROW_OVERHEAD;
+		if (buffer.remaining() < bound) {
+			flush();
+		}
+		if (bound > buffer.capacity()) {
+			throw new IOException("row too long: " + address);
+		}
+
+		if (format == Format.CSV) {
+			putCsv(address);
+			buffer.put((byte) ',');
+			putCsv(alternate);
+			buffer.put((byte) ',');
+			putCsv(department);
+			buffer.put((byte) ',');
+			putInt(email.getMailCapacity());
+		} else {
+			putAscii("{\"email\": ");
+			putJson(address);
+			putAscii(", \"alternate\": ");
+			putJson(alternate);
+			putAscii(", \"department\": ");
+			putJson(department);
+			putAscii(", \"mailCapacity\": ");
+			putInt(email.getMailCapacity());
+			buffer.put((byte) '}');
+		}
+		buffer.put((byte) '\n');
+		rows++;
+	}
+
+	/** Returns the number of rows written, excluding any header */
+	public long getRowCount() {
+		return rows;
+	}
+
+	/** Returns the number of rows written per second since this exporter was created */
+	public double getRowsPerSecond() {
+		final long elapsed = System.nanoTime() - start;
+		return elapsed == 0 ? 0 : rows * 1e9 / elapsed;
+	}
+
+	/** Writes buffered rows to the channel */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/** Flushes buffered rows and closes the channel */
+	@Override public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	private void putCsv(final String value) {
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++) {
+			final char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			putUtf8(value, false);
+			return;
+		}
+		buffer.put((byte) '"');
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) == '"') {
+				buffer.put((byte) '"');
+			}
+			i += putCodePoint(value, i) - 1;
+		}
+		buffer.put((byte) '"');
+	}
+
+	private void putJson(final String value) {
+		buffer.put((byte) '"');
+		putUtf8(value, true);
+		buffer.put((byte) '"');
+	}
+
+	/** Puts value as UTF-8, escaping JSON special characters if json */
+	private void putUtf8(final String value, final boolean json) {
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (json && (c == '"' || c == '\\')) {
+				buffer.put((byte) '\\').put((byte) c);
+			} else if (json && c < 0x20) {
+				putAscii(String.format("\\u%04x", (int) c));
+			} else {
+				i += putCodePoint(value, i) - 1;
+			}
+		}
+	}
+
+	/**
+	 * Puts the UTF-8 encoding of the code point at value[i], or '?' for an
+	 * unpaired surrogate
+	 *
+	 * @return the number of chars consumed: 2 for a surrogate pair, 1 otherwise
+	 */
+	private int putCodePoint(final String value, final int i) {
+		final char c = value.charAt(i);
+		if (c < 0x80) {
+			buffer.put((byte) c);
+		} else if (c < 0x800) {
+			buffer.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+		} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+				&& Character.isLowSurrogate(value.charAt(i + 1))) {
+			final int cp = Character.toCodePoint(c, value.charAt(i + 1));
+			buffer.put((byte) (0xF0 | cp >> 18)).put((byte) (0x80 | cp >> 12 & 0x3F))
+					.put((byte) (0x80 | cp >> 6 & 0x3F)).put((byte) (0x80 | cp & 0x3F));
+			return 2;
+		} else if (Character.isSurrogate(c)) {
+			buffer.put((byte) '?');
+		} else {
+			buffer.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+		}
+		return 1;
+	}
+
+	private void putAscii(final String value) {
+		for (int i = 0; i < value.length(); i++) {
+			buffer.put((byte) value.charAt(i));
+		}
+	}
+
+	private void putInt(final int value) {
+		if (value < 0) {
+			buffer.put((byte) '-');
+			putDigits(-(long) value);
+		} else {
+			putDigits(value);
+		}
+	}
+
+	private void putDigits(final long value) {
+		if (value >= 10) {
+			putDigits(value / 10);
+		}
+		buffer.put((byte) ('0' + value % 10));
+	}
+}
@@ -0,0 +1,273 @@
+package email_app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import email_app.BulkProvisioner.Outcome;
+import email_app.BulkProvisioner.Request;
+
+/**
+ * The {@code AccountImporter} class creates {@link Email} accounts from a
+ * CSV export of employees, streaming the input in constant memory.
+ * <p>
+ * Every row holds {@code firstname,lastname,department}; the department
+ * may be empty. An optional header row starting with {@code firstname} is
+ * skipped. Fields may be quoted with {@code "}, in which case they may
+ * contain commas, line breaks and doubled quotes ({@code ""}).</p>
+ * <p>
+ * The input is read through a fixed-size buffer and decoded as UTF-8.
+ * Rows are collected into chunks of {@code chunkSize}, each chunk is
+ * created in parallel by a {@link BulkProvisioner}, and the accounts are
+ * handed to a sink in input order before the next chunk is read, so heap
+ * usage is bounded by the chunk size whatever the size of the input.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class AccountImporter {
+	/** Default number of rows provisioned together */
+	public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+	private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+	private final BulkProvisioner provisioner;
+	private final int chunkSize;
+	private final int bufferSize;
+
+	// Abstraction Function
+	//  Represents an importer creating accounts with provisioner, chunkSize
+	//  rows at a time, reading bufferSize bytes at a time.
+	//
+	// Representation Invariant
+	//  - provisioner != null
+	//  - chunkSize > 0, bufferSize > 0
+	//
+	// Safety from Exposure
+	//  - All fields are private and final; provisioner is immutable
+
+	/** Creates an importer using a default {@link BulkProvisioner} and chunk size */
+	public AccountImporter() {
+		this(new BulkProvisioner(), DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates an importer
+	 *
+	 * @param provisioner non-null provisioner creating the accounts of each chunk
+	 * @param chunkSize rows provisioned together, requires chunkSize > 0
+	 */
+	public AccountImporter(final BulkProvisioner provisioner, final int chunkSize) {
+		this(provisioner, chunkSize, DEFAULT_BUFFER_SIZE);
+	}
+
+	AccountImporter(final BulkProvisioner provisioner, final int chunkSize, final int bufferSize) {
+		if (chunkSize <= 0 || bufferSize <= 0) {
+			throw new IllegalArgumentException("chunkSize and bufferSize must be > 0");
+		}
+		this.provisioner = provisioner;
+		this.chunkSize = chunkSize;
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Imports the accounts in a CSV file
+	 *
+	 * @param file path of a UTF-8 CSV file
+	 * @param sink receives every created account, in input order
+	 * @return a summary of the import
+	 * @throws IOException if file cannot be read
+	 */
+	public Summary importCsv(final Path file, final Consumer<Email> sink) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return importCsv(channel, sink);
+		}
+	}
+
+	/**
+	 * Imports the accounts in a CSV stream; in is read to its end but not closed
+	 *
+	 * @param in channel of UTF-8 CSV
+	 * @param sink receives every created account, in input order
+	 * @return a summary of the import
+	 * @throws IOException if in cannot be read
+	 */
+	public Summary importCsv(final ReadableByteChannel in, final Consumer<Email> sink) throws IOException {
+		final long start = System.nanoTime();
+		final CsvParser parser = new CsvParser(sink);
+		final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		final ByteBuffer bytes = ByteBuffer.allocateDirect(bufferSize);
+		final CharBuffer chars = CharBuffer.allocate(bufferSize);
+
+		boolean eof = false;
+		while (!eof) {
+			eof = in.read(bytes) < 0;
+			bytes.flip();
+			CoderResult result;
+			do {
+				result = decoder.decode(bytes, chars, eof);
+				if (eof && result.isUnderflow()) {
+					decoder.flush(chars);
+				}
+				chars.flip();
+				parser.parse(chars);
+				chars.clear();
+			} while (result.isOverflow());
+			bytes.compact();
+		}
+		parser.finish();
+
+		return new Summary(parser.rows, parser.imported, System.nanoTime() - start);
+	}
+
+	/** Splits characters into rows and rows into provisioned chunks */
+	private final class CsvParser {
+		private final Consumer<Email> sink;
+		private final List<Request> chunk = new ArrayList<>(chunkSize);
+		private final List<String> fields = new ArrayList<>(3);
+		private final StringBuilder field = new StringBuilder();
+		private boolean quoted = false;
+		private boolean quoteSeen = false;
+		private boolean rowStarted = false;
+		private long rows = 0;
+		private long imported = 0;
+
+		CsvParser(final Consumer<Email> sink) {
+			this.sink = sink;
+		}
+
+		void parse(final CharBuffer chars) {
+			while (chars.hasRemaining()) {
+				final char c = chars.get();
+				if (quoted) {
+					if (c == '"') {
+						quoted = false;
+						quoteSeen = true;
+					} else {
+						field.append(c);
+					}
+					continue;
+				}
+				switch (c) {
+				case '"':
+					// a quote right after a closing quote is an escaped quote
+					if (quoteSeen) {
+						field.append('"');
+					}
+					quoted = true;
+					quoteSeen = false;
+					rowStarted = true;
+					break;
+				case ',':
+					endField();
+					rowStarted = true;
+					break;
+				case '\r':
+					break;
+				case '\n':
+					endRow();
+					break;
+				default:
+					field.append(c);
+					quoteSeen = false;
+					rowStarted = true;
+				}
+			}
+		}
+
+		void finish() {
+			endRow();
+			provisionChunk();
+		}
+
+		private void endField() {
+			fields.add(field.toString());
+			field.setLength(0);
+			quoteSeen = false;
+		}
+
+		private void endRow() {
+			if (!rowStarted) {
+				return;
+			}
+			endField();
+			final boolean header = rows == 0 && fields.get(0).trim().equalsIgnoreCase("firstname");
+			if (!header) {
+				rows++;
+				chunk.add(fields.size() == 3 ? new Request(fields.get(0), fields.get(1), fields.get(2)) : null);
+				if (chunk.size() == chunkSize) {
+					provisionChunk();
+				}
+			}
+			fields.clear();
+			rowStarted = false;
+		}
+
+		private void provisionChunk() {
+			if (chunk.isEmpty()) {
+				return;
+			}
+			for (Outcome outcome : provisioner.provision(chunk).getOutcomes()) {
+				if (outcome.isSuccess()) {
+					imported++;
+					sink.accept(outcome.getEmail());
+				}
+			}
+			chunk.clear();
+		}
+	}
+
+	/** The immutable summary of one import */
+	public static final class Summary {
+		private final long rows;
+		private final long imported;
+		private final long elapsedNanos;
+
+		Summary(final long rows, final long imported, final long elapsedNanos) {
+			this.rows = rows;
+			this.imported = imported;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		/** Returns the number of data rows read, excluding any header */
+		public long getRowCount() {
+			return rows;
+		}
+		/** Returns the number of accounts created */
+		public long getImportedCount() {
+			return imported;
+		}
+		/** Returns the number of rows that were malformed or could not be provisioned */
+		public long getRejectedCount() {
+			return rows - imported;
+		}
+		/** Returns the wall-clock time of the import, in nanoseconds */
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+		/** Returns the number of rows processed per second */
+		public double getRowsPerSecond() {
+			return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+		}
+
+		@Override public String toString() {
+			return "rows: " + rows + ","
+					+ "imported: " + imported + ","
+					+ "rejected: " + getRejectedCount() + ","
+					+ "rowsPerSecond: " + String.format("%.1f", getRowsPerSecond());
+		}
+	}
+}
@@ -0,0 +1,706 @@
+package email_app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The {@code AccountSnapshotter} class takes point-in-time backups of every
+ * account of an {@link EmailDirectory} without pausing its writers.
+ * <p>
+ * {@link #snapshot()} writes every registered account, with all of its
+ * fields including the password hash and the alternate name, and
+ * {@link #snapshotChanges()} only writes the accounts changed or removed
+ * since the previous snapshot of either kind. Each account is copied while
+ * holding its lock, so it is always saved in a state it really had; a
+ * change made while a snapshot runs is saved again by the next one.</p>
+ * <p>
+ * A snapshot is split into GZIP compressed chunks, written in parallel by
+ * up to {@code threads} workers, followed by a manifest listing the chunks
+ * and the number of records in each. The manifest is written last and
+ * renamed into place, so a snapshot interrupted by a crash has no manifest
+ * and is ignored. {@link #restore(Path, int)} reads the latest full
+ * snapshot and the incremental snapshots taken after it, again one chunk
+ * per worker. The files of snapshot {@code n} are
+ * <blockquote><pre>
+ * snapshot-n.manifest, snapshot-n-0.gz, snapshot-n-1.gz, ...
+ * </pre></blockquote>
+ * with {@code n} zero-padded to eight digits and the chunk index to
+ * four.</p>
+ * <p>
+ * Changes are tracked by a subscription to the directory's
+ * {@link AccountEventStream}, made when the snapshotter is created; it is
+ * cancelled by {@link #close()}, which also stops the workers. A snapshot
+ * waits at most {@value #CHANGE_WAIT_MILLIS} ms for the subscription to
+ * catch up with the changes published before it, and fails if the stream
+ * dropped the subscription.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class AccountSnapshotter implements AutoCloseable {
+	/** Minimum number of records in a chunk, unless the snapshot is smaller */
+	public static final int MIN_CHUNK_SIZE = 1 << 16;
+	/** Longest time a snapshot waits for the changes published before it to be tracked */
+	public static final long CHANGE_WAIT_MILLIS = 10_000;
+	private static final long CHANGE_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+	private static final byte ACCOUNT = 1;
+	private static final byte REMOVED = 2;
+	private static final String FULL = "full";
+	private static final String INCREMENTAL = "incremental";
+
+	private final EmailDirectory directory;
+	private final Path folder;
+	private final int threads;
+	private final ExecutorService workers;
+	private final AccountEventStream.Subscription subscription;
+	private final Object changeLock = new Object();
+	private Set<String> changed = new HashSet<>();
+	private volatile boolean closed = false;
+	private long number;
+	private long base;
+
+	// Abstraction Function
+	//  Represents a series of snapshots of directory in folder, numbered up
+	//  to number, the latest full one being base (0 if none), and the
+	//  primary addresses of the accounts changed since the latest snapshot,
+	//  in changed.
+	//
+	// Representation Invariant
+	//  - threads > 0, and workers has threads threads
+	//  - 0 <= base <= number
+	//  - subscription has added to changed the address of every event up
+	//    to its cursor
+	//
+	// Safety from Exposure
+	//  - All fields are private; directory, workers and the subscription are never returned
+	//
+	// Thread Safety Argument
+	//  - changed is guarded by changeLock; it is only filled by the
+	//    subscription thread and only replaced by snapshots
+	//  - closed is volatile
+	//  - number and base are guarded by the lock of this snapshotter,
+	//    which every snapshot holds
+
+	/** Creates a snapshotter of directory into folder using all available cores */
+	public AccountSnapshotter(final EmailDirectory directory, final Path folder) throws IOException {
+		this(directory, folder, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a snapshotter of directory into folder. Snapshots already in
+	 * folder are kept and numbered before the ones taken by this snapshotter.
+	 *
+	 * @param directory non-null directory to back up
+	 * @param folder directory holding the snapshots, created if missing
+	 * @param threads maximum number of chunks written at once, requires threads > 0
+	 * @throws IOException if folder cannot be created or listed
+	 */
+	public AccountSnapshotter(final EmailDirectory directory, final Path folder, final int threads)
+			throws IOException {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be > 0");
+		}
+		this.directory = directory;
+		this.folder = folder;
+		this.threads = threads;
+		Files.createDirectories(folder);
+		this.workers = newWorkers(threads, "snapshot-writer-");
+		final List<Manifest> existing = manifests(folder);
+		this.number = existing.isEmpty() ? 0 : existing.get(existing.size() - 1).getNumber();
+		// incremental snapshots always follow a full one taken by this snapshotter
+		this.base = 0;
+		this.subscription = directory.getEvents().subscribe("snapshotter", 1024, events -> {
+			synchronized (changeLock) {
+				for (AccountEventStream.Event event : events) {
+					changed.add(event.getEmailAddress());
+				}
+			}
+		});
+
+		checkRep();
+	}
+
+	private void checkRep() {
+		assert threads > 0;
+		assert 0 <= base && base <= number;
+	}
+
+	/**
+	 * Writes a full snapshot of every registered account
+	 *
+	 * @return the manifest of the snapshot written
+	 * @throws IOException if the snapshot cannot be written; the changes
+	 *         it would have covered are kept for the next snapshot
+	 */
+	public synchronized Manifest snapshot() throws IOException {
+		final Set<String> taken = takeChanges();
+		try {
+			final Email[] accounts = directory.stream().toArray(Email[]::new);
+			final Manifest manifest = write(FULL, number + 1, accounts, Collections.<String>emptyList());
+			number = manifest.getNumber();
+			base = number;
+			checkRep();
+			return manifest;
+		} catch (IOException | RuntimeException e) {
+			keepChanges(taken);
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes an incremental snapshot of the accounts changed or removed
+	 * since the previous snapshot
+	 *
+	 * @return the manifest of the snapshot written
+	 * @throws IllegalStateException if no full snapshot has been taken by this snapshotter
+	 * @throws IOException if the snapshot cannot be written; the changes
+	 *         it would have covered are kept for the next snapshot
+	 */
+	public synchronized Manifest snapshotChanges() throws IOException {
+		if (base == 0) {
+			throw new IllegalStateException("no full snapshot taken yet");
+		}
+		final Set<String> taken = takeChanges();
+		try {
+			final List<Email> accounts = new ArrayList<>();
+			final List<String> removed = new ArrayList<>();
+			for (String address : taken) {
+				final Email email = directory.lookup(address);
+				if (email != null && email.getEmailAddress().equals(address)) {
+					accounts.add(email);
+				} else {
+					removed.add(address);
+				}
+			}
+			final Manifest manifest = write(INCREMENTAL, number + 1, accounts.toArray(new Email[0]), removed);
+			number = manifest.getNumber();
+			checkRep();
+			return manifest;
+		} catch (IOException | RuntimeException e) {
+			keepChanges(taken);
+			throw e;
+		}
+	}
+
+	/** Returns the number of accounts changed or removed since the previous snapshot, so far */
+	public int getPendingChangeCount() {
+		synchronized (changeLock) {
+			return changed.size();
+		}
+	}
+
+	/** Stops tracking changes and the workers; snapshots can no longer be taken */
+	@Override public void close() {
+		closed = true;
+		subscription.cancel();
+		workers.shutdown();
+	}
+
+	/**
+	 * Waits until every change published so far has been tracked, then
+	 * starts tracking into a new set
+	 *
+	 * @return the primary addresses of the accounts changed since the previous snapshot
+	 * @throws IllegalStateException if closed, or if the stream dropped the subscription
+	 * @throws IOException if the changes are not tracked within CHANGE_WAIT_MILLIS
+	 */
+	private Set<String> takeChanges() throws IOException {
+		if (closed) {
+			throw new IllegalStateException("snapshotter is closed");
+		}
+		final long target = directory.getEvents().getPublishedCount() - 1;
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CHANGE_WAIT_MILLIS);
+		while (subscription.getCursor() < target) {
+			if (subscription.isCancelled()) {
+				throw new IllegalStateException("changes are no longer tracked: the subscription was dropped");
+			}
+			if (System.nanoTime() - deadline >= 0) {
+				throw new IOException("changes not tracked within " + CHANGE_WAIT_MILLIS + " ms");
+			}
+			LockSupport.parkNanos(CHANGE_POLL_NANOS);
+			if (Thread.interrupted()) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting for changes");
+			}
+		}
+		synchronized (changeLock) {
+			final Set<String> taken = changed;
+			changed = new HashSet<>();
+			return taken;
+		}
+	}
+
+	/** Keeps taken for the next snapshot, after a snapshot has failed */
+	private void keepChanges(final Set<String> taken) {
+		synchronized (changeLock) {
+			changed.addAll(taken);
+		}
+	}
+
+	/** Writes accounts and removed in parallel chunks, then the manifest of snapshot n */
+	private Manifest write(final String type, final long n, final Email[] accounts, final List<String> removed)
+			throws IOException {
+		final int records = accounts.length + removed.size();
+		final int chunks = Math.max(1, Math.min(threads * 4, (records + MIN_CHUNK_SIZE - 1) / MIN_CHUNK_SIZE));
+		final int perChunk = (records + chunks - 1) / Math.max(1, chunks);
+		final List<Callable<Long>> tasks = new ArrayList<>();
+		final String[] names = new String[chunks];
+		final int[] counts = new int[chunks];
+		for (int c = 0; c < chunks; c++) {
+			final int chunk = c;
+			final int from = Math.min(records, c * perChunk);
+			final int to = Math.min(records, from + perChunk);
+			names[c] = chunkName(n, c);
+			counts[c] = to - from;
+			tasks.add(() -> writeChunk(folder.resolve(names[chunk]), accounts, removed, from, to));
+		}
+		long bytes = 0;
+		for (long written : invokeAll(workers, tasks)) {
+			bytes += written;
+		}
+		final Manifest manifest = new Manifest(n, FULL.equals(type) ? n : base, type,
+				accounts.length, removed.size(), names, counts, bytes);
+		manifest.write(folder);
+		return manifest;
+	}
+
+	/**
+	 * Writes records from to to of accounts followed by removed into file
+	 * and forces it to disk
+	 *
+	 * @return the size of file in bytes
+	 */
+	private static long writeChunk(final Path file, final Email[] accounts, final List<String> removed,
+			final int from, final int to) throws IOException {
+		try (FileChannel channel = open(file)) {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FastGZIPOutputStream(unclosable(channel)), 1 << 16));
+			for (int i = from; i < to; i++) {
+				if (i < accounts.length) {
+					writeAccount(out, accounts[i]);
+				} else {
+					out.writeByte(REMOVED);
+					out.writeUTF(removed.get(i - accounts.length));
+				}
+			}
+			out.close();
+			channel.force(false);
+			return channel.size();
+		}
+	}
+
+	private static FileChannel open(final Path file) throws IOException {
+		return FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/** Returns a stream writing to channel whose close() leaves channel open, to be forced */
+	private static OutputStream unclosable(final FileChannel channel) {
+		return new FilterOutputStream(Channels.newOutputStream(channel)) {
+			@Override public void write(final byte[] bytes, final int offset, final int length)
+					throws IOException {
+				out.write(bytes, offset, length);
+			}
+			@Override public void close() throws IOException {
+				flush();
+			}
+		};
+	}
+
+	/** Writes the state of email, copied while holding its lock */
+	private static void writeAccount(final DataOutputStream out, final Email email) throws IOException {
+		final String firstname;
+		final String lastname;
+		final String department;
+		final String altFirstname;
+		final String altLastname;
+		final String passwordHash;
+		final int mailCapacity;
+		final int suffix;
+		synchronized (email) {
+			firstname = email.getFirstname();
+			lastname = email.getLastname();
+			department = email.getDepartment();
+			altFirstname = email.getAltFirstname();
+			altLastname = email.getAltLastname();
+			passwordHash = email.getPasswordHash();
+			mailCapacity = email.getMailCapacity();
+			suffix = email.getSuffix();
+		}
+		out.writeByte(ACCOUNT);
+		out.writeUTF(firstname);
+		out.writeUTF(lastname);
+		out.writeUTF(department);
+		out.writeUTF(altFirstname);
+		out.writeUTF(altLastname);
+		out.writeUTF(passwordHash);
+		out.writeInt(mailCapacity);
+		out.writeInt(suffix);
+	}
+
+	/** Restores the accounts saved in folder using all available cores */
+	public static Map<String, Email> restore(final Path folder) throws IOException {
+		return restore(folder, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Restores the accounts saved by the latest full snapshot in folder and
+	 * the unbroken series of incremental snapshots taken after it
+	 *
+	 * @param folder directory holding the snapshots
+	 * @param threads maximum number of chunks read at once, requires threads > 0
+	 * @return the accounts keyed by primary address, empty if folder holds no full snapshot
+	 * @throws IOException if a snapshot cannot be read or a chunk is incomplete
+	 */
+	public static Map<String, Email> restore(final Path folder, final int threads) throws IOException {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be > 0");
+		}
+		final List<Manifest> chain = chain(manifests(folder));
+		if (chain.isEmpty()) {
+			return new ConcurrentHashMap<>();
+		}
+		final Map<String, Email> accounts = new ConcurrentHashMap<>(chain.get(0).getAccountCount() * 4 / 3 + 1);
+		final ExecutorService readers = newWorkers(threads, "snapshot-reader-");
+		try {
+			// each account appears at most once per snapshot, so the chunks of
+			// one snapshot can be applied in any order
+			for (Manifest manifest : chain) {
+				final List<Callable<Long>> tasks = new ArrayList<>();
+				for (int c = 0; c < manifest.getChunkCount(); c++) {
+					final Path file = folder.resolve(manifest.chunks[c]);
+					final int count = manifest.counts[c];
+					tasks.add(() -> readChunk(file, count, accounts));
+				}
+				invokeAll(readers, tasks);
+			}
+		} finally {
+			readers.shutdownNow();
+		}
+		return accounts;
+	}
+
+	/** Applies the count records of file to accounts and returns count */
+	private static long readChunk(final Path file, final int count, final Map<String, Email> accounts)
+			throws IOException {
+		try (InputStream fileIn = Files.newInputStream(file)) {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new GZIPInputStream(fileIn, 1 << 16), 1 << 16));
+			for (int i = 0; i < count; i++) {
+				final byte type = in.readByte();
+				if (type == ACCOUNT) {
+					final Email email = Email.restore(in.readUTF(), in.readUTF(), in.readUTF(),
+							in.readUTF(), in.readUTF(), in.readUTF(), in.readInt(), in.readInt());
+					accounts.put(email.getEmailAddress(), email);
+				} else if (type == REMOVED) {
+					accounts.remove(in.readUTF());
+				} else {
+					throw new IOException("unknown record type " + type + " in " + file.getFileName());
+				}
+			}
+		} catch (EOFException e) {
+			throw new IOException("chunk " + file.getFileName() + " is incomplete", e);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the manifests of the snapshots in folder, in the order they
+	 * were taken
+	 *
+	 * @param folder directory holding the snapshots
+	 * @return the manifests, empty if folder holds none or does not exist
+	 * @throws IOException if folder or a manifest cannot be read
+	 */
+	public static List<Manifest> manifests(final Path folder) throws IOException {
+		final List<Manifest> manifests = new ArrayList<>();
+		if (!Files.isDirectory(folder)) {
+			return manifests;
+		}
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "snapshot-*.manifest")) {
+			for (Path file : files) {
+				manifests.add(Manifest.read(file));
+			}
+		}
+		manifests.sort((a, b) -> Long.compare(a.getNumber(), b.getNumber()));
+		return manifests;
+	}
+
+	/** Returns the latest full snapshot of manifests followed by its unbroken series of incremental ones */
+	private static List<Manifest> chain(final List<Manifest> manifests) {
+		int full = -1;
+		for (int i = 0; i < manifests.size(); i++) {
+			if (!manifests.get(i).isIncremental()) {
+				full = i;
+			}
+		}
+		final List<Manifest> chain = new ArrayList<>();
+		if (full < 0) {
+			return chain;
+		}
+		chain.add(manifests.get(full));
+		for (int i = full + 1; i < manifests.size(); i++) {
+			final Manifest manifest = manifests.get(i);
+			final Manifest previous = chain.get(chain.size() - 1);
+			if (manifest.getNumber() != previous.getNumber() + 1 || manifest.getBase() != chain.get(0).getNumber()) {
+				break;
+			}
+			chain.add(manifest);
+		}
+		return chain;
+	}
+
+	/** Returns a pool of threads daemon workers, named prefix followed by their number */
+	private static ExecutorService newWorkers(final int threads, final String prefix) {
+		final AtomicInteger ids = new AtomicInteger();
+		final ThreadFactory factory = runnable -> {
+			final Thread thread = new Thread(runnable, prefix + ids.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		return Executors.newFixedThreadPool(threads, factory);
+	}
+
+	/**
+	 * Runs tasks on pool and returns their results, rethrowing the first
+	 * failure once every task has stopped
+	 */
+	private static List<Long> invokeAll(final ExecutorService pool, final List<Callable<Long>> tasks)
+			throws IOException {
+		final List<Future<Long>> futures = new ArrayList<>(tasks.size());
+		try {
+			for (Callable<Long> task : tasks) {
+				futures.add(pool.submit(task));
+			}
+			final List<Long> results = new ArrayList<>();
+			for (Future<Long> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for chunks");
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) cause).getCause();
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException(cause);
+		} finally {
+			// the pool outlives this call, and a failed snapshot is retried
+			// under the same chunk names: no task may still be running
+			awaitAll(futures);
+		}
+	}
+
+	/** Waits until every future is done, whatever its outcome */
+	private static void awaitAll(final List<Future<Long>> futures) {
+		boolean interrupted = false;
+		for (Future<Long> future : futures) {
+			while (!future.isDone()) {
+				try {
+					future.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException | CancellationException e) {
+					// reported by invokeAll
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static String chunkName(final long n, final int chunk) {
+		return String.format("snapshot-%08d-%04d.gz", n, chunk);
+	}
+
+	private static String manifestName(final long n) {
+		return String.format("snapshot-%08d.manifest", n);
+	}
+
+	/**
+	 * A GZIP stream favouring speed over ratio: account records are highly
+	 * repetitive, so the fastest level already shrinks them several times
+	 */
+	private static final class FastGZIPOutputStream extends GZIPOutputStream {
+		FastGZIPOutputStream(final OutputStream out) throws IOException {
+			super(out, 1 << 16);
+			def.setLevel(Deflater.BEST_SPEED);
+		}
+	}
+
+	/** An immutable description of a snapshot, as written to its manifest */
+	public static final class Manifest {
+		private final long number;
+		private final long base;
+		private final String type;
+		private final int accountCount;
+		private final int removedCount;
+		private final String[] chunks;
+		private final int[] counts;
+		private final long bytes;
+
+		private Manifest(final long number, final long base, final String type, final int accountCount,
+				final int removedCount, final String[] chunks, final int[] counts, final long bytes) {
+			this.number = number;
+			this.base = base;
+			this.type = type;
+			this.accountCount = accountCount;
+			this.removedCount = removedCount;
+			this.chunks = chunks;
+			this.counts = counts;
+			this.bytes = bytes;
+		}
+
+		/** Returns the number of this snapshot, starting at 1 in a folder */
+		public long getNumber() {
+			return number;
+		}
+
+		/** Returns the number of the full snapshot this one applies to; its own number if it is full */
+		public long getBase() {
+			return base;
+		}
+
+		/** Returns true if and only if this snapshot only holds changes since the previous one */
+		public boolean isIncremental() {
+			return INCREMENTAL.equals(type);
+		}
+
+		/** Returns the number of accounts saved */
+		public int getAccountCount() {
+			return accountCount;
+		}
+
+		/** Returns the number of accounts recorded as removed */
+		public int getRemovedCount() {
+			return removedCount;
+		}
+
+		/** Returns the number of chunks */
+		public int getChunkCount() {
+			return chunks.length;
+		}
+
+		/** Returns the compressed size of the chunks in bytes */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/** Writes this manifest into folder, replacing the file atomically */
+		private void write(final Path folder) throws IOException {
+			final Path file = folder.resolve(manifestName(number));
+			final Path temporary = folder.resolve(manifestName(number) + ".tmp");
+			try (FileChannel channel = open(temporary)) {
+				final Writer out = new OutputStreamWriter(unclosable(channel), StandardCharsets.UTF_8);
+				out.write(toString());
+				out.close();
+				channel.force(false);
+			}
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		private static Manifest read(final Path file) throws IOException {
+			final Map<String, String> values = new HashMap<>();
+			final List<String> chunks = new ArrayList<>();
+			final List<Integer> counts = new ArrayList<>();
+			try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = in.readLine()) != null) {
+					final int colon = line.indexOf(':');
+					if (colon < 0) {
+						continue;
+					}
+					final String key = line.substring(0, colon).trim();
+					final String value = line.substring(colon + 1).trim();
+					if (key.equals("chunk")) {
+						final int space = value.indexOf(' ');
+						chunks.add(value.substring(0, Math.max(0, space)));
+						counts.add(space < 0 ? -1 : Integer.parseInt(value.substring(space + 1)));
+					} else {
+						values.put(key, value);
+					}
+				}
+			}
+			try {
+				final int[] countArray = new int[counts.size()];
+				for (int i = 0; i < countArray.length; i++) {
+					countArray[i] = counts.get(i);
+					if (countArray[i] < 0) {
+						throw new NumberFormatException("missing record count of " + chunks.get(i));
+					}
+				}
+				return new Manifest(Long.parseLong(values.get("snapshot")), Long.parseLong(values.get("base")),
+						values.get("type"), Integer.parseInt(values.get("accounts")),
+						Integer.parseInt(values.get("removed")), chunks.toArray(new String[0]), countArray,
+						Long.parseLong(values.get("bytes")));
+			} catch (NumberFormatException | NullPointerException e) {
+				throw new IOException("malformed manifest " + file.getFileName(), e);
+			}
+		}
+
+		@Override public String toString() {
+			final StringBuilder text = new StringBuilder()
+					.append("snapshot: ").append(number).append('\n')
+					.append("type: ").append(type).append('\n')
+					.append("base: ").append(base).append('\n')
+					.append("accounts: ").append(accountCount).append('\n')
+					.append("removed: ").append(removedCount).append('\n')
+					.append("bytes: ").append(bytes).append('\n');
+			for (int c = 0; c < chunks.length; c++) {
+				text.append("chunk: ").append(chunks[c]).append(' ').append(counts[c]).append('\n');
+			}
+			return text.toString();
+		}
+	}
+}
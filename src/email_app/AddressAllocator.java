@@ -0,0 +1,133 @@
+package email_app;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code AddressAllocator} class creates {@link Email} accounts with
+ * unique addresses in an {@link EmailDirectory}, even for employees who
+ * share a name.
+ * <p>
+ * The first employee of a department with a given name gets the plain
+ * address; the next ones get the suffixes 2, 3, ... in allocation order:
+ * <blockquote><pre>
+ * john.smith@sales.company.com, john.smith2@sales.company.com, ...
+ * </pre></blockquote>
+ * A concurrent index keeps one counter per name and department, so an
+ * allocation takes constant time however many employees share the name.
+ * Addresses already registered in the directory, e.g. by accounts added
+ * without this allocator, are skipped.</p>
+ * <p>
+ * {@link BulkProvisioner} accepts an allocator; it reserves the suffixes
+ * in input order before creating accounts in parallel, so the same input
+ * always yields the same addresses.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class AddressAllocator {
+	private final EmailDirectory directory;
+	private final ConcurrentMap<String, AtomicInteger> counters = new ConcurrentHashMap<>();
+
+	// Abstraction Function
+	//  Represents an allocator that has handed out, for every key
+	//  name@department in counters, the suffixes of the first
+	//  counters.get(key) allocations: 0, 2, 3, ..., skipping the suffixes
+	//  whose address was already in directory.
+	//
+	// Representation Invariant
+	//  - every counter is >= 0
+	//
+	// Safety from Exposure
+	//  - All fields are private and final; counters are never returned
+	//
+	// Thread Safety Argument
+	//  - counters is a ConcurrentHashMap, counters are created with
+	//    computeIfAbsent and never removed
+	//  - every allocation takes a distinct value with incrementAndGet, so
+	//    no suffix is handed out twice
+	//  - directory is thread-safe; registration re-checks uniqueness with add()
+
+	/**
+	 * Creates an allocator for the addresses of directory
+	 *
+	 * @param directory non-null directory the allocated accounts are registered in
+	 */
+	public AddressAllocator(final EmailDirectory directory) {
+		this.directory = directory;
+	}
+
+	/** Returns the directory the allocated accounts are registered in */
+	public EmailDirectory getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Creates an account with a unique address and registers it in the directory
+	 *
+	 * @param firstname non-empty case-insensitive firstname
+	 * @param lastname non-empty case-insensitive lastname
+	 * @param department case-insensitive department, "" for "general"
+	 * @return the registered account
+	 */
+	public Email create(final String firstname, final String lastname, final String department) {
+		final Email email = new Email(firstname, lastname, department, reserve(firstname, lastname, department));
+		final Email registered = register(email);
+		if (registered == null) {
+			throw new IllegalStateException("cannot register " + email.getEmailAddress());
+		}
+		return registered;
+	}
+
+	/**
+	 * Reserves the suffix of the next address for a name in a department.
+	 * The suffix is never handed out again, even if its account is never
+	 * registered.
+	 *
+	 * @param firstname non-empty case-insensitive firstname
+	 * @param lastname non-empty case-insensitive lastname
+	 * @param department case-insensitive department, "" for "general"
+	 * @return 0 for the plain address, otherwise a suffix >= 2 whose address
+	 *         is not in the directory
+	 */
+	public int reserve(final String firstname, final String lastname, final String department) {
+		final String name = Email.normalizeName(firstname) + "." + Email.normalizeName(lastname);
+		final String domain = "@" + Email.normalizeDepartment(department) + ".company.com";
+		final String key = name + domain;
+		AtomicInteger counter = counters.get(key);
+		if (counter == null) {
+			counter = counters.computeIfAbsent(key, k -> new AtomicInteger());
+		}
+		while (true) {
+			final int n = counter.incrementAndGet();
+			final int suffix = n == 1 ? 0 : n;
+			if (!directory.contains(Email.addressName(name, suffix) + domain)) {
+				return suffix;
+			}
+		}
+	}
+
+	/**
+	 * Registers email in the directory. If its address was taken since its
+	 * suffix was reserved, it is registered under a newly reserved suffix.
+	 *
+	 * @param email non-null account, created with a reserved suffix
+	 * @return the registered account, email itself unless it had to be
+	 *         re-created with another suffix; null if its alternate address
+	 *         is taken
+	 */
+	Email register(final Email email) {
+		Email candidate = email;
+		while (!directory.add(candidate)) {
+			if (!directory.contains(candidate.getEmailAddress())) {
+				return null;
+			}
+			final int suffix = reserve(email.getFirstname(), email.getLastname(), email.getDepartment());
+			candidate = Email.restore(email.getFirstname(), email.getLastname(), email.getDepartment(),
+					email.getAltFirstname(), email.getAltLastname(), email.getPasswordHash(),
+					email.getMailCapacity(), suffix);
+		}
+		return candidate;
+	}
+}
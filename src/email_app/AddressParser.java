@@ -0,0 +1,344 @@
+package email_app;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * The {@code AddressParser} class validates email addresses of the syntax
+ * documented on {@link Email} and splits them into their parts:
+ * <blockquote><pre>
+ * firstname.lastname@department.company.com
+ * </pre></blockquote>
+ * <p>
+ * Addresses are parsed straight from {@code byte[]}, {@code ByteBuffer}
+ * or {@code CharSequence} input, in a single pass without regular
+ * expressions and without allocating: the result is a reusable
+ * {@link ParsedAddress} holding offsets into the input. Strings are only
+ * created when a caller asks for a part, or to resolve the address in an
+ * {@link EmailDirectory}.</p>
+ * <p>
+ * The parser accepts exactly the addresses an {@code Email} can have. Like
+ * {@code Email}, it is case-insensitive and ignores surrounding characters
+ * {@code <= ' '}, as {@link String#trim()}; such characters are accepted
+ * inside a part, as in the department "human resources", but not at either
+ * end of one, since {@code Email} trims every part. The local part is split
+ * at its first dot, so the lastname includes any suffix handed out by an
+ * {@link AddressAllocator}, and the department starts after the last '@'.
+ * Bytes are read as UTF-8; non-ASCII names are accepted and lowercased in
+ * {@link Locale#ROOT} when a part is requested.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public final class AddressParser {
+	private static final byte[] DOMAIN = ".company.com".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte ORDINARY = 0;
+	private static final byte AT = 1;
+	private static final byte DOT = 2;
+	private static final byte NON_ASCII = 3;
+	/** The kind of every byte value, so that ordinary bytes take a single branch */
+	private static final byte[] KINDS = new byte[256];
+	static {
+		for (int c = 0; c < 256; c++) {
+			KINDS[c] = c == '@' ? AT : c == '.' ? DOT : c >= 0x80 ? NON_ASCII : ORDINARY;
+		}
+	}
+
+	private AddressParser() {
+	}
+
+	/**
+	 * Parses the address in bytes[offset, offset + length)
+	 *
+	 * @param bytes UTF-8 encoded input
+	 * @param offset index of the first byte of the address
+	 * @param length number of bytes of the address
+	 * @param out receives the parts of the address; only valid if true is returned
+	 * @return true if and only if the input is a valid address
+	 */
+	public static boolean parse(final byte[] bytes, final int offset, final int length, final ParsedAddress out) {
+		out.reset(bytes, null);
+		int from = offset;
+		int to = offset + length;
+		while (from < to && isBlank(bytes[from])) {
+			from++;
+		}
+		while (to > from && isBlank(bytes[to - 1])) {
+			to--;
+		}
+		// the same scan as parse(CharSequence), looking up each byte in a
+		// table so that ordinary bytes take a single branch
+		int dot = -1;
+		int at = -1;
+		boolean ascii = true;
+		for (int i = from; i < to; i++) {
+			final int c = bytes[i];
+			final byte kind = KINDS[c & 0xFF];
+			if (kind == ORDINARY) {
+				continue;
+			}
+			if (kind == AT) {
+				at = i;
+			} else if (kind == DOT) {
+				if (dot < 0) {
+					dot = i;
+				}
+			} else {
+				ascii = false;
+			}
+		}
+		final int departmentEnd = to - DOMAIN.length;
+		if (dot <= from || at <= dot + 1 || departmentEnd <= at + 1) {
+			return false;
+		}
+		// Email trims every part
+		if (isBlank(bytes[dot - 1]) || isBlank(bytes[dot + 1]) || isBlank(bytes[at - 1])
+				|| isBlank(bytes[at + 1]) || isBlank(bytes[departmentEnd - 1])) {
+			return false;
+		}
+		for (int i = 0; i < DOMAIN.length; i++) {
+			if ((bytes[departmentEnd + i] | 0x20) != (DOMAIN[i] | 0x20)) {
+				return false;
+			}
+		}
+		out.set(from, dot, at, departmentEnd, to, ascii);
+		return true;
+	}
+
+	/**
+	 * Parses the address in the remaining bytes of buffer, without moving its position
+	 *
+	 * @param buffer UTF-8 encoded input, heap or direct
+	 * @param out receives the parts of the address; only valid if true is returned
+	 * @return true if and only if the remaining bytes form a valid address
+	 */
+	public static boolean parse(final ByteBuffer buffer, final ParsedAddress out) {
+		if (buffer.hasArray()) {
+			return parse(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), out);
+		}
+		// one bulk copy into reused scratch space beats a get() per byte
+		final byte[] copy = out.copyBuffer(buffer.remaining());
+		buffer.duplicate().get(copy, 0, buffer.remaining());
+		return parse(copy, 0, buffer.remaining(), out);
+	}
+
+	/**
+	 * Parses address
+	 *
+	 * @param address input characters
+	 * @param out receives the parts of the address; only valid if true is returned
+	 * @return true if and only if address is a valid address
+	 */
+	public static boolean parse(final CharSequence address, final ParsedAddress out) {
+		out.reset(null, address);
+		int from = 0;
+		int to = address.length();
+		while (from < to && isBlank(address.charAt(from))) {
+			from++;
+		}
+		while (to > from && isBlank(address.charAt(to - 1))) {
+			to--;
+		}
+		int dot = -1;
+		int at = -1;
+		boolean ascii = true;
+		for (int i = from; i < to; i++) {
+			final char c = address.charAt(i);
+			final byte kind = c < KINDS.length ? KINDS[c] : NON_ASCII;
+			if (kind == ORDINARY) {
+				continue;
+			}
+			if (kind == AT) {
+				at = i;
+			} else if (kind == DOT) {
+				if (dot < 0) {
+					dot = i;
+				}
+			} else {
+				ascii = false;
+			}
+		}
+		final int departmentEnd = to - DOMAIN.length;
+		if (dot <= from || at <= dot + 1 || departmentEnd <= at + 1) {
+			return false;
+		}
+		if (isBlank(address.charAt(dot - 1)) || isBlank(address.charAt(dot + 1)) || isBlank(address.charAt(at - 1))
+				|| isBlank(address.charAt(at + 1)) || isBlank(address.charAt(departmentEnd - 1))) {
+			return false;
+		}
+		for (int i = 0; i < DOMAIN.length; i++) {
+			if ((address.charAt(departmentEnd + i) | 0x20) != (DOMAIN[i] | 0x20)) {
+				return false;
+			}
+		}
+		out.set(from, dot, at, departmentEnd, to, ascii);
+		return true;
+	}
+
+	/**
+	 * Returns the account owning a parsed address, as primary or alternate
+	 *
+	 * @param address successfully parsed address
+	 * @param directory non-null directory
+	 * @return the registered account, null if none
+	 */
+	public static Email resolve(final ParsedAddress address, final EmailDirectory directory) {
+		return directory.lookup(address.getAddress());
+	}
+
+	/** Returns true if and only if c is trimmed by {@link String#trim()}; bytes >= 0x80 are negative */
+	private static boolean isBlank(final int c) {
+		return c >= 0 && c <= ' ';
+	}
+
+	/**
+	 * A mutable, reusable holder of the parts of a parsed address, as
+	 * offsets into the parsed input. A {@code ParsedAddress} refers to its
+	 * input, which must not change while the parts are read, and is meant
+	 * to be confined to one thread.
+	 */
+	public static final class ParsedAddress {
+		private byte[] bytes;
+		private CharSequence chars;
+		private byte[] copy = new byte[64];
+		private int start;
+		private int dot;
+		private int at;
+		private int departmentEnd;
+		private int end;
+		private boolean ascii;
+		private char[] scratch = new char[64];
+
+		// Abstraction Function
+		//  Represents the address input[start, end), made of the firstname
+		//  input[start, dot), the lastname input(dot, at) and the department
+		//  input(at, departmentEnd), where input is whichever of bytes and
+		//  chars is non-null.
+		//
+		// Representation Invariant
+		//  - exactly one of bytes and chars is non-null after a parse
+		//  - start < dot < dot + 1 < at < at + 1 < departmentEnd < end
+		//  - ascii iff no unit of input[start, end) is >= 0x80
+
+		/** Creates an empty holder, to be filled by {@link AddressParser} */
+		public ParsedAddress() {
+		}
+
+		void reset(final byte[] bytes, final CharSequence chars) {
+			this.bytes = bytes;
+			this.chars = chars;
+		}
+
+		/** Returns scratch space of at least length bytes to copy a direct buffer into */
+		byte[] copyBuffer(final int length) {
+			if (copy.length < length) {
+				copy = new byte[Math.max(length, copy.length * 2)];
+			}
+			return copy;
+		}
+
+		void set(final int start, final int dot, final int at, final int departmentEnd, final int end,
+				final boolean ascii) {
+			this.start = start;
+			this.dot = dot;
+			this.at = at;
+			this.departmentEnd = departmentEnd;
+			this.end = end;
+			this.ascii = ascii;
+		}
+
+		/** Returns true if and only if the address is made of ASCII characters only */
+		public boolean isAscii() {
+			return ascii;
+		}
+		/** Returns the number of input units (bytes or chars) of the firstname */
+		public int getFirstnameLength() {
+			return dot - start;
+		}
+		/** Returns the number of input units (bytes or chars) of the lastname */
+		public int getLastnameLength() {
+			return at - dot - 1;
+		}
+		/** Returns the number of input units (bytes or chars) of the department */
+		public int getDepartmentLength() {
+			return departmentEnd - at - 1;
+		}
+		/** Returns the lowercase firstname */
+		public String getFirstname() {
+			return lowercase(start, dot);
+		}
+		/** Returns the lowercase lastname, including any address suffix */
+		public String getLastname() {
+			return lowercase(dot + 1, at);
+		}
+		/** Returns the lowercase name as firstname.lastname, comparable to {@link Email#getName()} */
+		public String getName() {
+			return lowercase(start, at);
+		}
+		/** Returns the lowercase department */
+		public String getDepartment() {
+			return lowercase(at + 1, departmentEnd);
+		}
+		/** Returns the whole lowercase address, without surrounding whitespace */
+		public String getAddress() {
+			return lowercase(start, end);
+		}
+
+		/**
+		 * Compares the address with a lowercase address, without allocating
+		 *
+		 * @param address lowercase address, e.g. {@link Email#getEmailAddress()}
+		 * @return true if and only if the parsed address equals address, ignoring case
+		 */
+		public boolean matches(final String address) {
+			if (!ascii) {
+				return getAddress().equals(address);
+			}
+			if (address.length() != end - start) {
+				return false;
+			}
+			for (int i = start; i < end; i++) {
+				if (toLower(unit(i)) != address.charAt(i - start)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private String lowercase(final int from, final int to) {
+			if (!ascii) {
+				return decode(from, to).toLowerCase(Locale.ROOT);
+			}
+			final int length = to - from;
+			if (scratch.length < length) {
+				scratch = new char[Math.max(length, scratch.length * 2)];
+			}
+			for (int i = 0; i < length; i++) {
+				scratch[i] = (char) toLower(unit(from + i));
+			}
+			return new String(scratch, 0, length);
+		}
+
+		private String decode(final int from, final int to) {
+			return chars != null
+					? chars.subSequence(from, to).toString()
+					: new String(bytes, from, to - from, StandardCharsets.UTF_8);
+		}
+
+		private int unit(final int i) {
+			return bytes != null ? bytes[i] & 0xFF : chars.charAt(i);
+		}
+
+		private static int toLower(final int c) {
+			return c >= 'A' && c <= 'Z' ? c | 0x20 : c;
+		}
+
+		@Override public String toString() {
+			return "firstname: " + getFirstname() + ","
+					+ "lastname: " + getLastname() + ","
+					+ "department: " + getDepartment();
+		}
+	}
+}
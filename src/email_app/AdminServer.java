@@ -0,0 +1,679 @@
+package email_app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The {@code AdminServer} class serves the accounts of an
+ * {@link EmailDirectory} over HTTP, on a fixed pool of worker threads.
+ * <p>
+ * Every operation takes its arguments as form fields and answers with a
+ * plain text body, an account being shown as {@link Email#toString()}:
+ * <blockquote><pre>
+ * POST /accounts                    firstname, lastname, department  create
+ * GET  /accounts/{address}                                           lookup
+ * POST /accounts/{address}/password password                         reset password
+ * POST /accounts/{address}/capacity capacity                         set mail capacity
+ * POST /accounts/{address}/alternate firstname, lastname             create alternate
+ * POST /batch                                                        several of the above
+ * GET  /metrics                                                      text snapshot
+ * </pre></blockquote>
+ * New accounts get unique addresses from an {@link AddressAllocator}.
+ * {@code {address}} is the primary or the alternate address.</p>
+ * <p>
+ * {@code /batch} runs many operations in one round trip. Its body holds
+ * one operation per line, whose words are separated by whitespace, and
+ * its answer holds one line per operation, in order, made of the status
+ * code and body the single operation would have answered:
+ * <blockquote><pre>
+ * CREATE firstname lastname [department]
+ * GET address
+ * PASSWORD address password
+ * CAPACITY address capacity
+ * ALTERNATE address firstname lastname
+ * </pre></blockquote></p>
+ * <p>
+ * A server created with a shard secret also serves
+ * {@code POST /shard/{operation}}: the directory as a {@link Shard} of a
+ * {@link ShardedDirectory} in another process, through a
+ * {@link RemoteShard}. Its operations follow the methods of {@link Shard};
+ * accounts are sent and answered as form-encoded stored state, one per
+ * line, password hashes included. Every shard request must carry the
+ * secret in its {@value #SHARD_SECRET_HEADER} header, or is answered with
+ * status 403; other servers answer 404 to any shard request.</p>
+ * <p>
+ * Requests are queued for the workers in a bounded queue. When it is full
+ * the thread accepting connections runs the request itself, and so stops
+ * accepting new ones until it is done. {@link #close()} stops accepting
+ * requests and waits for those in progress to finish.</p>
+ * <p>
+ * Passwords are hashed on the bounded threads of a
+ * {@link PasswordHashingService}, {@link PasswordHashingService#getDefault()}
+ * unless given another one, so no more resets than it has threads run
+ * at once, however many workers wait for them. A reset finding its queue
+ * full is answered with status 503.</p>
+ * <p>
+ * A request whose body is longer than {@value #MAX_BODY_BYTES} bytes is
+ * answered with status 413 without being run. An operation failing
+ * unexpectedly is answered with status 500 and counted as an error, like
+ * any other failed request; an {@code Error} is answered the same way
+ * before it is rethrown, so the client never waits for an answer that
+ * does not come. Small answers on
+ * kept-alive connections wait for delayed ACKs, about 40 ms each, unless
+ * the JDK server sets {@code TCP_NODELAY}: start the JVM with
+ * {@code -Dsun.net.httpserver.nodelay=true} to serve many small requests
+ * per connection.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class AdminServer implements AutoCloseable {
+	/** Header carrying the shard secret of a {@code /shard} request */
+	public static final String SHARD_SECRET_HEADER = "X-Shard-Secret";
+	/** Longest request body served, in bytes */
+	static final int MAX_BODY_BYTES = 1 << 20;
+	private static final int OK = 200;
+	private static final int CREATED = 201;
+	private static final int BAD_REQUEST = 400;
+	private static final int FORBIDDEN = 403;
+	private static final int NOT_FOUND = 404;
+	private static final int METHOD_NOT_ALLOWED = 405;
+	private static final int CONFLICT = 409;
+	private static final int PAYLOAD_TOO_LARGE = 413;
+	private static final int INTERNAL_SERVER_ERROR = 500;
+	private static final int SERVICE_UNAVAILABLE = 503;
+
+	private final EmailDirectory directory;
+	private final AddressAllocator allocator;
+	private final LocalShard shard;
+	private final byte[] shardSecret;
+	private final PasswordHashingService hashing;
+	private final HttpServer server;
+	private final ThreadPoolExecutor executor;
+	private final MetricsRegistry metrics = new MetricsRegistry();
+	private final LongAdder requests = metrics.counter("server.requests");
+	private final LongAdder operations = metrics.counter("server.operations");
+	private final LongAdder errors = metrics.counter("server.errors");
+	private final LatencyHistogram latency = metrics.histogram("server.request.nanos");
+
+	// Abstraction Function
+	//  Represents an HTTP server listening at server.getAddress(), running
+	//  requests on executor against the accounts of directory, which are
+	//  also served as shard to the clients sending shardSecret, if it is
+	//  not null, and whose passwords are hashed by hashing.
+	//
+	// Representation Invariant
+	//  - allocator.getDirectory() == directory
+	//  - shard registers its accounts in directory
+	//  - server runs its exchanges on executor
+	//  - shardSecret is null or not empty; server has a /shard context
+	//    if and only if shardSecret is not null
+	//
+	// Safety from Exposure
+	//  - All fields are private and final; server, executor and
+	//    shardSecret are never returned
+	//
+	// Thread Safety Argument
+	//  - directory, allocator, shard, hashing and metrics are thread-safe
+	//  - each account is mutated while holding its lock, like the mutators
+	//    of EmailDirectory
+	//  - exchanges are confined to the worker running them
+
+	/**
+	 * Creates a server bound to address, without shard operations; it
+	 * accepts requests once started
+	 *
+	 * @param directory non-null directory to serve
+	 * @param address address to listen at, port 0 for any free port
+	 * @param threads number of worker threads, requires threads > 0
+	 * @throws IOException if address cannot be bound
+	 */
+	public AdminServer(final EmailDirectory directory, final InetSocketAddress address, final int threads)
+			throws IOException {
+		this(directory, address, threads, null);
+	}
+
+	/**
+	 * Creates a server bound to address; it accepts requests once started
+	 *
+	 * @param directory non-null directory to serve
+	 * @param address address to listen at, port 0 for any free port
+	 * @param threads number of worker threads, requires threads > 0
+	 * @param shardSecret non-empty secret the {@link ShardedDirectory}
+	 *        routing to this server sends with its shard requests, or null
+	 *        to serve no shard operations
+	 * @throws IOException if address cannot be bound
+	 */
+	public AdminServer(final EmailDirectory directory, final InetSocketAddress address, final int threads,
+			final String shardSecret) throws IOException {
+		this(directory, address, threads, shardSecret, PasswordHashingService.getDefault());
+	}
+
+	/**
+	 * Creates a server bound to address, hashing passwords with hashing;
+	 * it accepts requests once started
+	 *
+	 * @param directory non-null directory to serve
+	 * @param address address to listen at, port 0 for any free port
+	 * @param threads number of worker threads, requires threads > 0
+	 * @param shardSecret non-empty shard secret, or null to serve no shard operations
+	 * @param hashing non-null service running password resets
+	 * @throws IOException if address cannot be bound
+	 */
+	AdminServer(final EmailDirectory directory, final InetSocketAddress address, final int threads,
+			final String shardSecret, final PasswordHashingService hashing) throws IOException {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be > 0: " + threads);
+		}
+		if (shardSecret != null && shardSecret.isEmpty()) {
+			throw new IllegalArgumentException("shardSecret must not be empty");
+		}
+		this.shardSecret = shardSecret == null ? null : shardSecret.getBytes(StandardCharsets.UTF_8);
+		this.directory = directory;
+		this.allocator = new AddressAllocator(directory);
+		this.shard = new LocalShard(directory);
+		this.hashing = hashing;
+		final AtomicInteger ids = new AtomicInteger();
+		final ThreadFactory factory = runnable -> new Thread(runnable, "admin-server-" + ids.incrementAndGet());
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(1024 * threads), factory, new ThreadPoolExecutor.CallerRunsPolicy());
+		this.server = HttpServer.create(address, 1024);
+		server.setExecutor(executor);
+		server.createContext("/accounts", this::handle);
+		server.createContext("/batch", this::handle);
+		server.createContext("/metrics", this::handle);
+		if (shardSecret != null) {
+			server.createContext("/shard", this::handle);
+		}
+
+		checkRep();
+	}
+
+	private void checkRep() {
+		assert allocator.getDirectory() == directory;
+		assert shardSecret == null || shardSecret.length > 0;
+	}
+
+	/** Starts accepting requests */
+	public void start() {
+		server.start();
+	}
+
+	/** Returns the port this server listens at */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/** Returns the request counters and latencies of this server */
+	public MetricsRegistry getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Stops accepting requests and waits up to drainSeconds for requests
+	 * in progress to complete
+	 *
+	 * @param drainSeconds requires drainSeconds >= 0
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void close(final int drainSeconds) throws InterruptedException {
+		server.stop(drainSeconds);
+		executor.shutdown();
+		executor.awaitTermination(drainSeconds, TimeUnit.SECONDS);
+	}
+
+	/** Stops accepting requests, waiting up to 5 seconds for requests in progress */
+	@Override public void close() {
+		try {
+			close(5);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void handle(final HttpExchange exchange) throws IOException {
+		final long start = System.nanoTime();
+		requests.increment();
+		boolean counted = false;
+		boolean answered = false;
+		try {
+			Response response;
+			try {
+				final String path = exchange.getRequestURI().getRawPath();
+				final byte[] body;
+				if (path.startsWith("/shard") && !isShard(exchange)) {
+					response = new Response(shardSecret == null ? NOT_FOUND : FORBIDDEN,
+							"shard operations need the shard secret");
+				} else if ((body = readAll(exchange.getRequestBody())) == null) {
+					response = new Response(PAYLOAD_TOO_LARGE, "request body over " + MAX_BODY_BYTES + " bytes");
+				} else {
+					response = route(exchange.getRequestMethod(), path, new String(body, StandardCharsets.UTF_8));
+				}
+			} catch (RuntimeException e) {
+				response = failure(e);
+			}
+			// counted before answering, so the client sees its own error in /metrics
+			if (response.status >= BAD_REQUEST) {
+				errors.increment();
+				counted = true;
+			}
+			answered = true;
+			send(exchange, response);
+		} catch (IOException | RuntimeException | Error e) {
+			if (!counted) {
+				errors.increment();
+			}
+			if (!answered) {
+				// e.g. an Error thrown by an operation: answer before it propagates
+				try {
+					send(exchange, new Response(INTERNAL_SERVER_ERROR, "internal error: " + e));
+				} catch (IOException | RuntimeException failure) {
+					e.addSuppressed(failure);
+				}
+			}
+			throw e;
+		} finally {
+			exchange.close();
+			latency.record(System.nanoTime() - start);
+		}
+	}
+
+	private static void send(final HttpExchange exchange, final Response response) throws IOException {
+		final byte[] body = (response.body + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(response.status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/** Returns true if and only if this server serves shard operations and exchange carries its secret */
+	private boolean isShard(final HttpExchange exchange) {
+		final String secret = exchange.getRequestHeaders().getFirst(SHARD_SECRET_HEADER);
+		// compared in constant time, so timing reveals nothing of the secret
+		return shardSecret != null && secret != null
+				&& MessageDigest.isEqual(shardSecret, secret.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Returns the answer to an operation that threw e: 400 for bad
+	 * arguments, 503 when the hashing threads are saturated, 500 otherwise
+	 */
+	private static Response failure(final RuntimeException e) {
+		if (e instanceof IllegalArgumentException) {
+			return new Response(BAD_REQUEST, e.getMessage());
+		}
+		if (e instanceof RejectedExecutionException) {
+			return new Response(SERVICE_UNAVAILABLE, "password hashing saturated, retry later");
+		}
+		return new Response(INTERNAL_SERVER_ERROR, "internal error: " + e);
+	}
+
+	/** Waits for a password reset on the hashing threads and returns its result, rethrowing what it threw */
+	private static boolean await(final CompletableFuture<Boolean> reset) {
+		try {
+			return reset.join();
+		} catch (CompletionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw e;
+		}
+	}
+
+	private Response route(final String method, final String path, final String body) {
+		if (path.equals("/metrics")) {
+			return "GET".equals(method)
+					? new Response(OK, (metrics.snapshot() + Email.getMetrics().snapshot()).trim())
+					: new Response(METHOD_NOT_ALLOWED, method + " " + path);
+		}
+		if (!"POST".equals(method) && !("GET".equals(method) && path.startsWith("/accounts/"))) {
+			return new Response(METHOD_NOT_ALLOWED, method + " " + path);
+		}
+		if (path.equals("/batch")) {
+			return batch(body);
+		}
+		final Map<String, String> form = parseForm(body);
+		if (path.startsWith("/shard/") && "POST".equals(method) && shardSecret != null) {
+			return shard(path.substring("/shard/".length()), form);
+		}
+		if (path.equals("/accounts") || path.equals("/accounts/")) {
+			return execute("CREATE", form.get("firstname"), form.get("lastname"), form.get("department"));
+		}
+		if (!path.startsWith("/accounts/")) {
+			return new Response(NOT_FOUND, "no such operation: " + method + " " + path);
+		}
+		final String[] segments = path.substring("/accounts/".length()).split("/");
+		final String address = decode(segments[0]);
+		if (segments.length == 1 && "GET".equals(method)) {
+			return execute("GET", address);
+		}
+		if (segments.length == 2 && "POST".equals(method)) {
+			switch (segments[1]) {
+			case "password":
+				return execute("PASSWORD", address, form.get("password"));
+			case "capacity":
+				return execute("CAPACITY", address, form.get("capacity"));
+			case "alternate":
+				return execute("ALTERNATE", address, form.get("firstname"), form.get("lastname"));
+			default:
+				break;
+			}
+		}
+		return new Response(NOT_FOUND, "no such operation: " + method + " " + path);
+	}
+
+	private Response batch(final String body) {
+		final StringBuilder out = new StringBuilder();
+		for (String line : body.split("\n")) {
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+			final String[] words = line.trim().split("\\s+");
+			final String[] args = new String[words.length - 1];
+			System.arraycopy(words, 1, args, 0, args.length);
+			Response response;
+			try {
+				response = execute(words[0].toUpperCase(Locale.ROOT), args);
+			} catch (RuntimeException e) {
+				response = failure(e);
+			}
+			out.append(response.status).append(' ').append(response.body).append('\n');
+		}
+		return new Response(OK, out.toString().trim());
+	}
+
+	/**
+	 * Runs one operation
+	 *
+	 * @param operation one of CREATE, GET, PASSWORD, CAPACITY, ALTERNATE
+	 * @param args arguments of operation, in the order documented on this class
+	 * @return the status and text of the answer
+	 * @throws IllegalArgumentException if an argument is missing or malformed
+	 */
+	private Response execute(final String operation, final String... args) {
+		operations.increment();
+		if ("CREATE".equals(operation)) {
+			final String firstname = require(args, 0, "firstname");
+			final String lastname = require(args, 1, "lastname");
+			final String department = args.length > 2 && args[2] != null ? args[2] : "";
+			return new Response(CREATED, allocator.create(firstname, lastname, department).toString());
+		}
+		final String address = require(args, 0, "address");
+		final Email email = directory.lookup(address);
+		if (email == null) {
+			return new Response(NOT_FOUND, "no such account: " + address);
+		}
+		switch (operation) {
+		case "GET":
+			synchronized (email) {
+				return new Response(OK, email.toString());
+			}
+		case "PASSWORD": {
+			final String password = require(args, 1, "password");
+			if (password.length() < 8 || password.length() > 25) {
+				throw new IllegalArgumentException("password must be 8 to 25 characters long");
+			}
+			return await(hashing.resetPassword(directory, email, password)) ? new Response(OK, "password changed")
+					: new Response(CONFLICT, "password unchanged: same as the current one");
+		}
+		case "CAPACITY": {
+			final int capacity = parseCapacity(require(args, 1, "capacity"));
+			final int previous = directory.setMailCapacity(email, capacity);
+			return new Response(OK, "previous mailCapacity: " + previous);
+		}
+		case "ALTERNATE": {
+			final boolean created = directory.createAlternateEmail(email,
+					require(args, 1, "firstname"), require(args, 2, "lastname"));
+			if (!created) {
+				return new Response(CONFLICT, "alternate not created: same as the name or already taken");
+			}
+			synchronized (email) {
+				return new Response(OK, email.toString());
+			}
+		}
+		default:
+			throw new IllegalArgumentException("unknown operation: " + operation);
+		}
+	}
+
+	/**
+	 * Runs one operation of {@link #shard} for a {@link RemoteShard}
+	 *
+	 * @param operation lowercase name of the operation
+	 * @param form arguments of operation, as named by {@link RemoteShard}
+	 * @return the status and text of the answer
+	 * @throws IllegalArgumentException if an argument is missing or malformed
+	 */
+	private Response shard(final String operation, final Map<String, String> form) {
+		operations.increment();
+		switch (operation) {
+		case "add":
+			return shard.add(parseAccount(form)) ? new Response(CREATED, "added")
+					: new Response(CONFLICT, "address taken");
+		case "reserve":
+			return shard.reserve(require(form, "alias"), require(form, "primary")) ? new Response(OK, "reserved")
+					: new Response(CONFLICT, "address taken");
+		case "release":
+			shard.release(require(form, "alias"), require(form, "primary"));
+			return new Response(OK, "released");
+		case "resolve": {
+			final String primary = shard.resolve(form.getOrDefault("alias", ""));
+			return primary != null ? new Response(OK, primary) : new Response(NOT_FOUND, "no such alias");
+		}
+		case "name":
+			return accounts(shard.findByName(require(form, "name")));
+		case "department":
+			return accounts(shard.findByDepartment(form.getOrDefault("department", "")));
+		case "stats": {
+			final DepartmentAggregator.Stats stats = shard.getDepartmentStats(form.getOrDefault("department", ""));
+			return new Response(OK, "accounts=" + stats.getAccountCount()
+					+ "&totalMailCapacity=" + stats.getTotalMailCapacity()
+					+ "&maxMailCapacity=" + stats.getMaxMailCapacity()
+					+ "&alternates=" + stats.getAlternateCount());
+		}
+		case "size":
+			return new Response(OK, String.valueOf(shard.size()));
+		case "accounts": {
+			final StringBuilder out = new StringBuilder();
+			shard.stream().forEach(email -> appendAccount(out, email));
+			return new Response(OK, out.toString());
+		}
+		case "aliases": {
+			final StringBuilder out = new StringBuilder();
+			for (Map.Entry<String, String> alias : shard.aliases().entrySet()) {
+				out.append("alias=").append(encode(alias.getKey()))
+						.append("&primary=").append(encode(alias.getValue())).append('\n');
+			}
+			return new Response(OK, out.toString());
+		}
+		default:
+			break;
+		}
+		final String address = form.getOrDefault("address", "");
+		final Email email = shard.get(address);
+		if (email == null) {
+			return new Response(NOT_FOUND, "no such account: " + address);
+		}
+		switch (operation) {
+		case "get":
+			return accounts(Collections.singleton(email));
+		case "remove": {
+			final String altAddress = shard.remove(email);
+			return altAddress != null ? new Response(OK, altAddress)
+					: new Response(NOT_FOUND, "no such account: " + address);
+		}
+		case "alternate": {
+			final String previous = shard.createAlternateEmail(email,
+					require(form, "firstname"), require(form, "lastname"));
+			return previous != null ? new Response(OK, previous)
+					: new Response(CONFLICT, "alternate not created: same as the name or already taken");
+		}
+		case "capacity":
+			return new Response(OK, String.valueOf(
+					shard.setMailCapacity(email, parseCapacity(require(form, "capacity")))));
+		case "password": {
+			final String password = require(form, "password");
+			if (password.length() < 8 || password.length() > 25) {
+				throw new IllegalArgumentException("password must be 8 to 25 characters long");
+			}
+			// the account is registered in directory, as shard.resetPassword would reset it
+			return await(hashing.resetPassword(directory, email, password)) ? new Response(OK, "password changed")
+					: new Response(CONFLICT, "password unchanged: same as the current one");
+		}
+		default:
+			return new Response(NOT_FOUND, "no such shard operation: " + operation);
+		}
+	}
+
+	/** Returns an answer listing accounts, one line of stored state each */
+	private static Response accounts(final Collection<Email> accounts) {
+		final StringBuilder out = new StringBuilder();
+		for (Email email : accounts) {
+			appendAccount(out, email);
+		}
+		return new Response(OK, out.toString());
+	}
+
+	/** Appends the stored state of email to out as a line of form fields, read back by {@link #parseAccount(String)} */
+	static void appendAccount(final StringBuilder out, final Email email) {
+		synchronized (email) {
+			out.append("firstname=").append(encode(email.getFirstname()))
+					.append("&lastname=").append(encode(email.getLastname()))
+					.append("&department=").append(encode(email.getDepartment()))
+					.append("&altFirstname=").append(encode(email.getAltFirstname()))
+					.append("&altLastname=").append(encode(email.getAltLastname()))
+					.append("&passwordHash=").append(encode(email.getPasswordHash()))
+					.append("&mailCapacity=").append(email.getMailCapacity())
+					.append("&suffix=").append(email.getSuffix())
+					.append('\n');
+		}
+	}
+
+	/**
+	 * Recreates an account from a line written by {@link #appendAccount(StringBuilder, Email)}
+	 *
+	 * @param line non-null line of form fields
+	 * @return an account with the state in line
+	 * @throws IllegalArgumentException if a field is missing or malformed
+	 */
+	static Email parseAccount(final String line) {
+		return parseAccount(parseForm(line));
+	}
+
+	private static Email parseAccount(final Map<String, String> form) {
+		return Email.restore(require(form, "firstname"), require(form, "lastname"),
+				form.getOrDefault("department", ""), form.getOrDefault("altFirstname", ""),
+				form.getOrDefault("altLastname", ""), form.getOrDefault("passwordHash", ""),
+				parseCapacity(require(form, "mailCapacity")), Integer.parseInt(require(form, "suffix")));
+	}
+
+	private static String require(final Map<String, String> form, final String name) {
+		return require(new String[] {form.get(name)}, 0, name);
+	}
+
+	private static String require(final String[] args, final int index, final String name) {
+		if (args.length <= index || args[index] == null || args[index].trim().isEmpty()) {
+			throw new IllegalArgumentException("missing " + name);
+		}
+		return args[index].trim();
+	}
+
+	private static int parseCapacity(final String capacity) {
+		try {
+			final int value = Integer.parseInt(capacity);
+			if (value > 0) {
+				return value;
+			}
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		throw new IllegalArgumentException("capacity must be a positive integer: " + capacity);
+	}
+
+	/** Returns the fields of a form-encoded body, decoded */
+	static Map<String, String> parseForm(final String body) {
+		final Map<String, String> form = new HashMap<>();
+		for (String pair : body.trim().split("&")) {
+			final int equals = pair.indexOf('=');
+			if (equals > 0) {
+				form.put(decode(pair.substring(0, equals)), decode(pair.substring(equals + 1)));
+			}
+		}
+		return form;
+	}
+
+	/** Returns s encoded as a form field */
+	static String encode(final String s) {
+		try {
+			return URLEncoder.encode(s, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// not expected: every JDK supports UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String decode(final String encoded) {
+		try {
+			return URLDecoder.decode(encoded, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// not expected: every JDK supports UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Returns the bytes read from in, null if there are more than {@value #MAX_BODY_BYTES} */
+	private static byte[] readAll(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		try (InputStream input = in) {
+			for (int n; (n = input.read(buffer)) > 0;) {
+				if (out.size() + n > MAX_BODY_BYTES) {
+					return null;
+				}
+				out.write(buffer, 0, n);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/** The status code and text answered to a request or a batched operation */
+	private static final class Response {
+		private final int status;
+		private final String body;
+
+		Response(final int status, final String body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+}
@@ -0,0 +1,489 @@
+package email_app;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The {@code AuthenticationService} class logs employees in to the
+ * accounts of an {@link EmailDirectory}, with either the primary or the
+ * alternate address of an account and its password.
+ * <p>
+ * Verifying a password with the {@link PasswordHasher} of {@link Email} is
+ * deliberately slow, so successful verifications are cached for a limited
+ * time: a login repeating a recently verified password is accepted after
+ * comparing a keyed digest of the password, without running the hasher
+ * again. The cache is bounded and evicts the least recently used accounts.
+ * An entry only holds for the password hash it was verified against, so
+ * {@link Email#resetPassword(String)} invalidates it without any call to
+ * this service.</p>
+ * <p>
+ * Attempts that need the hasher are rate limited per account with a token
+ * bucket, so password guessing cannot saturate the hashing threads. Cache
+ * hits are not charged: they require the current password, and an
+ * attacker exhausting the bucket of an account does not lock its owner out
+ * of a session that was recently verified. A bucket left idle until it is
+ * full again is no different from a new one, so such buckets are dropped
+ * once per refill period, and only accounts making attempts take memory.</p>
+ * <p>
+ * Verifications and buckets are kept by primary address. The service
+ * subscribes to the {@link AccountEventStream} of its directory when it
+ * is created and forgets the accounts removed from it;
+ * {@link #close()} cancels the subscription.</p>
+ * <p>
+ * The hasher runs on the bounded threads of a
+ * {@link PasswordHashingService}, {@link PasswordHashingService#getDefault()}
+ * unless given another one, never on the thread logging in. An attempt
+ * finding its queue full is answered {@link Result#BUSY}, and gets back
+ * the attempt it was charged.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class AuthenticationService implements AutoCloseable {
+	/** Default number of cached verifications */
+	public static final int DEFAULT_CACHE_CAPACITY = 100_000;
+	/** Default lifetime of a cached verification, in milliseconds */
+	public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+	/** Default number of attempts an account can make in a burst */
+	public static final int DEFAULT_BURST = 10;
+	/** Default sustained number of attempts per second and account */
+	public static final double DEFAULT_ATTEMPTS_PER_SECOND = 1.0;
+
+	private static final int STRIPES = 16;
+	private static final String MAC = "HmacSHA256";
+
+	/** The result of an authentication attempt */
+	public enum Result { AUTHENTICATED, REJECTED, RATE_LIMITED, BUSY }
+
+	private final EmailDirectory directory;
+	private final PasswordHashingService hashing;
+	private final long ttlNanos;
+	private final int burst;
+	private final double tokensPerNano;
+	private final LongSupplier clock;
+	private final SecretKeySpec key;
+	private final ThreadLocal<Mac> macs;
+	private final VerifiedCache[] stripes = new VerifiedCache[STRIPES];
+	private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+	private final long sweepIntervalNanos;
+	private final AtomicLong nextSweep;
+	private final AccountEventStream.Subscription subscription;
+	private final LongAdder authenticated = new LongAdder();
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder rateLimited = new LongAdder();
+	private final LongAdder busy = new LongAdder();
+
+	// Abstraction Function
+	//  Represents an authenticator for the accounts of directory, verifying
+	//  passwords on hashing, which
+	//  remembers for every primary address a in stripes[stripe(a)] that the
+	//  password whose digest is recorded was verified against the recorded
+	//  password hash, until the recorded expiry; and which allows the
+	//  account with primary address a as many hasher-backed attempts as
+	//  buckets.get(a) has whole tokens, or burst if it has no bucket.
+	//
+	// Representation Invariant
+	//  - ttlNanos > 0, burst > 0, tokensPerNano > 0, sweepIntervalNanos > 0
+	//  - every stripe holds at most its capacity entries
+	//  - every bucket holds between 0 and burst tokens
+	//  - no bucket has been full since before nextSweep - sweepIntervalNanos
+	//
+	// Safety from Exposure
+	//  - All fields are private and final; caches, buckets and the
+	//    subscription are never returned
+	//  - the digest key never leaves this object
+	//
+	// Thread Safety Argument
+	//  - every stripe is an access-ordered LinkedHashMap, only used while
+	//    holding its lock
+	//  - buckets is a ConcurrentHashMap; buckets are only created, used
+	//    and dropped in its compute methods, so a bucket is never changed
+	//    after it was dropped
+	//  - one thread at a time sweeps, the one advancing nextSweep
+	//  - the subscription thread only forgets accounts, like forget()
+	//  - Macs are confined to their thread by a ThreadLocal
+	//  - the password hash of an account is read while holding its lock,
+	//    like the mutators of EmailDirectory, so a reset is seen at once
+	//  - hashing is thread-safe; verifications it completes only touch
+	//    the caches, buckets and counters, like the thread logging in
+	//  - counters are LongAdders
+
+	/**
+	 * Creates a service with the default cache and rate limits
+	 *
+	 * @param directory non-null directory resolving login addresses
+	 */
+	public AuthenticationService(final EmailDirectory directory) {
+		this(directory, DEFAULT_CACHE_CAPACITY, DEFAULT_TTL_MILLIS, DEFAULT_BURST, DEFAULT_ATTEMPTS_PER_SECOND);
+	}
+
+	/**
+	 * Creates a service
+	 *
+	 * @param directory non-null directory resolving login addresses
+	 * @param cacheCapacity maximum number of cached verifications, requires cacheCapacity > 0
+	 * @param ttlMillis lifetime of a cached verification, requires ttlMillis > 0
+	 * @param burst maximum number of attempts an account can make at once, requires burst > 0
+	 * @param attemptsPerSecond sustained attempts per account, requires attemptsPerSecond > 0
+	 */
+	public AuthenticationService(final EmailDirectory directory, final int cacheCapacity, final long ttlMillis,
+			final int burst, final double attemptsPerSecond) {
+		this(directory, PasswordHashingService.getDefault(), cacheCapacity, ttlMillis, burst, attemptsPerSecond);
+	}
+
+	/**
+	 * Creates a service verifying passwords with hashing
+	 *
+	 * @param directory non-null directory resolving login addresses
+	 * @param hashing non-null service running the hasher
+	 * @param cacheCapacity maximum number of cached verifications, requires cacheCapacity > 0
+	 * @param ttlMillis lifetime of a cached verification, requires ttlMillis > 0
+	 * @param burst maximum number of attempts an account can make at once, requires burst > 0
+	 * @param attemptsPerSecond sustained attempts per account, requires attemptsPerSecond > 0
+	 */
+	public AuthenticationService(final EmailDirectory directory, final PasswordHashingService hashing,
+			final int cacheCapacity, final long ttlMillis, final int burst, final double attemptsPerSecond) {
+		this(directory, hashing, cacheCapacity, ttlMillis, burst, attemptsPerSecond, System::nanoTime);
+	}
+
+	AuthenticationService(final EmailDirectory directory, final PasswordHashingService hashing,
+			final int cacheCapacity, final long ttlMillis, final int burst, final double attemptsPerSecond,
+			final LongSupplier clock) {
+		if (cacheCapacity <= 0 || ttlMillis <= 0 || burst <= 0 || !(attemptsPerSecond > 0)) {
+			throw new IllegalArgumentException("cache capacity, ttl, burst and rate must be > 0");
+		}
+		this.directory = directory;
+		this.hashing = hashing;
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		this.burst = burst;
+		this.tokensPerNano = attemptsPerSecond / TimeUnit.SECONDS.toNanos(1);
+		this.clock = clock;
+		this.sweepIntervalNanos = Math.max(1, (long) Math.ceil(burst / tokensPerNano));
+		this.nextSweep = new AtomicLong(clock.getAsLong() + sweepIntervalNanos);
+		final byte[] secret = new byte[32];
+		new SecureRandom().nextBytes(secret);
+		this.key = new SecretKeySpec(secret, MAC);
+		this.macs = ThreadLocal.withInitial(this::newMac);
+		final int perStripe = (cacheCapacity + STRIPES - 1) / STRIPES;
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new VerifiedCache(perStripe);
+		}
+		this.subscription = directory.getEvents().subscribe("authentication", 1024, events -> {
+			for (AccountEventStream.Event event : events) {
+				if (event.getType() == AccountEventStream.Event.Type.REMOVED) {
+					forget(event.getEmailAddress());
+				}
+			}
+		});
+
+		checkRep();
+	}
+
+	private void checkRep() {
+		assert ttlNanos > 0 && burst > 0 && tokensPerNano > 0 && sweepIntervalNanos > 0;
+	}
+
+	/**
+	 * Checks a login, waiting for the hasher if needed
+	 *
+	 * @param address case-insensitive primary or alternate address
+	 * @param password non-null case-sensitive String
+	 * @return AUTHENTICATED if address belongs to a registered account whose
+	 *         current password is password; RATE_LIMITED if the password
+	 *         would have to be verified but the account has used up its
+	 *         attempts; BUSY if it would have to be verified but the
+	 *         hashing threads are saturated; REJECTED otherwise
+	 */
+	public Result authenticate(final String address, final String password) {
+		return authenticateAsync(address, password).join();
+	}
+
+	/**
+	 * Checks the password of email, waiting for the hasher if needed
+	 *
+	 * @param email non-null account
+	 * @param password non-null case-sensitive String
+	 * @return the result of {@link #authenticateAsync(Email, String)}
+	 * @see #authenticate(String, String)
+	 */
+	public Result authenticate(final Email email, final String password) {
+		return authenticateAsync(email, password).join();
+	}
+
+	/**
+	 * Checks a login without waiting for the hasher
+	 *
+	 * @param address case-insensitive primary or alternate address
+	 * @param password non-null case-sensitive String
+	 * @return the result, as documented by {@link #authenticate(String, String)};
+	 *         completed at once unless the password has to be verified
+	 */
+	public CompletableFuture<Result> authenticateAsync(final String address, final String password) {
+		final Email email = directory.lookup(address);
+		if (email == null) {
+			rejected.increment();
+			return CompletableFuture.completedFuture(Result.REJECTED);
+		}
+		return authenticateAsync(email, password);
+	}
+
+	/**
+	 * Checks the password of email without waiting for the hasher
+	 *
+	 * @param email non-null account
+	 * @param password non-null case-sensitive String
+	 * @return AUTHENTICATED if password is the current password of email;
+	 *         RATE_LIMITED if the password would have to be verified but
+	 *         email has used up its attempts; BUSY if it would have to be
+	 *         verified but the hashing threads are saturated; REJECTED
+	 *         otherwise. Completed at once unless the password has to be
+	 *         verified.
+	 */
+	public CompletableFuture<Result> authenticateAsync(final Email email, final String password) {
+		final String passwordHash;
+		synchronized (email) {
+			passwordHash = email.getPasswordHash();
+		}
+		final String address = email.getEmailAddress();
+		final byte[] digest = digest(password);
+		final long now = clock.getAsLong();
+		final VerifiedCache cache = stripe(address);
+		final Verified cached;
+		synchronized (cache) {
+			cached = cache.get(address);
+		}
+		if (cached != null && cached.passwordHash == passwordHash && now - cached.expiresAt < 0
+				&& MessageDigest.isEqual(cached.digest, digest)) {
+			cacheHits.increment();
+			authenticated.increment();
+			return CompletableFuture.completedFuture(Result.AUTHENTICATED);
+		}
+
+		if (!tryAcquire(address, now)) {
+			rateLimited.increment();
+			return CompletableFuture.completedFuture(Result.RATE_LIMITED);
+		}
+		// verify against the hash read above, so the entry is dropped on the
+		// next attempt if the password was reset in the meantime
+		return hashing.verify(password, passwordHash).handle((verified, failure) -> {
+			if (failure != null) {
+				final Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+				if (!(cause instanceof RejectedExecutionException)) {
+					throw new CompletionException(cause);
+				}
+				// the hasher never ran, so the attempt is not spent
+				refund(address);
+				busy.increment();
+				return Result.BUSY;
+			}
+			if (!verified) {
+				rejected.increment();
+				return Result.REJECTED;
+			}
+			synchronized (cache) {
+				cache.put(address, new Verified(passwordHash, digest, now + ttlNanos));
+			}
+			authenticated.increment();
+			return Result.AUTHENTICATED;
+		});
+	}
+
+	/**
+	 * Drops the cached verification and the rate limit of email, as done
+	 * for the accounts removed from the directory
+	 *
+	 * @param email non-null account
+	 */
+	public void forget(final Email email) {
+		forget(email.getEmailAddress());
+	}
+
+	private void forget(final String address) {
+		final VerifiedCache cache = stripe(address);
+		synchronized (cache) {
+			cache.remove(address);
+		}
+		buckets.remove(address);
+	}
+
+	/** Stops forgetting the accounts removed from the directory */
+	@Override public void close() {
+		subscription.cancel();
+	}
+
+	/** Returns the number of cached verifications, including expired ones not yet evicted */
+	public int getCachedCount() {
+		int count = 0;
+		for (VerifiedCache cache : stripes) {
+			synchronized (cache) {
+				count += cache.size();
+			}
+		}
+		return count;
+	}
+
+	/** Returns the number of accounts whose rate limit is tracked, the others having all their attempts */
+	public int getBucketCount() {
+		return buckets.size();
+	}
+
+	/** Returns the number of successful logins since this service was created */
+	public long getAuthenticatedCount() {
+		return authenticated.sum();
+	}
+	/** Returns the number of successful logins served from the cache */
+	public long getCacheHitCount() {
+		return cacheHits.sum();
+	}
+	/** Returns the number of logins rejected for an unknown address or a wrong password */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+	/** Returns the number of logins refused by the rate limit */
+	public long getRateLimitedCount() {
+		return rateLimited.sum();
+	}
+	/** Returns the number of logins turned away by saturated hashing threads */
+	public long getBusyCount() {
+		return busy.sum();
+	}
+
+	@Override public String toString() {
+		return "authenticated: " + getAuthenticatedCount() + ","
+				+ "cacheHits: " + getCacheHitCount() + ","
+				+ "rejected: " + getRejectedCount() + ","
+				+ "rateLimited: " + getRateLimitedCount() + ","
+				+ "busy: " + getBusyCount();
+	}
+
+	private VerifiedCache stripe(final String address) {
+		final int h = address.hashCode();
+		return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+	}
+
+	/** Takes an attempt from the bucket of address, first sweeping the buckets if it is time to */
+	private boolean tryAcquire(final String address, final long now) {
+		final long sweep = nextSweep.get();
+		if (now - sweep >= 0 && nextSweep.compareAndSet(sweep, now + sweepIntervalNanos)) {
+			for (String idle : buckets.keySet()) {
+				buckets.computeIfPresent(idle, (a, bucket) -> bucket.isFull(now) ? null : bucket);
+			}
+		}
+		final boolean[] acquired = new boolean[1];
+		buckets.compute(address, (a, bucket) -> {
+			final TokenBucket current = bucket != null ? bucket : new TokenBucket(burst, now);
+			acquired[0] = current.tryAcquire(now);
+			return current;
+		});
+		return acquired[0];
+	}
+
+	/** Gives back an attempt taken by tryAcquire; a dropped bucket is full already */
+	private void refund(final String address) {
+		buckets.computeIfPresent(address, (a, bucket) -> {
+			bucket.refund();
+			return bucket;
+		});
+	}
+
+	private byte[] digest(final String password) {
+		return macs.get().doFinal(password.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private Mac newMac() {
+		try {
+			final Mac mac = Mac.getInstance(MAC);
+			mac.init(key);
+			return mac;
+		} catch (GeneralSecurityException e) {
+			// not expected: every JDK ships HmacSHA256
+			throw new IllegalStateException(MAC + " unavailable", e);
+		}
+	}
+
+	/** A successful verification: the digest of a password and the hash it matched */
+	private static final class Verified {
+		private final String passwordHash;
+		private final byte[] digest;
+		private final long expiresAt;
+
+		Verified(final String passwordHash, final byte[] digest, final long expiresAt) {
+			this.passwordHash = passwordHash;
+			this.digest = digest;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/** A bounded map of verifications evicting the least recently used, guarded by its own lock */
+	private static final class VerifiedCache extends LinkedHashMap<String, Verified> {
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+
+		VerifiedCache(final int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override protected boolean removeEldestEntry(final Map.Entry<String, Verified> eldest) {
+			return size() > capacity;
+		}
+	}
+
+	/** The attempts left to one account, refilled at a constant rate; only used inside the compute methods of buckets */
+	private final class TokenBucket {
+		private double tokens;
+		private long updated;
+
+		// Representation Invariant
+		//  - 0 <= tokens <= burst
+
+		TokenBucket(final double tokens, final long now) {
+			this.tokens = tokens;
+			this.updated = now;
+		}
+
+		boolean tryAcquire(final long now) {
+			refill(now);
+			if (tokens < 1) {
+				return false;
+			}
+			tokens--;
+			return true;
+		}
+
+		/** Gives back an attempt taken by tryAcquire */
+		void refund() {
+			tokens = Math.min(burst, tokens + 1);
+		}
+
+		/** Returns true if and only if the bucket has refilled to burst tokens by now */
+		boolean isFull(final long now) {
+			refill(now);
+			return tokens >= burst;
+		}
+
+		private void refill(final long now) {
+			if (now - updated > 0) {
+				tokens = Math.min(burst, tokens + (now - updated) * tokensPerNano);
+				updated = now;
+			}
+		}
+	}
+}
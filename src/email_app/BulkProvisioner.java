@@ -0,0 +1,348 @@
+package email_app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+/**
+ * The {@code BulkProvisioner} class creates {@link Email} accounts for a whole
+ * batch of employees at once, e.g. from an HR export.
+ * <p>
+ * Records are split into batches of at most {@code batchSize} and the batches
+ * are created in parallel on a {@link ForkJoinPool} owned by the provisioner
+ * and shared by all its calls; idle workers exit on their own, so a
+ * provisioner needs no closing. Records are read in chunks of a few batches
+ * per worker, so creating accounts starts before a long stream is
+ * exhausted. Every record yields exactly one {@link Outcome}, in the same
+ * order as the input, so a record that cannot be provisioned, even with an
+ * {@link Error}, never aborts the rest of the batch. Only a
+ * {@link VirtualMachineError}, such as running out of memory, is rethrown
+ * and ends the batch.</p>
+ * <p>
+ * A provisioner created with an {@link AddressAllocator} also registers
+ * the accounts in the allocator's directory, giving employees who share a
+ * name distinct addresses. Suffixes are reserved sequentially in input
+ * order before the accounts are created in parallel, so the addresses
+ * only depend on the input and on the accounts already registered.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class BulkProvisioner {
+	/** Default number of records created by a single fork-join task */
+	public static final int DEFAULT_BATCH_SIZE = 512;
+	/** Number of batches per worker read from the input before they are created */
+	private static final int BATCHES_PER_CHUNK = 4;
+
+	private final int parallelism;
+	private final int batchSize;
+	private final AddressAllocator allocator;
+	private final ForkJoinPool pool;
+
+	// Abstraction Function
+	//  Represents a provisioning engine that creates accounts using
+	//  parallelism worker threads of pool, batchSize records per task, and
+	//  registers them with allocator unless it is null.
+	//
+	// Representation Invariant
+	//  - parallelism > 0
+	//  - batchSize > 0
+	//  - pool.getParallelism() == parallelism
+	//
+	// Safety from Exposure
+	//  - All fields are private and final; allocator is thread-safe
+	//  - pool is never returned and only runs ProvisionTasks
+
+	/** Creates a provisioner using all available cores and the default batch size */
+	public BulkProvisioner() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Creates a provisioner
+	 *
+	 * @param parallelism number of worker threads, requires parallelism > 0
+	 * @param batchSize maximum number of records created by one task, requires batchSize > 0
+	 */
+	public BulkProvisioner(final int parallelism, final int batchSize) {
+		this(parallelism, batchSize, null);
+	}
+
+	/**
+	 * Creates a provisioner that registers accounts with unique addresses
+	 *
+	 * @param parallelism number of worker threads, requires parallelism > 0
+	 * @param batchSize maximum number of records created by one task, requires batchSize > 0
+	 * @param allocator allocator assigning addresses and registering the
+	 *        accounts in its directory, null to only create the accounts
+	 */
+	public BulkProvisioner(final int parallelism, final int batchSize, final AddressAllocator allocator) {
+		if (parallelism <= 0 || batchSize <= 0) {
+			throw new IllegalArgumentException("parallelism and batchSize must be > 0");
+		}
+		this.parallelism = parallelism;
+		this.batchSize = batchSize;
+		this.allocator = allocator;
+		this.pool = new ForkJoinPool(parallelism);
+
+		checkRep();
+	}
+
+	private void checkRep() {
+		assert parallelism > 0;
+		assert batchSize > 0;
+		assert pool.getParallelism() == parallelism;
+	}
+
+	/**
+	 * Provisions an account for every record in records
+	 *
+	 * @param records non-null records, consumed exactly once
+	 * @return a report holding one outcome per record, in encounter order
+	 */
+	public Report provision(final Stream<Request> records) {
+		return provision(records.iterator());
+	}
+
+	/**
+	 * Provisions an account for every record in records
+	 *
+	 * @param records non-null iterable of records
+	 * @return a report holding one outcome per record, in iteration order
+	 */
+	public Report provision(final Iterable<Request> records) {
+		return provision(records.iterator());
+	}
+
+	private Report provision(final Iterator<Request> records) {
+		final long start = System.nanoTime();
+		final int chunkSize = (int) Math.min(Integer.MAX_VALUE, (long) parallelism * batchSize * BATCHES_PER_CHUNK);
+		final List<Outcome> outcomes = new ArrayList<>();
+		final List<Request> chunk = new ArrayList<>();
+		while (records.hasNext()) {
+			chunk.add(records.next());
+			if (chunk.size() == chunkSize || !records.hasNext()) {
+				provisionChunk(chunk, outcomes);
+				chunk.clear();
+			}
+		}
+		final long elapsedNanos = System.nanoTime() - start;
+
+		return new Report(outcomes.toArray(new Outcome[outcomes.size()]), elapsedNanos);
+	}
+
+	/** Provisions an account for every record of requests, appending their outcomes to outcomes */
+	private void provisionChunk(final List<Request> requests, final List<Outcome> outcomes) {
+		final Outcome[] created = new Outcome[requests.size()];
+		final int[] suffixes = new int[requests.size()];
+		if (allocator != null) {
+			for (int index = 0; index < suffixes.length; index++) {
+				final Request request = requests.get(index);
+				if (isValid(request)) {
+					suffixes[index] = allocator.reserve(request.getFirstname(), request.getLastname(),
+							department(request));
+				}
+			}
+		}
+		pool.invoke(new ProvisionTask(requests, suffixes, created, 0, created.length));
+		outcomes.addAll(Arrays.asList(created));
+	}
+
+	/** Returns the outcome of creating a single account from request */
+	static Outcome create(final Request request) {
+		return create(request, 0, null);
+	}
+
+	/** Returns the outcome of creating an account from request, registered by allocator if non-null */
+	private static Outcome create(final Request request, final int suffix, final AddressAllocator allocator) {
+		if (request == null) {
+			return Outcome.failure(null, "missing record");
+		}
+		if (!isValid(request)) {
+			return Outcome.failure(request, "firstname and lastname must be non-empty");
+		}
+		try {
+			final Email email = new Email(request.getFirstname(), request.getLastname(), department(request), suffix);
+			if (allocator == null) {
+				return Outcome.success(request, email);
+			}
+			final Email registered = allocator.register(email);
+			return registered == null
+					? Outcome.failure(request, "address already taken: " + email.getEmailAddress())
+					: Outcome.success(request, registered);
+		} catch (VirtualMachineError e) {
+			// the JVM is broken, not the record: nothing else can be provisioned
+			throw e;
+		} catch (RuntimeException | Error e) {
+			// any other Error only fails its own record, so the report still tells
+			// which accounts of the batch were created
+			return Outcome.failure(request, e.getMessage() == null ? e.toString() : e.getMessage());
+		}
+	}
+
+	private static boolean isValid(final Request request) {
+		return request != null && !isBlank(request.getFirstname()) && !isBlank(request.getLastname());
+	}
+
+	private static String department(final Request request) {
+		return request.getDepartment() == null ? "" : request.getDepartment();
+	}
+
+	private static boolean isBlank(final String s) {
+		return s == null || s.trim().isEmpty();
+	}
+
+	/** Creates the accounts for requests[from, to), splitting into batches of at most batchSize */
+	private final class ProvisionTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<Request> requests;
+		private final int[] suffixes;
+		private final Outcome[] outcomes;
+		private final int from;
+		private final int to;
+
+		ProvisionTask(final List<Request> requests, final int[] suffixes, final Outcome[] outcomes,
+				final int from, final int to) {
+			this.requests = requests;
+			this.suffixes = suffixes;
+			this.outcomes = outcomes;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override protected void compute() {
+			if (to - from <= batchSize) {
+				for (int index = from; index < to; index++) {
+					outcomes[index] = create(requests.get(index), suffixes[index], allocator);
+				}
+				return;
+			}
+			final int mid = (from + to) >>> 1;
+			invokeAll(new ProvisionTask(requests, suffixes, outcomes, from, mid),
+					new ProvisionTask(requests, suffixes, outcomes, mid, to));
+		}
+	}
+
+	/**
+	 * An immutable (firstname, lastname, department) record to be provisioned.
+	 * An empty or null department falls back to the {@link Email} default.
+	 */
+	public static final class Request {
+		private final String firstname;
+		private final String lastname;
+		private final String department;
+
+		public Request(final String firstname, final String lastname, final String department) {
+			this.firstname = firstname;
+			this.lastname = lastname;
+			this.department = department;
+		}
+
+		public String getFirstname() {
+			return firstname;
+		}
+		public String getLastname() {
+			return lastname;
+		}
+		public String getDepartment() {
+			return department;
+		}
+
+		@Override public String toString() {
+			return firstname + "," + lastname + "," + department;
+		}
+	}
+
+	/** The immutable result of provisioning one {@link Request} */
+	public static final class Outcome {
+		private final Request request;
+		private final Email email;
+		private final String error;
+
+		private Outcome(final Request request, final Email email, final String error) {
+			this.request = request;
+			this.email = email;
+			this.error = error;
+		}
+
+		static Outcome success(final Request request, final Email email) {
+			return new Outcome(request, email, "");
+		}
+		static Outcome failure(final Request request, final String error) {
+			return new Outcome(request, null, error);
+		}
+
+		/** Returns the record this outcome belongs to */
+		public Request getRequest() {
+			return request;
+		}
+		/** Returns true if and only if an account was created */
+		public boolean isSuccess() {
+			return email != null;
+		}
+		/** Returns the created account, null if unsuccessful */
+		public Email getEmail() {
+			return email;
+		}
+		/** Returns the reason for failure, "" if successful */
+		public String getError() {
+			return error;
+		}
+
+		@Override public String toString() {
+			return isSuccess() ? "ok: " + email.getEmailAddress() : "failed: " + request + ": " + error;
+		}
+	}
+
+	/** The immutable result of a whole {@link BulkProvisioner#provision} call */
+	public static final class Report {
+		private final List<Outcome> outcomes;
+		private final int successes;
+		private final long elapsedNanos;
+
+		Report(final Outcome[] outcomes, final long elapsedNanos) {
+			int count = 0;
+			for (Outcome outcome : outcomes) {
+				if (outcome.isSuccess()) {
+					count++;
+				}
+			}
+			this.outcomes = Collections.unmodifiableList(Arrays.asList(outcomes));
+			this.successes = count;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		/** Returns an unmodifiable list of outcomes, one per record in input order */
+		public List<Outcome> getOutcomes() {
+			return outcomes;
+		}
+		/** Returns the number of accounts created */
+		public int getSuccessCount() {
+			return successes;
+		}
+		/** Returns the number of records that could not be provisioned */
+		public int getFailureCount() {
+			return outcomes.size() - successes;
+		}
+		/** Returns the wall-clock time spent provisioning, in nanoseconds */
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+		/** Returns the number of records processed per second */
+		public double getAccountsPerSecond() {
+			return elapsedNanos == 0 ? 0 : outcomes.size() * 1e9 / elapsedNanos;
+		}
+
+		@Override public String toString() {
+			return "provisioned: " + successes + ","
+					+ "failed: " + getFailureCount() + ","
+					+ "accountsPerSecond: " + String.format("%.1f", getAccountsPerSecond());
+		}
+	}
+}
@@ -0,0 +1,581 @@
+package email_app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The {@code CapacityPlanner} class previews and applies mailbox capacity
+ * changes across the accounts of an {@link EmailDirectory}.
+ * <p>
+ * A {@link Policy} sets new capacities per department and per address
+ * pattern. {@link #simulate(Policy)} evaluates it against every registered
+ * account in parallel on a dedicated {@link ForkJoinPool}, without
+ * changing anything, and returns a {@link Plan}: the capacity each account
+ * would get, and per department the storage allocated now and after the
+ * change, the messages currently held according to a
+ * {@link QuotaManager}, and how many accounts would end up holding more
+ * than their new capacity.</p>
+ * <p>
+ * {@link #apply(Plan)} then makes all the changes of a plan as one batch
+ * through {@link EmailDirectory#setMailCapacity(Email, int)}, skipping
+ * the accounts removed from the directory since the plan was simulated.
+ * If an account's capacity changed since then, or a change fails, every
+ * change already made by the batch is rolled back, except on accounts
+ * changed again or removed since the batch changed them.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class CapacityPlanner {
+	/** Default number of accounts evaluated by a single fork-join task */
+	public static final int DEFAULT_BATCH_SIZE = 4096;
+
+	private final EmailDirectory directory;
+	private final QuotaManager quotas;
+	private final int parallelism;
+	private final int batchSize;
+
+	// Abstraction Function
+	//  Represents a planner of the capacities of the accounts of directory,
+	//  reading their usage from quotas, or 0 if quotas is null, and
+	//  simulating on parallelism threads, batchSize accounts per task.
+	//
+	// Representation Invariant
+	//  - parallelism > 0
+	//  - batchSize > 0
+	//
+	// Safety from Exposure
+	//  - All fields are private and final; directory and quotas are thread-safe
+	//
+	// Thread Safety Argument
+	//  - simulations only read accounts and write to arrays and tallies
+	//    confined to their tasks until the tasks are joined
+	//  - batches are applied while holding the lock of this planner, so two
+	//    plans are never applied at once
+	//  - each account is checked and changed while holding its lock, like
+	//    EmailDirectory does, so it is not removed or changed in between
+
+	/** Creates a planner of the accounts of directory using all available cores */
+	public CapacityPlanner(final EmailDirectory directory, final QuotaManager quotas) {
+		this(directory, quotas, Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Creates a planner
+	 *
+	 * @param directory non-null directory whose accounts are planned
+	 * @param quotas manager tracking the usage of the accounts of
+	 *        directory, null to plan as if every account were empty
+	 * @param parallelism number of worker threads, requires parallelism > 0
+	 * @param batchSize maximum number of accounts evaluated by one task, requires batchSize > 0
+	 */
+	public CapacityPlanner(final EmailDirectory directory, final QuotaManager quotas, final int parallelism,
+			final int batchSize) {
+		if (parallelism <= 0 || batchSize <= 0) {
+			throw new IllegalArgumentException("parallelism and batchSize must be > 0");
+		}
+		this.directory = directory;
+		this.quotas = quotas;
+		this.parallelism = parallelism;
+		this.batchSize = batchSize;
+
+		checkRep();
+	}
+
+	private void checkRep() {
+		assert parallelism > 0;
+		assert batchSize > 0;
+	}
+
+	/**
+	 * Evaluates policy against every registered account, without changing any
+	 *
+	 * @param policy non-null policy
+	 * @return the changes policy makes and their impact, per department
+	 *         and in total, as of the time each account was evaluated
+	 */
+	public Plan simulate(final Policy policy) {
+		final long start = System.nanoTime();
+		final Email[] accounts = directory.stream().toArray(Email[]::new);
+		final int[] previous = new int[accounts.length];
+		final int[] planned = new int[accounts.length];
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+		final Map<String, Tally> tallies;
+		try {
+			tallies = pool.invoke(new SimulateTask(policy, accounts, previous, planned, 0, accounts.length));
+		} finally {
+			pool.shutdown();
+		}
+		int changes = 0;
+		for (int i = 0; i < accounts.length; i++) {
+			if (planned[i] != previous[i]) {
+				accounts[changes] = accounts[i];
+				previous[changes] = previous[i];
+				planned[changes] = planned[i];
+				changes++;
+			}
+		}
+		final SortedMap<String, Impact> impacts = new TreeMap<>();
+		final Tally total = new Tally();
+		for (Map.Entry<String, Tally> entry : tallies.entrySet()) {
+			impacts.put(entry.getKey(), entry.getValue().toImpact(entry.getKey()));
+			total.add(entry.getValue());
+		}
+		return new Plan(Arrays.copyOf(accounts, changes), Arrays.copyOf(previous, changes),
+				Arrays.copyOf(planned, changes), Collections.unmodifiableSortedMap(impacts),
+				total.toImpact(""), System.nanoTime() - start);
+	}
+
+	/**
+	 * Applies every change of plan, as one batch
+	 *
+	 * @param plan non-null plan simulated by a planner of the same directory
+	 * @return true if every change was made to the accounts still
+	 *         registered, false if the capacity of an account had changed
+	 *         since plan was simulated, in which case the changes made by
+	 *         the batch have been rolled back to the capacities they replaced
+	 * @throws RuntimeException if a change fails, after rolling back the
+	 *         batch; failures of the rollback are suppressed by it
+	 */
+	public synchronized boolean apply(final Plan plan) {
+		// 0 for the accounts not changed, as capacities are > 0
+		final int[] replaced = new int[plan.accounts.length];
+		int applied = 0;
+		try {
+			for (int i = 0; i < plan.accounts.length; i++) {
+				final Email email = plan.accounts[i];
+				synchronized (email) {
+					if (directory.lookup(email.getEmailAddress()) != email) {
+						applied++;
+						continue;
+					}
+					replaced[i] = directory.setMailCapacity(email, plan.planned[i]);
+				}
+				applied++;
+				if (replaced[i] != plan.previous[i]) {
+					rollback(plan, replaced, applied, null);
+					return false;
+				}
+			}
+			return true;
+		} catch (RuntimeException e) {
+			rollback(plan, replaced, applied, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Restores the capacities replaced by the first applied changes of plan,
+	 * latest first, leaving alone the accounts removed or changed since. A
+	 * failed restore does not stop the others: it is suppressed by failure,
+	 * or thrown once all are done, suppressing the later ones, if failure
+	 * is null.
+	 */
+	private void rollback(final Plan plan, final int[] replaced, final int applied, final RuntimeException failure) {
+		RuntimeException first = failure;
+		for (int i = applied - 1; i >= 0; i--) {
+			final Email email = plan.accounts[i];
+			try {
+				synchronized (email) {
+					if (replaced[i] != 0 && directory.lookup(email.getEmailAddress()) == email
+							&& email.getMailCapacity() == plan.planned[i]) {
+						directory.setMailCapacity(email, replaced[i]);
+					}
+				}
+			} catch (RuntimeException e) {
+				if (first == null) {
+					first = e;
+				} else {
+					first.addSuppressed(e);
+				}
+			}
+		}
+		if (first != null && first != failure) {
+			throw first;
+		}
+	}
+
+	/** Evaluates accounts[from, to), splitting into batches of at most batchSize */
+	private final class SimulateTask extends RecursiveTask<Map<String, Tally>> {
+		private static final long serialVersionUID = 1L;
+
+		private final Policy policy;
+		private final Email[] accounts;
+		private final int[] previous;
+		private final int[] planned;
+		private final int from;
+		private final int to;
+
+		SimulateTask(final Policy policy, final Email[] accounts, final int[] previous, final int[] planned,
+				final int from, final int to) {
+			this.policy = policy;
+			this.accounts = accounts;
+			this.previous = previous;
+			this.planned = planned;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override protected Map<String, Tally> compute() {
+			if (to - from <= batchSize) {
+				final Map<String, Tally> tallies = new HashMap<>();
+				String department = null;
+				Tally tally = null;
+				for (int i = from; i < to; i++) {
+					final Email email = accounts[i];
+					final int current = email.getMailCapacity();
+					final int capacity = policy.capacityFor(email, current);
+					final long usage = quotas == null ? 0 : quotas.getUsage(email);
+					previous[i] = current;
+					planned[i] = capacity;
+					// accounts of a department are mostly adjacent in the directory
+					if (!email.getDepartment().equals(department)) {
+						department = email.getDepartment();
+						tally = tallies.computeIfAbsent(department, d -> new Tally());
+					}
+					tally.add(current, capacity, usage);
+				}
+				return tallies;
+			}
+			final int mid = (from + to) >>> 1;
+			final SimulateTask left = new SimulateTask(policy, accounts, previous, planned, from, mid);
+			left.fork();
+			final Map<String, Tally> right =
+					new SimulateTask(policy, accounts, previous, planned, mid, to).compute();
+			final Map<String, Tally> merged = left.join();
+			right.forEach((department, tally) -> merged.merge(department, tally, Tally::add));
+			return merged;
+		}
+	}
+
+	/** Mutable totals of a set of accounts, confined to one task until joined */
+	private static final class Tally {
+		private long accounts;
+		private long changed;
+		private long currentCapacity;
+		private long plannedCapacity;
+		private long usage;
+		private long overCapacity;
+
+		void add(final int current, final int planned, final long used) {
+			accounts++;
+			if (planned != current) {
+				changed++;
+			}
+			currentCapacity += current;
+			plannedCapacity += planned;
+			usage += used;
+			if (used > planned) {
+				overCapacity++;
+			}
+		}
+
+		Tally add(final Tally other) {
+			accounts += other.accounts;
+			changed += other.changed;
+			currentCapacity += other.currentCapacity;
+			plannedCapacity += other.plannedCapacity;
+			usage += other.usage;
+			overCapacity += other.overCapacity;
+			return this;
+		}
+
+		Impact toImpact(final String department) {
+			return new Impact(department, accounts, changed, currentCapacity, plannedCapacity, usage, overCapacity);
+		}
+	}
+
+	/**
+	 * An immutable capacity policy: new capacities by address pattern and
+	 * by department. The first pattern matching an account's primary
+	 * address wins; otherwise its department's capacity applies; otherwise
+	 * its capacity is left unchanged.
+	 */
+	public static final class Policy {
+		private final Map<String, Integer> departments;
+		private final List<Glob> patterns;
+		private final List<Integer> patternCapacities;
+
+		/** Creates a policy that changes nothing */
+		public Policy() {
+			this(Collections.<String, Integer>emptyMap(), Collections.<Glob>emptyList(),
+					Collections.<Integer>emptyList());
+		}
+
+		private Policy(final Map<String, Integer> departments, final List<Glob> patterns,
+				final List<Integer> patternCapacities) {
+			this.departments = departments;
+			this.patterns = patterns;
+			this.patternCapacities = patternCapacities;
+		}
+
+		/**
+		 * Returns this policy, also setting the capacity of the accounts of department
+		 *
+		 * @param department case-insensitive department, blank for "general"
+		 * @param capacity requires capacity > 0
+		 * @return a new policy; department rules added later replace earlier ones
+		 */
+		public Policy withDepartment(final String department, final int capacity) {
+			if (capacity <= 0) {
+				throw new IllegalArgumentException("capacity must be > 0");
+			}
+			final Map<String, Integer> grown = new HashMap<>(departments);
+			grown.put(Email.normalizeDepartment(department), capacity);
+			return new Policy(Collections.unmodifiableMap(grown), patterns, patternCapacities);
+		}
+
+		/**
+		 * Returns this policy, also setting the capacity of the accounts
+		 * whose primary address matches glob
+		 *
+		 * @param glob case-insensitive pattern of primary addresses, where
+		 *        {@code *} matches any characters and {@code ?} any one
+		 *        character, e.g. {@code *.contractor@*}
+		 * @param capacity requires capacity > 0
+		 * @return a new policy; patterns added earlier take precedence
+		 */
+		public Policy withPattern(final String glob, final int capacity) {
+			if (capacity <= 0) {
+				throw new IllegalArgumentException("capacity must be > 0");
+			}
+			final List<Glob> grownPatterns = new ArrayList<>(patterns);
+			grownPatterns.add(new Glob(glob.trim().toLowerCase(Locale.ROOT)));
+			final List<Integer> grownCapacities = new ArrayList<>(patternCapacities);
+			grownCapacities.add(capacity);
+			return new Policy(departments, Collections.unmodifiableList(grownPatterns),
+					Collections.unmodifiableList(grownCapacities));
+		}
+
+		/** Returns the capacity this policy gives email, whose capacity is current */
+		int capacityFor(final Email email, final int current) {
+			for (int i = 0; i < patterns.size(); i++) {
+				if (patterns.get(i).matches(email.getEmailAddress())) {
+					return patternCapacities.get(i);
+				}
+			}
+			final Integer capacity = departments.get(email.getDepartment());
+			return capacity == null ? current : capacity;
+		}
+
+		@Override public String toString() {
+			final StringBuilder text = new StringBuilder();
+			for (int i = 0; i < patterns.size(); i++) {
+				text.append("pattern ").append(patterns.get(i)).append(": ")
+						.append(patternCapacities.get(i)).append(',');
+			}
+			for (Map.Entry<String, Integer> entry : new TreeMap<>(departments).entrySet()) {
+				text.append("department ").append(entry.getKey()).append(": ").append(entry.getValue()).append(',');
+			}
+			return text.toString();
+		}
+	}
+
+	/**
+	 * An immutable glob pattern, where {@code *} matches any characters and
+	 * {@code ?} any one character, matched without allocating
+	 */
+	static final class Glob {
+		private final String glob;
+		private final String[] segments;
+		private final boolean anchoredStart;
+		private final boolean anchoredEnd;
+
+		// Representation Invariant
+		//  - segments are the parts of glob between stars, none empty
+		//  - anchoredStart iff glob does not start with a star,
+		//    anchoredEnd iff it does not end with one
+
+		Glob(final String glob) {
+			this.glob = glob;
+			final List<String> parts = new ArrayList<>();
+			for (String part : glob.split("\\*", -1)) {
+				if (!part.isEmpty()) {
+					parts.add(part);
+				}
+			}
+			this.segments = parts.toArray(new String[0]);
+			this.anchoredStart = !glob.startsWith("*");
+			this.anchoredEnd = !glob.endsWith("*");
+		}
+
+		/** Returns true if and only if this glob matches the whole of value */
+		boolean matches(final String value) {
+			if (segments.length == 0) {
+				// "" only matches "", any run of stars matches everything
+				return !anchoredStart || value.isEmpty();
+			}
+			int from = 0;
+			int first = 0;
+			int last = segments.length - 1;
+			if (anchoredStart) {
+				if (!regionMatches(value, 0, segments[0])) {
+					return false;
+				}
+				from = segments[0].length();
+				first = 1;
+			}
+			int end = value.length();
+			if (anchoredEnd) {
+				final String tail = segments[last];
+				if (last < first || end - tail.length() < from || !regionMatches(value, end - tail.length(), tail)) {
+					// a glob without stars must match exactly
+					return last < first && from == end;
+				}
+				end -= tail.length();
+				last--;
+			}
+			for (int s = first; s <= last; s++) {
+				final String segment = segments[s];
+				int at = from;
+				while (at + segment.length() <= end && !regionMatches(value, at, segment)) {
+					at++;
+				}
+				if (at + segment.length() > end) {
+					return false;
+				}
+				from = at + segment.length();
+			}
+			return true;
+		}
+
+		/** Returns true if segment matches value at offset, ? matching any character */
+		private static boolean regionMatches(final String value, final int offset, final String segment) {
+			if (offset + segment.length() > value.length()) {
+				return false;
+			}
+			for (int i = 0; i < segment.length(); i++) {
+				final char c = segment.charAt(i);
+				if (c != '?' && c != value.charAt(offset + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override public String toString() {
+			return glob;
+		}
+	}
+
+	/** An immutable impact of a plan on a set of accounts */
+	public static final class Impact {
+		private final String department;
+		private final long accountCount;
+		private final long changedCount;
+		private final long currentCapacity;
+		private final long plannedCapacity;
+		private final long usage;
+		private final long overCapacityCount;
+
+		Impact(final String department, final long accountCount, final long changedCount,
+				final long currentCapacity, final long plannedCapacity, final long usage,
+				final long overCapacityCount) {
+			this.department = department;
+			this.accountCount = accountCount;
+			this.changedCount = changedCount;
+			this.currentCapacity = currentCapacity;
+			this.plannedCapacity = plannedCapacity;
+			this.usage = usage;
+			this.overCapacityCount = overCapacityCount;
+		}
+
+		/** Returns the department, "" for the total of all departments */
+		public String getDepartment() {
+			return department;
+		}
+		/** Returns the number of accounts evaluated */
+		public long getAccountCount() {
+			return accountCount;
+		}
+		/** Returns the number of accounts whose capacity the plan changes */
+		public long getChangedCount() {
+			return changedCount;
+		}
+		/** Returns the sum of the capacities before the plan */
+		public long getCurrentCapacity() {
+			return currentCapacity;
+		}
+		/** Returns the sum of the capacities after the plan */
+		public long getPlannedCapacity() {
+			return plannedCapacity;
+		}
+		/** Returns the change of the sum of the capacities, negative if the plan frees storage */
+		public long getCapacityDelta() {
+			return plannedCapacity - currentCapacity;
+		}
+		/** Returns the number of messages currently held */
+		public long getUsage() {
+			return usage;
+		}
+		/** Returns the number of accounts that would hold more messages than their new capacity */
+		public long getOverCapacityCount() {
+			return overCapacityCount;
+		}
+
+		@Override public String toString() {
+			return "department: " + department + ","
+					+ "accounts: " + accountCount + ","
+					+ "changed: " + changedCount + ","
+					+ "currentCapacity: " + currentCapacity + ","
+					+ "plannedCapacity: " + plannedCapacity + ","
+					+ "usage: " + usage + ","
+					+ "overCapacity: " + overCapacityCount;
+		}
+	}
+
+	/** An immutable set of capacity changes and their impact, as simulated */
+	public static final class Plan {
+		private final Email[] accounts;
+		private final int[] previous;
+		private final int[] planned;
+		private final SortedMap<String, Impact> impacts;
+		private final Impact total;
+		private final long elapsedNanos;
+
+		// Safety from Exposure
+		//  - the arrays are never returned; accounts are only handed to the planner
+
+		private Plan(final Email[] accounts, final int[] previous, final int[] planned,
+				final SortedMap<String, Impact> impacts, final Impact total, final long elapsedNanos) {
+			this.accounts = accounts;
+			this.previous = previous;
+			this.planned = planned;
+			this.impacts = impacts;
+			this.total = total;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		/** Returns the number of accounts whose capacity the plan changes */
+		public int getChangeCount() {
+			return accounts.length;
+		}
+		/** Returns an unmodifiable map of the impact on each department with accounts, by department */
+		public SortedMap<String, Impact> getImpacts() {
+			return impacts;
+		}
+		/** Returns the impact on all accounts */
+		public Impact getTotal() {
+			return total;
+		}
+		/** Returns the wall-clock time spent simulating, in nanoseconds */
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+
+		@Override public String toString() {
+			return "changes: " + getChangeCount() + ","
+					+ "total: {" + total + "},"
+					+ "elapsedMillis: " + elapsedNanos / 1_000_000;
+		}
+	}
+}
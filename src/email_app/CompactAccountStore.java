@@ -0,0 +1,262 @@
+package email_app;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code CompactAccountStore} class holds a large number of accounts in
+ * columnar form, using far less heap than the equivalent {@link Email}
+ * objects.
+ * <p>
+ * Names are stored as UTF-8 bytes (one byte per character for the
+ * lowercase ASCII names produced by {@code Email}) in one shared arena;
+ * departments are interned into small integer ids; mail capacities are a
+ * primitive {@code int} column; the rare alternate names and address
+ * suffixes live in sparse maps. Accounts are addressed by the index
+ * returned from {@link #add(Email)} and read or mutated through an {@link Account} view,
+ * which offers the same operations as {@code Email}.</p>
+ * <p>
+ * Per account the store needs about {@value #FIXED_BYTES_PER_ACCOUNT}
+ * bytes plus the length of {@code firstname.lastname}, plus the encoded
+ * password hash once a password is set (about 110 bytes for
+ * {@link Pbkdf2PasswordHasher}), plus about 80 bytes for each account
+ * with an alternate. With a password and one alternate in
+ * ten accounts this measures about 185 bytes per account, against about
+ * 350 bytes for the same account held as an {@code Email}.</p>
+ * <p>
+ * Like {@code Email}, a {@code CompactAccountStore} is not thread-safe.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class CompactAccountStore {
+	/**
+	 * Heap used per account besides the name and password hash bytes:
+	 * name end offset, department id and mail capacity (4 bytes each),
+	 * and a reference to the password hash (4 bytes with compressed oops)
+	 */
+	public static final int FIXED_BYTES_PER_ACCOUNT = 16;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private byte[] names = new byte[INITIAL_CAPACITY * 16];
+	private int namesLength = 0;
+	private int[] nameEnds = new int[INITIAL_CAPACITY];
+	private int[] departmentIds = new int[INITIAL_CAPACITY];
+	private int[] mailCapacities = new int[INITIAL_CAPACITY];
+	private byte[][] passwordHashes = new byte[INITIAL_CAPACITY][];
+	private final Map<Integer, byte[]> altNames = new HashMap<>();
+	private final Map<Integer, Integer> suffixes = new HashMap<>();
+	private final List<String> departments = new ArrayList<>();
+	private final Map<String, Integer> departmentIndex = new HashMap<>();
+	private int size = 0;
+
+	// Abstraction Function
+	//  Represents the accounts 0..size-1, where account i has
+	//   name:         UTF-8 decoding of names[start(i), nameEnds[i]), with
+	//                 start(i) = i == 0 ? 0 : nameEnds[i-1]
+	//   alt name:     UTF-8 decoding of altNames.get(i), "" if absent
+	//   suffix:       suffixes.get(i), 0 if absent
+	//   department:   departments.get(departmentIds[i])
+	//   capacity:     mailCapacities[i]
+	//   password:     the hash encoded by the US-ASCII bytes passwordHashes[i]
+	//
+	// Representation Invariant
+	//  - 0 <= size <= nameEnds.length == departmentIds.length
+	//    == mailCapacities.length == passwordHashes.length
+	//  - nameEnds[0..size) is non-decreasing and nameEnds[size-1] == namesLength <= names.length
+	//  - 0 <= departmentIds[i] < departments.size() for i < size
+	//  - departmentIndex.get(departments.get(id)) == id for every id
+	//  - mailCapacities[i] > 0 and passwordHashes[i] != null for i < size
+	//  - every key of altNames and suffixes is in [0, size)
+	//
+	// Safety from Exposure
+	//  - All fields are private; arrays are never returned
+	//  - Account views only expose Strings and primitives
+
+	/**
+	 * Copies the state of email into this store
+	 *
+	 * @param email non-null account
+	 * @return the index of the new account
+	 */
+	public int add(final Email email) {
+		ensureCapacity(size + 1);
+		final byte[] name = email.getName().getBytes(StandardCharsets.UTF_8);
+		if (namesLength + name.length > names.length) {
+			names = Arrays.copyOf(names, Math.max(namesLength + name.length, names.length + (names.length >> 1)));
+		}
+		System.arraycopy(name, 0, names, namesLength, name.length);
+		namesLength += name.length;
+
+		final int index = size++;
+		nameEnds[index] = namesLength;
+		departmentIds[index] = internDepartment(email.getDepartment());
+		mailCapacities[index] = email.getMailCapacity();
+		passwordHashes[index] = email.getPasswordHash().getBytes(StandardCharsets.US_ASCII);
+		if (!email.getAltName().isEmpty()) {
+			altNames.put(index, email.getAltName().getBytes(StandardCharsets.UTF_8));
+		}
+		if (email.getSuffix() != 0) {
+			suffixes.put(index, email.getSuffix());
+		}
+
+		checkRep();
+		return index;
+	}
+
+	/**
+	 * Returns a view of the account at index
+	 *
+	 * @param index requires 0 <= index < size()
+	 * @return a view reading and writing through to this store
+	 */
+	public Account get(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+		}
+		return new Account(index);
+	}
+
+	/** Returns the number of accounts in this store */
+	public int size() {
+		return size;
+	}
+
+	/** Returns the number of distinct departments in this store */
+	public int departmentCount() {
+		return departments.size();
+	}
+
+	/** Shrinks the columns to the current size, releasing growth headroom */
+	public void trimToSize() {
+		names = Arrays.copyOf(names, namesLength);
+		nameEnds = Arrays.copyOf(nameEnds, size);
+		departmentIds = Arrays.copyOf(departmentIds, size);
+		mailCapacities = Arrays.copyOf(mailCapacities, size);
+		passwordHashes = Arrays.copyOf(passwordHashes, size);
+	}
+
+	private int internDepartment(final String department) {
+		Integer id = departmentIndex.get(department);
+		if (id == null) {
+			id = departments.size();
+			departments.add(department);
+			departmentIndex.put(department, id);
+		}
+		return id;
+	}
+
+	private void ensureCapacity(final int needed) {
+		if (needed <= nameEnds.length) {
+			return;
+		}
+		final int capacity = Math.max(needed, nameEnds.length + (nameEnds.length >> 1));
+		nameEnds = Arrays.copyOf(nameEnds, capacity);
+		departmentIds = Arrays.copyOf(departmentIds, capacity);
+		mailCapacities = Arrays.copyOf(mailCapacities, capacity);
+		passwordHashes = Arrays.copyOf(passwordHashes, capacity);
+	}
+
+	private void checkRep() {
+		assert 0 <= size && size <= nameEnds.length;
+		assert nameEnds.length == departmentIds.length && nameEnds.length == mailCapacities.length
+				&& nameEnds.length == passwordHashes.length;
+		assert size == 0 || nameEnds[size - 1] == namesLength;
+		assert namesLength <= names.length;
+		assert departments.size() == departmentIndex.size();
+	}
+
+	/**
+	 * A view of one account of a {@link CompactAccountStore}, offering the
+	 * same observers and mutators as {@link Email}. Views are cheap and
+	 * hold no state besides their index.
+	 */
+	public final class Account {
+		private final int index;
+
+		private Account(final int index) {
+			this.index = index;
+		}
+
+		/** Returns the index of this account in its store */
+		public int getIndex() {
+			return index;
+		}
+		/** @see Email#getName() */
+		public String getName() {
+			final int start = index == 0 ? 0 : nameEnds[index - 1];
+			return new String(names, start, nameEnds[index] - start, StandardCharsets.UTF_8);
+		}
+		/** @see Email#getAltName() */
+		public String getAltName() {
+			final byte[] altName = altNames.get(index);
+			return altName == null ? "" : new String(altName, StandardCharsets.UTF_8);
+		}
+		/** @see Email#getDepartment() */
+		public String getDepartment() {
+			return departments.get(departmentIds[index]);
+		}
+		/** @see Email#getMailCapacity() */
+		public int getMailCapacity() {
+			return mailCapacities[index];
+		}
+		/** @see Email#getEmailAddress() */
+		public String getEmailAddress() {
+			return Email.addressName(getName(), suffixes.getOrDefault(index, 0))
+					+ "@" + getDepartment() + ".company.com";
+		}
+		/** @see Email#getAltEmailAddress() */
+		public String getAltEmailAddress() {
+			final String altName = getAltName();
+			return altName.isEmpty() ? "" : altName + "@" + getDepartment() + ".company.com";
+		}
+		/** @see Email#verifyPassword(String) */
+		public boolean verifyPassword(final String password) {
+			return Email.verify(password,
+					new String(passwordHashes[index], StandardCharsets.US_ASCII));
+		}
+		/** @see Email#createAlternateEmail(String, String) */
+		public boolean createAlternateEmail(final String altFirstname, final String altLastname) {
+			assert !altFirstname.isEmpty();
+			assert !altLastname.isEmpty();
+
+			final String altName = Email.normalizeName(altFirstname) + "." + Email.normalizeName(altLastname);
+			if (altName.equals(getName())) {
+				return false;
+			}
+			altNames.put(index, altName.getBytes(StandardCharsets.UTF_8));
+			return true;
+		}
+		/** @see Email#resetPassword(String) */
+		public boolean resetPassword(final String newPassword) {
+			assert 8 <= newPassword.length() && newPassword.length() <= 25;
+
+			if (verifyPassword(newPassword)) {
+				return false;
+			}
+			passwordHashes[index] = Email.hash(newPassword).getBytes(StandardCharsets.US_ASCII);
+			return true;
+		}
+		/** @see Email#setMailCapacity(int) */
+		public int setMailCapacity(final int newMailCapacity) {
+			assert newMailCapacity > 0;
+
+			final int prev = mailCapacities[index];
+			mailCapacities[index] = newMailCapacity;
+			return prev;
+		}
+
+		/** Returns a string representation of this account in the format of {@link Email#toString()} */
+		@Override public String toString() {
+			return "email: " + getEmailAddress() + ","
+					+ "alternate: " + getAltEmailAddress() + ","
+					+ "department: " + getDepartment() + ","
+					+ "mailCapacity: " + getMailCapacity();
+		}
+	}
+}
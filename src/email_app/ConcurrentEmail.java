@@ -0,0 +1,211 @@
+package email_app;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The {@code ConcurrentEmail} class is a thread-safe variant of
+ * {@link Email}, offering the same observers and mutators.
+ * <p>
+ * The immutable identity of an account (names, department and primary
+ * address) is held in final fields. Everything that can change, namely
+ * the alternate names, the password hash and the mail capacity, is held
+ * in one immutable {@code State} snapshot that mutators replace with a
+ * compare-and-set. Readers never block: each observer reads a single
+ * snapshot, so {@link #toString()} never shows an alternate made of the
+ * firstname of one call and the lastname of another.</p>
+ * <p>
+ * {@link #resetPassword(String)} hashes the new password before its
+ * compare-and-set, so a concurrent {@code setMailCapacity} or
+ * {@code createAlternateEmail} never waits for the key derivation.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class ConcurrentEmail {
+	private final String firstname;
+	private final String lastname;
+	private final String department;
+	private final int suffix;
+	private final String emailAddress;
+	private final AtomicReference<State> state;
+
+	// Abstraction Function
+	//  Represents the email address of an employee in a company, whose
+	//  alternate names, password and mail capacity are those of state.get().
+	//
+	// Representation Invariant
+	//  - firstname, lastname and department are non-empty lowercase strings
+	//  - emailAddress == firstname.lastname[suffix]@department.company.com
+	//  - state.get() != null and satisfies the invariant of State
+	//
+	// Safety from Exposure
+	//  - All fields are private and final
+	//  - State objects are immutable and never returned
+	//
+	// Thread Safety Argument
+	//  - identity fields are final and refer to immutable Strings
+	//  - all mutable state is in one State, published through an
+	//    AtomicReference and only replaced by compareAndSet
+	//  - every observer and mutator reads state.get() once per attempt,
+	//    so it sees the fields of a single snapshot
+
+	/**
+	 * Creates an email without a password, like {@link Email#Email(String, String, String)}
+	 *
+	 * @param firstname non-empty case-insensitive firstname
+	 * @param lastname non-empty case-insensitive lastname
+	 * @param department case-insensitive department, "" for "general"
+	 */
+	public ConcurrentEmail(final String firstname, final String lastname, final String department) {
+		this(new Email(firstname, lastname, department));
+	}
+
+	/**
+	 * Creates a thread-safe copy of the current state of email
+	 *
+	 * @param email non-null account, not mutated concurrently while it is copied
+	 */
+	public ConcurrentEmail(final Email email) {
+		this.firstname = email.getFirstname();
+		this.lastname = email.getLastname();
+		this.department = email.getDepartment();
+		this.suffix = email.getSuffix();
+		this.emailAddress = email.getEmailAddress();
+		this.state = new AtomicReference<>(new State(email.getAltFirstname(), email.getAltLastname(),
+				email.getAltEmailAddress(), email.getPasswordHash(), email.getMailCapacity()));
+
+		checkRep();
+	}
+
+	private void checkRep() {
+		assert !firstname.isEmpty() && !lastname.isEmpty() && !department.isEmpty();
+		assert state.get() != null;
+	}
+
+	/** Returns a plain {@link Email} holding the current state of this email */
+	public Email toEmail() {
+		final State s = state.get();
+		return Email.restore(firstname, lastname, department,
+				s.altFirstname, s.altLastname, s.passwordHash, s.mailCapacity, suffix);
+	}
+
+	/** @see Email#createAlternateEmail(String, String) */
+	public boolean createAlternateEmail(final String altFirstname, final String altLastname) {
+		assert !altFirstname.isEmpty();
+		assert !altLastname.isEmpty();
+
+		final String first = Email.normalizeName(altFirstname);
+		final String last = Email.normalizeName(altLastname);
+		if (firstname.equals(first) && lastname.equals(last)) {
+			return false;
+		}
+		final String address = first + "." + last + "@" + department + ".company.com";
+		State current;
+		do {
+			current = state.get();
+		} while (!state.compareAndSet(current,
+				new State(first, last, address, current.passwordHash, current.mailCapacity)));
+		return true;
+	}
+	/** @see Email#getName() */
+	public String getName() {
+		return firstname + "." + lastname;
+	}
+	/** @see Email#getAltName() */
+	public String getAltName() {
+		final State s = state.get();
+		return s.altFirstname.isEmpty() ? "" : s.altFirstname + "." + s.altLastname;
+	}
+	/** @see Email#getDepartment() */
+	public String getDepartment() {
+		return department;
+	}
+	/** @see Email#getMailCapacity() */
+	public int getMailCapacity() {
+		return state.get().mailCapacity;
+	}
+	/** @see Email#getEmailAddress() */
+	public String getEmailAddress() {
+		return emailAddress;
+	}
+	/** @see Email#getAltEmailAddress() */
+	public String getAltEmailAddress() {
+		return state.get().altEmailAddress;
+	}
+	/** Returns the encoded hash of the current password, for account stores */
+	String getPasswordHash() {
+		return state.get().passwordHash;
+	}
+	/** @see Email#verifyPassword(String) */
+	public boolean verifyPassword(final String password) {
+		return Email.verify(password, state.get().passwordHash);
+	}
+	/** @see Email#resetPassword(String) */
+	public boolean resetPassword(final String newPassword) {
+		assert 8 <= newPassword.length() && newPassword.length() <= 25;
+
+		String verifiedHash = null;
+		String newHash = null;
+		while (true) {
+			final State current = state.get();
+			// only verify again if another reset won the race
+			if (current.passwordHash != verifiedHash) {
+				if (Email.verify(newPassword, current.passwordHash)) {
+					return false;
+				}
+				verifiedHash = current.passwordHash;
+			}
+			if (newHash == null) {
+				newHash = Email.hash(newPassword);
+				continue;
+			}
+			if (state.compareAndSet(current, new State(current.altFirstname, current.altLastname,
+					current.altEmailAddress, newHash, current.mailCapacity))) {
+				return true;
+			}
+		}
+	}
+	/** @see Email#setMailCapacity(int) */
+	public int setMailCapacity(final int newMailCapacity) {
+		assert newMailCapacity > 0;
+
+		State current;
+		do {
+			current = state.get();
+		} while (!state.compareAndSet(current, new State(current.altFirstname, current.altLastname,
+				current.altEmailAddress, current.passwordHash, newMailCapacity)));
+		return current.mailCapacity;
+	}
+
+	/** Returns a string representation of this email in the format of {@link Email#toString()} */
+	@Override public String toString() {
+		final State s = state.get();
+		return "email: " + emailAddress + ","
+				+ "alternate: " + s.altEmailAddress + ","
+				+ "department: " + department + ","
+				+ "mailCapacity: " + s.mailCapacity;
+	}
+
+	/** An immutable snapshot of the mutable state of an email */
+	private static final class State {
+		private final String altFirstname;
+		private final String altLastname;
+		private final String altEmailAddress;
+		private final String passwordHash;
+		private final int mailCapacity;
+
+		// Representation Invariant
+		//  - altFirstname and altLastname are both empty or both non-empty
+		//  - altEmailAddress is "" iff altFirstname is empty
+		//  - passwordHash is "" or an encoded hash, mailCapacity > 0
+
+		State(final String altFirstname, final String altLastname, final String altEmailAddress,
+				final String passwordHash, final int mailCapacity) {
+			this.altFirstname = altFirstname;
+			this.altLastname = altLastname;
+			this.altEmailAddress = altEmailAddress;
+			this.passwordHash = passwordHash;
+			this.mailCapacity = mailCapacity;
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package email_app;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The {@code DepartmentAggregator} class maintains per-department totals of
+ * a set of {@link Email} accounts: the number of accounts, their total and
+ * maximum mail capacity, and the number of accounts with an alternate
+ * address.
+ * <p>
+ * The totals are updated incrementally as accounts are added, removed or
+ * mutated, so a query costs the same whatever the number of accounts.
+ * {@link EmailDirectory} keeps one aggregator up to date with its accounts
+ * and exposes it through {@link EmailDirectory#getDepartmentStats(String)}.
+ * Ad-hoc queries over any subset of accounts, e.g. those matching a
+ * predicate, are answered by {@link #aggregate(Stream)}, which scans the
+ * accounts with a parallel stream.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class DepartmentAggregator {
+	private final ConcurrentMap<String, Tally> tallies = new ConcurrentHashMap<>();
+
+	// Abstraction Function
+	//  Represents the totals tallies.get(d).snapshot(d) of every department d,
+	//  and empty totals for departments not in tallies.
+	//
+	// Representation Invariant
+	//  - every Tally satisfies its own invariant
+	//
+	// Safety from Exposure
+	//  - tallies is private and final; only immutable Stats are returned
+	//
+	// Thread Safety Argument
+	//  - tallies is a ConcurrentHashMap, tallies are created with computeIfAbsent
+	//    and never removed, so concurrent updates never lose a Tally
+	//  - each Tally guards its fields with its own monitor; updates and
+	//    snapshots of a department are atomic with respect to each other
+
+	/** Returns the current totals of department, all zero if it has no accounts */
+	public Stats get(final String department) {
+		final String key = department.trim().toLowerCase(Locale.ROOT);
+		final Tally tally = tallies.get(key);
+		return tally == null ? new Stats(key, 0, 0, 0, 0) : tally.snapshot(key);
+	}
+
+	/** Returns the current totals of every department with at least one account */
+	public Map<String, Stats> getAll() {
+		final Map<String, Stats> all = new TreeMap<>();
+		tallies.forEach((department, tally) -> {
+			final Stats stats = tally.snapshot(department);
+			if (stats.getAccountCount() > 0) {
+				all.put(department, stats);
+			}
+		});
+		return Collections.unmodifiableMap(all);
+	}
+
+	/**
+	 * Computes per-department totals by scanning accounts, in parallel if
+	 * accounts is a parallel stream
+	 *
+	 * @param accounts distinct accounts, not mutated during the scan
+	 * @return the totals of every department of accounts
+	 */
+	public static Map<String, Stats> aggregate(final Stream<Email> accounts) {
+		return Collections.unmodifiableMap(new TreeMap<>(accounts.collect(
+				Collectors.groupingByConcurrent(Email::getDepartment, Collector.of(
+						() -> new long[4],
+						(totals, email) -> {
+							totals[0]++;
+							totals[1] += email.getMailCapacity();
+							totals[2] = Math.max(totals[2], email.getMailCapacity());
+							totals[3] += email.getAltEmailAddress().isEmpty() ? 0 : 1;
+						},
+						(left, right) -> {
+							left[0] += right[0];
+							left[1] += right[1];
+							left[2] = Math.max(left[2], right[2]);
+							left[3] += right[3];
+							return left;
+						},
+						Collector.Characteristics.UNORDERED)))
+				.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, entry -> {
+					final long[] totals = entry.getValue();
+					return new Stats(entry.getKey(), totals[0], totals[1], (int) totals[2], totals[3]);
+				}))));
+	}
+
+	/** Counts email, which has just been added to the aggregated set */
+	void added(final Email email) {
+		tally(email.getDepartment()).add(email.getMailCapacity(), !email.getAltEmailAddress().isEmpty());
+	}
+
+	/** Uncounts email, which has just been removed from the aggregated set */
+	void removed(final Email email) {
+		tally(email.getDepartment()).remove(email.getMailCapacity(), !email.getAltEmailAddress().isEmpty());
+	}
+
+	/** Records that email, an aggregated account, has just changed its capacity from previous */
+	void mailCapacityChanged(final Email email, final int previous) {
+		tally(email.getDepartment()).changeCapacity(previous, email.getMailCapacity());
+	}
+
+	/** Records that email, an aggregated account, has just set its first alternate address */
+	void alternateCreated(final Email email) {
+		tally(email.getDepartment()).addAlternate();
+	}
+
+	private Tally tally(final String department) {
+		final Tally tally = tallies.get(department);
+		return tally != null ? tally : tallies.computeIfAbsent(department, d -> new Tally());
+	}
+
+	/** The mutable totals of one department */
+	private static final class Tally {
+		private long accounts = 0;
+		private long totalCapacity = 0;
+		private long alternates = 0;
+		/** number of accounts per capacity, to find the maximum after a removal */
+		private final TreeMap<Integer, Integer> capacities = new TreeMap<>();
+
+		// Representation Invariant
+		//  - accounts == sum of capacities.values()
+		//  - totalCapacity == sum of key * value over capacities
+		//  - 0 <= alternates <= accounts
+
+		synchronized void add(final int capacity, final boolean alternate) {
+			accounts++;
+			totalCapacity += capacity;
+			alternates += alternate ? 1 : 0;
+			capacities.merge(capacity, 1, Integer::sum);
+		}
+
+		synchronized void remove(final int capacity, final boolean alternate) {
+			accounts--;
+			totalCapacity -= capacity;
+			alternates -= alternate ? 1 : 0;
+			capacities.computeIfPresent(capacity, (c, count) -> count == 1 ? null : count - 1);
+		}
+
+		synchronized void changeCapacity(final int previous, final int capacity) {
+			totalCapacity += capacity - previous;
+			capacities.computeIfPresent(previous, (c, count) -> count == 1 ? null : count - 1);
+			capacities.merge(capacity, 1, Integer::sum);
+		}
+
+		synchronized void addAlternate() {
+			alternates++;
+		}
+
+		synchronized Stats snapshot(final String department) {
+			return new Stats(department, accounts, totalCapacity,
+					capacities.isEmpty() ? 0 : capacities.lastKey(), alternates);
+		}
+	}
+
+	/** The immutable totals of one department */
+	public static final class Stats {
+		private final String department;
+		private final long accountCount;
+		private final long totalMailCapacity;
+		private final int maxMailCapacity;
+		private final long alternateCount;
+
+		Stats(final String department, final long accountCount, final long totalMailCapacity,
+				final int maxMailCapacity, final long alternateCount) {
+			this.department = department;
+			this.accountCount = accountCount;
+			this.totalMailCapacity = totalMailCapacity;
+			this.maxMailCapacity = maxMailCapacity;
+			this.alternateCount = alternateCount;
+		}
+
+		/** Returns the lowercase department */
+		public String getDepartment() {
+			return department;
+		}
+		/** Returns the number of accounts in the department */
+		public long getAccountCount() {
+			return accountCount;
+		}
+		/** Returns the sum of the mail capacities of the accounts */
+		public long getTotalMailCapacity() {
+			return totalMailCapacity;
+		}
+		/** Returns the largest mail capacity of the accounts, 0 if there are none */
+		public int getMaxMailCapacity() {
+			return maxMailCapacity;
+		}
+		/** Returns the number of accounts with an alternate address */
+		public long getAlternateCount() {
+			return alternateCount;
+		}
+
+		@Override public boolean equals(final Object other) {
+			if (!(other instanceof Stats)) {
+				return false;
+			}
+			final Stats that = (Stats) other;
+			return department.equals(that.department) && accountCount == that.accountCount
+					&& totalMailCapacity == that.totalMailCapacity && maxMailCapacity == that.maxMailCapacity
+					&& alternateCount == that.alternateCount;
+		}
+
+		@Override public int hashCode() {
+			return department.hashCode() + 31 * Long.hashCode(accountCount + 31 * totalMailCapacity);
+		}
+
+		@Override public String toString() {
+			return "department: " + department + ","
+					+ "accounts: " + accountCount + ","
+					+ "totalMailCapacity: " + totalMailCapacity + ","
+					+ "maxMailCapacity: " + maxMailCapacity + ","
+					+ "alternates: " + alternateCount;
+		}
+	}
+}
@@ -1,8 +1,13 @@
 package email_app;
 
-import java.security.SecureRandom;
-import java.util.Locale;
-import java.util.Random;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * The {@code Email} class represents an employee's email address
@@ -12,31 +17,83 @@ import java.util.Random;
  * An email has the following syntax: 
  * <blockquote><pre>
  * firstname.lastname@department.company.com
- * </pre></blockquote></p>
+ * </pre></blockquote>
+ * When several employees of a department share a name, an
+ * {@link AddressAllocator} gives the later ones a numeric suffix, e.g.
+ * {@code john.smith2@department.company.com}.</p>
  * <p>
  * An Email object is created by providing the {@code firstname}, {@code lastname},
  * {@code mailcodeCapacity} and an optional {@department}.
  * Once set, the {@code firstname} and {@code lastname} CANNOT be changed 
- * A random password is generated when
- * an email account is created, with the owner having the option of
- * changing the password an arbitrary number of times.
+ * An email account is created without a password, so nobody can access it
+ * until the owner sets one with {@link #resetPassword(String)}, e.g. to a
+ * password from {@link #generateRandomPassword()}. The owner has the option
+ * of changing the password an arbitrary number of times.
  * A default {@code mailboxCapacity} is assigned to which a user
  * can change.</p>
  * <p>
  * The class includes options to include an alternate email.
  * </p>
+ * <p>
+ * Passwords are never stored: only their salted hash, computed by the
+ * {@link PasswordHasher} set with {@link #setPasswordHasher(PasswordHasher)}.
+ * Creating an email hashes nothing, so provisioning many accounts never
+ * pays the cost of the key derivation.
+ * </p>
+ * <p>
+ * Account creation, password generation and resets, alternate address
+ * creation and capacity changes are counted and timed in the
+ * {@link MetricsRegistry} returned by {@link #getMetrics()}. Account
+ * creation, password generation and capacity changes are so cheap that
+ * reading the clock would dominate them, so only one in
+ * {@value #TIMING_SAMPLE_RATE} of them is timed; all are counted.
+ * Every call to the {@link PasswordHasher}, by this class and by the
+ * account stores, is timed as {@code email.password.hash.nanos} or
+ * {@code email.password.verify.nanos}, the latencies to tune its cost
+ * against.
+ * </p>
+ * <p>
+ * Names and departments are trimmed and lowercased independently of the
+ * default locale by a shared {@link NameNormalizer}, so accounts with the
+ * same name or department share one {@code String} for it.
+ * </p>
  * 
  * @author dawiditer
  *
  */
 public class Email {
+	private static volatile PasswordHasher hasher = new Pbkdf2PasswordHasher();
+	private static final ThreadLocal<CharsetEncoder> UTF_8 =
+			ThreadLocal.withInitial(StandardCharsets.UTF_8::newEncoder);
+	
+	/** One in this many account creations, password generations and capacity changes is timed */
+	static final int TIMING_SAMPLE_RATE = 64;
+	private static final MetricsRegistry METRICS = new MetricsRegistry();
+	private static final NameNormalizer NAMES = new NameNormalizer();
+	private static final LongAdder CREATED = METRICS.counter("email.created");
+	private static final LatencyHistogram CREATE_NANOS = METRICS.histogram("email.create.nanos");
+	private static final LongAdder PASSWORDS_GENERATED = METRICS.counter("email.password.generated");
+	private static final LatencyHistogram GENERATE_NANOS = METRICS.histogram("email.password.generate.nanos");
+	private static final LongAdder PASSWORD_RESETS = METRICS.counter("email.password.reset");
+	private static final LongAdder PASSWORD_RESETS_REJECTED = METRICS.counter("email.password.reset.rejected");
+	private static final LatencyHistogram RESET_NANOS = METRICS.histogram("email.password.reset.nanos");
+	private static final LatencyHistogram HASH_NANOS = METRICS.histogram("email.password.hash.nanos");
+	private static final LatencyHistogram VERIFY_NANOS = METRICS.histogram("email.password.verify.nanos");
+	private static final LongAdder ALTERNATES_CREATED = METRICS.counter("email.alternate.created");
+	private static final LongAdder ALTERNATES_REJECTED = METRICS.counter("email.alternate.rejected");
+	private static final LongAdder CAPACITY_CHANGES = METRICS.counter("email.capacity.changed");
+	private static final LatencyHistogram CAPACITY_NANOS = METRICS.histogram("email.capacity.nanos");
+
 	private final String firstname;
 	private final String lastname;
 	private String altFirstname = "";
 	private String altLastname = "";
 	private final String department;
-	private String password;
-	private int mailCapacity = 250;
+	private String passwordHash;
+	private volatile int mailCapacity = 250;
+	private final int suffix;
+	private final String emailAddress;
+	private String altEmailAddress = "";
 	
 	// Abstraction Function
 	//  Represents the email address of an employee in a company.
@@ -44,54 +101,195 @@ public class Email {
 	// Representation Invariant
 	//	- firstname, lastname, altFirstname and altLastname are non-empty case-insensitive strings
 	//	- department is a non-empty case-insensitive string
-	//  - password must be between 8 and 25 characters long
+	//  - passwordHash is "" if no password was set yet, else the hash of a
+	//    password between 8 and 25 characters long
 	//  - mailboxCapacity > 0
+	//  - suffix == 0 or suffix >= 2
+	//  - emailAddress and altEmailAddress cache the values returned by
+	//    getEmailAddress() and getAltEmailAddress()
 	//
 	// Safety from Exposure
 	//	- All fields are private and can only be accessed via setters and getters
-	//	- firstname, lastname and department are final hence immutable 
+	//	- firstname, lastname, department and suffix are final hence immutable 
 	//    and they refer to String objects which are also immutable
-	//	- altFirstname, altLastname, password and mailCapacity refer to 
+	//	- altFirstname, altLastname, passwordHash and mailCapacity refer to 
 	//	  immutable objects and are only mutated
 	//	  via setter methods.
+	//	- emailAddress and altEmailAddress are immutable Strings, only written
+	//	  when the names they are derived from are set
+	//	- mailCapacity is volatile, so readers that do not hold the monitor of
+	//	  this email, such as QuotaManager, see the latest capacity
 	
-	// TODO: password encryption
 	public Email(
 			final String firstname, 
 			final String lastname,
 			final String department
 			) {
-		this.firstname = firstname.trim().toLowerCase();
-		this.lastname = lastname.trim().toLowerCase();
-		this.department = department.trim().isEmpty() ? "general" : department.toLowerCase();
-		this.password = generateRandomPassword();
+		this(firstname, lastname, department, 0);
+	}
+	
+	/**
+	 * Creates an email whose address carries a suffix, as handed out by an
+	 * {@link AddressAllocator}
+	 * 
+	 * @param suffix 0 for no suffix, else requires suffix >= 2
+	 */
+	Email(
+			final String firstname,
+			final String lastname,
+			final String department,
+			final int suffix
+			) {
+		this(creationStart(), firstname, lastname, department, suffix);
+	}
+	
+	/** Creates an email without a password, counting it and timing it since start unless start == 0 */
+	private Email(
+			final long start,
+			final String firstname,
+			final String lastname,
+			final String department,
+			final int suffix
+			) {
+		this(normalizeName(firstname),
+				normalizeName(lastname),
+				normalizeDepartment(department),
+				"",
+				suffix);
 		
+		if (start != 0) {
+			CREATE_NANOS.record(System.nanoTime() - start);
+		}
+		if (METRICS.isEnabled()) {
+			CREATED.increment();
+		}
 		checkRep();
 	}
 	
+	/** Returns the start time of a creation to be timed, 0 if it is not timed */
+	private static long creationStart() {
+		return METRICS.isEnabled() && sampled() ? System.nanoTime() : 0;
+	}
+	
+	/** Creates an email from already normalized names and an encoded password hash */
+	private Email(
+			final String firstname,
+			final String lastname,
+			final String department,
+			final String passwordHash,
+			final int suffix
+			) {
+		this.firstname = firstname;
+		this.lastname = lastname;
+		this.department = department;
+		this.passwordHash = passwordHash;
+		this.suffix = suffix;
+		this.emailAddress = addressName(getName(), suffix) + "@" + department + ".company.com";
+	}
+	
+	/** Returns name as it is stored in an email: trimmed and in lowercase */
+	static String normalizeName(final String name) {
+		return NAMES.normalize(name);
+	}
+	
+	/** Returns department as it is stored in an email: trimmed and in lowercase, "general" if blank */
+	static String normalizeDepartment(final String department) {
+		final String normalized = NAMES.normalize(department);
+		return normalized.isEmpty() ? "general" : normalized;
+	}
+	
+	/** Returns the normalizer shared by all emails */
+	static NameNormalizer getNameNormalizer() {
+		return NAMES;
+	}
+	
+	/** Returns the part before the @ of an address for name and suffix */
+	static String addressName(final String name, final int suffix) {
+		return suffix == 0 ? name : name + suffix;
+	}
+	
+	/**
+	 * Recreates an email from state previously read from an account store
+	 * 
+	 * @param firstname non-empty lowercase firstname, as returned by getFirstname()
+	 * @param lastname non-empty lowercase lastname, as returned by getLastname()
+	 * @param department non-empty lowercase department
+	 * @param altFirstname lowercase alternate firstname, "" if no alternate is set
+	 * @param altLastname lowercase alternate lastname, "" if no alternate is set
+	 * @param passwordHash encoded hash, as returned by getPasswordHash(), "" if no password is set
+	 * @param mailCapacity requires mailCapacity > 0
+	 * @param suffix address suffix, as returned by getSuffix()
+	 * @return an email with exactly the given state
+	 */
+	static Email restore(
+			final String firstname,
+			final String lastname,
+			final String department,
+			final String altFirstname,
+			final String altLastname,
+			final String passwordHash,
+			final int mailCapacity,
+			final int suffix
+			) {
+		// normalizing a normalized name only looks it up, sharing its instance
+		final Email email = new Email(NAMES.normalize(firstname), NAMES.normalize(lastname),
+				NAMES.normalize(department), passwordHash, suffix);
+		if (!altFirstname.isEmpty() && !altLastname.isEmpty()) {
+			email.altFirstname = altFirstname;
+			email.altLastname = altLastname;
+			email.altEmailAddress = email.getAltName() + "@" + department + ".company.com";
+		}
+		email.mailCapacity = mailCapacity;
+		
+		email.checkRep();
+		return email;
+	}
+	
 	private void checkRep() {
 		assert !firstname.isEmpty() && !lastname.isEmpty();
 		assert !altFirstname.isEmpty() && !altLastname.isEmpty();
-		assert 8 <= password.length() && password.length() <= 25;
 		assert mailCapacity > 0;
+		assert suffix == 0 || suffix >= 2;
 	}
 	
+	/** Returns the hasher used to hash and verify passwords of all emails */
+	public static PasswordHasher getPasswordHasher() {
+		return hasher;
+	}
+	/**
+	 * Changes the hasher used to hash and verify passwords of all emails.
+	 * Existing hashes are only verifiable if newHasher understands their encoding.
+	 *
+	 * @param newHasher non-null PasswordHasher
+	 */
+	public static void setPasswordHasher(final PasswordHasher newHasher) {
+		if (newHasher == null) {
+			throw new IllegalArgumentException("hasher must be non-null");
+		}
+		hasher = newHasher;
+	}
+	/** Returns true for one in {@value #TIMING_SAMPLE_RATE} calls at random */
+	private static boolean sampled() {
+		return ThreadLocalRandom.current().nextInt(TIMING_SAMPLE_RATE) == 0;
+	}
+	/** Returns the registry holding the counters and latencies of all emails */
+	public static MetricsRegistry getMetrics() {
+		return METRICS;
+	}
 	/** Returns a randomly generated password for accessing this email */
 	// TODO: make private. Made public for testing
 	public static String generateRandomPassword() {
-		final String upper = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-		final String lower = upper.toLowerCase(Locale.ROOT);
-		final String digits = "0123456789";
-		final String alphanum = upper + lower + digits;
-		final Random random = new SecureRandom();
-		
-		final char[] symbols = alphanum.toCharArray();
-		final char[] buffer = new char[symbols.length];
-		for (int index = 0; index < 25; index++) {
-			buffer[index] = symbols[random.nextInt(symbols.length)];
+		if (!METRICS.isEnabled()) {
+			return PasswordGenerator.getDefault().next();
 		}
-		
-		return new String(buffer);
+		final boolean timed = sampled();
+		final long start = timed ? System.nanoTime() : 0;
+		final String password = PasswordGenerator.getDefault().next();
+		if (timed) {
+			GENERATE_NANOS.record(System.nanoTime() - start);
+		}
+		PASSWORDS_GENERATED.increment();
+		return password;
 	}
 	/**
 	 * Defines an alternate email address.
@@ -111,12 +309,21 @@ public class Email {
 		assert !altFirstname.isEmpty();
 		assert !altLastname.isEmpty();
 		
-		if (this.firstname.equalsIgnoreCase(altFirstname) && this.lastname.equalsIgnoreCase(altLastname)) {
+		final String first = normalizeName(altFirstname);
+		final String last = normalizeName(altLastname);
+		if (this.firstname.equals(first) && this.lastname.equals(last)) {
+			if (METRICS.isEnabled()) {
+				ALTERNATES_REJECTED.increment();
+			}
 			return false;
 		}
-		this.altFirstname = altFirstname.toLowerCase();
-		this.altLastname = altLastname.toLowerCase();
+		this.altFirstname = first;
+		this.altLastname = last;
+		this.altEmailAddress = getAltName() + "@" + department + ".company.com";
 		
+		if (METRICS.isEnabled()) {
+			ALTERNATES_CREATED.increment();
+		}
 		checkRep();
 		return true;
 	}	
@@ -136,19 +343,145 @@ public class Email {
 	public int getMailCapacity() {
 		return mailCapacity;
 	}
-	/** Returns the full lowercase string rep of this email address as firstname.lastname@department.company.com */
+	/**
+	 * Returns the full lowercase string rep of this email address as
+	 * firstname.lastname@department.company.com, with the suffix, if any,
+	 * right after lastname
+	 */
 	public String getEmailAddress(){
-		String localPart = this.getName();
-		String domain = department + ".company.com";
-		
-		return localPart + "@" + domain;
+		return emailAddress;
 	}
 	/** Returns the full lowercase string rep of the alternate email address if set, empty string otherwise*/
 	public String getAltEmailAddress(){
-		String localPart = this.getAltName();
-		String domain = department + ".company.com";
-		
-		return localPart.isEmpty() ? "" : localPart + "@" + domain;
+		return altEmailAddress;
+	}
+	/** Appends {@link #getEmailAddress()} to out and returns out */
+	public StringBuilder appendEmailAddress(final StringBuilder out) {
+		return out.append(emailAddress);
+	}
+	/** Appends {@link #getAltEmailAddress()} to out and returns out */
+	public StringBuilder appendAltEmailAddress(final StringBuilder out) {
+		return out.append(altEmailAddress);
+	}
+	/**
+	 * Writes {@link #getEmailAddress()} into out at its current position
+	 * 
+	 * @param out buffer with at least getEmailAddress().length() chars remaining
+	 * @throws BufferOverflowException if out has insufficient space; out is then unchanged
+	 */
+	public void writeEmailAddress(final CharBuffer out) {
+		out.put(emailAddress);
+	}
+	/**
+	 * Writes {@link #getAltEmailAddress()} into out at its current position.
+	 * Writes nothing if no alternate email is set.
+	 * 
+	 * @param out buffer with at least getAltEmailAddress().length() chars remaining
+	 * @throws BufferOverflowException if out has insufficient space; out is then unchanged
+	 */
+	public void writeAltEmailAddress(final CharBuffer out) {
+		out.put(altEmailAddress);
+	}
+	/**
+	 * Writes the UTF-8 encoding of {@link #getEmailAddress()} into out at its
+	 * current position, without allocating for ASCII addresses
+	 * 
+	 * @param out buffer with enough bytes remaining for the encoded address
+	 * @throws BufferOverflowException if out has insufficient space; out is then unchanged
+	 */
+	public void writeEmailAddress(final ByteBuffer out) {
+		writeUtf8(emailAddress, out);
+	}
+	/**
+	 * Writes the UTF-8 encoding of {@link #getAltEmailAddress()} into out at its
+	 * current position, without allocating for ASCII addresses. Writes nothing
+	 * if no alternate email is set.
+	 * 
+	 * @param out buffer with enough bytes remaining for the encoded address
+	 * @throws BufferOverflowException if out has insufficient space; out is then unchanged
+	 */
+	public void writeAltEmailAddress(final ByteBuffer out) {
+		writeUtf8(altEmailAddress, out);
+	}
+	
+	private static void writeUtf8(final String s, final ByteBuffer out) {
+		final int length = s.length();
+		if (out.remaining() < length) {
+			throw new BufferOverflowException();
+		}
+		final int start = out.position();
+		for (int index = 0; index < length; index++) {
+			final char c = s.charAt(index);
+			if (c >= 0x80) {
+				// rare non-ASCII address: rewind and let the encoder handle it
+				out.position(start);
+				final CharsetEncoder encoder = UTF_8.get().reset();
+				final CoderResult result = encoder.encode(CharBuffer.wrap(s), out, true);
+				if (result.isOverflow() || encoder.flush(out).isOverflow()) {
+					out.position(start);
+					throw new BufferOverflowException();
+				}
+				return;
+			}
+			out.put((byte) c);
+		}
+	}
+	/** Returns the lowercase firstname, for account stores */
+	String getFirstname() {
+		return firstname;
+	}
+	/** Returns the lowercase lastname, for account stores */
+	String getLastname() {
+		return lastname;
+	}
+	/** Returns the lowercase alternate firstname, "" if not set, for account stores */
+	String getAltFirstname() {
+		return altFirstname;
+	}
+	/** Returns the lowercase alternate lastname, "" if not set, for account stores */
+	String getAltLastname() {
+		return altLastname;
+	}
+	/** Returns the address suffix, 0 if none, for account stores */
+	int getSuffix() {
+		return suffix;
+	}
+	/** Returns the encoded hash of the current password, "" if none is set, for account stores */
+	String getPasswordHash() {
+		return passwordHash;
+	}
+	/** Returns true if and only if password matches passwordHash, as returned by getPasswordHash() */
+	static boolean verify(final String password, final String passwordHash) {
+		// an account without a password cannot be accessed with any
+		if (passwordHash.isEmpty()) {
+			return false;
+		}
+		if (!METRICS.isEnabled()) {
+			return hasher.verify(password, passwordHash);
+		}
+		final long start = System.nanoTime();
+		final boolean verified = hasher.verify(password, passwordHash);
+		VERIFY_NANOS.record(System.nanoTime() - start);
+		return verified;
+	}
+	/** Returns the encoded hash of password, for account stores */
+	static String hash(final String password) {
+		if (!METRICS.isEnabled()) {
+			return hasher.hash(password);
+		}
+		final long start = System.nanoTime();
+		final String passwordHash = hasher.hash(password);
+		HASH_NANOS.record(System.nanoTime() - start);
+		return passwordHash;
+	}
+	/**
+	 * Checks a candidate password against the current password of this email
+	 * 
+	 * @param password non-null case-sensitive String
+	 * @return true if and only if a password is set and password is it
+	 */
+	public boolean verifyPassword(final String password) {
+		return verify(password, this.passwordHash);
 	}
 	/**
 	 * Changes the current password of this email to newPassword
@@ -159,14 +492,24 @@ public class Email {
 	 * 		   to newPassword, false otherwise. 
 	 */
 	public boolean resetPassword(final String newPassword) {
-		assert newPassword.length() <= 8 && newPassword.length() <= 25;
+		assert 8 <= newPassword.length() && newPassword.length() <= 25;
 		
-		if (newPassword == this.password) {
+		final boolean measured = METRICS.isEnabled();
+		final long start = measured ? System.nanoTime() : 0;
+		if (verifyPassword(newPassword)) {
+			if (measured) {
+				PASSWORD_RESETS_REJECTED.increment();
+				RESET_NANOS.record(System.nanoTime() - start);
+			}
 			return false;
 		}
 		
-		this.password = newPassword;
+		this.passwordHash = hash(newPassword);
 		
+		if (measured) {
+			PASSWORD_RESETS.increment();
+			RESET_NANOS.record(System.nanoTime() - start);
+		}
 		checkRep();
 		return true;
 	}
@@ -183,9 +526,18 @@ public class Email {
 		if (newMailCapacity < Integer.MIN_VALUE || newMailCapacity > Integer.MAX_VALUE) {
 			return -1;
 		}
+		final boolean measured = METRICS.isEnabled();
+		final boolean timed = measured && sampled();
+		final long start = timed ? System.nanoTime() : 0;
 		int prev = this.mailCapacity;
 		this.mailCapacity = newMailCapacity;
 		
+		if (measured) {
+			CAPACITY_CHANGES.increment();
+		}
+		if (timed) {
+			CAPACITY_NANOS.record(System.nanoTime() - start);
+		}
 		checkRep();
 		return prev;
 	}
@@ -1,10 +1,55 @@
 package email_app;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import javax.management.JMException;
+
+/**
+ * Runs an {@link AdminServer} over an empty {@link EmailDirectory} until
+ * the process is stopped, draining requests in progress on shutdown.
+ * <p>
+ * Usage: {@code EmailApp [port] [threads]}, default 8080 and two worker
+ * threads per core. The server only listens on the loopback
+ * interface. Clients sending many small requests per connection should
+ * start it with {@code -Dsun.net.httpserver.nodelay=true}, see
+ * {@link AdminServer}.</p>
+ * <p>
+ * Set the environment variable {@code EMAIL_APP_SHARD_SECRET} to run the
+ * server as a shard of a {@link ShardedDirectory} in another process: it
+ * then also serves the {@code /shard} operations to requests carrying
+ * that secret. The secret is read from the environment rather than the
+ * command line, which other users of the machine can list.</p>
+ * <p>
+ * The metrics of the accounts and of the server, also served as text by
+ * {@code /metrics}, are exported over JMX as the MBeans
+ * {@code email_app:type=Metrics,name=email} and
+ * {@code email_app:type=Metrics,name=server}.</p>
+ *
+ * @author dawiditer
+ *
+ */
 public class EmailApp {
 
-	public static void main(String[] args) {
-		// TODO Auto-generated method stub
+	public static void main(String[] args) throws IOException, JMException {
+		final int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		final int threads = args.length > 1 ? Integer.parseInt(args[1])
+				: 2 * Runtime.getRuntime().availableProcessors();
+
+		final String shardSecret = System.getenv("EMAIL_APP_SHARD_SECRET");
 
+		final AdminServer server = new AdminServer(new EmailDirectory(),
+				new InetSocketAddress("127.0.0.1", port), threads,
+				shardSecret == null || shardSecret.isEmpty() ? null : shardSecret);
+		Email.getMetrics().register("email_app:type=Metrics,name=email");
+		server.getMetrics().register("email_app:type=Metrics,name=server");
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.close();
+			System.out.println("stopped");
+		}, "admin-server-shutdown"));
+		server.start();
+		System.out.printf("listening on http://127.0.0.1:%d with %d threads%s%n", server.getPort(), threads,
+				shardSecret == null || shardSecret.isEmpty() ? "" : ", as a shard");
 	}
 
 }
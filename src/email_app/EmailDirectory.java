@@ -0,0 +1,354 @@
+package email_app;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * The {@code EmailDirectory} class is a concurrent registry of {@link Email}
+ * accounts indexed by address, name and department.
+ * <p>
+ * Primary and alternate addresses share one namespace, so no address can
+ * belong to two accounts. Lookups by address are constant time; lookups by
+ * name and department return a live, read-only view of the matching accounts.
+ * All operations are safe for concurrent readers and writers; readers never
+ * block.</p>
+ * <p>
+ * Alternate addresses of registered accounts must be created through
+ * {@link #createAlternateEmail(Email, String, String)} so that uniqueness
+ * can be enforced across accounts. Likewise, mail capacities of registered
+ * accounts must be changed through {@link #setMailCapacity(Email, int)} to
+ * keep the department totals of {@link #getDepartmentStats(String)} exact.</p>
+ * <p>
+ * Every change made through this directory, including password resets
+ * made with {@link #resetPassword(Email, String)}, is published to the
+ * {@link AccountEventStream} returned by {@link #getEvents()}, in the
+ * order the changes were made to each account.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class EmailDirectory {
+	private final ConcurrentMap<String, Email> byAddress = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Set<Email>> byName = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Set<Email>> byDepartment = new ConcurrentHashMap<>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final DepartmentAggregator aggregator = new DepartmentAggregator();
+	private final AccountEventStream events;
+
+	// Abstraction Function
+	//  Represents the set of accounts in byAddress.values(), where every
+	//  account is reachable from its primary address and, if set, its
+	//  alternate address.
+	//
+	// Representation Invariant
+	//  - for every email in byAddress.values():
+	//      byAddress.get(email.getEmailAddress()) == email
+	//      email.getAltEmailAddress().isEmpty() || byAddress.get(email.getAltEmailAddress()) == email
+	//      byName.get(email.getName()).contains(email)
+	//      byDepartment.get(email.getDepartment()).contains(email)
+	//  - no set in byName or byDepartment is empty
+	//  - size == number of distinct accounts in byAddress.values()
+	//  - aggregator holds the totals of the accounts in byAddress.values()
+	//  - events has been published every change made to a registered account
+	//
+	// Safety from Exposure
+	//  - All fields are private and final
+	//  - name and department sets are only returned through read-only
+	//    IndexViews, which look the set up again on every access, so a view
+	//    stays live after its set is dropped and created again
+	//  - events is returned to be subscribed to; publishing is package-private
+	//
+	// Thread Safety Argument
+	//  - all maps are ConcurrentHashMaps; sets are concurrent key sets
+	//  - addresses are reserved with putIfAbsent, so two writers can never
+	//    both own an address
+	//  - name and department sets are only created and dropped inside
+	//    compute(), which is atomic per key
+	//  - mutations of a single account are serialized by locking that account,
+	//    and published while holding the lock
+	//  - events is thread-safe
+
+	/** Creates an empty directory, publishing its changes to a stream holding 1024 events */
+	public EmailDirectory() {
+		this(new AccountEventStream(1024));
+	}
+
+	/**
+	 * Creates an empty directory
+	 *
+	 * @param events non-null stream to publish the changes of this directory to
+	 */
+	public EmailDirectory(final AccountEventStream events) {
+		this.events = events;
+	}
+
+	/**
+	 * Registers email in this directory
+	 *
+	 * @param email non-null account
+	 * @return true if email was added, false if email's primary or
+	 *         alternate address already belongs to a registered account
+	 */
+	public boolean add(final Email email) {
+		synchronized (email) {
+			final String address = email.getEmailAddress();
+			if (byAddress.putIfAbsent(address, email) != null) {
+				return false;
+			}
+			final String altAddress = email.getAltEmailAddress();
+			if (!altAddress.isEmpty() && byAddress.putIfAbsent(altAddress, email) != null) {
+				byAddress.remove(address, email);
+				return false;
+			}
+			index(byName, email.getName(), email);
+			index(byDepartment, email.getDepartment(), email);
+			size.incrementAndGet();
+			aggregator.added(email);
+			events.publish(AccountEventStream.Event.Type.ADDED, email);
+			return true;
+		}
+	}
+
+	/**
+	 * Removes email from this directory
+	 *
+	 * @param email non-null account
+	 * @return true if email was registered and has been removed, false otherwise
+	 */
+	public boolean remove(final Email email) {
+		synchronized (email) {
+			if (!byAddress.remove(email.getEmailAddress(), email)) {
+				return false;
+			}
+			final String altAddress = email.getAltEmailAddress();
+			if (!altAddress.isEmpty()) {
+				byAddress.remove(altAddress, email);
+			}
+			unindex(byName, email.getName(), email);
+			unindex(byDepartment, email.getDepartment(), email);
+			size.decrementAndGet();
+			aggregator.removed(email);
+			events.publish(AccountEventStream.Event.Type.REMOVED, email);
+			return true;
+		}
+	}
+
+	/**
+	 * Defines an alternate email address for a registered account.
+	 * <p>
+	 * Follows {@link Email#createAlternateEmail(String, String)}, and in
+	 * addition fails if the alternate address is already used by any
+	 * registered account, as primary or alternate. On success the previous
+	 * alternate address, if any, is released.</p>
+	 *
+	 * @param email non-null account registered in this directory
+	 * @param altFirstname non-empty non-null case-insensitive String
+	 * @param altLastname non-empty non-null case-insensitive String
+	 * @return true if the alternate address has been successfully created,
+	 *         false otherwise
+	 */
+	public boolean createAlternateEmail(final Email email, final String altFirstname, final String altLastname) {
+		synchronized (email) {
+			if (byAddress.get(email.getEmailAddress()) != email) {
+				return false;
+			}
+			final String previous = email.getAltEmailAddress();
+			final String candidate = Email.normalizeName(altFirstname) + "." + Email.normalizeName(altLastname)
+					+ "@" + email.getDepartment() + ".company.com";
+			if (candidate.equals(previous)) {
+				return email.createAlternateEmail(altFirstname, altLastname);
+			}
+			if (byAddress.putIfAbsent(candidate, email) != null) {
+				return false;
+			}
+			if (!email.createAlternateEmail(altFirstname, altLastname)) {
+				byAddress.remove(candidate, email);
+				return false;
+			}
+			if (!previous.isEmpty()) {
+				byAddress.remove(previous, email);
+			} else {
+				aggregator.alternateCreated(email);
+			}
+			events.publish(AccountEventStream.Event.Type.ALTERNATE_CREATED, email);
+			return true;
+		}
+	}
+
+	/**
+	 * Changes the mail capacity of an account, following
+	 * {@link Email#setMailCapacity(int)}, and updates the totals of its
+	 * department if it is registered
+	 *
+	 * @param email non-null account
+	 * @param newMailCapacity requires newMailCapacity > 0
+	 * @return the previous mail capacity of email
+	 */
+	public int setMailCapacity(final Email email, final int newMailCapacity) {
+		synchronized (email) {
+			final int previous = email.setMailCapacity(newMailCapacity);
+			if (previous != newMailCapacity && byAddress.get(email.getEmailAddress()) == email) {
+				aggregator.mailCapacityChanged(email, previous);
+				events.publish(AccountEventStream.Event.Type.CAPACITY_CHANGED, email);
+			}
+			return previous;
+		}
+	}
+
+	/**
+	 * Changes the password of an account, following
+	 * {@link Email#resetPassword(String)}, and publishes the change if it
+	 * is registered
+	 *
+	 * @param email non-null account
+	 * @param newPassword requires 8 <= newPassword.length() <= 25
+	 * @return true if and only if the password has been changed
+	 */
+	public boolean resetPassword(final Email email, final String newPassword) {
+		synchronized (email) {
+			final boolean changed = email.resetPassword(newPassword);
+			if (changed && byAddress.get(email.getEmailAddress()) == email) {
+				events.publish(AccountEventStream.Event.Type.PASSWORD_RESET, email);
+			}
+			return changed;
+		}
+	}
+
+	/** Returns the stream the changes of this directory are published to */
+	public AccountEventStream getEvents() {
+		return events;
+	}
+
+	/**
+	 * Returns the account owning address
+	 *
+	 * @param address case-insensitive primary or alternate email address
+	 * @return the registered account whose primary or alternate address
+	 *         equals address, null if none
+	 */
+	public Email lookup(final String address) {
+		return byAddress.get(address.trim().toLowerCase(Locale.ROOT));
+	}
+
+	/** Returns true if and only if address is used by a registered account, as primary or alternate */
+	public boolean contains(final String address) {
+		return lookup(address) != null;
+	}
+
+	/**
+	 * Returns the accounts with the given primary name
+	 *
+	 * @param name case-insensitive fullname as firstname.lastname
+	 * @return unmodifiable live view of the registered accounts whose
+	 *         {@link Email#getName()} equals name, possibly empty; it stays
+	 *         live while the name has no accounts
+	 */
+	public Set<Email> findByName(final String name) {
+		return view(byName, name.trim().toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * Returns the accounts in the given department
+	 *
+	 * @param department case-insensitive department
+	 * @return unmodifiable live view of the registered accounts whose
+	 *         {@link Email#getDepartment()} equals department, possibly empty;
+	 *         it stays live while the department has no accounts
+	 */
+	public Set<Email> findByDepartment(final String department) {
+		return view(byDepartment, department.trim().toLowerCase(Locale.ROOT));
+	}
+
+	/** Returns an unmodifiable live view of the registered departments */
+	public Set<String> departments() {
+		return Collections.unmodifiableSet(byDepartment.keySet());
+	}
+
+	/** Returns the number of registered accounts */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Returns the totals of the registered accounts of a department, in
+	 * constant time
+	 *
+	 * @param department case-insensitive department
+	 * @return the current totals of department, all zero if it has no accounts
+	 */
+	public DepartmentAggregator.Stats getDepartmentStats(final String department) {
+		return aggregator.get(department);
+	}
+
+	/** Returns the current totals of every registered department, keyed by department */
+	public Map<String, DepartmentAggregator.Stats> getDepartmentStats() {
+		return aggregator.getAll();
+	}
+
+	/**
+	 * Returns a stream of the registered accounts, each exactly once. The
+	 * stream is weakly consistent: it reflects some of the changes made
+	 * while it is traversed. Use {@code stream().parallel()} with
+	 * {@link DepartmentAggregator#aggregate(Stream)} for ad-hoc queries.
+	 */
+	public Stream<Email> stream() {
+		return byDepartment.values().stream().flatMap(Set::stream);
+	}
+
+	private static void index(final ConcurrentMap<String, Set<Email>> index, final String key, final Email email) {
+		index.compute(key, (k, accounts) -> {
+			final Set<Email> set = accounts == null ? ConcurrentHashMap.<Email>newKeySet() : accounts;
+			set.add(email);
+			return set;
+		});
+	}
+
+	private static void unindex(final ConcurrentMap<String, Set<Email>> index, final String key, final Email email) {
+		index.computeIfPresent(key, (k, accounts) -> {
+			accounts.remove(email);
+			return accounts.isEmpty() ? null : accounts;
+		});
+	}
+
+	private static Set<Email> view(final ConcurrentMap<String, Set<Email>> index, final String key) {
+		return new IndexView(index, key);
+	}
+
+	/** A read-only live view of the accounts indexed under one key, empty while there are none */
+	private static final class IndexView extends AbstractSet<Email> {
+		private final ConcurrentMap<String, Set<Email>> index;
+		private final String key;
+
+		IndexView(final ConcurrentMap<String, Set<Email>> index, final String key) {
+			this.index = index;
+			this.key = key;
+		}
+
+		/** Returns the set currently indexed under key, which unindex drops once it is empty */
+		private Set<Email> accounts() {
+			final Set<Email> accounts = index.get(key);
+			return accounts == null ? Collections.<Email>emptySet() : accounts;
+		}
+
+		@Override public Iterator<Email> iterator() {
+			return Collections.unmodifiableSet(accounts()).iterator();
+		}
+		@Override public int size() {
+			return accounts().size();
+		}
+		@Override public boolean isEmpty() {
+			return accounts().isEmpty();
+		}
+		@Override public boolean contains(final Object o) {
+			return accounts().contains(o);
+		}
+	}
+}
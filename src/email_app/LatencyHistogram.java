@@ -0,0 +1,150 @@
+package email_app;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code LatencyHistogram} class records a distribution of durations
+ * in nanoseconds, in the manner of HdrHistogram: values are counted in
+ * log-linear buckets, 16 per power of two, so every recorded value is
+ * reported with a relative error below 1/16 whatever its magnitude, from
+ * nanoseconds to centuries.
+ * <p>
+ * Recording is lock-free and allocation-free: it increments one slot of an
+ * {@code AtomicLongArray}. Readers may run concurrently with recorders;
+ * they then see a distribution that includes some, but not necessarily
+ * all, of the concurrent recordings.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class LatencyHistogram {
+	/** log2 of the number of buckets per power of two */
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	// Abstraction Function
+	//  Represents the multiset of recorded durations, where counts[i]
+	//  durations lie in [lowest(i), highest(i)], their sum is totalNanos
+	//  and the longest is maxNanos.
+	//
+	// Representation Invariant
+	//  - every count >= 0, totalNanos >= 0, maxNanos >= 0
+	//  - values below SUB_BUCKETS have a bucket of their own; every
+	//    further power of two is split in SUB_BUCKETS equal buckets
+	//
+	// Safety from Exposure
+	//  - All fields are private and final and never returned
+	//
+	// Thread Safety Argument
+	//  - counts, totalNanos and maxNanos are atomic; maxNanos only grows by
+	//    compareAndSet
+
+	/**
+	 * Records a duration
+	 *
+	 * @param nanos duration in nanoseconds; negative durations, e.g. from
+	 *        a clock going backwards, are recorded as 0
+	 */
+	public void record(final long nanos) {
+		final long value = Math.max(0, nanos);
+		counts.getAndIncrement(index(value));
+		totalNanos.add(value);
+		long max;
+		while (value > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, value)) {
+			// retry until our value is no longer the maximum or has been stored
+		}
+	}
+
+	/** Returns the number of recorded durations */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+	/** Returns the mean recorded duration in nanoseconds, 0 if none */
+	public long getMeanNanos() {
+		final long count = getCount();
+		return count == 0 ? 0 : totalNanos.sum() / count;
+	}
+	/** Returns the longest recorded duration in nanoseconds, 0 if none */
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * Returns a duration that percentile percent of the recorded durations
+	 * do not exceed
+	 *
+	 * @param percentile requires 0 <= percentile <= 100
+	 * @return the highest value of the bucket holding the percentile, at
+	 *         most the longest recorded duration; 0 if none are recorded
+	 */
+	public long getPercentileNanos(final double percentile) {
+		assert 0 <= percentile && percentile <= 100;
+
+		final long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(highest(i), getMaxNanos());
+			}
+		}
+		return getMaxNanos();
+	}
+
+	/** Clears all recorded durations; durations recorded concurrently may be partly kept */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		totalNanos.reset();
+		maxNanos.set(0);
+	}
+
+	/** Returns the bucket counting value, requires value >= 0 */
+	static int index(final long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/** Returns the highest value counted in bucket i */
+	static long highest(final int i) {
+		if (i < SUB_BUCKETS) {
+			return i;
+		}
+		final int shift = i / SUB_BUCKETS - 1;
+		final long lowest = (long) (SUB_BUCKETS + i % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	@Override public String toString() {
+		return "count: " + getCount() + ","
+				+ "meanNanos: " + getMeanNanos() + ","
+				+ "p50Nanos: " + getPercentileNanos(50) + ","
+				+ "p99Nanos: " + getPercentileNanos(99) + ","
+				+ "maxNanos: " + getMaxNanos();
+	}
+}
@@ -0,0 +1,152 @@
+package email_app;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+/**
+ * The {@code LocalShard} class is a {@link Shard} held in the current
+ * process: an {@link EmailDirectory} and the alternate addresses reserved
+ * in it.
+ * <p>
+ * It is the shard of a {@link ShardedDirectory} built with a number of
+ * shards, and the shard an {@link AdminServer} serves to a
+ * {@link RemoteShard}. Like {@link EmailDirectory}, it only removes and
+ * creates alternate addresses for the registered instance itself, and
+ * changes the given instance, registered or not.</p>
+ *
+ * @author dawiditer
+ *
+ */
+class LocalShard implements Shard {
+	private final EmailDirectory directory;
+	private final ConcurrentMap<String, String> aliases = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Email> claims = new ConcurrentHashMap<>();
+
+	// Abstraction Function
+	//  Represents the accounts registered in directory, together with the
+	//  alternate addresses in aliases.keySet(), each reserved for the
+	//  account with primary address aliases.get(alias).
+	//
+	// Representation Invariant
+	//  - no key of aliases is the primary address of an account in directory
+	//  - claims holds the primary addresses being added, mapped to their account
+	//
+	// Safety from Exposure
+	//  - All fields are private and final; directory is never returned
+	//  - aliases() returns a copy
+	//
+	// Thread Safety Argument
+	//  - directory is thread-safe; aliases and claims are ConcurrentHashMaps
+	//  - add() claims the primary address, then checks aliases; reserve()
+	//    reserves the alias, then checks claims and directory. Whichever
+	//    writes first is seen by the other, so a primary address and an
+	//    alias can never both be taken, and a rejected account is never
+	//    published by directory
+	//  - single accounts are changed while holding their lock, like the
+	//    mutators of EmailDirectory
+
+	/** Creates an empty shard */
+	LocalShard() {
+		this(new EmailDirectory());
+	}
+
+	/**
+	 * Creates a shard of the accounts of directory, with no alias reserved
+	 *
+	 * @param directory non-null directory to register accounts in
+	 */
+	LocalShard(final EmailDirectory directory) {
+		this.directory = directory;
+	}
+
+	@Override public boolean add(final Email email) {
+		final String address = email.getEmailAddress();
+		if (claims.putIfAbsent(address, email) != null) {
+			return false;
+		}
+		try {
+			return !aliases.containsKey(address) && directory.add(email);
+		} finally {
+			claims.remove(address, email);
+		}
+	}
+
+	@Override public String remove(final Email email) {
+		synchronized (email) {
+			return directory.remove(email) ? email.getAltEmailAddress() : null;
+		}
+	}
+
+	@Override public Email get(final String address) {
+		final Email email = directory.lookup(address);
+		return email != null && email.getEmailAddress().equals(address) ? email : null;
+	}
+
+	@Override public boolean reserve(final String alias, final String primary) {
+		if (aliases.putIfAbsent(alias, primary) != null) {
+			return false;
+		}
+		if (claims.containsKey(alias) || get(alias) != null) {
+			aliases.remove(alias, primary);
+			return false;
+		}
+		return true;
+	}
+
+	@Override public void release(final String alias, final String primary) {
+		aliases.remove(alias, primary);
+	}
+
+	@Override public String resolve(final String alias) {
+		return aliases.get(alias);
+	}
+
+	@Override public String createAlternateEmail(final Email email, final String altFirstname,
+			final String altLastname) {
+		synchronized (email) {
+			final String previous = email.getAltEmailAddress();
+			return directory.createAlternateEmail(email, altFirstname, altLastname) ? previous : null;
+		}
+	}
+
+	@Override public int setMailCapacity(final Email email, final int newMailCapacity) {
+		return directory.setMailCapacity(email, newMailCapacity);
+	}
+
+	@Override public boolean resetPassword(final Email email, final String newPassword) {
+		return directory.resetPassword(email, newPassword);
+	}
+
+	@Override public Collection<Email> findByName(final String name) {
+		return directory.findByName(name);
+	}
+
+	@Override public Collection<Email> findByDepartment(final String department) {
+		return directory.findByDepartment(department);
+	}
+
+	@Override public DepartmentAggregator.Stats getDepartmentStats(final String department) {
+		return directory.getDepartmentStats(department);
+	}
+
+	@Override public int size() {
+		return directory.size();
+	}
+
+	@Override public Stream<Email> stream() {
+		return directory.stream();
+	}
+
+	@Override public Map<String, String> aliases() {
+		return new HashMap<>(aliases);
+	}
+
+	@Override public String toString() {
+		return "accounts: " + size() + ","
+				+ "aliases: " + aliases.size();
+	}
+}
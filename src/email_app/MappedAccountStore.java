@@ -0,0 +1,445 @@
+package email_app;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The {@code MappedAccountStore} class persists {@link Email} accounts in a
+ * memory-mapped file of fixed-width records.
+ * <p>
+ * Opening a store only maps the file and reads the record count from its
+ * header, so startup time does not depend on the number of accounts.
+ * Records are decoded lazily when {@link #get(int)} or {@link #find(String)}
+ * asks for them, and the mutable fields of an account (alternate names,
+ * password hash and mail capacity) can be rewritten in place.</p>
+ * <p>
+ * File layout, all integers big-endian:
+ * <blockquote><pre>
+ * header (64 bytes):  magic "EMLS", version, record count
+ * record (512 bytes): mailCapacity (int)
+ *                     firstname, lastname, department, altFirstname, altLastname
+ *                         (each: 1 byte length + 64 bytes UTF-8)
+ *                     passwordHash (1 byte length + 160 bytes US-ASCII)
+ *                     address suffix (int, 0 if none)
+ * </pre></blockquote>
+ * The file is mapped in segments of up to 1 GiB so it can exceed the 2 GiB
+ * limit of a single mapping; 10M accounts take about 5 GB. The last segment
+ * starts at {@value #INITIAL_SEGMENT_RECORDS} records and doubles when it
+ * is full, so a small store only takes a small file.</p>
+ * <p>
+ * Appends and updates are serialized. Reads never wait for them: a reader
+ * copies the record optimistically and checks that no writer changed it
+ * meanwhile, so it never sees a half-rewritten record. Only a reader that
+ * raced with a writer of the same record copies it again, under a read
+ * lock. Changes reach the file when the operating system writes the mapped
+ * pages back, or on {@link #force()} and {@link #close()}.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class MappedAccountStore implements Closeable {
+	/** Size in bytes of every account record */
+	public static final int RECORD_SIZE = 512;
+	/** Maximum UTF-8 length of a name or department */
+	public static final int MAX_NAME_BYTES = 64;
+	/** Maximum length of an encoded password hash */
+	public static final int MAX_HASH_BYTES = 160;
+
+	private static final int MAGIC = 0x454D4C53; // "EMLS"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int COUNT_OFFSET = 8;
+	private static final int DEFAULT_RECORDS_PER_SEGMENT = (1 << 30) / RECORD_SIZE;
+	/** Number of records mapped by a new segment, before it grows */
+	static final int INITIAL_SEGMENT_RECORDS = 1024;
+	private static final int RECORD_LOCKS = 64;
+
+	private static final int CAPACITY_OFFSET = 0;
+	private static final int FIRSTNAME_OFFSET = 4;
+	private static final int LASTNAME_OFFSET = FIRSTNAME_OFFSET + 1 + MAX_NAME_BYTES;
+	private static final int DEPARTMENT_OFFSET = LASTNAME_OFFSET + 1 + MAX_NAME_BYTES;
+	private static final int ALT_FIRSTNAME_OFFSET = DEPARTMENT_OFFSET + 1 + MAX_NAME_BYTES;
+	private static final int ALT_LASTNAME_OFFSET = ALT_FIRSTNAME_OFFSET + 1 + MAX_NAME_BYTES;
+	private static final int HASH_OFFSET = ALT_LASTNAME_OFFSET + 1 + MAX_NAME_BYTES;
+	private static final int SUFFIX_OFFSET = HASH_OFFSET + 1 + MAX_HASH_BYTES;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+	private final int recordsPerSegment;
+	private volatile int count;
+	private final StampedLock[] recordLocks = new StampedLock[RECORD_LOCKS];
+	private volatile ConcurrentHashMap<String, Integer> addressIndex;
+
+	// Abstraction Function
+	//  Represents the accounts 0..count-1 stored in the file behind channel,
+	//  where account i is the record at byte offset
+	//  HEADER_SIZE + i * RECORD_SIZE of the file, accessible through
+	//  segments[i / recordsPerSegment] at (i % recordsPerSegment) * RECORD_SIZE.
+	//
+	// Representation Invariant
+	//  - header.getInt(COUNT_OFFSET) == count
+	//  - every segment but the last maps recordsPerSegment records; the
+	//    last maps at most recordsPerSegment
+	//  - count <= number of records mapped by segments
+	//  - addressIndex is null, or maps the primary and alternate addresses
+	//    of accounts 0..count-1 to their index
+	//
+	// Safety from Exposure
+	//  - All fields are private; buffers are never returned
+	//  - get() and find() return new Email objects, detached from the file
+	//
+	// Thread Safety Argument
+	//  - append, update and building addressIndex are guarded by this
+	//  - every write to record i also holds the write lock of
+	//    recordLocks[i % RECORD_LOCKS]; readers copy the record under an
+	//    optimistic stamp of that lock and only use the copy once the stamp
+	//    validates, so they never decode a torn record
+	//  - readers only use absolute gets on the mapped buffers; they read the
+	//    volatile count, which is written after the record it covers, and the
+	//    volatile segments array, which is replaced before count grows into it
+	//  - a grown last segment maps the same file region again, so readers
+	//    still holding the previous mapping see the same bytes
+	//  - addressIndex is a ConcurrentHashMap published through a volatile
+	//    field; find() reads it without locking, so it may briefly miss an
+	//    alternate that update() is replacing
+
+	/**
+	 * Opens the store in file, creating an empty store if file does not exist
+	 *
+	 * @param file path of the store file
+	 * @throws IOException if file cannot be opened or is not a store file
+	 */
+	public static MappedAccountStore open(final Path file) throws IOException {
+		return new MappedAccountStore(file, DEFAULT_RECORDS_PER_SEGMENT);
+	}
+
+	MappedAccountStore(final Path file, final int recordsPerSegment) throws IOException {
+		this.channel = FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.recordsPerSegment = recordsPerSegment;
+		for (int i = 0; i < RECORD_LOCKS; i++) {
+			recordLocks[i] = new StampedLock();
+		}
+		try {
+			final boolean created = channel.size() == 0;
+			this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			if (created) {
+				header.putInt(0, MAGIC).putInt(4, VERSION).putInt(COUNT_OFFSET, 0);
+			} else if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException("not an account store: " + file);
+			}
+			this.count = header.getInt(COUNT_OFFSET);
+			while (mappedRecords() < count) {
+				growSegments();
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/** Returns the number of accounts in this store */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Appends email to this store
+	 *
+	 * @param email non-null account whose names, department and password
+	 *        hash fit within the record limits
+	 * @return the index of the new record
+	 * @throws IOException if the file cannot be grown
+	 */
+	public synchronized int append(final Email email) throws IOException {
+		checkLimits(email);
+		final int index = count;
+		if (index == mappedRecords()) {
+			growSegments();
+		}
+		final ByteBuffer record = record(index);
+		final StampedLock lock = recordLock(index);
+		final long stamp = lock.writeLock();
+		try {
+			putString(record, FIRSTNAME_OFFSET, email.getFirstname());
+			putString(record, LASTNAME_OFFSET, email.getLastname());
+			putString(record, DEPARTMENT_OFFSET, email.getDepartment());
+			record.putInt(SUFFIX_OFFSET, email.getSuffix());
+			writeMutable(record, email);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+
+		if (addressIndex != null) {
+			indexAddresses(email, index);
+		}
+		header.putInt(COUNT_OFFSET, index + 1);
+		count = index + 1;
+		return index;
+	}
+
+	/**
+	 * Rewrites the alternate names, password hash and mail capacity of the
+	 * record at index with those of email
+	 *
+	 * @param index requires 0 <= index < size()
+	 * @param email the account stored at index, with updated state
+	 */
+	public synchronized void update(final int index, final Email email) {
+		checkIndex(index);
+		checkLimits(email);
+		final ByteBuffer record = record(index);
+		if (addressIndex != null) {
+			final String previous = altAddress(record);
+			if (!previous.isEmpty()) {
+				addressIndex.remove(previous);
+			}
+		}
+		final StampedLock lock = recordLock(index);
+		final long stamp = lock.writeLock();
+		try {
+			writeMutable(record, email);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		if (addressIndex != null && !email.getAltEmailAddress().isEmpty()) {
+			addressIndex.put(email.getAltEmailAddress(), index);
+		}
+	}
+
+	/**
+	 * Rewrites the mail capacity of the record at index
+	 *
+	 * @param index requires 0 <= index < size()
+	 * @param mailCapacity requires mailCapacity > 0
+	 * @return previous mail capacity
+	 */
+	public synchronized int setMailCapacity(final int index, final int mailCapacity) {
+		checkIndex(index);
+		final ByteBuffer record = record(index);
+		final StampedLock lock = recordLock(index);
+		final long stamp = lock.writeLock();
+		try {
+			final int prev = record.getInt(CAPACITY_OFFSET);
+			record.putInt(CAPACITY_OFFSET, mailCapacity);
+			return prev;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/** Returns the mail capacity of the record at index, without decoding the rest of it */
+	public int getMailCapacity(final int index) {
+		checkIndex(index);
+		// a single aligned int is never torn, and only changes under a write lock
+		return record(index).getInt(CAPACITY_OFFSET);
+	}
+
+	/**
+	 * Decodes the record at index
+	 *
+	 * @param index requires 0 <= index < size()
+	 * @return a new Email holding the stored state; changes to it are only
+	 *         persisted by {@link #update(int, Email)}
+	 */
+	public Email get(final int index) {
+		checkIndex(index);
+		final ByteBuffer record = copy(index);
+		return Email.restore(
+				getString(record, FIRSTNAME_OFFSET),
+				getString(record, LASTNAME_OFFSET),
+				getString(record, DEPARTMENT_OFFSET),
+				getString(record, ALT_FIRSTNAME_OFFSET),
+				getString(record, ALT_LASTNAME_OFFSET),
+				getString(record, HASH_OFFSET, StandardCharsets.US_ASCII),
+				record.getInt(CAPACITY_OFFSET),
+				record.getInt(SUFFIX_OFFSET));
+	}
+
+	/**
+	 * Returns the index of the account owning address. The first call
+	 * scans all records once to build an in-memory address index, which is
+	 * then maintained by append and update; later calls never block.
+	 *
+	 * @param address case-insensitive primary or alternate email address
+	 * @return index of the account, -1 if none
+	 */
+	public int find(final String address) {
+		ConcurrentHashMap<String, Integer> index = addressIndex;
+		if (index == null) {
+			index = buildAddressIndex();
+		}
+		final Integer found = index.get(address.trim().toLowerCase(Locale.ROOT));
+		return found == null ? -1 : found;
+	}
+
+	private synchronized ConcurrentHashMap<String, Integer> buildAddressIndex() {
+		if (addressIndex == null) {
+			final ConcurrentHashMap<String, Integer> index = new ConcurrentHashMap<>();
+			for (int i = 0; i < count; i++) {
+				final ByteBuffer record = record(i);
+				index.put(primaryAddress(record), i);
+				final String alt = altAddress(record);
+				if (!alt.isEmpty()) {
+					index.put(alt, i);
+				}
+			}
+			addressIndex = index;
+		}
+		return addressIndex;
+	}
+
+	/** Writes all changes to the storage device */
+	public void force() {
+		header.force();
+		for (MappedByteBuffer segment : segments) {
+			segment.force();
+		}
+	}
+
+	/** Forces all changes to the storage device and closes the file */
+	@Override public synchronized void close() throws IOException {
+		force();
+		channel.close();
+	}
+
+	/** Returns the number of records mapped by segments */
+	private long mappedRecords() {
+		final MappedByteBuffer[] current = segments;
+		return current.length == 0 ? 0
+				: (long) (current.length - 1) * recordsPerSegment + current[current.length - 1].capacity() / RECORD_SIZE;
+	}
+
+	/** Doubles the last segment, or maps a new one once the last is full, growing the file */
+	private void growSegments() throws IOException {
+		final MappedByteBuffer[] current = segments;
+		final int last = current.length - 1;
+		final int lastRecords = last < 0 ? recordsPerSegment : current[last].capacity() / RECORD_SIZE;
+		final MappedByteBuffer[] grown;
+		final int segment;
+		final int records;
+		if (lastRecords == recordsPerSegment) {
+			grown = Arrays.copyOf(current, current.length + 1);
+			segment = current.length;
+			records = Math.min(INITIAL_SEGMENT_RECORDS, recordsPerSegment);
+		} else {
+			grown = current.clone();
+			segment = last;
+			records = (int) Math.min(recordsPerSegment, 2L * lastRecords);
+		}
+		final long start = HEADER_SIZE + (long) segment * recordsPerSegment * RECORD_SIZE;
+		grown[segment] = channel.map(FileChannel.MapMode.READ_WRITE, start, (long) records * RECORD_SIZE);
+		segments = grown;
+	}
+
+	/** Returns a buffer whose absolute offsets 0..RECORD_SIZE address the record at index */
+	private ByteBuffer record(final int index) {
+		final ByteBuffer segment = segments[index / recordsPerSegment].duplicate();
+		segment.position((index % recordsPerSegment) * RECORD_SIZE);
+		return segment.slice();
+	}
+
+	private StampedLock recordLock(final int index) {
+		return recordLocks[index % RECORD_LOCKS];
+	}
+
+	/** Returns a heap copy of the record at index, taken while no writer changed it */
+	private ByteBuffer copy(final int index) {
+		final ByteBuffer record = record(index);
+		final byte[] bytes = new byte[RECORD_SIZE];
+		final StampedLock lock = recordLock(index);
+		final long optimistic = lock.tryOptimisticRead();
+		if (optimistic != 0) {
+			record.get(bytes);
+			if (lock.validate(optimistic)) {
+				return ByteBuffer.wrap(bytes);
+			}
+			record.clear();
+		}
+		final long stamp = lock.readLock();
+		try {
+			record.get(bytes);
+			return ByteBuffer.wrap(bytes);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + count);
+		}
+	}
+
+	/** Throws IllegalArgumentException unless every field of email fits into a record */
+	private static void checkLimits(final Email email) {
+		for (String name : new String[] {email.getFirstname(), email.getLastname(), email.getDepartment(),
+				email.getAltFirstname(), email.getAltLastname()}) {
+			if (name.getBytes(StandardCharsets.UTF_8).length > MAX_NAME_BYTES) {
+				throw new IllegalArgumentException("name longer than " + MAX_NAME_BYTES + " bytes: " + name);
+			}
+		}
+		if (email.getPasswordHash().length() > MAX_HASH_BYTES) {
+			throw new IllegalArgumentException("password hash longer than " + MAX_HASH_BYTES + " bytes");
+		}
+	}
+
+	private void indexAddresses(final Email email, final int index) {
+		addressIndex.put(email.getEmailAddress(), index);
+		if (!email.getAltEmailAddress().isEmpty()) {
+			addressIndex.put(email.getAltEmailAddress(), index);
+		}
+	}
+
+	private static void writeMutable(final ByteBuffer record, final Email email) {
+		record.putInt(CAPACITY_OFFSET, email.getMailCapacity());
+		putString(record, ALT_FIRSTNAME_OFFSET, email.getAltFirstname());
+		putString(record, ALT_LASTNAME_OFFSET, email.getAltLastname());
+		putString(record, HASH_OFFSET, email.getPasswordHash());
+	}
+
+	private static String primaryAddress(final ByteBuffer record) {
+		final String name = getString(record, FIRSTNAME_OFFSET) + "." + getString(record, LASTNAME_OFFSET);
+		return Email.addressName(name, record.getInt(SUFFIX_OFFSET))
+				+ "@" + getString(record, DEPARTMENT_OFFSET) + ".company.com";
+	}
+
+	private static String altAddress(final ByteBuffer record) {
+		final String altFirstname = getString(record, ALT_FIRSTNAME_OFFSET);
+		return altFirstname.isEmpty() ? "" : altFirstname + "." + getString(record, ALT_LASTNAME_OFFSET)
+				+ "@" + getString(record, DEPARTMENT_OFFSET) + ".company.com";
+	}
+
+	/** Writes value at offset; requires its UTF-8 encoding to fit, see checkLimits */
+	private static void putString(final ByteBuffer record, final int offset, final String value) {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		record.put(offset, (byte) bytes.length);
+		for (int i = 0; i < bytes.length; i++) {
+			record.put(offset + 1 + i, bytes[i]);
+		}
+	}
+
+	private static String getString(final ByteBuffer record, final int offset) {
+		return getString(record, offset, StandardCharsets.UTF_8);
+	}
+
+	private static String getString(final ByteBuffer record, final int offset, final Charset charset) {
+		final byte[] bytes = new byte[record.get(offset) & 0xFF];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = record.get(offset + 1 + i);
+		}
+		return new String(bytes, charset);
+	}
+}
@@ -0,0 +1,222 @@
+package email_app;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * The {@code MetricsRegistry} class holds named counters and
+ * {@link LatencyHistogram}s and exports them as a text snapshot and as a
+ * JMX MBean.
+ * <p>
+ * Counters are {@code LongAdder}s, so hot paths updating them from many
+ * threads do not contend. Instrumented code looks its metrics up once and
+ * keeps them in fields, and skips recording altogether while the registry
+ * is disabled.</p>
+ * <p>
+ * Both exports flatten every metric to {@code name: value} pairs: a
+ * counter is one pair, a histogram {@code h} is the pairs
+ * {@code h.count}, {@code h.mean}, {@code h.p50}, {@code h.p99},
+ * {@code h.p999} and {@code h.max}, all in nanoseconds except the
+ * count.</p>
+ * <p>
+ * The metrics of {@link Email} are kept in the registry returned by
+ * {@link Email#getMetrics()}.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class MetricsRegistry {
+	private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+	private volatile boolean enabled = true;
+
+	// Abstraction Function
+	//  Represents the metrics named by the keys of counters and histograms,
+	//  which instrumented code records into while enabled.
+	//
+	// Representation Invariant
+	//  - no name is a key of both counters and histograms
+	//
+	// Safety from Exposure
+	//  - All fields are private; the maps are never returned, only the
+	//    metrics they hold, which callers are meant to update
+	//
+	// Thread Safety Argument
+	//  - counters and histograms are ConcurrentHashMaps whose entries are
+	//    created with computeIfAbsent and never removed
+	//  - metrics are thread-safe; enabled is volatile
+
+	/**
+	 * Returns the counter named name, created at 0 if needed
+	 *
+	 * @param name non-empty name, not used by a histogram of this registry
+	 * @return the counter, the same for every call with name
+	 */
+	public LongAdder counter(final String name) {
+		if (histograms.containsKey(name)) {
+			throw new IllegalArgumentException(name + " is a histogram");
+		}
+		return counters.computeIfAbsent(name, n -> new LongAdder());
+	}
+
+	/**
+	 * Returns the histogram named name, created empty if needed
+	 *
+	 * @param name non-empty name, not used by a counter of this registry
+	 * @return the histogram, the same for every call with name
+	 */
+	public LatencyHistogram histogram(final String name) {
+		if (counters.containsKey(name)) {
+			throw new IllegalArgumentException(name + " is a counter");
+		}
+		return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+	}
+
+	/** Returns true if and only if instrumented code should record into this registry */
+	public boolean isEnabled() {
+		return enabled;
+	}
+	/**
+	 * Turns recording by instrumented code on or off; metrics keep their values
+	 *
+	 * @param enabled true to record
+	 */
+	public void setEnabled(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/** Clears every counter and histogram */
+	public void reset() {
+		for (LongAdder counter : counters.values()) {
+			counter.reset();
+		}
+		for (LatencyHistogram histogram : histograms.values()) {
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * Returns the current values of all metrics
+	 *
+	 * @return unmodifiable map from flattened metric names to their values,
+	 *         sorted by name
+	 */
+	public SortedMap<String, Long> values() {
+		final SortedMap<String, Long> values = new TreeMap<>();
+		for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+			values.put(counter.getKey(), counter.getValue().sum());
+		}
+		for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+			final String name = entry.getKey();
+			final LatencyHistogram histogram = entry.getValue();
+			values.put(name + ".count", histogram.getCount());
+			values.put(name + ".mean", histogram.getMeanNanos());
+			values.put(name + ".p50", histogram.getPercentileNanos(50));
+			values.put(name + ".p99", histogram.getPercentileNanos(99));
+			values.put(name + ".p999", histogram.getPercentileNanos(99.9));
+			values.put(name + ".max", histogram.getMaxNanos());
+		}
+		return Collections.unmodifiableSortedMap(values);
+	}
+
+	/** Returns the current values of all metrics as text, one {@code name: value} pair per line */
+	public String snapshot() {
+		final StringBuilder text = new StringBuilder();
+		for (Map.Entry<String, Long> value : values().entrySet()) {
+			text.append(value.getKey()).append(": ").append(value.getValue()).append('\n');
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Registers this registry with the platform MBean server, exposing
+	 * every flattened metric as a read-only attribute and a reset operation
+	 *
+	 * @param objectName JMX name, e.g. {@code email_app:type=Metrics}
+	 * @return the registered name
+	 * @throws JMException if objectName is malformed or already registered
+	 */
+	public ObjectName register(final String objectName) throws JMException {
+		final ObjectName name = new ObjectName(objectName);
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		return server.registerMBean(new MBean(), name).getObjectName();
+	}
+
+	@Override public String toString() {
+		return "counters: " + counters.size() + ","
+				+ "histograms: " + histograms.size() + ","
+				+ "enabled: " + enabled;
+	}
+
+	/** Exposes the metrics of the enclosing registry, as they are when read */
+	private final class MBean implements DynamicMBean {
+
+		@Override public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+			final Long value = values().get(attribute);
+			if (value == null) {
+				throw new AttributeNotFoundException(attribute);
+			}
+			return value;
+		}
+
+		@Override public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException("read-only: " + attribute.getName());
+		}
+
+		@Override public AttributeList getAttributes(final String[] attributes) {
+			final SortedMap<String, Long> values = values();
+			final AttributeList list = new AttributeList();
+			for (String attribute : attributes) {
+				if (values.containsKey(attribute)) {
+					list.add(new Attribute(attribute, values.get(attribute)));
+				}
+			}
+			return list;
+		}
+
+		@Override public AttributeList setAttributes(final AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override public Object invoke(final String actionName, final Object[] params, final String[] signature)
+				throws ReflectionException {
+			if (!"reset".equals(actionName) || (params != null && params.length > 0)) {
+				throw new ReflectionException(new NoSuchMethodException(actionName));
+			}
+			reset();
+			return null;
+		}
+
+		@Override public MBeanInfo getMBeanInfo() {
+			final SortedMap<String, Long> values = values();
+			final MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+			int i = 0;
+			for (String name : values.keySet()) {
+				attributes[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+			}
+			final MBeanOperationInfo[] operations = {
+				new MBeanOperationInfo("reset", "Clears every metric", null, "void", MBeanOperationInfo.ACTION)
+			};
+			return new MBeanInfo(MetricsRegistry.class.getName(), "Email subsystem metrics",
+					attributes, null, operations, null);
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package email_app;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code NameNormalizer} class turns names and departments into the
+ * form stored in an {@link Email}: trimmed and in lowercase, independent of
+ * the default locale.
+ * <p>
+ * Names repeat heavily across accounts, so results are interned in a
+ * bounded cache and identical names share one {@code String}. The cache is
+ * direct-mapped: every normalized value has a single slot, chosen by its
+ * hash code, and a value replaces whatever its slot held. Lookups and
+ * replacements are lock-free, and the cache never holds more than
+ * {@code capacity} strings.</p>
+ * <p>
+ * ASCII input is lowercased on the fly while it is hashed and compared
+ * with the cached value, so normalizing a value already in the cache
+ * allocates nothing, whatever its case or surrounding whitespace. Other
+ * input is lowercased with {@link String#toLowerCase(Locale)} in
+ * {@link Locale#ROOT}.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class NameNormalizer {
+	/** Default number of cache slots */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	private final AtomicReferenceArray<String> slots;
+	private final int mask;
+	private final LongAdder misses = new LongAdder();
+
+	// Abstraction Function
+	//  Represents the normalization function, memoized by the set of
+	//  non-null strings in slots.
+	//
+	// Representation Invariant
+	//  - slots.length() is a power of two and mask == slots.length() - 1
+	//  - every non-null slots[i] is normalized and index(hashCode) == i
+	//
+	// Safety from Exposure
+	//  - All fields are private and final; strings are immutable
+	//
+	// Thread Safety Argument
+	//  - slots is an AtomicReferenceArray; a slot is replaced as a whole,
+	//    so a reader sees either the old or the new string
+	//  - misses is a LongAdder, only incremented on the slow path
+
+	/** Creates a normalizer with the default number of cache slots */
+	public NameNormalizer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a normalizer
+	 *
+	 * @param capacity number of cache slots, rounded up to a power of two,
+	 *        requires capacity > 0
+	 */
+	public NameNormalizer(final int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be > 0");
+		}
+		final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+		this.slots = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+
+		checkRep();
+	}
+
+	private void checkRep() {
+		assert Integer.bitCount(slots.length()) == 1;
+		assert mask == slots.length() - 1;
+	}
+
+	/**
+	 * Returns value trimmed and in lowercase
+	 *
+	 * @param value non-null name or department
+	 * @return value without leading and trailing characters <= ' ', as
+	 *         {@link String#trim()}, in lowercase in {@link Locale#ROOT};
+	 *         equal values share one instance while they stay cached
+	 */
+	public String normalize(final String value) {
+		int from = 0;
+		int to = value.length();
+		while (from < to && value.charAt(from) <= ' ') {
+			from++;
+		}
+		while (to > from && value.charAt(to - 1) <= ' ') {
+			to--;
+		}
+		int hash = 0;
+		boolean normalized = from == 0 && to == value.length();
+		for (int i = from; i < to; i++) {
+			final char c = value.charAt(i);
+			if (c >= 0x80) {
+				return intern(value.substring(from, to).toLowerCase(Locale.ROOT));
+			}
+			final char lower = lower(c);
+			normalized &= lower == c;
+			hash = 31 * hash + lower;
+		}
+		final int index = index(hash);
+		final String cached = slots.get(index);
+		if (cached != null && matches(cached, value, from, to)) {
+			return cached;
+		}
+		misses.increment();
+		final String result = normalized ? value : lowerAscii(value, from, to);
+		slots.lazySet(index, result);
+		return result;
+	}
+
+	/** Returns the cached instance equal to normalized, caching normalized if there is none */
+	private String intern(final String normalized) {
+		final int index = index(normalized.hashCode());
+		final String cached = slots.get(index);
+		if (normalized.equals(cached)) {
+			return cached;
+		}
+		misses.increment();
+		slots.lazySet(index, normalized);
+		return normalized;
+	}
+
+	/**
+	 * Returns the number of values that had to be normalized and cached;
+	 * hits are not counted, as counting them would cost more than a hit
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/** Returns the number of cache slots */
+	public int getCapacity() {
+		return slots.length();
+	}
+
+	/** Empties the cache and resets the miss count */
+	public void clear() {
+		for (int i = 0; i < slots.length(); i++) {
+			slots.set(i, null);
+		}
+		misses.reset();
+	}
+
+	@Override public String toString() {
+		return "capacity: " + getCapacity() + ","
+				+ "misses: " + getMissCount();
+	}
+
+	/** Returns the slot of a value with hash code hash, spreading the high bits like HashMap */
+	private int index(final int hash) {
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/** Returns true if and only if cached equals value[from, to) lowercased, value being ASCII */
+	private static boolean matches(final String cached, final String value, final int from, final int to) {
+		if (cached.length() != to - from) {
+			return false;
+		}
+		for (int i = from; i < to; i++) {
+			if (cached.charAt(i - from) != lower(value.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String lowerAscii(final String value, final int from, final int to) {
+		final char[] chars = new char[to - from];
+		for (int i = from; i < to; i++) {
+			chars[i - from] = lower(value.charAt(i));
+		}
+		return new String(chars);
+	}
+
+	private static char lower(final char c) {
+		return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+	}
+}
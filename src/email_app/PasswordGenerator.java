@@ -0,0 +1,165 @@
+package email_app;
+
+import java.security.SecureRandom;
+
+/**
+ * The {@code PasswordGenerator} class generates random passwords for
+ * {@link Email} accounts.
+ * <p>
+ * A generator has a fixed password {@code length} between
+ * {@value #MIN_LENGTH} and {@value #MAX_LENGTH} and a fixed
+ * {@code alphabet} from which every character is drawn uniformly.</p>
+ * <p>
+ * Random bytes come from one {@link SecureRandom} per thread and are drawn
+ * in bulk into a per-thread pool, so generating a password neither creates
+ * nor contends on a {@code SecureRandom}, and allocates nothing but the
+ * returned {@code String}. Generators are immutable and safe to share
+ * between threads.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class PasswordGenerator {
+	/** Minimum password length accepted by {@link Email} */
+	public static final int MIN_LENGTH = 8;
+	/** Maximum password length accepted by {@link Email} */
+	public static final int MAX_LENGTH = 25;
+	/** Upper and lowercase ASCII letters followed by the decimal digits */
+	public static final String ALPHANUMERIC =
+			"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+	private static final int POOL_SIZE = 4096;
+	private static final int BATCH_CHUNK = 1024;
+	private static final ThreadLocal<RandomPool> POOL = ThreadLocal.withInitial(RandomPool::new);
+	private static final PasswordGenerator DEFAULT = new PasswordGenerator(MAX_LENGTH, ALPHANUMERIC);
+
+	private final int length;
+	private final char[] alphabet;
+	private final int threshold;
+
+	// Abstraction Function
+	//  Represents a source of random passwords of the given length whose
+	//  characters are uniformly drawn from alphabet.
+	//
+	// Representation Invariant
+	//  - MIN_LENGTH <= length <= MAX_LENGTH
+	//  - 0 < alphabet.length <= 256
+	//  - threshold is the largest multiple of alphabet.length <= 256, so a
+	//    random byte b < threshold maps uniformly onto alphabet[b % alphabet.length]
+	//
+	// Safety from Exposure
+	//  - All fields are private and final
+	//  - alphabet is a defensive copy and is never returned
+
+	/** Returns the generator used by {@link Email}: {@value #MAX_LENGTH} alphanumeric characters */
+	public static PasswordGenerator getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Creates a password generator
+	 *
+	 * @param length requires MIN_LENGTH <= length <= MAX_LENGTH
+	 * @param alphabet non-empty String of at most 256 characters
+	 */
+	public PasswordGenerator(final int length, final String alphabet) {
+		if (length < MIN_LENGTH || length > MAX_LENGTH) {
+			throw new IllegalArgumentException(
+					"length must be between " + MIN_LENGTH + " and " + MAX_LENGTH + ": " + length);
+		}
+		if (alphabet.isEmpty() || alphabet.length() > 256) {
+			throw new IllegalArgumentException("alphabet must hold between 1 and 256 characters");
+		}
+		this.length = length;
+		this.alphabet = alphabet.toCharArray();
+		this.threshold = 256 - 256 % this.alphabet.length;
+
+		checkRep();
+	}
+
+	private void checkRep() {
+		assert MIN_LENGTH <= length && length <= MAX_LENGTH;
+		assert 0 < alphabet.length && alphabet.length <= 256;
+		assert threshold % alphabet.length == 0 && threshold <= 256;
+	}
+
+	/** Returns the length of every password generated */
+	public int getLength() {
+		return length;
+	}
+
+	/** Returns a new random password */
+	public String next() {
+		final RandomPool pool = POOL.get();
+		fill(pool, pool.scratch);
+		return new String(pool.scratch, 0, length);
+	}
+
+	/**
+	 * Returns count new random passwords
+	 *
+	 * @param count requires count >= 0
+	 * @return an array of count independently generated passwords
+	 */
+	public String[] nextBatch(final int count) {
+		if (count < 0) {
+			throw new IllegalArgumentException("count must be >= 0: " + count);
+		}
+		final RandomPool pool = POOL.get();
+		final String[] passwords = new String[count];
+		for (int index = 0; index < count; index++) {
+			if (index % BATCH_CHUNK == 0) {
+				// one bulk draw is expected to cover the whole chunk, rejections included
+				final int chunk = Math.min(BATCH_CHUNK, count - index);
+				pool.reserve(chunk * length * 256 / threshold + length);
+			}
+			fill(pool, pool.scratch);
+			passwords[index] = new String(pool.scratch, 0, length);
+		}
+		return passwords;
+	}
+
+	/** Fills buffer[0, length) with characters drawn from pool */
+	private void fill(final RandomPool pool, final char[] buffer) {
+		int index = 0;
+		while (index < length) {
+			final int b = pool.nextByte();
+			if (b < threshold) {
+				buffer[index++] = alphabet[b % alphabet.length];
+			}
+		}
+	}
+
+	/** Per-thread source of random bytes, drawn from a SecureRandom in bulk */
+	private static final class RandomPool {
+		private final SecureRandom random = new SecureRandom();
+		private final char[] scratch = new char[MAX_LENGTH];
+		private byte[] bytes = new byte[POOL_SIZE];
+		private int position = bytes.length;
+
+		/** Returns the next random byte as an int in [0, 256) */
+		int nextByte() {
+			if (position == bytes.length) {
+				random.nextBytes(bytes);
+				position = 0;
+			}
+			return bytes[position++] & 0xFF;
+		}
+
+		/**
+		 * Ensures at least n unread bytes are available, using a single draw
+		 * if a refill is needed. n is bounded by nextBatch's chunk size, so the
+		 * pool never grows beyond a few tens of kilobytes per thread.
+		 */
+		void reserve(final int n) {
+			if (bytes.length - position >= n) {
+				return;
+			}
+			if (n > bytes.length) {
+				bytes = new byte[n];
+			}
+			random.nextBytes(bytes);
+			position = 0;
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package email_app;
+
+/**
+ * A {@code PasswordHasher} turns passwords into one-way encoded hashes
+ * and verifies candidate passwords against them.
+ * <p>
+ * The encoded form is self-describing: it carries whatever salt and cost
+ * parameters are needed to verify it, so changing the cost of a hasher
+ * does not invalidate previously stored hashes. Implementations must be
+ * safe for use by multiple threads.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public interface PasswordHasher {
+	/**
+	 * Returns the encoded salted hash of password
+	 *
+	 * @param password non-null case-sensitive String
+	 * @return non-empty encoded hash; hashing the same password twice
+	 *         yields different encodings
+	 */
+	String hash(String password);
+
+	/**
+	 * Checks password against an encoded hash
+	 *
+	 * @param password non-null case-sensitive String
+	 * @param encodedHash a value previously returned by {@link #hash(String)}
+	 * @return true if and only if encodedHash is a hash of password
+	 */
+	boolean verify(String password, String encodedHash);
+}
@@ -0,0 +1,140 @@
+package email_app;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The {@code PasswordHashingService} class runs the expensive password
+ * operations of {@link Email} on a dedicated, bounded pool of threads.
+ * <p>
+ * Request threads submit work and get a {@link CompletableFuture} back
+ * instead of spending the hashing cost themselves. The pool has a fixed
+ * number of threads and a bounded queue; once the queue is full further
+ * submissions complete exceptionally with a
+ * {@link RejectedExecutionException} rather than piling up.</p>
+ * <p>
+ * Resets go through the {@link EmailDirectory} holding the account, so
+ * they are made under the lock of the account and published like any
+ * other reset. {@link AdminServer} and {@link AuthenticationService} hash
+ * on the service returned by {@link #getDefault()} unless given another
+ * one.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class PasswordHashingService implements AutoCloseable {
+	private static final PasswordHashingService DEFAULT = new PasswordHashingService();
+
+	private final ThreadPoolExecutor executor;
+	private final LongAdder rejected = new LongAdder();
+
+	// Abstraction Function
+	//  Represents a hashing service backed by executor, which has turned
+	//  away rejected requests.
+	//
+	// Representation Invariant
+	//  - executor has a bounded queue and rejects work when saturated
+	//
+	// Safety from Exposure
+	//  - executor is private, final and never returned
+	//
+	// Thread Safety Argument
+	//  - executor is thread-safe; rejected is a LongAdder
+	//  - the password hash of an account is read, and its password reset,
+	//    while holding its lock, like the mutators of EmailDirectory
+
+	/** Returns the service shared by the servers and authenticators given none; it must not be closed */
+	public static PasswordHashingService getDefault() {
+		return DEFAULT;
+	}
+
+	/** Creates a service with one thread per core and room for 1024 queued requests per thread */
+	public PasswordHashingService() {
+		this(Runtime.getRuntime().availableProcessors(), 1024 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a service
+	 *
+	 * @param threads number of hashing threads, requires threads > 0
+	 * @param queueCapacity maximum number of waiting requests, requires queueCapacity > 0
+	 */
+	public PasswordHashingService(final int threads, final int queueCapacity) {
+		final AtomicInteger ids = new AtomicInteger();
+		final ThreadFactory factory = runnable -> {
+			final Thread thread = new Thread(runnable, "password-hashing-" + ids.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), factory, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 * Asynchronously checks password against the current password of email
+	 *
+	 * @see Email#verifyPassword(String)
+	 */
+	public CompletableFuture<Boolean> verifyPassword(final Email email, final String password) {
+		final String passwordHash;
+		synchronized (email) {
+			passwordHash = email.getPasswordHash();
+		}
+		return verify(password, passwordHash);
+	}
+
+	/** Asynchronously checks password against passwordHash, as returned by {@link Email#getPasswordHash()} */
+	CompletableFuture<Boolean> verify(final String password, final String passwordHash) {
+		return submit(() -> Email.verify(password, passwordHash));
+	}
+
+	/**
+	 * Asynchronously changes the password of email through the directory
+	 * holding it
+	 *
+	 * @see EmailDirectory#resetPassword(Email, String)
+	 */
+	public CompletableFuture<Boolean> resetPassword(final EmailDirectory directory, final Email email,
+			final String newPassword) {
+		return submit(() -> directory.resetPassword(email, newPassword));
+	}
+
+	/** Returns the number of requests waiting for a hashing thread */
+	public int getQueuedCount() {
+		return executor.getQueue().size();
+	}
+
+	/** Returns the number of requests turned away because the queue was full */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	private CompletableFuture<Boolean> submit(final Supplier<Boolean> task) {
+		try {
+			return CompletableFuture.supplyAsync(task, executor);
+		} catch (RejectedExecutionException e) {
+			rejected.increment();
+			final CompletableFuture<Boolean> result = new CompletableFuture<>();
+			result.completeExceptionally(e);
+			return result;
+		}
+	}
+
+	/** Stops accepting requests; already queued requests still complete */
+	@Override public void close() {
+		executor.shutdown();
+	}
+
+	@Override public String toString() {
+		return "threads: " + executor.getMaximumPoolSize() + ","
+				+ "queued: " + getQueuedCount() + ","
+				+ "rejected: " + getRejectedCount();
+	}
+}
@@ -0,0 +1,119 @@
+package email_app;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * The {@code Pbkdf2PasswordHasher} class hashes passwords with the JDK's
+ * PBKDF2 implementation (HMAC-SHA256) and a random 128-bit salt.
+ * <p>
+ * Hashes are encoded as:
+ * <blockquote><pre>
+ * pbkdf2-sha256$iterations$salt$hash
+ * </pre></blockquote>
+ * with salt and hash in Base64. The iteration count is the cost factor;
+ * verification always uses the count stored in the hash. Every hash and
+ * verification made for an account is timed in {@link Email#getMetrics()},
+ * as {@code email.password.hash.nanos} and
+ * {@code email.password.verify.nanos}.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+	/** Default iteration count */
+	public static final int DEFAULT_ITERATIONS = 10_000;
+
+	private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+	private static final String PREFIX = "pbkdf2-sha256";
+	private static final int SALT_BYTES = 16;
+	private static final int KEY_BITS = 256;
+	private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+	private final int iterations;
+
+	// Abstraction Function
+	//  Represents a PBKDF2 hasher using iterations rounds for new hashes.
+	//
+	// Representation Invariant
+	//  - iterations > 0
+	//
+	// Safety from Exposure
+	//  - iterations is private, final and primitive
+
+	/** Creates a hasher using {@value #DEFAULT_ITERATIONS} iterations */
+	public Pbkdf2PasswordHasher() {
+		this(DEFAULT_ITERATIONS);
+	}
+
+	/**
+	 * Creates a hasher
+	 *
+	 * @param iterations cost factor for new hashes, requires iterations > 0
+	 */
+	public Pbkdf2PasswordHasher(final int iterations) {
+		if (iterations <= 0) {
+			throw new IllegalArgumentException("iterations must be > 0: " + iterations);
+		}
+		this.iterations = iterations;
+
+		checkRep();
+	}
+
+	private void checkRep() {
+		assert iterations > 0;
+	}
+
+	/** Returns the iteration count used for new hashes */
+	public int getIterations() {
+		return iterations;
+	}
+
+	@Override public String hash(final String password) {
+		final byte[] salt = new byte[SALT_BYTES];
+		RANDOM.get().nextBytes(salt);
+		final byte[] hash = derive(password, salt, iterations, KEY_BITS);
+		final Base64.Encoder encoder = Base64.getEncoder();
+		final String encoded = PREFIX + "$" + iterations + "$" + encoder.encodeToString(salt)
+				+ "$" + encoder.encodeToString(hash);
+		return encoded;
+	}
+
+	@Override public boolean verify(final String password, final String encodedHash) {
+		try {
+			final String[] parts = encodedHash.split("\\$");
+			if (parts.length != 4 || !PREFIX.equals(parts[0])) {
+				return false;
+			}
+			final Base64.Decoder decoder = Base64.getDecoder();
+			final byte[] salt = decoder.decode(parts[2]);
+			final byte[] expected = decoder.decode(parts[3]);
+			final byte[] actual = derive(password, salt, Integer.parseInt(parts[1]), expected.length * 8);
+			return MessageDigest.isEqual(expected, actual);
+		} catch (IllegalArgumentException e) {
+			// malformed iteration count or Base64
+			return false;
+		}
+	}
+
+	private static byte[] derive(final String password, final byte[] salt, final int iterations, final int bits) {
+		final PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, bits);
+		try {
+			return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+		} catch (GeneralSecurityException e) {
+			// not expected: the JDK has shipped PBKDF2WithHmacSHA256 since Java 8
+			throw new IllegalStateException(ALGORITHM + " unavailable", e);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	@Override public String toString() {
+		return "iterations: " + iterations;
+	}
+}
@@ -0,0 +1,205 @@
+package email_app;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code QuotaManager} class tracks how many messages each account of
+ * an {@link EmailDirectory} holds and enforces {@link Email#getMailCapacity()}
+ * as a quota.
+ * <p>
+ * A delivery reserves room for its messages and is rejected if the account
+ * would exceed its capacity; deleting messages releases room. Usage of each
+ * account is an {@code AtomicLong} updated by compare-and-set, so the quota
+ * is exact under any number of delivery threads, and threads delivering to
+ * different accounts never contend. Directory-wide totals are striped
+ * {@code LongAdder}s, which only need to be exact once deliveries stop.</p>
+ * <p>
+ * Capacities are changed per account with
+ * {@link EmailDirectory#setMailCapacity(Email, int)} or per department
+ * with {@link #setDepartmentCapacity(String, int)}. Lowering a capacity
+ * below an account's usage keeps its messages but rejects further
+ * deliveries until enough are released.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class QuotaManager {
+	private final EmailDirectory directory;
+	private final ConcurrentMap<Email, AtomicLong> usage = new ConcurrentHashMap<>();
+	private final LongAdder totalUsage = new LongAdder();
+	private final LongAdder delivered = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	/** Value of a counter dropped by forget(), which no update may change */
+	private static final long FORGOTTEN = -1;
+
+	// Abstraction Function
+	//  Represents the number of messages held by each account of directory:
+	//  usage.get(email).get() for accounts in usage, 0 for the others.
+	//
+	// Representation Invariant
+	//  - every value in usage is >= 0, or FORGOTTEN for a counter that
+	//    forget() is removing
+	//  - once deliveries and releases stop, totalUsage == sum of usage values
+	//
+	// Safety from Exposure
+	//  - All fields are private and final
+	//  - usage counters are never returned
+	//
+	// Thread Safety Argument
+	//  - usage is a ConcurrentHashMap and counters are created with computeIfAbsent
+	//  - a counter only changes by compareAndSet from a value the updater
+	//    checked against the capacity, so no delivery can exceed it
+	//  - totals are LongAdders, updated after the counter they summarize
+	//  - forget() retires a counter by swapping in FORGOTTEN, so it subtracts
+	//    exactly the messages the counter held; updaters that see FORGOTTEN
+	//    move on to a fresh counter, or release nothing
+	//  - capacities are read from Email's volatile mailCapacity
+
+	/**
+	 * Creates a quota manager for the accounts of directory, all initially empty
+	 *
+	 * @param directory non-null directory resolving delivery addresses
+	 */
+	public QuotaManager(final EmailDirectory directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Delivers messages to the account owning address, if they fit its quota
+	 *
+	 * @param address case-insensitive primary or alternate address
+	 * @param messages requires messages > 0
+	 * @return true if the messages were delivered, false if address is
+	 *         unknown or the account has less than messages of free capacity
+	 */
+	public boolean deliver(final String address, final int messages) {
+		final Email email = directory.lookup(address);
+		if (email == null) {
+			rejected.add(messages);
+			return false;
+		}
+		return deliver(email, messages);
+	}
+
+	/**
+	 * Delivers messages to email, if they fit its quota
+	 *
+	 * @param email non-null account
+	 * @param messages requires messages > 0
+	 * @return true if the messages were delivered, false if email has less
+	 *         than messages of free capacity
+	 */
+	public boolean deliver(final Email email, final int messages) {
+		assert messages > 0;
+
+		while (true) {
+			final AtomicLong used = counter(email);
+			final long current = used.get();
+			if (current == FORGOTTEN) {
+				// forget() is dropping this counter; the next one starts empty
+				continue;
+			}
+			if (current + messages > email.getMailCapacity()) {
+				rejected.add(messages);
+				return false;
+			}
+			if (used.compareAndSet(current, current + messages)) {
+				break;
+			}
+		}
+		totalUsage.add(messages);
+		delivered.add(messages);
+		return true;
+	}
+
+	/**
+	 * Releases the room of deleted messages of email
+	 *
+	 * @param email non-null account
+	 * @param messages requires messages > 0
+	 * @return the number of messages released, at most the usage of email
+	 */
+	public int release(final Email email, final int messages) {
+		assert messages > 0;
+
+		final AtomicLong used = usage.get(email);
+		if (used == null) {
+			return 0;
+		}
+		long current;
+		long released;
+		do {
+			current = used.get();
+			released = Math.min(Math.max(current, 0), messages);
+		} while (released > 0 && !used.compareAndSet(current, current - released));
+		totalUsage.add(-released);
+		return (int) released;
+	}
+
+	/** Returns the number of messages held by email */
+	public long getUsage(final Email email) {
+		final AtomicLong used = usage.get(email);
+		return used == null ? 0 : Math.max(used.get(), 0);
+	}
+
+	/** Returns the number of messages email can still receive, 0 if it is over capacity */
+	public long getRemaining(final Email email) {
+		return Math.max(0, email.getMailCapacity() - getUsage(email));
+	}
+
+	/**
+	 * Sets the mail capacity of every account in department
+	 *
+	 * @param department case-insensitive department
+	 * @param newMailCapacity requires newMailCapacity > 0
+	 * @return the number of accounts of department now over capacity
+	 */
+	public int setDepartmentCapacity(final String department, final int newMailCapacity) {
+		assert newMailCapacity > 0;
+
+		int over = 0;
+		for (Email email : directory.findByDepartment(department)) {
+			directory.setMailCapacity(email, newMailCapacity);
+			if (getUsage(email) > newMailCapacity) {
+				over++;
+			}
+		}
+		return over;
+	}
+
+	/**
+	 * Drops the usage of email, e.g. after it was removed from the directory
+	 *
+	 * @param email non-null account
+	 */
+	public void forget(final Email email) {
+		final AtomicLong used = usage.remove(email);
+		if (used != null) {
+			totalUsage.add(-used.getAndSet(FORGOTTEN));
+		}
+	}
+
+	/** Returns the number of messages held by all accounts */
+	public long getTotalUsage() {
+		return totalUsage.sum();
+	}
+
+	/** Returns the number of messages delivered since this manager was created */
+	public long getDeliveredCount() {
+		return delivered.sum();
+	}
+
+	/** Returns the number of messages rejected since this manager was created */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	private AtomicLong counter(final Email email) {
+		final AtomicLong used = usage.get(email);
+		return used != null ? used : usage.computeIfAbsent(email, e -> new AtomicLong());
+	}
+}
@@ -0,0 +1,262 @@
+package email_app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * The {@code RemoteShard} class is a {@link Shard} held by an
+ * {@link AdminServer} in another process, reached over HTTP through its
+ * {@code /shard} operations, with the shard secret the server was
+ * created with.
+ * <p>
+ * The accounts of a remote shard take no memory in the process routing
+ * to it. They are sent as stored state, password hashes included, and
+ * the accounts it returns are copies: changes go through the shard, to
+ * the account registered with the primary address of the given instance.
+ * When none is registered, capacity and password changes are made to the
+ * given instance, like {@link EmailDirectory} does for accounts it does
+ * not hold.</p>
+ * <p>
+ * Every operation is one request, waiting at most
+ * {@value #TIMEOUT_MILLIS} ms to connect and as long for the answer; an
+ * unreachable server throws {@link UncheckedIOException}, an unexpected
+ * answer {@link IllegalStateException}.</p>
+ *
+ * @author dawiditer
+ *
+ */
+class RemoteShard implements Shard {
+	/** Milliseconds to wait for a connection, and then for an answer */
+	static final int TIMEOUT_MILLIS = 10_000;
+	private static final int OK = 200;
+	private static final int CREATED = 201;
+	private static final int NOT_FOUND = 404;
+	private static final int CONFLICT = 409;
+
+	private final String url;
+	private final String secret;
+
+	// Abstraction Function
+	//  Represents the shard served by the AdminServer at url, to the
+	//  clients sending secret.
+	//
+	// Representation Invariant
+	//  - url is http://host:port/shard/
+	//  - secret is not empty
+	//
+	// Safety from Exposure
+	//  - url and secret are private, final and immutable
+	//  - returned accounts and collections are new copies
+	//
+	// Thread Safety Argument
+	//  - url and secret are immutable; every request uses its own connection
+	//  - the AdminServer serializes the changes of each of its accounts
+	//  - a given instance is only changed while holding its lock
+
+	/**
+	 * Creates a shard served by an {@link AdminServer}
+	 *
+	 * @param server non-null address the server listens at
+	 * @param secret non-empty shard secret the server was created with
+	 */
+	RemoteShard(final InetSocketAddress server, final String secret) {
+		if (secret.isEmpty()) {
+			throw new IllegalArgumentException("secret must not be empty");
+		}
+		this.url = "http://" + server.getHostString() + ":" + server.getPort() + "/shard/";
+		this.secret = secret;
+	}
+
+	@Override public boolean add(final Email email) {
+		final StringBuilder account = new StringBuilder();
+		AdminServer.appendAccount(account, email);
+		return post("add", account.toString().trim()).status == CREATED;
+	}
+
+	@Override public String remove(final Email email) {
+		final Answer answer = post("remove", form("address", email.getEmailAddress()));
+		return answer.status == OK ? answer.body : null;
+	}
+
+	@Override public Email get(final String address) {
+		final Answer answer = post("get", form("address", address));
+		return answer.status == OK ? AdminServer.parseAccount(answer.body) : null;
+	}
+
+	@Override public boolean reserve(final String alias, final String primary) {
+		return post("reserve", form("alias", alias, "primary", primary)).status == OK;
+	}
+
+	@Override public void release(final String alias, final String primary) {
+		post("release", form("alias", alias, "primary", primary));
+	}
+
+	@Override public String resolve(final String alias) {
+		final Answer answer = post("resolve", form("alias", alias));
+		return answer.status == OK ? answer.body : null;
+	}
+
+	@Override public String createAlternateEmail(final Email email, final String altFirstname,
+			final String altLastname) {
+		final Answer answer = post("alternate", form("address", email.getEmailAddress(),
+				"firstname", altFirstname, "lastname", altLastname));
+		return answer.status == OK ? answer.body : null;
+	}
+
+	@Override public int setMailCapacity(final Email email, final int newMailCapacity) {
+		final Answer answer = post("capacity", form("address", email.getEmailAddress(),
+				"capacity", String.valueOf(newMailCapacity)));
+		if (answer.status == NOT_FOUND) {
+			synchronized (email) {
+				return email.setMailCapacity(newMailCapacity);
+			}
+		}
+		return Integer.parseInt(answer.body);
+	}
+
+	@Override public boolean resetPassword(final Email email, final String newPassword) {
+		final Answer answer = post("password", form("address", email.getEmailAddress(), "password", newPassword));
+		if (answer.status == NOT_FOUND) {
+			synchronized (email) {
+				return email.resetPassword(newPassword);
+			}
+		}
+		return answer.status == OK;
+	}
+
+	@Override public Collection<Email> findByName(final String name) {
+		return accounts(post("name", form("name", name)));
+	}
+
+	@Override public Collection<Email> findByDepartment(final String department) {
+		return accounts(post("department", form("department", department)));
+	}
+
+	@Override public DepartmentAggregator.Stats getDepartmentStats(final String department) {
+		final Map<String, String> stats = AdminServer.parseForm(post("stats", form("department", department)).body);
+		return new DepartmentAggregator.Stats(department.trim().toLowerCase(Locale.ROOT),
+				Long.parseLong(stats.get("accounts")), Long.parseLong(stats.get("totalMailCapacity")),
+				Integer.parseInt(stats.get("maxMailCapacity")), Long.parseLong(stats.get("alternates")));
+	}
+
+	@Override public int size() {
+		return Integer.parseInt(post("size", "").body);
+	}
+
+	@Override public Stream<Email> stream() {
+		return accounts(post("accounts", "")).stream();
+	}
+
+	@Override public Map<String, String> aliases() {
+		final Map<String, String> aliases = new HashMap<>();
+		for (String line : lines(post("aliases", ""))) {
+			final Map<String, String> alias = AdminServer.parseForm(line);
+			aliases.put(alias.get("alias"), alias.get("primary"));
+		}
+		return aliases;
+	}
+
+	@Override public String toString() {
+		return "url: " + url;
+	}
+
+	/** Returns the accounts answered one per line */
+	private static List<Email> accounts(final Answer answer) {
+		final List<Email> accounts = new ArrayList<>();
+		for (String line : lines(answer)) {
+			accounts.add(AdminServer.parseAccount(line));
+		}
+		return accounts;
+	}
+
+	private static List<String> lines(final Answer answer) {
+		final List<String> lines = new ArrayList<>();
+		for (String line : answer.body.split("\n")) {
+			if (!line.isEmpty()) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	/** Returns a form body of the given name, value pairs */
+	private static String form(final String... fields) {
+		final StringBuilder form = new StringBuilder();
+		for (int i = 0; i < fields.length; i += 2) {
+			if (i > 0) {
+				form.append('&');
+			}
+			form.append(fields[i]).append('=').append(AdminServer.encode(fields[i + 1]));
+		}
+		return form.toString();
+	}
+
+	/**
+	 * Runs one operation on the server
+	 *
+	 * @param operation name of a {@code /shard} operation
+	 * @param body form-encoded arguments
+	 * @return the answer, whose status is 200, 201, 404 or 409
+	 * @throws UncheckedIOException if the server cannot be reached
+	 * @throws IllegalStateException if the server answers with another status
+	 */
+	private Answer post(final String operation, final String body) {
+		try {
+			final HttpURLConnection connection = (HttpURLConnection) new URL(url + operation).openConnection();
+			connection.setConnectTimeout(TIMEOUT_MILLIS);
+			connection.setReadTimeout(TIMEOUT_MILLIS);
+			connection.setRequestMethod("POST");
+			connection.setRequestProperty(AdminServer.SHARD_SECRET_HEADER, secret);
+			connection.setDoOutput(true);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(body.getBytes(StandardCharsets.UTF_8));
+			}
+			final int status = connection.getResponseCode();
+			final String text = readAll(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+			if (status != OK && status != CREATED && status != NOT_FOUND && status != CONFLICT) {
+				throw new IllegalStateException("shard " + url + operation + " answered " + status + ": " + text);
+			}
+			return new Answer(status, text);
+		} catch (IOException e) {
+			throw new UncheckedIOException("shard " + url + operation + " unreachable", e);
+		}
+	}
+
+	/** Returns the text read from in, without the line break ending it */
+	private static String readAll(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream input = in) {
+			final byte[] buffer = new byte[4096];
+			for (int n; (n = input.read(buffer)) > 0;) {
+				out.write(buffer, 0, n);
+			}
+		}
+		final String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+		return text.endsWith("\n") ? text.substring(0, text.length() - 1) : text;
+	}
+
+	/** The status code and text answered to an operation */
+	private static final class Answer {
+		private final int status;
+		private final String body;
+
+		Answer(final int status, final String body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+}
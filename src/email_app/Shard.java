@@ -0,0 +1,127 @@
+package email_app;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * The {@code Shard} interface is one partition of a {@link ShardedDirectory}:
+ * the accounts whose primary addresses it owns, and the alternate addresses
+ * it reserves for accounts of any shard.
+ * <p>
+ * A shard is either held in the process of its {@link ShardedDirectory},
+ * as a {@link LocalShard}, or in another one, as a {@link RemoteShard}
+ * talking to an {@link AdminServer}. A local shard acts on the given
+ * instances, like {@link EmailDirectory}. A remote shard acts on the
+ * account registered with the primary address of the given instance, and
+ * only changes the given instance when there is none; the accounts it
+ * returns are copies.</p>
+ * <p>
+ * A primary address is never registered while it is reserved as an
+ * alternate address, and an alternate address is never reserved while it
+ * is registered as a primary address. Implementations are thread-safe.</p>
+ *
+ * @author dawiditer
+ *
+ */
+interface Shard {
+
+	/**
+	 * Registers email, unless its primary address is used in this shard as
+	 * a primary address or reserved as an alternate one. Nothing is
+	 * published when email is rejected.
+	 *
+	 * @param email non-null account owned by this shard
+	 * @return true if email was added, false otherwise
+	 */
+	boolean add(Email email);
+
+	/**
+	 * Removes email from this shard
+	 *
+	 * @param email non-null account
+	 * @return the alternate address of the removed account, "" if it had
+	 *         none, null if no account was removed
+	 */
+	String remove(Email email);
+
+	/**
+	 * Returns the account registered with a primary address
+	 *
+	 * @param address lowercase primary address
+	 * @return the account, null if none
+	 */
+	Email get(String address);
+
+	/**
+	 * Reserves an alternate address for the account with primary address
+	 * primary, unless it is reserved already or used as a primary address
+	 * in this shard
+	 *
+	 * @param alias lowercase alternate address owned by this shard
+	 * @param primary lowercase primary address of the account
+	 * @return true if alias has been reserved, false otherwise
+	 */
+	boolean reserve(String alias, String primary);
+
+	/** Releases alias if it is reserved for the account with primary address primary */
+	void release(String alias, String primary);
+
+	/**
+	 * Returns the primary address an alternate address is reserved for
+	 *
+	 * @param alias lowercase alternate address
+	 * @return the primary address, null if alias is not reserved
+	 */
+	String resolve(String alias);
+
+	/**
+	 * Defines an alternate email address for a registered account, as
+	 * {@link EmailDirectory#createAlternateEmail(Email, String, String)} does
+	 *
+	 * @param email non-null account
+	 * @param altFirstname non-empty non-null case-insensitive String
+	 * @param altLastname non-empty non-null case-insensitive String
+	 * @return the previous alternate address, "" if there was none, null
+	 *         if the alternate address has not been created
+	 */
+	String createAlternateEmail(Email email, String altFirstname, String altLastname);
+
+	/**
+	 * Changes the mail capacity of an account, as
+	 * {@link EmailDirectory#setMailCapacity(Email, int)} does
+	 *
+	 * @param email non-null account
+	 * @param newMailCapacity requires newMailCapacity > 0
+	 * @return the previous mail capacity
+	 */
+	int setMailCapacity(Email email, int newMailCapacity);
+
+	/**
+	 * Changes the password of an account, as
+	 * {@link EmailDirectory#resetPassword(Email, String)} does
+	 *
+	 * @param email non-null account
+	 * @param newPassword requires 8 <= newPassword.length() <= 25
+	 * @return true if and only if the password has been changed
+	 */
+	boolean resetPassword(Email email, String newPassword);
+
+	/** Returns the registered accounts with the given case-insensitive primary name */
+	Collection<Email> findByName(String name);
+
+	/** Returns the registered accounts in the given case-insensitive department */
+	Collection<Email> findByDepartment(String department);
+
+	/** Returns the totals of the registered accounts of the given case-insensitive department */
+	DepartmentAggregator.Stats getDepartmentStats(String department);
+
+	/** Returns the number of registered accounts */
+	int size();
+
+	/** Returns a weakly consistent stream of the registered accounts, each exactly once */
+	Stream<Email> stream();
+
+	/** Returns a snapshot of the reserved alternate addresses, mapped to the primary addresses they are reserved for */
+	Map<String, String> aliases();
+}
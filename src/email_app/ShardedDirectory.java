@@ -0,0 +1,654 @@
+package email_app;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The {@code ShardedDirectory} class partitions {@link Email} accounts
+ * across several {@link Shard}s, so that no single directory has to hold,
+ * index and aggregate the whole account set.
+ * <p>
+ * Shards are either {@link EmailDirectory} instances in this process, or
+ * {@link AdminServer}s in other processes, created with a shard secret,
+ * whose accounts take no memory in this one. Accounts of a shard in another process are copies: lookups
+ * and queries return new instances, and changes are made to the account
+ * registered with the primary address of the given instance, which is
+ * only changed itself when no such account is registered. A shard that
+ * cannot be reached throws {@link java.io.UncheckedIOException}.</p>
+ * <p>
+ * Accounts are placed by consistent hashing of their primary address:
+ * every shard owns {@code virtualNodes} points on a ring of 32-bit hashes,
+ * and an address belongs to the shard owning the first point at or after
+ * its hash. Operations on a single account are routed to its shard;
+ * queries by name or department are scattered to every shard and their
+ * answers gathered.</p>
+ * <p>
+ * Primary and alternate addresses still share one namespace across all
+ * shards. An alternate address is registered with its account's shard and
+ * reserved, for the account's primary address, in the shard owning the
+ * alternate address itself, so that {@link #lookup(String)} finds it
+ * with two routing steps at most. Two concurrent registrations of the
+ * same address may both fail, but never both succeed, and an account
+ * rejected for its address is never published.</p>
+ * <p>
+ * {@link #addShard()} adds an empty shard and moves to it the accounts it
+ * now owns: about one in {@code shards + 1}, the others stay where they
+ * are. Accounts are first copied to the new shard, then the new ring is
+ * published, then the originals are removed, so a failure while copying
+ * rolls the copies back and loses nothing. Every other operation,
+ * including the queries gathered from every shard, waits while the ring
+ * changes. Each shard publishes the changes of its accounts to its own
+ * {@link AccountEventStream}; a moved account is added to one and
+ * removed from the other.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class ShardedDirectory {
+	/** Default number of points each shard owns on the ring */
+	public static final int DEFAULT_VIRTUAL_NODES = 128;
+	private static final int STRIPES = 64;
+
+	private final int virtualNodes;
+	private final StampedLock[] stripes = new StampedLock[STRIPES];
+	private volatile Shard[] shards;
+	private volatile Ring ring;
+
+	// Abstraction Function
+	//  Represents the union of the accounts registered in shards, where
+	//  the account with primary address a is registered in
+	//  shards[ring.owner(hash(a))].
+	//
+	// Representation Invariant
+	//  - virtualNodes > 0, shards.length > 0
+	//  - ring has virtualNodes points per shard of shards
+	//  - every account is registered in exactly one shard, its owner
+	//  - for every account with an alternate address b:
+	//      shards[ring.owner(hash(b))].resolve(b) equals the primary address of account
+	//  - no address is both a primary address and an alias
+	//
+	// Safety from Exposure
+	//  - All fields are private; shards and ring are never returned
+	//  - query results are new unmodifiable sets
+	//
+	// Thread Safety Argument
+	//  - every operation holds the read lock of the stripe of the address
+	//    it routes by, so shards and ring cannot change under it; queries
+	//    over every shard hold the read lock of any stripe
+	//  - addShard() holds the write locks of all stripes, then publishes
+	//    the new shards and ring through volatile fields
+	//  - shards are thread-safe, and never register a primary address
+	//    reserved as an alias, nor reserve an alias registered as a
+	//    primary address
+	//  - an alternate address is reserved before its account is added or
+	//    changed, and released after it is removed or replaced
+
+	/** Creates a directory of shards empty shards in this process, each owning the default number of points */
+	public ShardedDirectory(final int shards) {
+		this(shards, DEFAULT_VIRTUAL_NODES);
+	}
+
+	/**
+	 * Creates a directory of empty shards in this process
+	 *
+	 * @param shards number of shards, requires shards > 0
+	 * @param virtualNodes number of points each shard owns on the ring,
+	 *        requires virtualNodes > 0; more points spread accounts more evenly
+	 */
+	public ShardedDirectory(final int shards, final int virtualNodes) {
+		this(local(shards), virtualNodes);
+	}
+
+	/**
+	 * Creates a directory of shards held by {@link AdminServer}s, usually
+	 * in other processes
+	 *
+	 * @param servers non-empty addresses of servers, each serving an empty
+	 *        directory to this one only
+	 * @param secret non-empty shard secret the servers were created with
+	 * @param virtualNodes number of points each shard owns on the ring,
+	 *        requires virtualNodes > 0; more points spread accounts more evenly
+	 */
+	public ShardedDirectory(final List<InetSocketAddress> servers, final String secret, final int virtualNodes) {
+		this(servers.stream().map(server -> new RemoteShard(server, secret)).toArray(Shard[]::new), virtualNodes);
+	}
+
+	private ShardedDirectory(final Shard[] shards, final int virtualNodes) {
+		if (shards.length == 0 || virtualNodes <= 0) {
+			throw new IllegalArgumentException("shards and virtualNodes must be > 0");
+		}
+		this.virtualNodes = virtualNodes;
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new StampedLock();
+		}
+		this.shards = shards;
+		this.ring = new Ring(shards.length, virtualNodes);
+
+		checkRep();
+	}
+
+	private static Shard[] local(final int shards) {
+		if (shards <= 0) {
+			throw new IllegalArgumentException("shards and virtualNodes must be > 0");
+		}
+		final Shard[] local = new Shard[shards];
+		for (int i = 0; i < shards; i++) {
+			local[i] = new LocalShard();
+		}
+		return local;
+	}
+
+	private void checkRep() {
+		assert virtualNodes > 0;
+		assert shards.length > 0;
+		assert ring.size() == shards.length * virtualNodes;
+	}
+
+	/**
+	 * Registers email in the shard owning its primary address
+	 *
+	 * @param email non-null account
+	 * @return true if email was added, false if email's primary or
+	 *         alternate address already belongs to a registered account
+	 */
+	public boolean add(final Email email) {
+		final String address = email.getEmailAddress();
+		final StampedLock stripe = stripe(address);
+		final long stamp = stripe.readLock();
+		try {
+			synchronized (email) {
+				final String altAddress = email.getAltEmailAddress();
+				if (!altAddress.isEmpty() && !owner(altAddress).reserve(altAddress, address)) {
+					return false;
+				}
+				// the shard checks its aliases before registering, so nothing is published on conflict
+				if (!owner(address).add(email)) {
+					release(altAddress, address);
+					return false;
+				}
+				return true;
+			}
+		} finally {
+			stripe.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Removes email from this directory
+	 *
+	 * @param email non-null account
+	 * @return true if email was registered and has been removed, false otherwise
+	 */
+	public boolean remove(final Email email) {
+		final String address = email.getEmailAddress();
+		final StampedLock stripe = stripe(address);
+		final long stamp = stripe.readLock();
+		try {
+			synchronized (email) {
+				final String altAddress = owner(address).remove(email);
+				if (altAddress == null) {
+					return false;
+				}
+				release(altAddress, address);
+				return true;
+			}
+		} finally {
+			stripe.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Defines an alternate email address for a registered account, as
+	 * {@link EmailDirectory#createAlternateEmail(Email, String, String)}
+	 * does, enforcing uniqueness across all shards
+	 *
+	 * @param email non-null account registered in this directory
+	 * @param altFirstname non-empty non-null case-insensitive String
+	 * @param altLastname non-empty non-null case-insensitive String
+	 * @return true if the alternate address has been successfully created,
+	 *         false otherwise
+	 */
+	public boolean createAlternateEmail(final Email email, final String altFirstname, final String altLastname) {
+		final String address = email.getEmailAddress();
+		final StampedLock stripe = stripe(address);
+		final long stamp = stripe.readLock();
+		try {
+			synchronized (email) {
+				final String candidate = Email.normalizeName(altFirstname) + "." + Email.normalizeName(altLastname)
+						+ "@" + email.getDepartment() + ".company.com";
+				final Shard aliasShard = owner(candidate);
+				// a candidate already reserved for this account is its current alternate address
+				final boolean reserved = aliasShard.reserve(candidate, address);
+				if (!reserved && !address.equals(aliasShard.resolve(candidate))) {
+					return false;
+				}
+				final String previous = owner(address).createAlternateEmail(email, altFirstname, altLastname);
+				if (previous == null) {
+					if (reserved) {
+						aliasShard.release(candidate, address);
+					}
+					return false;
+				}
+				if (!previous.equals(candidate)) {
+					release(previous, address);
+				}
+				return true;
+			}
+		} finally {
+			stripe.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Changes the mail capacity of an account, as
+	 * {@link EmailDirectory#setMailCapacity(Email, int)} does in its shard
+	 *
+	 * @param email non-null account
+	 * @param newMailCapacity requires newMailCapacity > 0
+	 * @return the previous mail capacity of email
+	 */
+	public int setMailCapacity(final Email email, final int newMailCapacity) {
+		final String address = email.getEmailAddress();
+		final StampedLock stripe = stripe(address);
+		final long stamp = stripe.readLock();
+		try {
+			return owner(address).setMailCapacity(email, newMailCapacity);
+		} finally {
+			stripe.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Changes the password of an account, as
+	 * {@link EmailDirectory#resetPassword(Email, String)} does in its shard
+	 *
+	 * @param email non-null account
+	 * @param newPassword requires 8 <= newPassword.length() <= 25
+	 * @return true if and only if the password has been changed
+	 */
+	public boolean resetPassword(final Email email, final String newPassword) {
+		final String address = email.getEmailAddress();
+		final StampedLock stripe = stripe(address);
+		final long stamp = stripe.readLock();
+		try {
+			return owner(address).resetPassword(email, newPassword);
+		} finally {
+			stripe.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Returns the account owning address
+	 *
+	 * @param address case-insensitive primary or alternate email address
+	 * @return the registered account whose primary or alternate address
+	 *         equals address, null if none
+	 */
+	public Email lookup(final String address) {
+		final String key = address.trim().toLowerCase(Locale.ROOT);
+		final StampedLock stripe = stripe(key);
+		final long stamp = stripe.readLock();
+		try {
+			final String primary = owner(key).resolve(key);
+			return primary != null ? owner(primary).get(primary) : owner(key).get(key);
+		} finally {
+			stripe.unlockRead(stamp);
+		}
+	}
+
+	/** Returns true if and only if address is used by a registered account, as primary or alternate */
+	public boolean contains(final String address) {
+		return lookup(address) != null;
+	}
+
+	/**
+	 * Returns the accounts with the given primary name, gathered from every shard
+	 *
+	 * @param name case-insensitive fullname as firstname.lastname
+	 * @return unmodifiable set of the registered accounts whose
+	 *         {@link Email#getName()} equals name, possibly empty
+	 */
+	public Set<Email> findByName(final String name) {
+		final StampedLock stripe = anyStripe();
+		final long stamp = stripe.readLock();
+		try {
+			final Set<Email> accounts = new HashSet<>();
+			for (Shard shard : shards) {
+				accounts.addAll(shard.findByName(name));
+			}
+			return Collections.unmodifiableSet(accounts);
+		} finally {
+			stripe.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Returns the accounts in the given department, gathered from every shard
+	 *
+	 * @param department case-insensitive department
+	 * @return unmodifiable set of the registered accounts whose
+	 *         {@link Email#getDepartment()} equals department, possibly empty
+	 */
+	public Set<Email> findByDepartment(final String department) {
+		final StampedLock stripe = anyStripe();
+		final long stamp = stripe.readLock();
+		try {
+			final Set<Email> accounts = new HashSet<>();
+			for (Shard shard : shards) {
+				accounts.addAll(shard.findByDepartment(department));
+			}
+			return Collections.unmodifiableSet(accounts);
+		} finally {
+			stripe.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Returns the totals of the registered accounts of a department,
+	 * summed over every shard
+	 *
+	 * @param department case-insensitive department
+	 * @return the current totals of department, all zero if it has no accounts
+	 */
+	public DepartmentAggregator.Stats getDepartmentStats(final String department) {
+		long accounts = 0;
+		long totalMailCapacity = 0;
+		int maxMailCapacity = 0;
+		long alternates = 0;
+		final StampedLock stripe = anyStripe();
+		final long stamp = stripe.readLock();
+		try {
+			for (Shard shard : shards) {
+				final DepartmentAggregator.Stats stats = shard.getDepartmentStats(department);
+				accounts += stats.getAccountCount();
+				totalMailCapacity += stats.getTotalMailCapacity();
+				maxMailCapacity = Math.max(maxMailCapacity, stats.getMaxMailCapacity());
+				alternates += stats.getAlternateCount();
+			}
+		} finally {
+			stripe.unlockRead(stamp);
+		}
+		return new DepartmentAggregator.Stats(department.trim().toLowerCase(Locale.ROOT), accounts, totalMailCapacity,
+				maxMailCapacity, alternates);
+	}
+
+	/** Returns the number of registered accounts */
+	public int size() {
+		int size = 0;
+		for (int shardSize : getShardSizes()) {
+			size += shardSize;
+		}
+		return size;
+	}
+
+	/** Returns the number of shards */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/** Returns the number of accounts registered in each shard, in the order the shards were added */
+	public int[] getShardSizes() {
+		final StampedLock stripe = anyStripe();
+		final long stamp = stripe.readLock();
+		try {
+			final Shard[] current = shards;
+			final int[] sizes = new int[current.length];
+			for (int i = 0; i < current.length; i++) {
+				sizes[i] = current[i].size();
+			}
+			return sizes;
+		} finally {
+			stripe.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Returns a stream of the registered accounts, each exactly once while
+	 * no shard is added. Like {@link EmailDirectory#stream()}, it is weakly
+	 * consistent.
+	 */
+	public Stream<Email> stream() {
+		return Arrays.stream(shards).flatMap(Shard::stream);
+	}
+
+	/**
+	 * Adds an empty shard in this process and moves to it the accounts and
+	 * alternate addresses it now owns. Every other operation waits until
+	 * the move is complete.
+	 *
+	 * @return the number of accounts moved
+	 * @throws IllegalStateException if a moved account could not be
+	 *         dropped from its previous shard, after adding the shard
+	 */
+	public int addShard() {
+		return addShard(new LocalShard());
+	}
+
+	/**
+	 * Adds a shard held by an {@link AdminServer}, usually in another
+	 * process, and moves to it the accounts and alternate addresses it now
+	 * owns. Every other operation waits until the move is complete.
+	 *
+	 * @param server non-null address of a server serving an empty
+	 *        directory to this one only
+	 * @param secret non-empty shard secret the server was created with
+	 * @return the number of accounts moved
+	 * @throws java.io.UncheckedIOException if a shard cannot be reached
+	 *         while copying, in which case nothing has changed
+	 * @throws IllegalStateException if an address is already taken in the
+	 *         new shard, in which case nothing has changed, or if a moved
+	 *         account could not be dropped from its previous shard, after
+	 *         adding the shard
+	 */
+	public int addShard(final InetSocketAddress server, final String secret) {
+		return addShard(new RemoteShard(server, secret));
+	}
+
+	private int addShard(final Shard added) {
+		final long[] stamps = new long[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			stamps[i] = stripes[i].writeLock();
+		}
+		try {
+			final Shard[] previous = shards;
+			final Shard[] grown = Arrays.copyOf(previous, previous.length + 1);
+			grown[grown.length - 1] = added;
+			final Ring grownRing = new Ring(grown.length, virtualNodes);
+			final int index = grown.length - 1;
+			final List<List<Email>> leaving = new ArrayList<>();
+			final List<Map<String, String>> leavingAliases = new ArrayList<>();
+			final List<Email> copied = new ArrayList<>();
+			final Map<String, String> reserved = new HashMap<>();
+			int moved = 0;
+			try {
+				for (Shard shard : previous) {
+					final List<Email> accounts = shard.stream()
+							.filter(email -> grownRing.owner(hash(email.getEmailAddress())) == index)
+							.collect(Collectors.toList());
+					for (Email email : accounts) {
+						if (!added.add(email)) {
+							throw new IllegalStateException("account taken in the new shard: " + email.getEmailAddress());
+						}
+						copied.add(email);
+					}
+					final Map<String, String> aliases = new HashMap<>();
+					for (Map.Entry<String, String> alias : shard.aliases().entrySet()) {
+						if (grownRing.owner(hash(alias.getKey())) == index) {
+							if (!added.reserve(alias.getKey(), alias.getValue())) {
+								throw new IllegalStateException("alias taken in the new shard: " + alias.getKey());
+							}
+							reserved.put(alias.getKey(), alias.getValue());
+							aliases.put(alias.getKey(), alias.getValue());
+						}
+					}
+					leaving.add(accounts);
+					leavingAliases.add(aliases);
+					moved += accounts.size();
+				}
+			} catch (RuntimeException e) {
+				undo(added, copied, reserved, e);
+				throw e;
+			}
+			shards = grown;
+			ring = grownRing;
+			checkRep();
+
+			// every moved account is now routed to its copy; drop the originals
+			RuntimeException failure = null;
+			int left = 0;
+			for (int i = 0; i < previous.length; i++) {
+				for (Email email : leaving.get(i)) {
+					try {
+						previous[i].remove(email);
+					} catch (RuntimeException e) {
+						failure = suppress(failure, e);
+						left++;
+					}
+				}
+				for (Map.Entry<String, String> alias : leavingAliases.get(i).entrySet()) {
+					try {
+						previous[i].release(alias.getKey(), alias.getValue());
+					} catch (RuntimeException e) {
+						failure = suppress(failure, e);
+						left++;
+					}
+				}
+			}
+			if (failure != null) {
+				throw new IllegalStateException("shard added, but " + left
+						+ " moved accounts or aliases are left in their previous shards", failure);
+			}
+			return moved;
+		} finally {
+			for (int i = 0; i < STRIPES; i++) {
+				stripes[i].unlockWrite(stamps[i]);
+			}
+		}
+	}
+
+	/** Removes from added the aliases and accounts copied to it, suppressing their failures by failure */
+	private static void undo(final Shard added, final List<Email> copied, final Map<String, String> reserved,
+			final RuntimeException failure) {
+		for (Map.Entry<String, String> alias : reserved.entrySet()) {
+			try {
+				added.release(alias.getKey(), alias.getValue());
+			} catch (RuntimeException e) {
+				failure.addSuppressed(e);
+			}
+		}
+		for (int i = copied.size() - 1; i >= 0; i--) {
+			try {
+				added.remove(copied.get(i));
+			} catch (RuntimeException e) {
+				failure.addSuppressed(e);
+			}
+		}
+	}
+
+	/** Returns failure with e suppressed by it, or e if failure is null */
+	private static RuntimeException suppress(final RuntimeException failure, final RuntimeException e) {
+		if (failure == null) {
+			return e;
+		}
+		failure.addSuppressed(e);
+		return failure;
+	}
+
+	@Override public String toString() {
+		return "shards: " + getShardCount() + ","
+				+ "virtualNodes: " + virtualNodes + ","
+				+ "accounts: " + size() + ","
+				+ "shardSizes: " + Arrays.toString(getShardSizes());
+	}
+
+	/** Releases alias if it is reserved for the account with primary address primary; "" is never reserved */
+	private void release(final String alias, final String primary) {
+		if (!alias.isEmpty()) {
+			owner(alias).release(alias, primary);
+		}
+	}
+
+	private Shard owner(final String address) {
+		return shards[ring.owner(hash(address))];
+	}
+
+	private StampedLock stripe(final String address) {
+		return stripes[hash(address) & (STRIPES - 1)];
+	}
+
+	/** Returns a random stripe, to keep the ring from changing under a query over every shard */
+	private StampedLock anyStripe() {
+		return stripes[ThreadLocalRandom.current().nextInt(STRIPES)];
+	}
+
+	/** Returns the position of address on the ring */
+	static int hash(final String address) {
+		return mix(address.hashCode());
+	}
+
+	/** Returns h with its bits mixed by the MurmurHash3 finalizer */
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/** An immutable ring of virtual nodes, sorted by position */
+	private static final class Ring {
+		private final int[] points;
+		private final int[] owners;
+
+		Ring(final int shards, final int virtualNodes) {
+			final long[] nodes = new long[shards * virtualNodes];
+			for (int shard = 0; shard < shards; shard++) {
+				for (int node = 0; node < virtualNodes; node++) {
+					final int point = mix(mix(shard + 1) + node * 0x9e3779b9);
+					nodes[shard * virtualNodes + node] = ((long) point << 32) | shard;
+				}
+			}
+			// signed order of the points, which is the order of the high bits
+			Arrays.sort(nodes);
+			points = new int[nodes.length];
+			owners = new int[nodes.length];
+			for (int i = 0; i < nodes.length; i++) {
+				points[i] = (int) (nodes[i] >> 32);
+				owners[i] = (int) nodes[i];
+			}
+		}
+
+		/** Returns the number of virtual nodes */
+		int size() {
+			return points.length;
+		}
+
+		/** Returns the shard owning the first point at or after hash, wrapping around */
+		int owner(final int hash) {
+			int low = 0;
+			int high = points.length;
+			while (low < high) {
+				final int middle = (low + high) >>> 1;
+				if (points[middle] < hash) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return owners[low == points.length ? 0 : low];
+		}
+	}
+}
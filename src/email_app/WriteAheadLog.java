@@ -0,0 +1,415 @@
+package email_app;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code WriteAheadLog} class makes mutations of {@link Email} accounts
+ * durable by appending them to a log file.
+ * <p>
+ * Callers log a mutation right after applying it, while still holding the
+ * monitor of the account that serializes its mutations (as
+ * {@link EmailDirectory} does), and receive a future that completes once
+ * the record is on disk. Each record is encoded and enqueued under that
+ * monitor too, so the records of one account are logged in the order its
+ * mutations were applied. Records from concurrent callers
+ * are written by a single flusher thread with <em>group commit</em>: it
+ * collects up to {@code maxBatchSize} records, waiting at most
+ * {@code flushIntervalMillis} after the first one, and makes the whole
+ * batch durable with a single {@code fsync}.</p>
+ * <p>
+ * {@link #replay(Path)} rebuilds the account set from a log. Each record is
+ * framed as
+ * <blockquote><pre>
+ * length (int), type (byte), payload, CRC32 of type and payload (int)
+ * </pre></blockquote>
+ * so a record torn by a crash is detected and ends the replay.</p>
+ * <p>
+ * A failed write or fsync fails the log permanently: the file is truncated
+ * back to the end of the last durable batch, if possible, and every pending
+ * and later record completes exceptionally with the failure.</p>
+ *
+ * @author dawiditer
+ *
+ */
+public class WriteAheadLog implements Closeable {
+	/** Default maximum number of records made durable by one fsync */
+	public static final int DEFAULT_MAX_BATCH_SIZE = 1024;
+	/**
+	 * Default time the flusher waits for more records after the first of a
+	 * batch: none, since records arriving during an fsync already form the
+	 * next batch
+	 */
+	public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 0;
+
+	private static final byte CREATE = 1;
+	private static final byte RESET_PASSWORD = 2;
+	private static final byte SET_MAIL_CAPACITY = 3;
+	private static final byte CREATE_ALTERNATE = 4;
+	private static final byte REMOVE = 5;
+
+	private static final Pending CLOSE = new Pending(new byte[0]);
+
+	private final FileChannel channel;
+	private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+	private final int maxBatchSize;
+	private final long flushIntervalNanos;
+	private final Thread flusher;
+	private final Object appendLock = new Object();
+	private boolean closed = false;
+	private volatile IOException failure = null;
+	private long durableSize;
+
+	// Abstraction Function
+	//  Represents the sequence of mutations in the file behind channel,
+	//  followed by the mutations in queue that are not yet durable.
+	//
+	// Representation Invariant
+	//  - maxBatchSize > 0, flushIntervalNanos >= 0
+	//  - only the flusher thread writes to channel
+	//  - CLOSE is only enqueued by close(), and nothing is enqueued after it
+	//  - durableSize is the size of the file up to the last durable batch
+	//  - once failure is set, nothing more is written to channel
+	//
+	// Safety from Exposure
+	//  - All fields are private; all but closed, failure and durableSize are final
+	//  - futures handed to callers are only completed by the flusher, or
+	//    by close() and append() once the log no longer accepts records
+	//
+	// Thread Safety Argument
+	//  - closed is only accessed while holding appendLock, so a record is
+	//    either enqueued before CLOSE or rejected
+	//  - failure is volatile; it and durableSize are only written by the flusher
+
+	/** Opens the log in file with the default batch size and flush interval, appending to it if it exists */
+	public WriteAheadLog(final Path file) throws IOException {
+		this(file, DEFAULT_MAX_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * Opens the log in file, appending to it if it exists
+	 *
+	 * @param file path of the log file
+	 * @param maxBatchSize maximum records per fsync, requires maxBatchSize > 0
+	 * @param flushIntervalMillis maximum wait for more records before an fsync,
+	 *        requires flushIntervalMillis >= 0
+	 * @throws IOException if file cannot be opened
+	 */
+	public WriteAheadLog(final Path file, final int maxBatchSize, final long flushIntervalMillis) throws IOException {
+		if (maxBatchSize <= 0 || flushIntervalMillis < 0) {
+			throw new IllegalArgumentException("maxBatchSize must be > 0 and flushIntervalMillis >= 0");
+		}
+		this.channel = FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		this.maxBatchSize = maxBatchSize;
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+		this.durableSize = channel.size();
+		this.flusher = new Thread(this::flushLoop, "wal-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/** Logs the creation of email, including its full current state */
+	public CompletableFuture<Void> logCreate(final Email email) {
+		synchronized (email) {
+			return append(encode(CREATE, out -> {
+				out.writeUTF(email.getFirstname());
+				out.writeUTF(email.getLastname());
+				out.writeUTF(email.getDepartment());
+				out.writeUTF(email.getAltFirstname());
+				out.writeUTF(email.getAltLastname());
+				out.writeUTF(email.getPasswordHash());
+				out.writeInt(email.getMailCapacity());
+				out.writeInt(email.getSuffix());
+			}));
+		}
+	}
+
+	/** Logs a successful {@link Email#resetPassword(String)}; only the new hash is written */
+	public CompletableFuture<Void> logResetPassword(final Email email) {
+		synchronized (email) {
+			return append(encode(RESET_PASSWORD, out -> {
+				out.writeUTF(email.getEmailAddress());
+				out.writeUTF(email.getPasswordHash());
+			}));
+		}
+	}
+
+	/** Logs a successful {@link Email#setMailCapacity(int)} */
+	public CompletableFuture<Void> logSetMailCapacity(final Email email) {
+		synchronized (email) {
+			return append(encode(SET_MAIL_CAPACITY, out -> {
+				out.writeUTF(email.getEmailAddress());
+				out.writeInt(email.getMailCapacity());
+			}));
+		}
+	}
+
+	/** Logs a successful {@link Email#createAlternateEmail(String, String)} */
+	public CompletableFuture<Void> logCreateAlternateEmail(final Email email) {
+		synchronized (email) {
+			return append(encode(CREATE_ALTERNATE, out -> {
+				out.writeUTF(email.getEmailAddress());
+				out.writeUTF(email.getAltFirstname());
+				out.writeUTF(email.getAltLastname());
+			}));
+		}
+	}
+
+	/**
+	 * Logs the removal of email from the account set, e.g. after a
+	 * successful {@link EmailDirectory#remove(Email)}; its primary address
+	 * may be logged as created again later
+	 */
+	public CompletableFuture<Void> logRemove(final Email email) {
+		synchronized (email) {
+			return append(encode(REMOVE, out -> out.writeUTF(email.getEmailAddress())));
+		}
+	}
+
+	/**
+	 * Rebuilds the account set recorded in a log. Replay stops at the first
+	 * incomplete or corrupt record, which can only be the last one written
+	 * before a crash.
+	 *
+	 * @param file path of a log written by WriteAheadLog; a missing file is an empty log
+	 * @return the accounts created and not removed since, keyed by primary
+	 *         address, in creation order
+	 * @throws IOException if file cannot be read
+	 */
+	public static Map<String, Email> replay(final Path file) throws IOException {
+		final Map<String, Email> accounts = new LinkedHashMap<>();
+		if (!Files.exists(file)) {
+			return accounts;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			while (true) {
+				final byte[] body;
+				final int checksum;
+				try {
+					final int length = in.readInt();
+					if (length <= 0 || length > (1 << 20)) {
+						break;
+					}
+					body = new byte[length];
+					in.readFully(body);
+					checksum = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				final CRC32 crc = new CRC32();
+				crc.update(body, 0, body.length);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				apply(accounts, new DataInputStream(new ByteArrayInputStream(body)));
+			}
+		}
+		return accounts;
+	}
+
+	private static void apply(final Map<String, Email> accounts, final DataInputStream record) throws IOException {
+		final byte type = record.readByte();
+		if (type == CREATE) {
+			final Email email = Email.restore(record.readUTF(), record.readUTF(), record.readUTF(),
+					record.readUTF(), record.readUTF(), record.readUTF(), record.readInt(), record.readInt());
+			accounts.put(email.getEmailAddress(), email);
+			return;
+		}
+		final String address = record.readUTF();
+		if (type == REMOVE) {
+			accounts.remove(address);
+			return;
+		}
+		final Email email = accounts.get(address);
+		if (email == null) {
+			return;
+		}
+		// accounts are rebuilt with Email.restore, which leaves the live metrics alone
+		String altFirstname = email.getAltFirstname();
+		String altLastname = email.getAltLastname();
+		String passwordHash = email.getPasswordHash();
+		int mailCapacity = email.getMailCapacity();
+		switch (type) {
+		case RESET_PASSWORD:
+			passwordHash = record.readUTF();
+			break;
+		case SET_MAIL_CAPACITY:
+			mailCapacity = record.readInt();
+			break;
+		case CREATE_ALTERNATE:
+			altFirstname = record.readUTF();
+			altLastname = record.readUTF();
+			break;
+		default:
+			throw new IOException("unknown record type: " + type);
+		}
+		accounts.put(email.getEmailAddress(), Email.restore(email.getFirstname(), email.getLastname(),
+				email.getDepartment(), altFirstname, altLastname, passwordHash, mailCapacity, email.getSuffix()));
+	}
+
+	/** Stops accepting records, waits until all logged records are durable and closes the file */
+	@Override public void close() throws IOException {
+		synchronized (appendLock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			queue.add(CLOSE);
+		}
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// only reached if the flusher stopped early; nothing is enqueued after CLOSE
+		for (Pending pending = queue.poll(); pending != null; pending = queue.poll()) {
+			pending.future.completeExceptionally(new IOException("log is closed"));
+		}
+		channel.close();
+	}
+
+	private CompletableFuture<Void> append(final byte[] record) {
+		final Pending pending = new Pending(record);
+		final IOException failed = failure;
+		if (failed != null) {
+			pending.future.completeExceptionally(failed);
+			return pending.future;
+		}
+		synchronized (appendLock) {
+			if (closed) {
+				pending.future.completeExceptionally(new IOException("log is closed"));
+				return pending.future;
+			}
+			queue.add(pending);
+		}
+		return pending.future;
+	}
+
+	private void flushLoop() {
+		final List<Pending> batch = new ArrayList<>(maxBatchSize);
+		boolean stop = false;
+		while (!stop) {
+			try {
+				batch.add(queue.take());
+				final long deadline = System.nanoTime() + flushIntervalNanos;
+				while (batch.size() < maxBatchSize) {
+					queue.drainTo(batch, maxBatchSize - batch.size());
+					final long remaining = deadline - System.nanoTime();
+					if (batch.size() >= maxBatchSize || remaining <= 0) {
+						break;
+					}
+					final Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+			} catch (InterruptedException e) {
+				// nobody interrupts the flusher; treat it like close()
+				stop = true;
+			}
+			stop |= batch.remove(CLOSE);
+			if (!batch.isEmpty()) {
+				flush(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	private void flush(final List<Pending> batch) {
+		if (failure != null) {
+			fail(batch, failure);
+			return;
+		}
+		int bytes = 0;
+		for (Pending pending : batch) {
+			bytes += pending.record.length;
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate(bytes);
+		for (Pending pending : batch) {
+			buffer.put(pending.record);
+		}
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+			durableSize += bytes;
+			for (Pending pending : batch) {
+				pending.future.complete(null);
+			}
+		} catch (IOException e) {
+			// later records must not follow a possibly partial one
+			failure = e;
+			try {
+				channel.truncate(durableSize);
+				channel.force(false);
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			fail(batch, e);
+		}
+	}
+
+	private static void fail(final List<Pending> batch, final IOException e) {
+		for (Pending pending : batch) {
+			pending.future.completeExceptionally(e);
+		}
+	}
+
+	/** Returns the framed record of the given type whose payload is written by payload */
+	private static byte[] encode(final byte type, final Payload payload) {
+		try {
+			final ByteArrayOutputStream body = new ByteArrayOutputStream(128);
+			final DataOutputStream out = new DataOutputStream(body);
+			out.writeByte(type);
+			payload.write(out);
+			out.flush();
+			final byte[] bytes = body.toByteArray();
+			final CRC32 crc = new CRC32();
+			crc.update(bytes, 0, bytes.length);
+			return ByteBuffer.allocate(bytes.length + 8)
+					.putInt(bytes.length).put(bytes).putInt((int) crc.getValue()).array();
+		} catch (IOException e) {
+			// writing to a ByteArrayOutputStream cannot fail
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private interface Payload {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/** A framed record waiting to be made durable */
+	private static final class Pending {
+		private final byte[] record;
+		private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		Pending(final byte[] record) {
+			this.record = record;
+		}
+	}
+}
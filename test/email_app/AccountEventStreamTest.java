@@ -0,0 +1,233 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import email_app.AccountEventStream.Event;
+import email_app.AccountEventStream.Subscription;
+
+public class AccountEventStreamTest {
+	// Partition the input as follows:
+		//	publish via EmailDirectory
+		//		change: add, remove, alternate, password reset, capacity, no change
+		//		subscribers: 0, 1, > 1
+		//		publishers: 1, > 1
+		//
+		//	delivery
+		//		batch size: 1, > 1
+		//		subscriber: keeping up, slower than publishers, throwing, throwing an Error,
+		//		            cancelled, stuck past the publish wait
+		//
+		//	close()
+		//		events published but not delivered: none, some
+		//
+		// Coverage: Each part covered at least once
+
+		/** Returns a subscriber appending every event it receives to events */
+		private static Consumer<List<Event>> collect(final List<Event> events) {
+			return batch -> {
+				synchronized (events) {
+					events.addAll(batch);
+				}
+			};
+		}
+
+		@Test
+		// covers every change, 1 subscriber, 1 publisher, close with some undelivered
+		public void testDirectoryChanges() {
+			AccountEventStream stream = new AccountEventStream(64);
+			EmailDirectory directory = new EmailDirectory(stream);
+			List<Event> events = new ArrayList<>();
+			stream.subscribe("test", 16, collect(events));
+
+			Email email = new Email("foo", "bar", "001");
+			directory.add(email);
+			directory.createAlternateEmail(email, "baz", "qux");
+			directory.resetPassword(email, "password1");
+			directory.resetPassword(email, "password1");
+			directory.setMailCapacity(email, 100);
+			directory.setMailCapacity(email, 100);
+			directory.remove(email);
+			stream.close();
+
+			List<Event.Type> types = new ArrayList<>();
+			for (Event event : events) {
+				types.add(event.getType());
+			}
+			assertEquals("Expected one event per change, in order", Arrays.asList(
+					Event.Type.ADDED, Event.Type.ALTERNATE_CREATED, Event.Type.PASSWORD_RESET,
+					Event.Type.CAPACITY_CHANGED, Event.Type.REMOVED), types);
+			assertEquals("Expected state after the change", 100, events.get(3).getMailCapacity());
+			assertEquals("Expected alternate", "baz.qux@001.company.com", events.get(1).getAltEmailAddress());
+			assertEquals("Expected sequence numbers", 4, events.get(4).getSequence());
+		}
+		@Test
+		// covers 0 subscribers
+		public void testNoSubscribers() {
+			AccountEventStream stream = new AccountEventStream(4);
+			EmailDirectory directory = new EmailDirectory(stream);
+			for (int i = 0; i < 10; i++) {
+				directory.add(new Email("user" + i, "bar", "001"));
+			}
+
+			assertEquals("Expected nothing published", 0, stream.getPublishedCount());
+		}
+		@Test
+		// covers > 1 subscribers, > 1 publishers, batch size 1 and > 1, slower subscriber
+		public void testFanOutWithBackpressure() throws Exception {
+			final AccountEventStream stream = new AccountEventStream(8);
+			final EmailDirectory directory = new EmailDirectory(stream);
+			List<Email> emails = new ArrayList<>();
+			for (int i = 0; i < 40; i++) {
+				Email email = new Email("user" + i, "bar", "001");
+				directory.add(email);
+				emails.add(email);
+			}
+			List<Event> fast = new ArrayList<>();
+			List<Event> slow = Collections.synchronizedList(new ArrayList<>());
+			List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+			Subscription fastSubscription = stream.subscribe("fast", 4, batch -> {
+				batchSizes.add(batch.size());
+				collect(fast).accept(batch);
+			});
+			Subscription slowSubscription = stream.subscribe("slow", 1, batch -> {
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				slow.addAll(batch);
+			});
+
+			ExecutorService pool = Executors.newFixedThreadPool(4);
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				final List<Email> mine = emails.subList(t * 10, t * 10 + 10);
+				futures.add(pool.submit(() -> {
+					for (int capacity = 1; capacity <= 10; capacity++) {
+						for (Email email : mine) {
+							directory.setMailCapacity(email, capacity);
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(60, TimeUnit.SECONDS);
+			}
+			pool.shutdown();
+			stream.close();
+
+			assertEquals("Expected every event delivered to fast subscriber", 400, fast.size());
+			assertEquals("Expected every event delivered to slow subscriber", 400, slow.size());
+			for (int i = 0; i < 400; i++) {
+				assertEquals("Expected publication order", i, fast.get(i).getSequence());
+				assertEquals("Expected publication order", i, slow.get(i).getSequence());
+			}
+			for (int size : batchSizes) {
+				assertTrue("Expected batches of at most 4", 1 <= size && size <= 4);
+			}
+			assertTrue("Expected publishers to wait for the slow subscriber", stream.getBackpressureCount() > 0);
+			assertTrue("Expected bounded lag", slowSubscription.getMaxLag() <= 8 + 4);
+			assertEquals("Expected no lag after close", 0, fastSubscription.getLag());
+			assertEquals("Expected delivered count", 400, slowSubscription.getDeliveredCount());
+		}
+		@Test
+		// covers throwing subscriber
+		public void testThrowingSubscriber() {
+			AccountEventStream stream = new AccountEventStream(8);
+			EmailDirectory directory = new EmailDirectory(stream);
+			Subscription subscription = stream.subscribe("failing", 1, batch -> {
+				throw new IllegalStateException("boom");
+			});
+			for (int i = 0; i < 20; i++) {
+				directory.add(new Email("user" + i, "bar", "001"));
+			}
+			stream.close();
+
+			assertEquals("Expected every batch attempted", 20, subscription.getDeliveredCount());
+			assertEquals("Expected every failure counted", 20, subscription.getFailureCount());
+		}
+		@Test
+		// covers subscriber throwing an Error
+		public void testSubscriberError() throws Exception {
+			AccountEventStream stream = new AccountEventStream(2);
+			EmailDirectory directory = new EmailDirectory(stream);
+			Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+			Thread.setDefaultUncaughtExceptionHandler((thread, e) -> { });
+			Subscription subscription;
+			try {
+				subscription = stream.subscribe("dying", 1, batch -> {
+					throw new AssertionError("expected by the test");
+				});
+				for (int i = 0; i < 10; i++) {
+					directory.add(new Email("user" + i, "bar", "001"));
+				}
+				stream.close();
+			} finally {
+				Thread.setDefaultUncaughtExceptionHandler(handler);
+			}
+
+			assertTrue("Expected dead subscription cancelled", subscription.isCancelled());
+			assertEquals("Expected the failure counted", 1, subscription.getFailureCount());
+			assertTrue("Expected no subscriptions", stream.getSubscriptions().isEmpty());
+		}
+		@Test
+		// covers subscriber stuck past the publish wait
+		public void testDropStuckSubscriber() throws Exception {
+			AccountEventStream stream = new AccountEventStream(2, 10);
+			EmailDirectory directory = new EmailDirectory(stream);
+			CountDownLatch release = new CountDownLatch(1);
+			Subscription stuck = stream.subscribe("stuck", 1, batch -> {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			for (int i = 0; i < 10; i++) {
+				directory.add(new Email("user" + i, "bar", "001"));
+			}
+			release.countDown();
+
+			assertTrue("Expected stuck subscriber dropped", stuck.isCancelled());
+			assertEquals("Expected one drop", 1, stream.getDroppedCount());
+			assertTrue("Expected no subscriptions", stream.getSubscriptions().isEmpty());
+		}
+		@Test
+		// covers cancelled subscriber
+		public void testCancel() throws Exception {
+			AccountEventStream stream = new AccountEventStream(2);
+			EmailDirectory directory = new EmailDirectory(stream);
+			CountDownLatch blocked = new CountDownLatch(1);
+			Subscription stuck = stream.subscribe("stuck", 1, batch -> {
+				blocked.countDown();
+				try {
+					Thread.sleep(Long.MAX_VALUE);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			directory.add(new Email("first", "bar", "001"));
+			assertTrue("Expected subscriber to receive the first event", blocked.await(10, TimeUnit.SECONDS));
+			stuck.cancel();
+			for (int i = 0; i < 10; i++) {
+				directory.add(new Email("user" + i, "bar", "001"));
+			}
+
+			assertEquals("Expected publishers not held up by a cancelled subscriber", 0,
+					stream.getBackpressureCount());
+			assertTrue("Expected no subscriptions", stream.getSubscriptions().isEmpty());
+		}
+}
@@ -0,0 +1,83 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import email_app.AccountExporter.Format;
+
+public class AccountExporterTest {
+	// Partition the input as follows:
+		//	write(email)
+		//		format: CSV, JSONL
+		//		alternate email: exists, doesn't exist
+		//		values: plain, needing escapes, non-ASCII, unpaired surrogate
+		//		rows: 0, > buffer size
+		//
+		// Coverage: Each part covered at least once
+
+		private static String export(final Format format, final Email... emails) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (AccountExporter exporter = new AccountExporter(Channels.newChannel(bytes), format)) {
+				for (Email email : emails) {
+					exporter.write(email);
+				}
+				assertEquals("Expected row count", emails.length, exporter.getRowCount());
+			}
+			return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		}
+
+		@Test
+		// covers CSV, 0 rows
+		public void testWrite_CsvEmpty() throws IOException {
+			assertEquals("Expected header only", "email,alternate,department,mailCapacity\n", export(Format.CSV));
+		}
+		@Test
+		// covers CSV, alternate exists and doesn't exist, plain and escaped values
+		public void testWrite_Csv() throws IOException {
+			Email plain = new Email("foo", "bar", "001");
+			plain.createAlternateEmail("baz", "qux");
+			Email escaped = new Email("mike", "dean", "r,and \"d\"");
+
+			assertEquals("Expected CSV rows", "email,alternate,department,mailCapacity\n"
+					+ "foo.bar@001.company.com,baz.qux@001.company.com,001,250\n"
+					+ "\"mike.dean@r,and \"\"d\"\".company.com\",,\"r,and \"\"d\"\"\",250\n",
+					export(Format.CSV, plain, escaped));
+		}
+		@Test
+		// covers JSONL, escaped and non-ASCII values
+		public void testWrite_Jsonl() throws IOException {
+			Email email = new Email("zo\u00eb", "bar", "a\"b");
+			email.setMailCapacity(1000);
+
+			assertEquals("Expected JSON line", "{\"email\": \"zo\u00eb.bar@a\\\"b.company.com\", \"alternate\": \"\", "
+					+ "\"department\": \"a\\\"b\", \"mailCapacity\": 1000}\n", export(Format.JSONL, email));
+		}
+		@Test
+		// covers CSV and JSONL, unpaired surrogate before a char needing escapes
+		public void testWrite_UnpairedSurrogate() throws IOException {
+			Email email = new Email("foo", "bar", "a\ud800\"b");
+
+			assertTrue("Expected escaped quote after the surrogate",
+					export(Format.CSV, email).contains(",\"a?\"\"b\",250\n"));
+			assertTrue("Expected escaped quote after the surrogate",
+					export(Format.JSONL, email).contains("\"department\": \"a?\\\"b\""));
+		}
+		@Test
+		// covers rows > buffer size
+		public void testWrite_Large() throws IOException {
+			Email[] emails = new Email[3000];
+			Email email = new Email("foo", "bar", "001");
+			for (int i = 0; i < emails.length; i++) {
+				emails[i] = email;
+			}
+			String csv = export(Format.CSV, emails);
+
+			assertEquals("Expected every row", emails.length + 1, csv.split("\n").length);
+		}
+}
@@ -0,0 +1,84 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import email_app.AccountImporter.Summary;
+
+public class AccountImporterTest {
+	// Partition the input as follows:
+		//	importCsv(in, sink) -> Summary
+		//		header: present, absent
+		//		fields: plain, quoted with comma/quote/line break
+		//		line endings: \n, \r\n, missing at end of input
+		//		rows: valid, wrong field count, blank names
+		//		rows vs chunk size: fewer, more
+		//		characters vs buffer size: fewer, more, multi-byte split across reads
+		//
+		// Coverage: Each part covered at least once
+
+		private static List<Email> importCsv(final String csv, final int chunkSize, final int bufferSize,
+				final Summary[] summary) throws IOException {
+			List<Email> emails = new ArrayList<>();
+			AccountImporter importer = new AccountImporter(new BulkProvisioner(2, 4), chunkSize, bufferSize);
+			summary[0] = importer.importCsv(Channels.newChannel(
+					new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8))), emails::add);
+			return emails;
+		}
+
+		@Test
+		// covers header present, plain fields, \n, valid rows, fewer rows than chunk,
+		//        fewer characters than buffer
+		public void testImport_Plain() throws IOException {
+			Summary[] summary = new Summary[1];
+			List<Email> emails = importCsv("firstname,lastname,department\nSterling,Archer,Field\nMike,Dean,\n",
+					100, 1024, summary);
+
+			assertEquals("Expected data rows", 2, summary[0].getRowCount());
+			assertEquals("Expected all imported", 2, summary[0].getImportedCount());
+			assertEquals("Expected input order", "sterling.archer@field.company.com", emails.get(0).getEmailAddress());
+			assertEquals("Expected default department", "general", emails.get(1).getDepartment());
+		}
+		@Test
+		// covers header absent, quoted fields, \r\n, missing final line ending
+		public void testImport_Quoted() throws IOException {
+			Summary[] summary = new Summary[1];
+			List<Email> emails = importCsv("\"Foo\",\"Bar\",\"R,and \"\"D\"\"\"\r\nbaz,qux,\"multi\nline\"",
+					100, 1024, summary);
+
+			assertEquals("Expected both rows", 2, emails.size());
+			assertEquals("Expected unescaped department", "r,and \"d\"", emails.get(0).getDepartment());
+			assertEquals("Expected line break kept", "multi\nline", emails.get(1).getDepartment());
+		}
+		@Test
+		// covers wrong field count, blank names
+		public void testImport_Rejected() throws IOException {
+			Summary[] summary = new Summary[1];
+			List<Email> emails = importCsv("foo,bar\n ,bar,001\nfoo,bar,001,extra\nfoo,bar,001\n", 100, 1024, summary);
+
+			assertEquals("Expected all rows counted", 4, summary[0].getRowCount());
+			assertEquals("Expected rejected rows", 3, summary[0].getRejectedCount());
+			assertEquals("Expected valid row imported", 1, emails.size());
+		}
+		@Test
+		// covers more rows than chunk, more characters than buffer, multi-byte split across reads
+		public void testImport_ManySmallBuffer() throws IOException {
+			StringBuilder csv = new StringBuilder();
+			for (int i = 0; i < 50; i++) {
+				csv.append("zo\u00eb").append(i).append(",bar,001\n");
+			}
+			Summary[] summary = new Summary[1];
+			List<Email> emails = importCsv(csv.toString(), 7, 5, summary);
+
+			assertEquals("Expected all imported", 50, summary[0].getImportedCount());
+			assertEquals("Expected decoded names", "zo\u00eb49.bar", emails.get(49).getName());
+		}
+}
@@ -0,0 +1,245 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import email_app.AccountSnapshotter.Manifest;
+
+public class AccountSnapshotterTest {
+	// Partition the input as follows:
+		//	snapshot() -> manifest
+		//		accounts: 0, 1, enough for > 1 chunk
+		//		fields: defaults, alternate, reset password, capacity, suffix
+		//		writers: none, concurrent
+		//
+		//	snapshotChanges() -> manifest
+		//		full snapshot taken: no, yes
+		//		changes: none, changed, added, removed
+		//		change tracking: subscribed, dropped
+		//
+		//	restore(folder) -> accounts
+		//		folder: missing, full only, full and incrementals,
+		//		        latest snapshot without manifest, incomplete chunk
+		//
+		// Coverage: Each part covered at least once
+
+		private Path folder;
+
+		@Before
+		public void setUp() throws IOException {
+			folder = Files.createTempDirectory("snapshots");
+		}
+
+		@After
+		public void tearDown() throws IOException {
+			try (Stream<Path> files = Files.walk(folder)) {
+				for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+					Files.delete(file);
+				}
+			}
+		}
+
+		/** Asserts that accounts holds exactly the accounts of directory, in the same state */
+		private static void assertSameAccounts(final EmailDirectory directory, final Map<String, Email> accounts) {
+			assertEquals("Expected one account per registered account", directory.size(), accounts.size());
+			directory.stream().forEach(email -> {
+				Email restored = accounts.get(email.getEmailAddress());
+				assertNotNull("Expected " + email.getEmailAddress() + " restored", restored);
+				assertEquals("Expected same state", email.toString(), restored.toString());
+				assertEquals("Expected same password", email.getPasswordHash(), restored.getPasswordHash());
+			});
+		}
+
+		@Test
+		// covers missing folder
+		public void testRestore_Missing() throws IOException {
+			assertTrue("Expected no accounts", AccountSnapshotter.restore(folder.resolve("missing")).isEmpty());
+		}
+		@Test
+		// covers 0 accounts, no full snapshot before snapshotChanges
+		public void testSnapshot_Empty() throws IOException {
+			EmailDirectory directory = new EmailDirectory();
+			try (AccountSnapshotter snapshotter = new AccountSnapshotter(directory, folder, 2)) {
+				try {
+					snapshotter.snapshotChanges();
+					fail("Expected an incremental snapshot to need a full one");
+				} catch (IllegalStateException e) {
+					// expected
+				}
+				Manifest manifest = snapshotter.snapshot();
+
+				assertEquals("Expected first snapshot", 1, manifest.getNumber());
+				assertEquals("Expected no accounts", 0, manifest.getAccountCount());
+			}
+			assertTrue("Expected no accounts", AccountSnapshotter.restore(folder).isEmpty());
+		}
+		@Test
+		// covers 1 account with every field set, full only
+		public void testSnapshot_AllFields() throws IOException {
+			EmailDirectory directory = new EmailDirectory();
+			Email email = Email.restore("foo", "bar", "001", "", "", "hash", 500, 2);
+			directory.add(email);
+			directory.createAlternateEmail(email, "baz", "qux");
+			directory.resetPassword(email, "password1");
+			directory.add(new Email("plain", "account", "002"));
+			try (AccountSnapshotter snapshotter = new AccountSnapshotter(directory, folder, 2)) {
+				Manifest manifest = snapshotter.snapshot();
+
+				assertFalse("Expected full snapshot", manifest.isIncremental());
+				assertEquals("Expected both accounts", 2, manifest.getAccountCount());
+			}
+			Map<String, Email> accounts = AccountSnapshotter.restore(folder);
+			Email restored = accounts.get("foo.bar2@001.company.com");
+
+			assertSameAccounts(directory, accounts);
+			assertEquals("Expected alternate", "baz.qux@001.company.com", restored.getAltEmailAddress());
+			assertTrue("Expected password", restored.verifyPassword("password1"));
+		}
+		@Test
+		// covers full and incrementals, changed, added, removed, no changes
+		public void testSnapshotChanges() throws IOException {
+			EmailDirectory directory = new EmailDirectory();
+			List<Email> emails = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				Email email = new Email("user" + i, "bar", "001");
+				directory.add(email);
+				emails.add(email);
+			}
+			try (AccountSnapshotter snapshotter = new AccountSnapshotter(directory, folder, 2)) {
+				snapshotter.snapshot();
+				directory.setMailCapacity(emails.get(0), 42);
+				directory.remove(emails.get(1));
+				directory.add(new Email("new", "account", "002"));
+				Manifest changes = snapshotter.snapshotChanges();
+				Manifest none = snapshotter.snapshotChanges();
+
+				assertTrue("Expected incremental snapshot", changes.isIncremental());
+				assertEquals("Expected base", 1, changes.getBase());
+				assertEquals("Expected changed and added accounts", 2, changes.getAccountCount());
+				assertEquals("Expected removed account", 1, changes.getRemovedCount());
+				assertEquals("Expected no changes", 0, none.getAccountCount() + none.getRemovedCount());
+				assertEquals("Expected no pending changes", 0, snapshotter.getPendingChangeCount());
+			}
+			assertSameAccounts(directory, AccountSnapshotter.restore(folder));
+			assertEquals("Expected three manifests", 3, AccountSnapshotter.manifests(folder).size());
+		}
+		@Test
+		// covers change tracking dropped
+		public void testSnapshot_TrackingDropped() throws IOException {
+			EmailDirectory directory = new EmailDirectory();
+			directory.getEvents().subscribe("other", 1, batch -> { });
+			try (AccountSnapshotter snapshotter = new AccountSnapshotter(directory, folder, 1)) {
+				for (AccountEventStream.Subscription subscription : directory.getEvents().getSubscriptions()) {
+					if (subscription.getName().equals("snapshotter")) {
+						subscription.cancel();
+					}
+				}
+				directory.add(new Email("foo", "bar", "001"));
+				try {
+					snapshotter.snapshot();
+					fail("Expected a snapshot to need its changes tracked");
+				} catch (IllegalStateException e) {
+					// expected
+				}
+			}
+			directory.getEvents().close();
+		}
+		@Test
+		// covers latest snapshot without manifest, new snapshotter over existing folder
+		public void testRestore_Crashed() throws IOException {
+			EmailDirectory directory = new EmailDirectory();
+			Email email = new Email("foo", "bar", "001");
+			directory.add(email);
+			try (AccountSnapshotter snapshotter = new AccountSnapshotter(directory, folder, 1)) {
+				snapshotter.snapshot();
+			}
+			String before = email.toString();
+			try (AccountSnapshotter snapshotter = new AccountSnapshotter(directory, folder, 1)) {
+				Manifest manifest = snapshotter.snapshot();
+				directory.setMailCapacity(email, 42);
+				Manifest changes = snapshotter.snapshotChanges();
+
+				assertEquals("Expected numbering to continue", 2, manifest.getNumber());
+				assertEquals("Expected numbering to continue", 3, changes.getNumber());
+			}
+			Files.delete(folder.resolve("snapshot-00000003.manifest"));
+			Map<String, Email> accounts = AccountSnapshotter.restore(folder);
+
+			assertEquals("Expected state of the last complete snapshot", before,
+					accounts.get(email.getEmailAddress()).toString());
+		}
+		@Test(expected = IOException.class)
+		// covers incomplete chunk
+		public void testRestore_Incomplete() throws IOException {
+			EmailDirectory directory = new EmailDirectory();
+			for (int i = 0; i < 100; i++) {
+				directory.add(new Email("user" + i, "bar", "001"));
+			}
+			try (AccountSnapshotter snapshotter = new AccountSnapshotter(directory, folder, 1)) {
+				snapshotter.snapshot();
+			}
+			Path chunk = folder.resolve("snapshot-00000001-0000.gz");
+			byte[] bytes = Files.readAllBytes(chunk);
+			Files.write(chunk, Arrays.copyOf(bytes, bytes.length / 2));
+
+			AccountSnapshotter.restore(folder);
+		}
+		@Test
+		// covers > 1 chunk, concurrent writers
+		public void testSnapshot_ConcurrentWriters() throws Exception {
+			final EmailDirectory directory = new EmailDirectory();
+			final List<Email> emails = new ArrayList<>();
+			for (int i = 0; i < AccountSnapshotter.MIN_CHUNK_SIZE + 1000; i++) {
+				Email email = Email.restore("user" + i, "bar", "dept" + (i % 10), "", "", "hash", 100, 0);
+				directory.add(email);
+				emails.add(email);
+			}
+			final AtomicBoolean running = new AtomicBoolean(true);
+			ExecutorService pool = Executors.newFixedThreadPool(2);
+			List<Future<?>> writers = new ArrayList<>();
+			for (int t = 0; t < 2; t++) {
+				final int offset = t;
+				writers.add(pool.submit(() -> {
+					int capacity = 0;
+					while (running.get()) {
+						capacity++;
+						for (int i = offset; i < 1000; i += 2) {
+							directory.setMailCapacity(emails.get(i), capacity);
+						}
+					}
+				}));
+			}
+			try (AccountSnapshotter snapshotter = new AccountSnapshotter(directory, folder, 4)) {
+				Manifest manifest = snapshotter.snapshot();
+				snapshotter.snapshotChanges();
+				running.set(false);
+				for (Future<?> writer : writers) {
+					writer.get(60, TimeUnit.SECONDS);
+				}
+				pool.shutdown();
+				snapshotter.snapshotChanges();
+
+				assertTrue("Expected more than one chunk", manifest.getChunkCount() > 1);
+				assertEquals("Expected every account", emails.size(), manifest.getAccountCount());
+			}
+			assertSameAccounts(directory, AccountSnapshotter.restore(folder, 4));
+		}
+}
@@ -0,0 +1,126 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import email_app.BulkProvisioner.Outcome;
+import email_app.BulkProvisioner.Request;
+
+public class AddressAllocatorTest {
+	// Partition the input as follows:
+		//	create(firstname, lastname, department) -> Email
+		//		name in department: new, taken once, taken many times
+		//		same name: same department, other department, different case
+		//		next address: free, already registered without the allocator
+		//		concurrent callers: 1, > 1 with the same name
+		//
+		//	BulkProvisioner with allocator
+		//		duplicates in input: none, some
+		//		parallelism: 1, > 1
+		//
+		// Coverage: Each part covered at least once
+
+		@Test
+		// covers new, taken once and many times, same department, different case
+		public void testCreate_Duplicates() {
+			AddressAllocator allocator = new AddressAllocator(new EmailDirectory());
+
+			assertEquals("Expected plain address", "john.smith@sales.company.com",
+					allocator.create("John", "Smith", "sales").getEmailAddress());
+			assertEquals("Expected first suffix", "john.smith2@sales.company.com",
+					allocator.create("john", "SMITH", "Sales").getEmailAddress());
+			assertEquals("Expected next suffix", "john.smith3@sales.company.com",
+					allocator.create(" john ", "smith", "sales").getEmailAddress());
+			assertEquals("Expected all registered", 3, allocator.getDirectory().findByName("john.smith").size());
+		}
+		@Test
+		// covers other department
+		public void testCreate_OtherDepartment() {
+			AddressAllocator allocator = new AddressAllocator(new EmailDirectory());
+			allocator.create("john", "smith", "sales");
+
+			assertEquals("Expected plain address in other department", "john.smith@general.company.com",
+					allocator.create("john", "smith", "").getEmailAddress());
+		}
+		@Test
+		// covers next address already registered without the allocator
+		public void testCreate_SkipsRegistered() {
+			EmailDirectory directory = new EmailDirectory();
+			directory.add(new Email("john", "smith", "sales"));
+			directory.add(new Email("john", "smith2", "sales"));
+			AddressAllocator allocator = new AddressAllocator(directory);
+
+			assertEquals("Expected registered addresses skipped", "john.smith3@sales.company.com",
+					allocator.create("john", "smith", "sales").getEmailAddress());
+		}
+		@Test
+		// covers > 1 concurrent callers with the same name
+		public void testCreate_Concurrent() throws Exception {
+			final AddressAllocator allocator = new AddressAllocator(new EmailDirectory());
+			ExecutorService pool = Executors.newFixedThreadPool(8);
+			List<Future<List<String>>> futures = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				futures.add(pool.submit(() -> {
+					List<String> addresses = new ArrayList<>();
+					for (int i = 0; i < 200; i++) {
+						addresses.add(allocator.create("john", "smith", "sales").getEmailAddress());
+					}
+					return addresses;
+				}));
+			}
+			Set<String> addresses = new HashSet<>();
+			for (Future<List<String>> future : futures) {
+				addresses.addAll(future.get(30, TimeUnit.SECONDS));
+			}
+			pool.shutdown();
+
+			assertEquals("Expected unique addresses", 1600, addresses.size());
+			assertTrue("Expected dense suffixes", addresses.contains("john.smith1600@sales.company.com"));
+			assertEquals("Expected all registered", 1600, allocator.getDirectory().size());
+		}
+		@Test
+		// covers duplicates in input some and none, parallelism > 1
+		public void testBulkProvisioner_Deterministic() {
+			List<Request> requests = new ArrayList<>();
+			for (int i = 0; i < 300; i++) {
+				requests.add(new Request("john", "smith", "sales"));
+				requests.add(new Request("jane" + i, "doe", "sales"));
+			}
+			AddressAllocator allocator = new AddressAllocator(new EmailDirectory());
+			List<Outcome> outcomes = new BulkProvisioner(4, 8, allocator).provision(requests).getOutcomes();
+
+			assertEquals("Expected plain address first", "john.smith@sales.company.com",
+					outcomes.get(0).getEmail().getEmailAddress());
+			assertEquals("Expected suffix in input order", "john.smith300@sales.company.com",
+					outcomes.get(598).getEmail().getEmailAddress());
+			assertEquals("Expected unique name unsuffixed", "jane299.doe@sales.company.com",
+					outcomes.get(599).getEmail().getEmailAddress());
+			assertEquals("Expected all registered", 600, allocator.getDirectory().size());
+		}
+		@Test
+		// covers parallelism 1, provisioning twice into the same directory
+		public void testBulkProvisioner_Repeated() {
+			List<Request> requests = new ArrayList<>();
+			requests.add(new Request("john", "smith", "sales"));
+			requests.add(new Request("john", "smith", "sales"));
+			AddressAllocator allocator = new AddressAllocator(new EmailDirectory());
+			BulkProvisioner provisioner = new BulkProvisioner(1, 1, allocator);
+			provisioner.provision(requests);
+			List<Outcome> outcomes = provisioner.provision(requests).getOutcomes();
+
+			assertEquals("Expected numbering to continue", "john.smith3@sales.company.com",
+					outcomes.get(0).getEmail().getEmailAddress());
+			assertEquals("Expected numbering to continue", "john.smith4@sales.company.com",
+					outcomes.get(1).getEmail().getEmailAddress());
+		}
+}
@@ -0,0 +1,132 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import email_app.AddressParser.ParsedAddress;
+
+public class AddressParserTest {
+	// Partition the input as follows:
+		//	parse(input, out) -> boolean
+		//		input: byte[] slice, heap ByteBuffer, direct ByteBuffer, CharSequence
+		//		case: lowercase, mixed
+		//		whitespace: none, surrounding, inside a part, at either end of a part
+		//		characters: ASCII, non-ASCII, @ or . inside a name
+		//		invalid: no @, empty firstname/lastname/department,
+		//		         no dot in local part, wrong domain, blank at either end of a part
+		//		origin: any address of an Email
+		//
+		//	resolve(address, directory) -> Email
+		//		address: primary, alternate, unknown
+		//
+		// Coverage: Each part covered at least once
+
+		private static byte[] utf8(final String s) {
+			return s.getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Test
+		// covers byte[] slice, mixed case, surrounding whitespace, ASCII
+		public void testParse_ByteSlice() {
+			byte[] bytes = utf8("To: <  John.Smith2@Sales.Company.COM >");
+			ParsedAddress address = new ParsedAddress();
+
+			assertTrue("Expected valid address", AddressParser.parse(bytes, 5, bytes.length - 7, address));
+			assertEquals("Expected firstname", "john", address.getFirstname());
+			assertEquals("Expected lastname with suffix", "smith2", address.getLastname());
+			assertEquals("Expected department", "sales", address.getDepartment());
+			assertEquals("Expected name", "john.smith2", address.getName());
+			assertEquals("Expected department length", 5, address.getDepartmentLength());
+			assertTrue("Expected case-insensitive match", address.matches("john.smith2@sales.company.com"));
+			assertFalse("Expected mismatch", address.matches("john.smith@sales.company.com"));
+		}
+		@Test
+		// covers heap and direct ByteBuffer, position untouched
+		public void testParse_ByteBuffer() {
+			ByteBuffer heap = ByteBuffer.wrap(utf8("xxfoo.bar@001.company.com"));
+			heap.position(2);
+			ByteBuffer direct = ByteBuffer.allocateDirect(64);
+			direct.put(utf8("foo.bar@001.company.com")).flip();
+			ParsedAddress address = new ParsedAddress();
+
+			assertTrue("Expected valid heap address", AddressParser.parse(heap.slice(), address));
+			assertEquals("Expected heap address", "foo.bar@001.company.com", address.getAddress());
+			assertTrue("Expected valid direct address", AddressParser.parse(direct, address));
+			assertEquals("Expected direct address", "foo.bar@001.company.com", address.getAddress());
+			assertEquals("Expected position untouched", 0, direct.position());
+		}
+		@Test
+		// covers CharSequence, non-ASCII
+		public void testParse_NonAscii() {
+			ParsedAddress address = new ParsedAddress();
+
+			assertTrue("Expected valid address", AddressParser.parse("Zo\u00cb.Bar@R\u00e9d.company.com", address));
+			assertFalse("Expected non-ASCII flag", address.isAscii());
+			assertEquals("Expected lowercased firstname", "zo\u00eb", address.getFirstname());
+			assertTrue("Expected valid bytes", AddressParser.parse(
+					ByteBuffer.wrap(utf8("zo\u00eb.bar@001.company.com")), address));
+			assertEquals("Expected decoded name", "zo\u00eb.bar", address.getName());
+		}
+		@Test
+		// covers every invalid form, whitespace inside
+		public void testParse_Invalid() {
+			ParsedAddress address = new ParsedAddress();
+			String[] invalid = {
+					"", "foo.bar", "foo.bar@001@company.com",
+					".bar@001.company.com", "foo.@001.company.com", "foobar@001.company.com",
+					"foo.bar@.company.com", "foo.bar@company.com", "foo.bar@001.company.org",
+					"foo .bar@001.company.com", "foo. bar@001.company.com", "foo.bar\t@001.company.com",
+					"foo.bar@ 001.company.com", "foo.bar@001 .company.com", "foo.bar@001.company.com.evil"};
+			for (String s : invalid) {
+				assertFalse("Expected invalid: " + s, AddressParser.parse(s, address));
+				assertFalse("Expected invalid bytes: " + s, AddressParser.parse(ByteBuffer.wrap(utf8(s)), address));
+			}
+		}
+		@Test
+		// covers any address of an Email, whitespace inside a part, @ or . inside a name
+		public void testParse_EmailRoundTrip() {
+			Email alternate = new Email("foo", "bar", "001");
+			alternate.createAlternateEmail("Baz", "QUX");
+			Email[] emails = {
+					new Email("IVAN", "Bird", "SALES"), new Email("john", "smith", "human resources"),
+					new Email("  Zo\u00cb ", "Bar", " R\u00e9d\t\u00e9v  "), new Email("foo", "bar", ""),
+					new Email("foo", "bar", "r\u0001d"), new Email("john", "smith", "sales", 3),
+					new Email("foo", "bar@", "001"), new Email("a.b", "c", "001"), alternate};
+			ParsedAddress address = new ParsedAddress();
+			for (Email email : emails) {
+				String name = Email.addressName(email.getName(), email.getSuffix());
+				for (String s : new String[] {email.getEmailAddress(), email.getEmailAddress().toUpperCase(Locale.ROOT)}) {
+					assertTrue("Expected valid: " + s, AddressParser.parse(s, address));
+					assertTrue("Expected same address: " + s, address.matches(email.getEmailAddress()));
+					assertEquals("Expected same name: " + s, name, address.getName());
+					assertEquals("Expected same department: " + s, email.getDepartment(), address.getDepartment());
+					assertTrue("Expected valid bytes: " + s, AddressParser.parse(ByteBuffer.wrap(utf8(s)), address));
+					assertEquals("Expected same address: " + s, email.getEmailAddress(), address.getAddress());
+				}
+			}
+			assertTrue("Expected valid alternate", AddressParser.parse(alternate.getAltEmailAddress(), address));
+			assertEquals("Expected alternate name", alternate.getAltName(), address.getName());
+		}
+		@Test
+		// covers resolve primary, alternate, unknown
+		public void testResolve() {
+			EmailDirectory directory = new EmailDirectory();
+			Email email = new Email("foo", "bar", "001");
+			directory.add(email);
+			directory.createAlternateEmail(email, "baz", "qux");
+			ParsedAddress address = new ParsedAddress();
+
+			AddressParser.parse(utf8("FOO.bar@001.company.com"), 0, 23, address);
+			assertSame("Expected primary resolved", email, AddressParser.resolve(address, directory));
+			AddressParser.parse("baz.QUX@001.company.com", address);
+			assertSame("Expected alternate resolved", email, AddressParser.resolve(address, directory));
+			assertFalse("Expected alternate is not primary", address.matches(email.getEmailAddress()));
+			AddressParser.parse("nobody.here@001.company.com", address);
+			assertNull("Expected unknown address", AddressParser.resolve(address, directory));
+		}
+}
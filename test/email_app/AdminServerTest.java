@@ -0,0 +1,323 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdminServerTest {
+	// Partition the input as follows:
+		//	single operations: create, lookup, reset password, set capacity,
+		//	                   create alternate, metrics
+		//		address: primary, alternate, unknown
+		//		arguments: valid, missing, malformed
+		//		method: allowed, not allowed
+		//
+		//		failure: none, unexpected exception, error
+		//		body: empty, at most and over the size limit
+		//		password hashing: idle, saturated
+		//
+		//	/batch
+		//		operations: 0, > 1, including a failing one, including an unexpected failure
+		//
+		//	/shard
+		//		server: not a shard, a shard; secret: missing, wrong, right
+		//
+		//	close()
+		//		requests after close: rejected
+		//
+		// Coverage: Each part covered at least once
+
+		private EmailDirectory directory;
+		private AdminServer server;
+
+		@Before
+		public void startServer() throws IOException {
+			directory = new EmailDirectory();
+			server = new AdminServer(directory, new InetSocketAddress("127.0.0.1", 0), 4);
+			server.start();
+		}
+
+		@After
+		public void stopServer() throws InterruptedException {
+			server.close(0);
+		}
+
+		/** Returns the status line code and body of a request */
+		private String request(final String method, final String path, final String body) throws IOException {
+			return request(server.getPort(), method, path, body, null);
+		}
+
+		/** Returns the status line code and body of a request to port, sending shardSecret unless it is null */
+		private static String request(final int port, final String method, final String path, final String body,
+				final String shardSecret) throws IOException {
+			HttpURLConnection connection = (HttpURLConnection) new URL(
+					"http://127.0.0.1:" + port + path).openConnection();
+			connection.setRequestMethod(method);
+			if (shardSecret != null) {
+				connection.setRequestProperty(AdminServer.SHARD_SECRET_HEADER, shardSecret);
+			}
+			if (body != null) {
+				connection.setDoOutput(true);
+				try (OutputStream out = connection.getOutputStream()) {
+					out.write(body.getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			int status = connection.getResponseCode();
+			InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+			ByteArrayOutputStream text = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			for (int n; (n = in.read(buffer)) > 0;) {
+				text.write(buffer, 0, n);
+			}
+			in.close();
+			return status + " " + new String(text.toByteArray(), StandardCharsets.UTF_8).trim();
+		}
+
+		@Test
+		// covers create, lookup with primary, valid arguments
+		public void testCreateAndLookup() throws IOException {
+			String created = request("POST", "/accounts", "firstname=John&lastname=Smith&department=sales");
+			String again = request("POST", "/accounts", "firstname=john&lastname=smith&department=sales");
+
+			assertTrue("Expected created, was " + created,
+					created.startsWith("201 email: john.smith@sales.company.com,"));
+			assertTrue("Expected unique address, was " + again,
+					again.startsWith("201 email: john.smith2@sales.company.com,"));
+			assertTrue("Expected lookup", request("GET", "/accounts/JOHN.smith@sales.company.com", null)
+					.startsWith("200 email: john.smith@sales.company.com,"));
+			assertEquals("Expected both registered", 2, directory.size());
+		}
+		@Test
+		// covers unknown address, missing and malformed arguments, method not allowed
+		public void testErrors() throws IOException {
+			assertTrue("Expected unknown", request("GET", "/accounts/nobody@x.company.com", null).startsWith("404"));
+			assertTrue("Expected missing", request("POST", "/accounts", "firstname=john").startsWith("400"));
+			request("POST", "/accounts", "firstname=john&lastname=smith");
+			assertTrue("Expected malformed capacity", request("POST",
+					"/accounts/john.smith@general.company.com/capacity", "capacity=-3").startsWith("400"));
+			assertTrue("Expected not allowed", request("GET", "/batch", null).startsWith("405"));
+			assertTrue("Expected unknown operation", request("POST",
+					"/accounts/john.smith@general.company.com/delete", "").startsWith("404"));
+		}
+		@Test
+		// covers reset password, set capacity, create alternate, alternate address
+		public void testMutators() throws IOException {
+			request("POST", "/accounts", "firstname=john&lastname=smith&department=sales");
+			String address = "/accounts/john.smith@sales.company.com";
+
+			assertTrue("Expected capacity set", request("POST", address + "/capacity", "capacity=300")
+					.startsWith("200 previous mailCapacity: 250"));
+			assertTrue("Expected alternate", request("POST", address + "/alternate", "firstname=js&lastname=sales")
+					.startsWith("200 email: john.smith@sales.company.com,alternate: js.sales@sales.company.com"));
+			assertTrue("Expected same alternate again rejected", request("POST", address + "/alternate",
+					"firstname=john&lastname=smith").startsWith("409"));
+			assertTrue("Expected reset via alternate", request("POST",
+					"/accounts/js.sales@sales.company.com/password", "password=secret123").startsWith("200"));
+			assertTrue("Expected same password rejected", request("POST", address + "/password",
+					"password=secret123").startsWith("409"));
+			Email email = directory.lookup("john.smith@sales.company.com");
+			assertTrue("Expected new password", email.verifyPassword("secret123"));
+			assertEquals("Expected new capacity", 300, email.getMailCapacity());
+		}
+		@Test
+		// covers /batch with > 1 operations including a failing one, and 0 operations
+		public void testBatch() throws IOException {
+			String answer = request("POST", "/batch", "CREATE ann lee hr\n"
+					+ "GET ann.lee@hr.company.com\n"
+					+ "CAPACITY ann.lee@hr.company.com 42\n"
+					+ "GET nobody@hr.company.com\n"
+					+ "ALTERNATE ann.lee@hr.company.com al hr\n");
+			String[] lines = answer.split("\n");
+
+			assertEquals("Expected one line per operation", 5, lines.length);
+			assertTrue("Expected create, was " + lines[0], lines[0].startsWith("200 201 email: ann.lee@hr.company.com"));
+			assertTrue("Expected lookup", lines[1].startsWith("200 email: ann.lee@hr.company.com"));
+			assertEquals("Expected capacity", "200 previous mailCapacity: 250", lines[2]);
+			assertTrue("Expected unknown", lines[3].startsWith("404 "));
+			assertTrue("Expected alternate", lines[4].startsWith("200 email:"));
+			assertEquals("Expected empty batch", "200", request("POST", "/batch", "").trim());
+		}
+		@Test
+		// covers unexpected failure, alone and in a batch
+		public void testUnexpectedFailure() throws IOException {
+			request("POST", "/accounts", "firstname=john&lastname=smith");
+			PasswordHasher hasher = Email.getPasswordHasher();
+			Email.setPasswordHasher(new PasswordHasher() {
+				@Override public String hash(final String password) {
+					throw new IllegalStateException("hasher down");
+				}
+				@Override public boolean verify(final String password, final String encodedHash) {
+					throw new IllegalStateException("hasher down");
+				}
+			});
+			try {
+				String single = request("POST", "/accounts/john.smith@general.company.com/password",
+						"password=secret123");
+				String[] batch = request("POST", "/batch", "PASSWORD john.smith@general.company.com secret123\n"
+						+ "GET john.smith@general.company.com\n").split("\n");
+
+				assertTrue("Expected internal error, was " + single, single.startsWith("500 "));
+				assertTrue("Expected internal error line, was " + batch[0], batch[0].startsWith("200 500 "));
+				assertTrue("Expected the rest of the batch", batch[1].startsWith("200 email:"));
+				assertEquals("Expected error counted", 1L,
+						(long) server.getMetrics().values().get("server.errors"));
+			} finally {
+				Email.setPasswordHasher(hasher);
+			}
+		}
+		@Test
+		// covers reset password with saturated password hashing
+		public void testPasswordHashingSaturated() throws Exception {
+			PasswordHasher hasher = Email.getPasswordHasher();
+			CountDownLatch gate = new CountDownLatch(1);
+			Email.setPasswordHasher(new PasswordHasher() {
+				@Override public String hash(final String password) {
+					try {
+						gate.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return hasher.hash(password);
+				}
+				@Override public boolean verify(final String password, final String encodedHash) {
+					return hasher.verify(password, encodedHash);
+				}
+			});
+			try (PasswordHashingService hashing = new PasswordHashingService(1, 1);
+					AdminServer saturated = new AdminServer(directory, new InetSocketAddress("127.0.0.1", 0), 4, null,
+							hashing)) {
+				saturated.start();
+				int port = saturated.getPort();
+				for (String name : new String[] {"ann", "bob", "cyd"}) {
+					request(port, "POST", "/accounts", "firstname=" + name + "&lastname=lee", null);
+				}
+				// one reset holds the hashing thread, the other its queue
+				CompletableFuture<String> running = CompletableFuture.supplyAsync(() -> reset(port, "ann"));
+				CompletableFuture<String> queued = CompletableFuture.supplyAsync(() -> reset(port, "bob"));
+				for (int i = 0; i < 1000 && hashing.getQueuedCount() == 0; i++) {
+					Thread.sleep(10);
+				}
+				String busy = reset(port, "cyd");
+
+				assertTrue("Expected service unavailable, was " + busy, busy.startsWith("503 "));
+				gate.countDown();
+				assertTrue("Expected running reset done", running.join().startsWith("200 "));
+				assertTrue("Expected queued reset done", queued.join().startsWith("200 "));
+				assertTrue("Expected new password",
+						directory.lookup("ann.lee@general.company.com").verifyPassword("password1"));
+				assertFalse("Expected turned away reset not made",
+						directory.lookup("cyd.lee@general.company.com").verifyPassword("password1"));
+			} finally {
+				gate.countDown();
+				Email.setPasswordHasher(hasher);
+			}
+		}
+
+		/** Returns the answer to a password reset of firstname.lee to password1 */
+		private static String reset(final int port, final String firstname) {
+			try {
+				return request(port, "POST", "/accounts/" + firstname + ".lee@general.company.com/password",
+						"password=password1", null);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		@Test
+		// covers error thrown by an operation
+		public void testUnexpectedError() throws IOException {
+			request("POST", "/accounts", "firstname=john&lastname=smith");
+			PasswordHasher hasher = Email.getPasswordHasher();
+			Email.setPasswordHasher(new PasswordHasher() {
+				@Override public String hash(final String password) {
+					throw new AssertionError("hasher broken");
+				}
+				@Override public boolean verify(final String password, final String encodedHash) {
+					throw new AssertionError("hasher broken");
+				}
+			});
+			try {
+				String answer = request("POST", "/accounts/john.smith@general.company.com/password",
+						"password=secret123");
+
+				assertTrue("Expected internal error, was " + answer, answer.startsWith("500 "));
+				assertEquals("Expected error counted", 1L,
+						(long) server.getMetrics().values().get("server.errors"));
+			} finally {
+				Email.setPasswordHasher(hasher);
+			}
+			assertTrue("Expected server still serving",
+					request("GET", "/accounts/john.smith@general.company.com", null).startsWith("200 "));
+		}
+		@Test
+		// covers body at most and over the size limit
+		public void testBodyTooLarge() throws IOException {
+			StringBuilder fits = new StringBuilder("firstname=john&lastname=smith&padding=");
+			while (fits.length() < AdminServer.MAX_BODY_BYTES) {
+				fits.append('x');
+			}
+
+			assertTrue("Expected body at the limit served",
+					request("POST", "/accounts", fits.toString()).startsWith("201 "));
+			assertTrue("Expected body over the limit refused",
+					request("POST", "/accounts", fits.append('x').toString()).startsWith("413 "));
+			assertEquals("Expected only the first account", 1, directory.size());
+		}
+		@Test
+		// covers metrics
+		public void testMetrics() throws IOException {
+			request("GET", "/accounts/nobody@x.company.com", null);
+			String metrics = request("GET", "/metrics", null);
+
+			assertTrue("Expected request count including this one", metrics.contains("server.requests: 2"));
+			assertTrue("Expected error count", metrics.contains("server.errors: 1"));
+			assertTrue("Expected email metrics", metrics.contains("email.created: "));
+		}
+		@Test
+		// covers /shard on a server that is not a shard, on a shard with a missing, wrong or right secret
+		public void testShard() throws IOException {
+			String account = "firstname=foo&lastname=bar&department=001&passwordHash=planted&mailCapacity=100&suffix=0";
+
+			assertTrue("Expected shard operations not served",
+					request("POST", "/shard/accounts", "").startsWith("404 "));
+			try (AdminServer shard = new AdminServer(new EmailDirectory(), new InetSocketAddress("127.0.0.1", 0), 2,
+					"secret")) {
+				shard.start();
+				int port = shard.getPort();
+
+				assertTrue("Expected missing secret rejected",
+						request(port, "POST", "/shard/add", account, null).startsWith("403 "));
+				assertTrue("Expected wrong secret rejected",
+						request(port, "POST", "/shard/add", account, "guess").startsWith("403 "));
+				assertTrue("Expected hashes withheld without the secret",
+						request(port, "POST", "/shard/accounts", "", null).startsWith("403 "));
+				assertTrue("Expected account added with the secret",
+						request(port, "POST", "/shard/add", account, "secret").startsWith("201 "));
+				assertTrue("Expected account listed with the secret",
+						request(port, "POST", "/shard/accounts", "", "secret").contains("passwordHash=planted"));
+			}
+		}
+		@Test(expected = IOException.class)
+		// covers requests after close
+		public void testClose() throws Exception {
+			int port = server.getPort();
+			server.close(0);
+			HttpURLConnection connection = (HttpURLConnection) new URL(
+					"http://127.0.0.1:" + port + "/metrics").openConnection();
+			connection.getResponseCode();
+		}
+}
@@ -0,0 +1,220 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import email_app.AuthenticationService.Result;
+
+public class AuthenticationServiceTest {
+	// Partition the input as follows:
+		//	authenticate(address, password) -> Result
+		//		address: primary, alternate, unknown
+		//		password: current, wrong, previous after reset
+		//		cached verification: none, valid, expired, stale after reset
+		//		tokens left: > 0, 0, refilled
+		//		hashing threads: idle, saturated
+		//
+		//	cache size: < capacity, > capacity
+		//	buckets: active, idle until full; account: registered, removed
+		//
+		// Coverage: Each part covered at least once
+
+		private final AtomicLong now = new AtomicLong();
+
+		private AuthenticationService service(final EmailDirectory directory, final int capacity, final int burst) {
+			return new AuthenticationService(directory, PasswordHashingService.getDefault(), capacity, 1000, burst, 1.0,
+					now::get);
+		}
+
+		private static Email account(final EmailDirectory directory, final String firstname) {
+			Email email = new Email(firstname, "bar", "001");
+			email.resetPassword("password1");
+			directory.add(email);
+			return email;
+		}
+
+		@Test
+		// covers primary, alternate, unknown, current, wrong, no cached verification
+		public void testAuthenticate_Addresses() {
+			EmailDirectory directory = new EmailDirectory();
+			Email email = account(directory, "foo");
+			directory.createAlternateEmail(email, "baz", "qux");
+			AuthenticationService auth = service(directory, 100, 10);
+
+			assertEquals("Expected primary login", Result.AUTHENTICATED,
+					auth.authenticate("FOO.bar@001.company.com", "password1"));
+			assertEquals("Expected alternate login with the same password", Result.AUTHENTICATED,
+					auth.authenticate("baz.qux@001.company.com", "password1"));
+			assertEquals("Expected wrong password rejected", Result.REJECTED,
+					auth.authenticate("foo.bar@001.company.com", "password2"));
+			assertEquals("Expected unknown address rejected", Result.REJECTED,
+					auth.authenticate("nobody@001.company.com", "password1"));
+			assertEquals("Expected authenticated count", 2, auth.getAuthenticatedCount());
+			assertEquals("Expected rejected count", 2, auth.getRejectedCount());
+		}
+		@Test
+		// covers valid and expired cached verification
+		public void testAuthenticate_Cache() {
+			EmailDirectory directory = new EmailDirectory();
+			account(directory, "foo");
+			AuthenticationService auth = service(directory, 100, 10);
+
+			auth.authenticate("foo.bar@001.company.com", "password1");
+			assertEquals("Expected cache hit", Result.AUTHENTICATED,
+					auth.authenticate("foo.bar@001.company.com", "password1"));
+			assertEquals("Expected wrong password not served from cache", Result.REJECTED,
+					auth.authenticate("foo.bar@001.company.com", "password2"));
+			assertEquals("Expected one hit", 1, auth.getCacheHitCount());
+
+			now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+			assertEquals("Expected login after expiry", Result.AUTHENTICATED,
+					auth.authenticate("foo.bar@001.company.com", "password1"));
+			assertEquals("Expected no hit after expiry", 1, auth.getCacheHitCount());
+		}
+		@Test
+		// covers previous password after reset, stale cached verification
+		public void testAuthenticate_Reset() {
+			EmailDirectory directory = new EmailDirectory();
+			Email email = account(directory, "foo");
+			AuthenticationService auth = service(directory, 100, 10);
+
+			auth.authenticate("foo.bar@001.company.com", "password1");
+			email.resetPassword("password2");
+
+			assertEquals("Expected previous password rejected", Result.REJECTED,
+					auth.authenticate("foo.bar@001.company.com", "password1"));
+			assertEquals("Expected new password accepted", Result.AUTHENTICATED,
+					auth.authenticate("foo.bar@001.company.com", "password2"));
+			assertEquals("Expected no hit after reset", 0, auth.getCacheHitCount());
+		}
+		@Test
+		// covers tokens left > 0, 0, refilled
+		public void testAuthenticate_RateLimit() {
+			EmailDirectory directory = new EmailDirectory();
+			account(directory, "foo");
+			account(directory, "other");
+			AuthenticationService auth = service(directory, 100, 2);
+
+			assertEquals("Expected first guess checked", Result.REJECTED,
+					auth.authenticate("foo.bar@001.company.com", "guess1"));
+			assertEquals("Expected second guess checked", Result.REJECTED,
+					auth.authenticate("foo.bar@001.company.com", "guess2"));
+			assertEquals("Expected third guess limited", Result.RATE_LIMITED,
+					auth.authenticate("foo.bar@001.company.com", "password1"));
+			assertEquals("Expected other account not limited", Result.AUTHENTICATED,
+					auth.authenticate("other.bar@001.company.com", "password1"));
+
+			now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+			assertEquals("Expected refilled token", Result.AUTHENTICATED,
+					auth.authenticate("foo.bar@001.company.com", "password1"));
+			assertEquals("Expected rate limited count", 1, auth.getRateLimitedCount());
+		}
+		@Test
+		// covers valid cached verification with tokens left 0
+		public void testAuthenticate_CacheHitNotLimited() {
+			EmailDirectory directory = new EmailDirectory();
+			account(directory, "foo");
+			AuthenticationService auth = service(directory, 100, 1);
+
+			auth.authenticate("foo.bar@001.company.com", "password1");
+			assertEquals("Expected guess limited", Result.RATE_LIMITED,
+					auth.authenticate("foo.bar@001.company.com", "guess"));
+			assertEquals("Expected cached login despite limit", Result.AUTHENTICATED,
+					auth.authenticate("foo.bar@001.company.com", "password1"));
+		}
+		@Test
+		// covers saturated hashing threads
+		public void testAuthenticate_Busy() {
+			EmailDirectory directory = new EmailDirectory();
+			account(directory, "foo");
+			PasswordHasher hasher = Email.getPasswordHasher();
+			CountDownLatch gate = new CountDownLatch(1);
+			Email.setPasswordHasher(new PasswordHasher() {
+				@Override public String hash(final String password) {
+					return hasher.hash(password);
+				}
+				@Override public boolean verify(final String password, final String encodedHash) {
+					try {
+						gate.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return hasher.verify(password, encodedHash);
+				}
+			});
+			try (PasswordHashingService hashing = new PasswordHashingService(1, 1)) {
+				AuthenticationService auth = new AuthenticationService(directory, hashing, 100, 1000, 3, 1.0, now::get);
+				CompletableFuture<Result> running = auth.authenticateAsync("foo.bar@001.company.com", "guess");
+				CompletableFuture<Result> queued = auth.authenticateAsync("foo.bar@001.company.com", "guess");
+
+				assertEquals("Expected login turned away", Result.BUSY,
+						auth.authenticate("foo.bar@001.company.com", "password1"));
+				gate.countDown();
+				assertEquals("Expected running guess rejected", Result.REJECTED, running.join());
+				assertEquals("Expected queued guess rejected", Result.REJECTED, queued.join());
+				assertEquals("Expected busy count", 1, auth.getBusyCount());
+
+				assertEquals("Expected the turned away attempt given back", Result.AUTHENTICATED,
+						auth.authenticate("foo.bar@001.company.com", "password1"));
+			} finally {
+				Email.setPasswordHasher(hasher);
+			}
+		}
+		@Test
+		// covers active and idle buckets
+		public void testBuckets_Idle() {
+			EmailDirectory directory = new EmailDirectory();
+			try (AuthenticationService auth = service(directory, 100, 2)) {
+				for (int i = 0; i < 20; i++) {
+					account(directory, "user" + i);
+					auth.authenticate("user" + i + ".bar@001.company.com", "guess");
+				}
+				assertEquals("Expected one bucket per guessing account", 20, auth.getBucketCount());
+
+				now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+				auth.authenticate("user0.bar@001.company.com", "guess");
+
+				assertEquals("Expected refilled buckets dropped", 1, auth.getBucketCount());
+				assertEquals("Expected nothing rate limited", 0, auth.getRateLimitedCount());
+			}
+		}
+		@Test
+		// covers removed account
+		public void testForget_Removed() throws InterruptedException {
+			EmailDirectory directory = new EmailDirectory();
+			Email email = account(directory, "foo");
+			account(directory, "other");
+			try (AuthenticationService auth = service(directory, 100, 10)) {
+				auth.authenticate("foo.bar@001.company.com", "password1");
+				auth.authenticate("other.bar@001.company.com", "password1");
+				directory.remove(email);
+				for (int i = 0; i < 1000 && auth.getBucketCount() > 1; i++) {
+					Thread.sleep(10);
+				}
+
+				assertEquals("Expected only the registered account's bucket", 1, auth.getBucketCount());
+				assertEquals("Expected only the registered account's verification", 1, auth.getCachedCount());
+				assertEquals("Expected removed account rejected", Result.REJECTED,
+						auth.authenticate("foo.bar@001.company.com", "password1"));
+			}
+		}
+		@Test
+		// covers cache size > capacity
+		public void testCache_Bounded() {
+			EmailDirectory directory = new EmailDirectory();
+			AuthenticationService auth = service(directory, 16, 10);
+			for (int i = 0; i < 200; i++) {
+				account(directory, "user" + i);
+				auth.authenticate("user" + i + ".bar@001.company.com", "password1");
+			}
+
+			assertEquals("Expected every login accepted", 200, auth.getAuthenticatedCount());
+			assertTrue("Expected bounded cache", auth.getCachedCount() <= 16);
+		}
+}
@@ -0,0 +1,84 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import email_app.BulkProvisioner.Report;
+import email_app.BulkProvisioner.Request;
+
+public class BulkProvisionerTest {
+	// Partition the input as follows:
+		//	provision(records) -> Report
+		//		records: empty, one batch, several batches
+		//		records: all valid, some invalid
+		//		input: Iterable, Stream
+		//		chunks read from input: one, several
+		//		calls on the same provisioner: one, several
+		//
+		// Coverage: Each part covered at least once
+
+		@Test
+		// covers empty records, Iterable
+		public void testProvision_Empty() {
+			Report report = new BulkProvisioner().provision(new ArrayList<Request>());
+
+			assertEquals("Expected no outcomes", 0, report.getOutcomes().size());
+			assertEquals("Expected no successes", 0, report.getSuccessCount());
+		}
+		@Test
+		// covers one batch, all valid, Stream
+		public void testProvision_OneBatchStream() {
+			Report report = new BulkProvisioner(2, 16).provision(Stream.of(
+					new Request("Sterling", "Archer", "Field"),
+					new Request("Mike", "Dean", "")));
+
+			assertEquals("Expected all successes", 2, report.getSuccessCount());
+			assertEquals("Expected outcomes in input order",
+					"sterling.archer@field.company.com",
+					report.getOutcomes().get(0).getEmail().getEmailAddress());
+			assertEquals("Expected default department",
+					"general", report.getOutcomes().get(1).getEmail().getDepartment());
+		}
+		@Test
+		// covers several batches, some invalid, Iterable
+		public void testProvision_SeveralBatchesSomeInvalid() {
+			List<Request> records = new ArrayList<>();
+			for (int i = 0; i < 100; i++) {
+				records.add(new Request("first" + i, "last" + i, "dept" + (i % 3)));
+			}
+			records.addAll(Arrays.asList(new Request(" ", "bar", "001"), null, new Request("foo", null, "001")));
+			Report report = new BulkProvisioner(4, 7).provision(records);
+
+			assertEquals("Expected one outcome per record", 103, report.getOutcomes().size());
+			assertEquals("Expected valid records created", 100, report.getSuccessCount());
+			assertEquals("Expected invalid records reported", 3, report.getFailureCount());
+			assertEquals("Expected outcomes in input order",
+					"first42.last42@dept0.company.com",
+					report.getOutcomes().get(42).getEmail().getEmailAddress());
+			assertFalse("Expected failure reason", report.getOutcomes().get(100).getError().isEmpty());
+		}
+		@Test
+		// covers several chunks, Stream, several calls on the same provisioner
+		public void testProvision_SeveralChunks() {
+			BulkProvisioner provisioner = new BulkProvisioner(2, 3);
+			for (int call = 0; call < 3; call++) {
+				final int offset = call * 1000;
+				Report report = provisioner.provision(IntStream.range(0, 100)
+						.mapToObj(i -> new Request("first" + (offset + i), "last", "001")));
+
+				assertEquals("Expected every record created", 100, report.getSuccessCount());
+				for (int i = 0; i < 100; i++) {
+					assertEquals("Expected outcomes in input order across chunks",
+							"first" + (offset + i) + ".last@001.company.com",
+							report.getOutcomes().get(i).getEmail().getEmailAddress());
+				}
+			}
+		}
+}
@@ -0,0 +1,191 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import email_app.CapacityPlanner.Impact;
+import email_app.CapacityPlanner.Plan;
+import email_app.CapacityPlanner.Policy;
+
+public class CapacityPlannerTest {
+	// Partition the input as follows:
+		//	simulate(policy) -> plan
+		//		policy: empty, by department, by pattern, pattern overriding department
+		//		pattern: no star, leading, trailing, inner star, only stars, ?, empty
+		//		default locale: any, Turkish
+		//		usage: none (no quota manager), below, above the planned capacity
+		//		accounts: 0, > batch size
+		//
+		//	apply(plan) -> applied
+		//		capacities since simulation: unchanged, changed by another writer
+		//		accounts since simulation: registered, removed
+		//		plan: empty, some changes
+		//		rollback: complete, account changed since applied, failing restore
+		//
+		// Coverage: Each part covered at least once
+
+		/** Returns a directory of count accounts userN.bar in departments sales and legal, capacity 100 */
+		private static EmailDirectory directory(final int count, final List<Email> emails) {
+			EmailDirectory directory = new EmailDirectory();
+			for (int i = 0; i < count; i++) {
+				Email email = Email.restore("user" + i, "bar", i % 2 == 0 ? "sales" : "legal", "", "", "hash", 100, 0);
+				directory.add(email);
+				emails.add(email);
+			}
+			return directory;
+		}
+
+		@Test
+		// covers empty policy, 0 accounts, empty plan, no quota manager
+		public void testSimulate_Empty() {
+			CapacityPlanner planner = new CapacityPlanner(new EmailDirectory(), null);
+			Plan plan = planner.simulate(new Policy());
+
+			assertEquals("Expected no changes", 0, plan.getChangeCount());
+			assertEquals("Expected no accounts", 0, plan.getTotal().getAccountCount());
+			assertTrue("Expected empty plan applied", planner.apply(plan));
+		}
+		@Test
+		// covers department, pattern overriding department, usage below and above, > batch size
+		public void testSimulate_Policy() {
+			List<Email> emails = new ArrayList<>();
+			EmailDirectory directory = directory(1000, emails);
+			QuotaManager quotas = new QuotaManager(directory);
+			quotas.deliver(emails.get(0), 80);
+			quotas.deliver(emails.get(2), 30);
+			CapacityPlanner planner = new CapacityPlanner(directory, quotas, 2, 16);
+			Policy policy = new Policy()
+					.withDepartment("SALES", 50)
+					.withPattern("user1?.bar@*", 500);
+			Plan plan = planner.simulate(policy);
+			Impact sales = plan.getImpacts().get("sales");
+			Impact legal = plan.getImpacts().get("legal");
+
+			assertEquals("Expected sales and user10..user19 changed", 500 + 5, plan.getChangeCount());
+			assertEquals("Expected sales accounts", 500, sales.getAccountCount());
+			assertEquals("Expected sales storage", 495 * 50 + 5 * 500, sales.getPlannedCapacity());
+			assertEquals("Expected storage freed", 495 * 50 + 5 * 500 - 500 * 100, sales.getCapacityDelta());
+			assertEquals("Expected usage", 110, sales.getUsage());
+			assertEquals("Expected user0 over capacity", 1, sales.getOverCapacityCount());
+			assertEquals("Expected legal pattern matches only", 5, legal.getChangedCount());
+			assertEquals("Expected total", 1000, plan.getTotal().getAccountCount());
+			assertEquals("Expected nothing changed by simulation", 100, emails.get(0).getMailCapacity());
+		}
+		@Test
+		// covers every kind of pattern
+		public void testGlob() {
+			String address = "john.smith@sales.company.com";
+			String[] matching = {address, "*", "**", "john*", "*.com", "john*@*.com", "j?hn.*", "*smith@sales*"};
+			String[] failing = {"", "john", "*.org", "john*@legal*", "j?n*", "*smith@sales", "john.smith@sales.company.com?"};
+
+			for (String glob : matching) {
+				assertTrue("Expected " + glob + " to match", new CapacityPlanner.Glob(glob).matches(address));
+			}
+			for (String glob : failing) {
+				assertFalse("Expected " + glob + " not to match", new CapacityPlanner.Glob(glob).matches(address));
+			}
+			assertTrue("Expected empty glob to match empty value", new CapacityPlanner.Glob("").matches(""));
+			assertFalse("Expected no overlap of prefix and suffix", new CapacityPlanner.Glob("ab*ba").matches("aba"));
+		}
+		@Test
+		// covers apply with unchanged capacities
+		public void testApply() {
+			List<Email> emails = new ArrayList<>();
+			EmailDirectory directory = directory(100, emails);
+			CapacityPlanner planner = new CapacityPlanner(directory, null);
+			Plan plan = planner.simulate(new Policy().withDepartment("legal", 300));
+
+			assertTrue("Expected plan applied", planner.apply(plan));
+			assertEquals("Expected legal capacity", 300, emails.get(1).getMailCapacity());
+			assertEquals("Expected sales unchanged", 100, emails.get(0).getMailCapacity());
+			assertEquals("Expected department totals", 50 * 300,
+					directory.getDepartmentStats("legal").getTotalMailCapacity());
+		}
+		@Test
+		// covers apply after another writer changed a capacity
+		public void testApply_Conflict() {
+			List<Email> emails = new ArrayList<>();
+			EmailDirectory directory = directory(100, emails);
+			CapacityPlanner planner = new CapacityPlanner(directory, null);
+			Plan plan = planner.simulate(new Policy().withDepartment("sales", 300).withDepartment("legal", 200));
+			directory.setMailCapacity(emails.get(7), 42);
+
+			assertFalse("Expected conflict", planner.apply(plan));
+			for (Email email : emails) {
+				assertEquals("Expected batch rolled back", email == emails.get(7) ? 42 : 100, email.getMailCapacity());
+			}
+			assertEquals("Expected department totals restored", 49 * 100 + 42,
+					directory.getDepartmentStats("legal").getTotalMailCapacity());
+		}
+		@Test
+		// covers pattern under a Turkish default locale
+		public void testPolicy_TurkishLocale() {
+			Locale locale = Locale.getDefault();
+			Locale.setDefault(new Locale("tr", "TR"));
+			try {
+				Email email = new Email("ivan", "bird", "sales");
+				Policy policy = new Policy().withPattern("IVAN.BIRD@*", 500);
+
+				assertEquals("Expected pattern in root lowercase", 500, policy.capacityFor(email, 100));
+			} finally {
+				Locale.setDefault(locale);
+			}
+		}
+		@Test
+		// covers apply after an account was removed
+		public void testApply_Removed() {
+			List<Email> emails = new ArrayList<>();
+			EmailDirectory directory = directory(100, emails);
+			CapacityPlanner planner = new CapacityPlanner(directory, null);
+			Plan plan = planner.simulate(new Policy().withDepartment("legal", 300));
+			directory.remove(emails.get(1));
+
+			assertTrue("Expected plan applied", planner.apply(plan));
+			assertEquals("Expected removed account unchanged", 100, emails.get(1).getMailCapacity());
+			assertEquals("Expected registered account changed", 300, emails.get(3).getMailCapacity());
+			assertEquals("Expected department totals", 49 * 300,
+					directory.getDepartmentStats("legal").getTotalMailCapacity());
+		}
+		@Test
+		// covers rollback of an account changed since applied, failing change and restore
+		public void testApply_FailingRollback() {
+			final List<Email> written = new ArrayList<>();
+			EmailDirectory directory = new EmailDirectory() {
+				@Override public int setMailCapacity(final Email email, final int newMailCapacity) {
+					written.add(email);
+					if (written.size() == 3) {
+						// another writer changes the first account, then this change fails
+						super.setMailCapacity(written.get(0), 7);
+						throw new IllegalStateException("change failed");
+					}
+					if (written.size() == 4) {
+						throw new IllegalStateException("restore failed");
+					}
+					return super.setMailCapacity(email, newMailCapacity);
+				}
+			};
+			for (int i = 0; i < 4; i++) {
+				directory.add(Email.restore("user" + i, "bar", "sales", "", "", "hash", 100, 0));
+			}
+			CapacityPlanner planner = new CapacityPlanner(directory, null);
+			Plan plan = planner.simulate(new Policy().withDepartment("sales", 300));
+
+			try {
+				planner.apply(plan);
+				fail("Expected the failed change thrown");
+			} catch (IllegalStateException e) {
+				assertEquals("Expected the failed change", "change failed", e.getMessage());
+				assertEquals("Expected the failed restore suppressed", "restore failed",
+						e.getSuppressed()[0].getMessage());
+			}
+			assertEquals("Expected the account changed since not restored", 4, written.size());
+			assertEquals("Expected account changed since kept", 7, written.get(0).getMailCapacity());
+			assertEquals("Expected failed restore left", 300, written.get(1).getMailCapacity());
+			assertEquals("Expected failed change left", 100, written.get(2).getMailCapacity());
+		}
+}
@@ -0,0 +1,76 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import email_app.CompactAccountStore.Account;
+
+public class CompactAccountStoreTest {
+	// Partition the input as follows:
+		//	add(email) -> index
+		//		alternate email: exists, doesn't exist
+		//		department: new, already interned
+		//		store: empty, needs to grow
+		//
+		//	get(index) -> Account
+		//		index: valid, out of bounds
+		//
+		//	Account observers and mutators
+		//		compared with the same operations on Email
+		//
+		// Coverage: Each part covered at least once
+
+		@Test
+		// covers empty store, alternate doesn't exist, new department
+		public void testAdd_MatchesEmail() {
+			CompactAccountStore store = new CompactAccountStore();
+			Email email = new Email("Sterling", "Archer", "Field");
+			Account account = store.get(store.add(email));
+
+			assertEquals("Expected same name", email.getName(), account.getName());
+			assertEquals("Expected same address", email.getEmailAddress(), account.getEmailAddress());
+			assertEquals("Expected no alternate", "", account.getAltEmailAddress());
+			assertEquals("Expected same representation", email.toString(), account.toString());
+		}
+		@Test
+		// covers alternate exists, interned department, store needs to grow
+		public void testAdd_Many() {
+			CompactAccountStore store = new CompactAccountStore();
+			for (int i = 0; i < 100; i++) {
+				Email email = new Email("first" + i, "last", i % 2 == 0 ? "even" : "odd");
+				if (i == 42) {
+					email.createAlternateEmail("alt", "mail");
+				}
+				store.add(email);
+			}
+
+			assertEquals("Expected all accounts", 100, store.size());
+			assertEquals("Expected interned departments", 2, store.departmentCount());
+			assertEquals("Expected name from arena", "first99.last", store.get(99).getName());
+			assertEquals("Expected alternate", "alt.mail@even.company.com", store.get(42).getAltEmailAddress());
+		}
+		@Test(expected = IndexOutOfBoundsException.class)
+		// covers index out of bounds
+		public void testGet_OutOfBounds() {
+			new CompactAccountStore().get(0);
+		}
+		@Test
+		// covers Account mutators
+		public void testAccount_Mutators() {
+			CompactAccountStore store = new CompactAccountStore();
+			Email email = new Email("foo", "bar", "001");
+			email.resetPassword("12345678");
+			Account account = store.get(store.add(email));
+
+			assertTrue("Expected copied password", account.verifyPassword("12345678"));
+			assertFalse("Expected unchanged password", account.resetPassword("12345678"));
+			assertTrue("Expected changed password", account.resetPassword("87654321"));
+			assertTrue("Expected new password", account.verifyPassword("87654321"));
+			assertEquals("Expected previous capacity", 250, account.setMailCapacity(300));
+			assertEquals("Expected new capacity", 300, account.getMailCapacity());
+			assertFalse("Expected rejected alternate", account.createAlternateEmail("Foo", "Bar"));
+			assertTrue("Expected alternate", account.createAlternateEmail("baz", "qux"));
+			assertEquals("Expected alternate address", "baz.qux@001.company.com", account.getAltEmailAddress());
+		}
+}
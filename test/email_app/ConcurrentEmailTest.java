@@ -0,0 +1,186 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class ConcurrentEmailTest {
+	// Partition the input as follows:
+		//	ConcurrentEmail(email), toEmail()
+		//		alternate: exists, doesn't exist
+		//
+		//	createAlternateEmail(altFirstname, altLastname) -> boolean
+		//		alternate: same as primary, different
+		//		concurrent writers: 1, > 1 with concurrent readers
+		//
+		//	resetPassword(newPassword) -> boolean
+		//		newPassword: current password, different
+		//		concurrent writers: 1, > 1
+		//
+		//	setMailCapacity(newMailCapacity) -> int
+		//		concurrent writers: 1, > 1
+		//
+		// Coverage: Each part covered at least once
+
+		private static final int THREADS = 8;
+
+		/** Runs task on THREADS threads started together and returns their results */
+		private static <T> List<T> race(final Callable<T> task) throws Exception {
+			final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+			final CountDownLatch start = new CountDownLatch(1);
+			try {
+				List<Future<T>> futures = new ArrayList<>();
+				for (int i = 0; i < THREADS; i++) {
+					futures.add(pool.submit(() -> {
+						start.await();
+						return task.call();
+					}));
+				}
+				start.countDown();
+				List<T> results = new ArrayList<>();
+				for (Future<T> future : futures) {
+					results.add(future.get(30, TimeUnit.SECONDS));
+				}
+				return results;
+			} finally {
+				pool.shutdownNow();
+			}
+		}
+
+		@Test
+		// covers alternate doesn't exist and exists, toEmail
+		public void testCopy() {
+			Email email = new Email("foo", "bar", "001");
+			email.setMailCapacity(500);
+			ConcurrentEmail concurrent = new ConcurrentEmail(email);
+
+			assertEquals("Expected same state", email.toString(), concurrent.toString());
+			assertTrue("Expected alternate created", concurrent.createAlternateEmail("Baz", "Qux"));
+			Email copy = concurrent.toEmail();
+			assertEquals("Expected state copied back", concurrent.toString(), copy.toString());
+			assertEquals("Expected alternate name", "baz.qux", copy.getAltName());
+			assertEquals("Expected original unchanged", "", email.getAltEmailAddress());
+		}
+		@Test
+		// covers alternate same as primary
+		public void testCreateAlternateEmail_SameAsPrimary() {
+			ConcurrentEmail email = new ConcurrentEmail("foo", "bar", "001");
+
+			assertFalse("Expected alternate rejected", email.createAlternateEmail("FOO", "bar"));
+			assertEquals("Expected no alternate", "", email.getAltEmailAddress());
+		}
+		@Test
+		// covers resetPassword current password and different, 1 writer
+		public void testResetPassword() {
+			ConcurrentEmail email = new ConcurrentEmail("foo", "bar", "001");
+
+			assertTrue("Expected successful reset", email.resetPassword("password1"));
+			assertTrue("Expected new password", email.verifyPassword("password1"));
+			assertFalse("Expected reset to the same password rejected", email.resetPassword("password1"));
+		}
+		@Test
+		// covers > 1 concurrent alternate writers with concurrent readers
+		public void testCreateAlternateEmail_Concurrent() throws Exception {
+			final ConcurrentEmail email = new ConcurrentEmail("foo", "bar", "001");
+			final AtomicBoolean torn = new AtomicBoolean(false);
+			final int[] next = {0};
+
+			race(() -> {
+				final int id;
+				synchronized (next) {
+					id = next[0]++;
+				}
+				for (int i = 0; i < 20_000; i++) {
+					if (id % 2 == 0) {
+						email.createAlternateEmail("first" + id, "last" + id);
+					} else {
+						// a consistent alternate has matching firstname and lastname suffixes
+						String alternate = email.getAltName();
+						if (!alternate.isEmpty()) {
+							String[] names = alternate.split("\\.");
+							torn.compareAndSet(false, !names[0].substring(5).equals(names[1].substring(4)));
+						}
+						String rep = email.toString();
+						torn.compareAndSet(false, !rep.startsWith("email: foo.bar@001.company.com,"));
+					}
+				}
+				return null;
+			});
+
+			assertFalse("Expected no torn alternate", torn.get());
+			assertTrue("Expected an alternate set", email.getAltName().startsWith("first"));
+		}
+		@Test
+		// covers > 1 concurrent capacity writers
+		public void testSetMailCapacity_Concurrent() throws Exception {
+			final ConcurrentEmail email = new ConcurrentEmail("foo", "bar", "001");
+			final int perThread = 10_000;
+			final int[] next = {0};
+
+			List<List<Integer>> previous = race(() -> {
+				final int id;
+				synchronized (next) {
+					id = next[0]++;
+				}
+				List<Integer> prevs = new ArrayList<>(perThread);
+				for (int i = 1; i <= perThread; i++) {
+					prevs.add(email.setMailCapacity(1000 + id * perThread + i));
+				}
+				return prevs;
+			});
+
+			// every set is linearized: each value is replaced exactly once, except the last
+			Set<Integer> seen = new HashSet<>();
+			for (List<Integer> prevs : previous) {
+				for (int prev : prevs) {
+					assertTrue("Expected each value replaced once: " + prev, seen.add(prev));
+				}
+			}
+			assertTrue("Expected the initial capacity replaced", seen.contains(250));
+			assertFalse("Expected the final capacity not replaced", seen.contains(email.getMailCapacity()));
+			assertEquals("Expected every set observed", THREADS * perThread, seen.size());
+		}
+		@Test
+		// covers > 1 concurrent password writers
+		public void testResetPassword_Concurrent() throws Exception {
+			final PasswordHasher previous = Email.getPasswordHasher();
+			Email.setPasswordHasher(new Pbkdf2PasswordHasher(1));
+			try {
+				final ConcurrentEmail email = new ConcurrentEmail("foo", "bar", "001");
+				final int[] next = {0};
+
+				List<String> passwords = race(() -> {
+					final int id;
+					synchronized (next) {
+						id = next[0]++;
+					}
+					final String password = "password" + id;
+					for (int i = 0; i < 100; i++) {
+						email.resetPassword(password);
+						email.setMailCapacity(100 + i);
+					}
+					return password;
+				});
+
+				int matches = 0;
+				for (String password : passwords) {
+					matches += email.verifyPassword(password) ? 1 : 0;
+				}
+				assertEquals("Expected exactly one password to win", 1, matches);
+			} finally {
+				Email.setPasswordHasher(previous);
+			}
+		}
+}
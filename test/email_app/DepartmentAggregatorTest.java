@@ -0,0 +1,99 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import email_app.DepartmentAggregator.Stats;
+
+public class DepartmentAggregatorTest {
+	// Partition the input as follows:
+		//	EmailDirectory.getDepartmentStats(department) -> Stats
+		//		department: no accounts, some accounts, all accounts removed
+		//		mutations: add, remove, setMailCapacity of max and non-max, first and second alternate
+		//
+		//	aggregate(accounts) -> Map<String, Stats>
+		//		accounts: empty, many in several departments, parallel
+		//
+		// Coverage: Each part covered at least once
+
+		@Test
+		// covers no accounts, empty aggregate
+		public void testEmpty() {
+			EmailDirectory directory = new EmailDirectory();
+
+			assertEquals("Expected zero totals", new Stats("001", 0, 0, 0, 0), directory.getDepartmentStats("001"));
+			assertTrue("Expected no departments", directory.getDepartmentStats().isEmpty());
+			assertTrue("Expected empty aggregate", DepartmentAggregator.aggregate(directory.stream()).isEmpty());
+		}
+		@Test
+		// covers some accounts, add, setMailCapacity of max and non-max, first and second alternate
+		public void testIncremental() {
+			EmailDirectory directory = new EmailDirectory();
+			Email foo = new Email("foo", "bar", "001");
+			Email baz = new Email("baz", "qux", "001");
+			directory.add(foo);
+			directory.add(baz);
+			directory.add(new Email("mike", "dean", "002"));
+
+			assertEquals("Expected totals after add", new Stats("001", 2, 500, 250, 0),
+					directory.getDepartmentStats("001"));
+			directory.setMailCapacity(foo, 1000);
+			assertEquals("Expected raised max", new Stats("001", 2, 1250, 1000, 0),
+					directory.getDepartmentStats("001"));
+			directory.setMailCapacity(foo, 100);
+			assertEquals("Expected max of the other account", new Stats("001", 2, 350, 250, 0),
+					directory.getDepartmentStats("001"));
+			directory.createAlternateEmail(foo, "alt", "one");
+			directory.createAlternateEmail(foo, "alt", "two");
+			assertEquals("Expected one account with alternate", 1,
+					directory.getDepartmentStats("001").getAlternateCount());
+			assertEquals("Expected case-insensitive query", directory.getDepartmentStats("001"),
+					directory.getDepartmentStats(" 001 "));
+			assertEquals("Expected both departments", 2, directory.getDepartmentStats().size());
+		}
+		@Test
+		// covers remove, all accounts removed
+		public void testRemove() {
+			EmailDirectory directory = new EmailDirectory();
+			Email foo = new Email("foo", "bar", "001");
+			Email baz = new Email("baz", "qux", "001");
+			directory.add(foo);
+			directory.add(baz);
+			directory.createAlternateEmail(baz, "alt", "one");
+			directory.setMailCapacity(baz, 500);
+
+			directory.remove(baz);
+			assertEquals("Expected totals without removed account", new Stats("001", 1, 250, 250, 0),
+					directory.getDepartmentStats("001"));
+			directory.remove(foo);
+			assertEquals("Expected zero totals", 0, directory.getDepartmentStats("001").getAccountCount());
+			assertFalse("Expected department dropped", directory.getDepartmentStats().containsKey("001"));
+		}
+		@Test
+		// covers many accounts in several departments, parallel aggregate
+		public void testAggregate_MatchesIncremental() {
+			EmailDirectory directory = new EmailDirectory();
+			List<Email> emails = new ArrayList<>();
+			for (int i = 0; i < 500; i++) {
+				Email email = new Email("user" + i, "staff", "dept" + (i % 7));
+				directory.add(email);
+				emails.add(email);
+				directory.setMailCapacity(email, 100 + i);
+				if (i % 3 == 0) {
+					directory.createAlternateEmail(email, "alt" + i, "staff");
+				}
+			}
+			for (int i = 0; i < 500; i += 5) {
+				directory.remove(emails.get(i));
+			}
+
+			Map<String, Stats> scanned = DepartmentAggregator.aggregate(directory.stream().parallel());
+			assertEquals("Expected scan to match incremental totals", directory.getDepartmentStats(), scanned);
+			assertEquals("Expected remaining accounts", 400, directory.stream().count());
+		}
+}
@@ -0,0 +1,205 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class EmailDirectoryTest {
+	// Partition the input as follows:
+		//	add(email) -> boolean
+		//		primary address: free, taken by primary, taken by alternate
+		//
+		//	remove(email) -> boolean
+		//		email: registered, not registered
+		//
+		//	createAlternateEmail(email, altFirstname, altLastname) -> boolean
+		//		alternate address: free, taken by another account
+		//		previous alternate: exists, doesn't exist
+		//		email: registered, not registered
+		//
+		//	lookup(address) -> Email
+		//		address: primary, alternate, unknown, different case
+		//
+		//	findByName(name), findByDepartment(department) -> Set<Email>
+		//		matching accounts: 0, > 1
+		//		view: read once, held while the matches are removed and added again,
+		//		      modified by the caller
+		//
+		//	default locale: root, Turkish
+		//
+		//	concurrent writers: same address
+		//
+		// Coverage: Each part covered at least once
+
+		@Test
+		// covers primary address free, lookup by primary and in different case
+		public void testAdd_Free() {
+			EmailDirectory directory = new EmailDirectory();
+			Email email = new Email("foo", "bar", "001");
+
+			assertTrue("Expected successful add", directory.add(email));
+			assertSame("Expected lookup by primary", email, directory.lookup("foo.bar@001.company.com"));
+			assertSame("Expected case-insensitive lookup", email, directory.lookup("FOO.Bar@001.company.com"));
+			assertEquals("Expected one account", 1, directory.size());
+		}
+		@Test
+		// covers primary address taken by primary
+		public void testAdd_TakenByPrimary() {
+			EmailDirectory directory = new EmailDirectory();
+			Email first = new Email("foo", "bar", "001");
+			directory.add(first);
+
+			assertFalse("Expected duplicate rejected", directory.add(new Email("Foo", "Bar", "001")));
+			assertSame("Expected original account kept", first, directory.lookup(first.getEmailAddress()));
+			assertEquals("Expected one account", 1, directory.size());
+		}
+		@Test
+		// covers primary address taken by alternate, previous alternate doesn't exist,
+		//        lookup by alternate
+		public void testAdd_TakenByAlternate() {
+			EmailDirectory directory = new EmailDirectory();
+			Email first = new Email("foo", "bar", "001");
+			directory.add(first);
+
+			assertTrue("Expected alternate created", directory.createAlternateEmail(first, "baz", "qux"));
+			assertSame("Expected lookup by alternate", first, directory.lookup("baz.qux@001.company.com"));
+			assertFalse("Expected add rejected", directory.add(new Email("baz", "qux", "001")));
+		}
+		@Test
+		// covers alternate address taken by another account
+		public void testCreateAlternateEmail_Taken() {
+			EmailDirectory directory = new EmailDirectory();
+			Email first = new Email("foo", "bar", "001");
+			Email second = new Email("baz", "qux", "001");
+			directory.add(first);
+			directory.add(second);
+
+			assertFalse("Expected alternate rejected", directory.createAlternateEmail(second, "foo", "bar"));
+			assertEquals("Expected no alternate", "", second.getAltEmailAddress());
+		}
+		@Test
+		// covers previous alternate exists, alternate address free
+		public void testCreateAlternateEmail_ReplacesPrevious() {
+			EmailDirectory directory = new EmailDirectory();
+			Email email = new Email("foo", "bar", "001");
+			directory.add(email);
+			directory.createAlternateEmail(email, "one", "alt");
+			directory.createAlternateEmail(email, "two", "alt");
+
+			assertNull("Expected previous alternate released", directory.lookup("one.alt@001.company.com"));
+			assertSame("Expected new alternate", email, directory.lookup("two.alt@001.company.com"));
+		}
+		@Test
+		// covers email not registered
+		public void testCreateAlternateEmail_NotRegistered() {
+			EmailDirectory directory = new EmailDirectory();
+
+			assertFalse("Expected rejection", directory.createAlternateEmail(new Email("foo", "bar", "001"), "a", "b"));
+			assertNull("Expected nothing reserved", directory.lookup("a.b@001.company.com"));
+		}
+		@Test
+		// covers remove registered and not registered, unknown address
+		public void testRemove() {
+			EmailDirectory directory = new EmailDirectory();
+			Email email = new Email("foo", "bar", "001");
+			directory.add(email);
+			directory.createAlternateEmail(email, "baz", "qux");
+
+			assertTrue("Expected removal", directory.remove(email));
+			assertFalse("Expected second removal to fail", directory.remove(email));
+			assertNull("Expected primary released", directory.lookup("foo.bar@001.company.com"));
+			assertNull("Expected alternate released", directory.lookup("baz.qux@001.company.com"));
+			assertTrue("Expected department index emptied", directory.findByDepartment("001").isEmpty());
+			assertEquals("Expected no accounts", 0, directory.size());
+		}
+		@Test
+		// covers findByName and findByDepartment with 0 and > 1 matches
+		public void testFindByNameAndDepartment() {
+			EmailDirectory directory = new EmailDirectory();
+			directory.add(new Email("foo", "bar", "001"));
+			directory.add(new Email("foo", "bar", "002"));
+			directory.add(new Email("baz", "qux", "001"));
+
+			assertEquals("Expected both namesakes", 2, directory.findByName("Foo.Bar").size());
+			assertEquals("Expected department members", 2, directory.findByDepartment("001").size());
+			assertTrue("Expected no matches", directory.findByDepartment("003").isEmpty());
+		}
+		@Test
+		// covers view held while the matches are removed and added again
+		public void testFindByNameAndDepartment_LiveView() {
+			EmailDirectory directory = new EmailDirectory();
+			Email first = new Email("foo", "bar", "001");
+			Email second = new Email("foo", "bar", "002");
+			Set<Email> byName = directory.findByName("foo.bar");
+			Set<Email> byDepartment = directory.findByDepartment("001");
+			directory.add(first);
+			directory.remove(first);
+
+			assertTrue("Expected view emptied", byName.isEmpty() && byDepartment.isEmpty());
+			directory.add(second);
+			directory.add(first);
+			assertEquals("Expected view refilled", 2, byName.size());
+			assertTrue("Expected member", byName.contains(second));
+			assertEquals("Expected department view refilled", Collections.singleton(first),
+					new HashSet<>(byDepartment));
+		}
+		@Test(expected = UnsupportedOperationException.class)
+		// covers view modified by the caller
+		public void testFindByName_ReadOnly() {
+			EmailDirectory directory = new EmailDirectory();
+			directory.add(new Email("foo", "bar", "001"));
+
+			directory.findByName("foo.bar").clear();
+		}
+		@Test
+		// covers concurrent writers adding the same address
+		public void testAdd_ConcurrentSameAddress() throws Exception {
+			final EmailDirectory directory = new EmailDirectory();
+			ExecutorService executor = Executors.newFixedThreadPool(8);
+			List<Future<Boolean>> results = new ArrayList<>();
+			for (int i = 0; i < 64; i++) {
+				results.add(executor.submit(() -> directory.add(new Email("foo", "bar", "001"))));
+			}
+			int added = 0;
+			for (Future<Boolean> result : results) {
+				added += result.get() ? 1 : 0;
+			}
+			executor.shutdown();
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+
+			assertEquals("Expected exactly one winner", 1, added);
+			assertEquals("Expected one account", 1, directory.size());
+		}
+		@Test
+		// covers Turkish default locale, lookup with different case, alternate
+		public void testLookup_TurkishLocale() {
+			Locale locale = Locale.getDefault();
+			Locale.setDefault(new Locale("tr", "TR"));
+			try {
+				EmailDirectory directory = new EmailDirectory();
+				Email email = new Email("IVAN", "BIRD", "SALES");
+				directory.add(email);
+
+				assertSame("Expected lookup", email, directory.lookup("IVAN.BIRD@SALES.company.com"));
+				assertFalse("Expected name found", directory.findByName("IVAN.BIRD").isEmpty());
+				assertFalse("Expected department found", directory.findByDepartment("SALES").isEmpty());
+				assertTrue("Expected alternate", directory.createAlternateEmail(email, "IRIS", "IDA"));
+				assertEquals("Expected alternate in root lowercase", "iris.ida@sales.company.com",
+						email.getAltEmailAddress());
+				assertSame("Expected alternate lookup", email, directory.lookup("IRIS.IDA@SALES.COMPANY.COM"));
+			} finally {
+				Locale.setDefault(locale);
+			}
+		}
+}
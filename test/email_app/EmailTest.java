@@ -2,6 +2,11 @@ package email_app;
 
 import static org.junit.Assert.*;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
 import org.junit.Test;
 
 public class EmailTest {
@@ -32,9 +37,21 @@ public class EmailTest {
 		//		altEmailAddress: exists, hasn't been set
 		//		department: default, specified during email creation
 		//		
+		//	writeEmailAddress(ByteBuffer), writeAltEmailAddress(ByteBuffer)
+		//		address: ASCII, non-ASCII
+		//		buffer: enough space, too little space
+		//		alternate email: exists, doesn't exist
+		//
+		//	appendEmailAddress(StringBuilder), writeEmailAddress(CharBuffer)
+		//		builder/buffer: empty, non-empty
+		//
 		//  resetPassword(newPassword) -> boolean
 		//		newPassword == currentPassword: true, false
 		//
+		//  verifyPassword(password) -> boolean
+		//		password == currentPassword: true, false
+		//		currentPassword: set, not set yet
+		//
 		//  setMailCapacity(newMailCapacity) -> boolean
 		//		newMailCapacity == current mailCapacity
 		//		newMailCapacity < current mailCapacity
@@ -205,6 +222,57 @@ public class EmailTest {
 			assertEquals("Expected empty string", 0, actual.length());		
 		}
 		
+		// Tests for writeEmailAddress(), writeAltEmailAddress() and appendEmailAddress()
+		@Test
+		// covers ASCII address, enough space, alternate exists
+		public void testWriteEmailAddress_ByteBufferAscii() {
+			Email email = new Email("foo", "bar", "001");
+			email.createAlternateEmail("baz", "qux");
+			ByteBuffer out = ByteBuffer.allocate(64);
+			email.writeEmailAddress(out);
+			out.put((byte) ' ');
+			email.writeAltEmailAddress(out);
+			out.flip();
+			
+			assertEquals("Expected both addresses", email.getEmailAddress() + " " + email.getAltEmailAddress(),
+					StandardCharsets.UTF_8.decode(out).toString());
+		}
+		@Test
+		// covers non-ASCII address, alternate doesn't exist
+		public void testWriteEmailAddress_ByteBufferNonAscii() {
+			Email email = new Email("zo\u00eb", "bar", "001");
+			ByteBuffer out = ByteBuffer.allocate(64);
+			email.writeEmailAddress(out);
+			email.writeAltEmailAddress(out);
+			out.flip();
+			
+			assertEquals("Expected UTF-8 address", email.getEmailAddress(), StandardCharsets.UTF_8.decode(out).toString());
+		}
+		@Test
+		// covers too little space
+		public void testWriteEmailAddress_ByteBufferOverflow() {
+			Email email = new Email("foo", "bar", "001");
+			ByteBuffer out = ByteBuffer.allocate(8);
+			try {
+				email.writeEmailAddress(out);
+				fail("Expected BufferOverflowException");
+			} catch (BufferOverflowException e) {
+				assertEquals("Expected unchanged buffer", 0, out.position());
+			}
+		}
+		@Test
+		// covers empty and non-empty builder/buffer
+		public void testAppendEmailAddress() {
+			Email email = new Email("foo", "bar", "001");
+			CharBuffer chars = CharBuffer.allocate(64);
+			email.writeEmailAddress(chars);
+			chars.flip();
+			
+			assertEquals("Expected address", email.getEmailAddress(), chars.toString());
+			assertEquals("Expected address appended", "to: " + email.getEmailAddress(),
+					email.appendEmailAddress(new StringBuilder("to: ")).toString());
+		}
+		
 		//------ Producers ------//
 		// Tests for createAlternateEmail()
 		@Test
@@ -264,6 +332,33 @@ public class EmailTest {
 			assertTrue("Expected change in password", passChanged);
 		}
 		
+		// Tests for verifyPassword()
+		@Test
+		// covers password == currentPassword
+		public void testVerifyPassword_Equal() {
+			Email email = new Email("foo", "bar", "001");
+			email.resetPassword("12345678");
+			
+			assertTrue("Expected successful verification", email.verifyPassword("12345678"));
+		}
+		@Test
+		// covers password != currentPassword
+		public void testVerifyPassword_NotEqual() {
+			Email email = new Email("foo", "bar", "001");
+			email.resetPassword("12345678");
+			
+			assertFalse("Expected failed verification", email.verifyPassword("87654321"));
+		}
+		@Test
+		// covers currentPassword not set yet
+		public void testVerifyPassword_NotSet() {
+			Email email = new Email("foo", "bar", "001");
+			
+			assertEquals("Expected no hash", "", email.getPasswordHash());
+			assertFalse("Expected failed verification", email.verifyPassword(""));
+			assertFalse("Expected failed verification", email.verifyPassword("12345678"));
+		}
+		
 		// Tests for setMailCapacity()
 		@Test
 		// covers newMailCapacity == currentMailCapacity
@@ -0,0 +1,108 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+	// Partition the input as follows:
+		//	record(nanos)
+		//		nanos: < 0, 0, < 16, >= 16, Long.MAX_VALUE
+		//		concurrent recorders: 1, > 1
+		//
+		//	getPercentileNanos(percentile) -> long
+		//		recorded: none, one, many
+		//		percentile: 0, 50, 100
+		//
+		// Coverage: Each part covered at least once
+
+		@Test
+		// covers recorded none
+		public void testEmpty() {
+			LatencyHistogram histogram = new LatencyHistogram();
+
+			assertEquals("Expected no count", 0, histogram.getCount());
+			assertEquals("Expected mean 0", 0, histogram.getMeanNanos());
+			assertEquals("Expected percentile 0", 0, histogram.getPercentileNanos(99));
+		}
+		@Test
+		// covers nanos < 0, 0, < 16, Long.MAX_VALUE, recorded one
+		public void testRecord_Extremes() {
+			LatencyHistogram histogram = new LatencyHistogram();
+			histogram.record(-5);
+			histogram.record(0);
+			histogram.record(7);
+
+			assertEquals("Expected negative recorded as 0", 0, histogram.getPercentileNanos(50));
+			assertEquals("Expected small values exact", 7, histogram.getPercentileNanos(100));
+			histogram.record(Long.MAX_VALUE);
+			assertEquals("Expected largest value kept", Long.MAX_VALUE, histogram.getPercentileNanos(100));
+			assertEquals("Expected count", 4, histogram.getCount());
+		}
+		@Test
+		// covers nanos >= 16, recorded many, percentile 0, 50, 100
+		public void testPercentiles() {
+			LatencyHistogram histogram = new LatencyHistogram();
+			for (long nanos = 1; nanos <= 100_000; nanos++) {
+				histogram.record(nanos * 1000);
+			}
+
+			long p50 = histogram.getPercentileNanos(50);
+			long p99 = histogram.getPercentileNanos(99);
+			assertTrue("Expected p50 within 1/16, was " + p50,
+					Math.abs(p50 - 50_000_000) <= 50_000_000 / 16);
+			assertTrue("Expected p99 within 1/16, was " + p99,
+					Math.abs(p99 - 99_000_000) <= 99_000_000 / 16);
+			assertEquals("Expected max", 100_000_000, histogram.getPercentileNanos(100));
+			assertTrue("Expected p0 near min", histogram.getPercentileNanos(0) <= 1000 + 1000 / 16);
+			assertEquals("Expected exact mean", 50_000_500, histogram.getMeanNanos());
+		}
+		@Test
+		// covers bucket boundaries
+		public void testBuckets() {
+			for (long value = 0; value < 1 << 20; value++) {
+				int index = LatencyHistogram.index(value);
+				assertTrue("Expected " + value + " within its bucket", value <= LatencyHistogram.highest(index));
+				assertTrue("Expected " + value + " above the previous bucket",
+						index == 0 || value > LatencyHistogram.highest(index - 1));
+			}
+		}
+		@Test
+		// covers > 1 concurrent recorders
+		public void testRecord_Concurrent() throws Exception {
+			final LatencyHistogram histogram = new LatencyHistogram();
+			ExecutorService pool = Executors.newFixedThreadPool(8);
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				futures.add(pool.submit(() -> {
+					for (int i = 0; i < 10_000; i++) {
+						histogram.record(i);
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+			pool.shutdown();
+
+			assertEquals("Expected every recording counted", 80_000, histogram.getCount());
+			assertEquals("Expected max", 9_999, histogram.getMaxNanos());
+		}
+		@Test
+		// covers reset
+		public void testReset() {
+			LatencyHistogram histogram = new LatencyHistogram();
+			histogram.record(1000);
+			histogram.reset();
+
+			assertEquals("Expected no count", 0, histogram.getCount());
+			assertEquals("Expected no max", 0, histogram.getMaxNanos());
+		}
+}
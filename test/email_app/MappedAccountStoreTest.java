@@ -0,0 +1,174 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedAccountStoreTest {
+	// Partition the input as follows:
+		//	open(file)
+		//		file: doesn't exist, existing store, not a store
+		//
+		//	append(email) -> index
+		//		alternate email: exists, doesn't exist
+		//		address suffix: none, some
+		//		segment: has room, full, last segment needs to grow
+		//		fields: fit, too long
+		//
+		//	update(index, email), setMailCapacity(index, capacity)
+		//		alternate: added, unchanged
+		//		concurrent readers of the same record: none, many
+		//
+		//	find(address) -> index
+		//		address: primary, alternate, unknown
+		//		index: built before append, built after append
+		//
+		// Coverage: Each part covered at least once
+
+		private Path file;
+
+		@Before
+		public void createFile() throws IOException {
+			file = Files.createTempFile("accounts", ".store");
+			Files.delete(file);
+		}
+
+		@After
+		public void deleteFile() throws IOException {
+			Files.deleteIfExists(file);
+		}
+
+		@Test
+		// covers file doesn't exist, existing store, alternate exists and doesn't exist,
+		//        segment full
+		public void testAppend_Reopen() throws IOException {
+			Email first = new Email("Sterling", "Archer", "Field");
+			first.createAlternateEmail("duchess", "archer");
+			first.setMailCapacity(400);
+			try (MappedAccountStore store = new MappedAccountStore(file, 2)) {
+				store.append(first);
+				for (int i = 0; i < 4; i++) {
+					store.append(new Email("foo" + i, "bar", ""));
+				}
+			}
+			try (MappedAccountStore store = new MappedAccountStore(file, 2)) {
+				Email restored = store.get(0);
+
+				assertEquals("Expected all records", 5, store.size());
+				assertEquals("Expected same state", first.toString(), restored.toString());
+				assertEquals("Expected same password hash", first.getPasswordHash(), restored.getPasswordHash());
+				assertEquals("Expected record in last segment", "foo3.bar@general.company.com",
+						store.get(4).getEmailAddress());
+			}
+		}
+		@Test
+		// covers address suffix some, find by suffixed address
+		public void testAppend_Suffix() throws IOException {
+			Email email = new Email("john", "smith", "sales", 2);
+			try (MappedAccountStore store = new MappedAccountStore(file, 2)) {
+				store.append(new Email("john", "smith", "sales"));
+				store.append(email);
+			}
+			try (MappedAccountStore store = new MappedAccountStore(file, 2)) {
+				assertEquals("Expected suffixed address", "john.smith2@sales.company.com",
+						store.get(1).getEmailAddress());
+				assertEquals("Expected plain address", "john.smith@sales.company.com",
+						store.get(0).getEmailAddress());
+				assertEquals("Expected lookup by suffixed address", 1, store.find(email.getEmailAddress()));
+			}
+		}
+		@Test(expected = IOException.class)
+		// covers not a store
+		public void testOpen_NotAStore() throws IOException {
+			Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+			MappedAccountStore.open(file).close();
+		}
+		@Test
+		// covers fields too long
+		public void testAppend_TooLong() throws IOException {
+			StringBuilder name = new StringBuilder();
+			for (int i = 0; i <= MappedAccountStore.MAX_NAME_BYTES; i++) {
+				name.append('x');
+			}
+			try (MappedAccountStore store = MappedAccountStore.open(file)) {
+				try {
+					store.append(new Email(name.toString(), "bar", ""));
+					fail("Expected IllegalArgumentException");
+				} catch (IllegalArgumentException e) {
+					assertEquals("Expected nothing appended", 0, store.size());
+				}
+			}
+		}
+		@Test
+		// covers update with alternate added, setMailCapacity, find before and after append
+		public void testUpdateAndFind() throws IOException {
+			try (MappedAccountStore store = MappedAccountStore.open(file)) {
+				Email email = new Email("foo", "bar", "001");
+				int index = store.append(email);
+				assertEquals("Expected primary found", index, store.find("Foo.Bar@001.company.com"));
+				email.createAlternateEmail("baz", "qux");
+				email.resetPassword("12345678");
+				store.update(index, email);
+				int second = store.append(new Email("mike", "dean", "001"));
+
+				assertEquals("Expected alternate found", index, store.find("baz.qux@001.company.com"));
+				assertEquals("Expected appended record found", second, store.find("mike.dean@001.company.com"));
+				assertEquals("Expected unknown address", -1, store.find("nobody@001.company.com"));
+				assertTrue("Expected new password", store.get(index).verifyPassword("12345678"));
+				assertEquals("Expected previous capacity", 250, store.setMailCapacity(index, 500));
+				assertEquals("Expected new capacity", 500, store.getMailCapacity(index));
+			}
+		}
+		@Test
+		// covers last segment needs to grow
+		public void testAppend_GrowsFile() throws IOException {
+			try (MappedAccountStore store = MappedAccountStore.open(file)) {
+				store.append(new Email("foo", "bar", "001"));
+				long small = Files.size(file);
+				for (int i = 0; i < MappedAccountStore.INITIAL_SEGMENT_RECORDS; i++) {
+					store.append(new Email("foo" + i, "bar", "001"));
+				}
+
+				assertTrue("Expected a small file: " + small,
+						small <= 2 * MappedAccountStore.INITIAL_SEGMENT_RECORDS * MappedAccountStore.RECORD_SIZE);
+				assertTrue("Expected file grown", Files.size(file) > small);
+				assertEquals("Expected first record", "foo.bar@001.company.com", store.get(0).getEmailAddress());
+				assertEquals("Expected last record", MappedAccountStore.INITIAL_SEGMENT_RECORDS,
+						store.find("foo1023.bar@001.company.com"));
+			}
+		}
+		@Test
+		// covers many concurrent readers of the same record
+		public void testUpdate_ConcurrentReaders() throws Exception {
+			try (MappedAccountStore store = MappedAccountStore.open(file)) {
+				final Email small = Email.restore("foo", "bar", "001", "a", "b", "x", 100, 0);
+				final Email large = Email.restore("foo", "bar", "001", "alternate", "address", "hash-of-some-length", 200, 0);
+				final int index = store.append(small);
+				final AtomicBoolean running = new AtomicBoolean(true);
+				Thread writer = new Thread(() -> {
+					for (int i = 0; running.get(); i++) {
+						store.update(index, i % 2 == 0 ? large : small);
+					}
+				});
+				writer.start();
+				try {
+					for (int i = 0; i < 100_000; i++) {
+						Email read = store.get(index);
+						String state = read.getAltName() + " " + read.getPasswordHash() + " " + read.getMailCapacity();
+						assertTrue("Expected a whole record: " + state, state.equals("a.b x 100")
+								|| state.equals("alternate.address hash-of-some-length 200"));
+					}
+				} finally {
+					running.set(false);
+					writer.join();
+				}
+			}
+		}
+}
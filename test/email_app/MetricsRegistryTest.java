@@ -0,0 +1,134 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+	// Partition the input as follows:
+		//	counter(name), histogram(name)
+		//		name: new, existing, used by the other kind
+		//
+		//	snapshot(), register(objectName)
+		//		metrics: counters, histograms
+		//
+		//	Email instrumentation
+		//		registry: enabled, disabled
+		//		operation: create, reset accepted and rejected, hash, verification,
+		//		           alternate accepted and rejected, capacity change
+		//
+		// Coverage: Each part covered at least once
+
+		@Before
+		public void cheapHasher() {
+		}
+
+		@After
+		public void restoreHasher() {
+			Email.getMetrics().setEnabled(true);
+		}
+
+		@Test
+		// covers name new, existing
+		public void testCounter_SameName() {
+			MetricsRegistry metrics = new MetricsRegistry();
+			metrics.counter("a").increment();
+			metrics.counter("a").add(2);
+
+			assertEquals("Expected one shared counter", 3, metrics.counter("a").sum());
+			assertSame("Expected one shared histogram", metrics.histogram("h"), metrics.histogram("h"));
+		}
+		@Test(expected = IllegalArgumentException.class)
+		// covers name used by the other kind
+		public void testHistogram_CounterName() {
+			MetricsRegistry metrics = new MetricsRegistry();
+			metrics.counter("a");
+			metrics.histogram("a");
+		}
+		@Test
+		// covers snapshot of counters, histograms
+		public void testSnapshot() {
+			MetricsRegistry metrics = new MetricsRegistry();
+			metrics.counter("b.count").add(5);
+			metrics.histogram("a.nanos").record(10);
+
+			String snapshot = metrics.snapshot();
+			assertTrue("Expected counter line", snapshot.contains("b.count: 5\n"));
+			assertTrue("Expected histogram count line", snapshot.contains("a.nanos.count: 1\n"));
+			assertTrue("Expected histogram p99 line", snapshot.contains("a.nanos.p99: 10\n"));
+			assertTrue("Expected sorted names", snapshot.indexOf("a.nanos") < snapshot.indexOf("b.count"));
+		}
+		@Test
+		// covers register
+		public void testRegister() throws Exception {
+			MetricsRegistry metrics = new MetricsRegistry();
+			metrics.counter("logins").add(7);
+			ObjectName name = metrics.register("email_app:type=MetricsRegistryTest");
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			try {
+				assertEquals("Expected counter attribute", 7L, server.getAttribute(name, "logins"));
+				server.invoke(name, "reset", null, null);
+				assertEquals("Expected reset counter", 0L, server.getAttribute(name, "logins"));
+			} finally {
+				server.unregisterMBean(name);
+			}
+		}
+		@Test
+		// covers enabled, create, reset accepted and rejected, hash and
+		// verification timed, alternate accepted and rejected, capacity change
+		public void testEmail_Enabled() {
+			MetricsRegistry metrics = Email.getMetrics();
+			long created = metrics.counter("email.created").sum();
+			long resets = metrics.counter("email.password.reset").sum();
+			long rejectedResets = metrics.counter("email.password.reset.rejected").sum();
+			long alternates = metrics.counter("email.alternate.created").sum();
+			long rejectedAlternates = metrics.counter("email.alternate.rejected").sum();
+			long capacities = metrics.counter("email.capacity.changed").sum();
+			long timedCreations = metrics.histogram("email.create.nanos").getCount();
+			long hashes = metrics.histogram("email.password.hash.nanos").getCount();
+			long verifications = metrics.histogram("email.password.verify.nanos").getCount();
+
+			Email email = new Email("foo", "bar", "001");
+			email.resetPassword("password1");
+			email.resetPassword("password1");
+			email.createAlternateEmail("foo", "bar");
+			email.createAlternateEmail("baz", "qux");
+			email.setMailCapacity(10);
+
+			assertEquals("Expected creation counted", created + 1, metrics.counter("email.created").sum());
+			assertTrue("Expected creation timed at most once",
+					metrics.histogram("email.create.nanos").getCount() - timedCreations <= 1);
+			assertEquals("Expected reset counted", resets + 1, metrics.counter("email.password.reset").sum());
+			assertEquals("Expected same password counted", rejectedResets + 1,
+					metrics.counter("email.password.reset.rejected").sum());
+			assertEquals("Expected new password hash timed", hashes + 1,
+					metrics.histogram("email.password.hash.nanos").getCount());
+			assertEquals("Expected verification against the set password timed", verifications + 1,
+					metrics.histogram("email.password.verify.nanos").getCount());
+			assertEquals("Expected alternate counted", alternates + 1,
+					metrics.counter("email.alternate.created").sum());
+			assertEquals("Expected same name counted", rejectedAlternates + 1,
+					metrics.counter("email.alternate.rejected").sum());
+			assertEquals("Expected capacity change counted", capacities + 1,
+					metrics.counter("email.capacity.changed").sum());
+		}
+		@Test
+		// covers disabled
+		public void testEmail_Disabled() {
+			MetricsRegistry metrics = Email.getMetrics();
+			metrics.setEnabled(false);
+			long created = metrics.counter("email.created").sum();
+
+			Email email = new Email("foo", "bar", "001");
+			email.setMailCapacity(10);
+
+			assertEquals("Expected nothing recorded", created, metrics.counter("email.created").sum());
+		}
+}
@@ -0,0 +1,102 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class NameNormalizerTest {
+	// Partition the input as follows:
+		//	normalize(value) -> normalized
+		//		value: normalized, uppercase, surrounding whitespace, blank, non-ASCII
+		//		default locale: root, Turkish
+		//		cache: miss, hit, slot taken by another value
+		//		callers: 1, > 1
+		//
+		//	Email names and departments
+		//		same name in several accounts, department with surrounding whitespace
+		//
+		// Coverage: Each part covered at least once
+
+		@Test
+		// covers normalized, uppercase, whitespace, blank, miss then hit
+		public void testNormalize_Ascii() {
+			NameNormalizer normalizer = new NameNormalizer(16);
+			String first = normalizer.normalize("  John\t");
+			String second = normalizer.normalize("JOHN");
+			String normalized = "mary";
+
+			assertEquals("Expected trimmed lowercase", "john", first);
+			assertSame("Expected cached instance", first, second);
+			assertSame("Expected normalized value kept as is", normalized, normalizer.normalize(normalized));
+			assertEquals("Expected empty", "", normalizer.normalize(" \n "));
+			assertEquals("Expected misses for john, mary and blank", 3, normalizer.getMissCount());
+		}
+		@Test
+		// covers non-ASCII, Turkish default locale
+		public void testNormalize_LocaleIndependent() {
+			Locale locale = Locale.getDefault();
+			Locale.setDefault(new Locale("tr", "TR"));
+			try {
+				NameNormalizer normalizer = new NameNormalizer();
+
+				assertEquals("Expected ASCII i", "istanbul", normalizer.normalize("ISTANBUL"));
+				assertEquals("Expected root lowercase", "\u00e9mile", normalizer.normalize(" \u00c9MILE "));
+				assertSame("Expected cached instance", normalizer.normalize("\u00c9mile"),
+						normalizer.normalize("\u00e9MILE"));
+			} finally {
+				Locale.setDefault(locale);
+			}
+		}
+		@Test
+		// covers slot taken by another value
+		public void testNormalize_Evicted() {
+			NameNormalizer normalizer = new NameNormalizer(1);
+			String john = normalizer.normalize("John");
+			normalizer.normalize("Mary");
+
+			assertEquals("Expected one slot", 1, normalizer.getCapacity());
+			assertEquals("Expected correct value after eviction", "john", normalizer.normalize("JOHN"));
+			assertNotSame("Expected a new instance after eviction", john, normalizer.normalize("john"));
+			assertEquals("Expected a miss per eviction", 3, normalizer.getMissCount());
+		}
+		@Test
+		// covers > 1 callers
+		public void testNormalize_Concurrent() throws Exception {
+			final NameNormalizer normalizer = new NameNormalizer(8);
+			ExecutorService pool = Executors.newFixedThreadPool(4);
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				futures.add(pool.submit(() -> {
+					for (int i = 0; i < 10_000; i++) {
+						assertEquals("Expected correct value", "name" + (i % 50),
+								normalizer.normalize(" Name" + (i % 50)));
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(60, TimeUnit.SECONDS);
+			}
+			pool.shutdown();
+
+			assertTrue("Expected most calls to hit", normalizer.getMissCount() < 40_000);
+		}
+		@Test
+		// covers same name in several accounts, department with surrounding whitespace
+		public void testEmail_SharedNames() {
+			Email first = new Email("John", "Smith", " Sales ");
+			Email second = new Email(" JOHN", "smith", "SALES");
+
+			assertEquals("Expected trimmed department", "john.smith@sales.company.com", first.getEmailAddress());
+			assertSame("Expected shared firstname", first.getFirstname(), second.getFirstname());
+			assertSame("Expected shared department", first.getDepartment(), second.getDepartment());
+			assertEquals("Expected general for blank department", "general", new Email("a", "b", "  ").getDepartment());
+		}
+}
@@ -0,0 +1,82 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class PasswordGeneratorTest {
+	// Partition the input as follows:
+		//	PasswordGenerator(length, alphabet)
+		//		length: < MIN_LENGTH, MIN_LENGTH, MAX_LENGTH, > MAX_LENGTH
+		//		alphabet: empty, 1 character, > 1 characters
+		//
+		//	next() -> password
+		//		generator: default, custom
+		//
+		//	nextBatch(count) -> passwords
+		//		count: 0, 1, > one chunk
+		//
+		// Coverage: Each part covered at least once
+
+		@Test
+		// covers default generator
+		public void testNext_Default() {
+			String password = PasswordGenerator.getDefault().next();
+
+			assertEquals("Expected maximum length", PasswordGenerator.MAX_LENGTH, password.length());
+			assertTrue("Expected alphanumeric password", password.matches("[A-Za-z0-9]+"));
+		}
+		@Test
+		// covers MIN_LENGTH, 1 character alphabet
+		public void testNext_SingleCharacter() {
+			String password = new PasswordGenerator(PasswordGenerator.MIN_LENGTH, "x").next();
+
+			assertEquals("Expected only characters from alphabet", "xxxxxxxx", password);
+		}
+		@Test
+		// covers MAX_LENGTH, > 1 characters, custom generator
+		public void testNext_Custom() {
+			String password = new PasswordGenerator(PasswordGenerator.MAX_LENGTH, "ab!").next();
+
+			assertEquals("Expected configured length", PasswordGenerator.MAX_LENGTH, password.length());
+			assertTrue("Expected only characters from alphabet", password.matches("[ab!]+"));
+		}
+		@Test(expected = IllegalArgumentException.class)
+		// covers length < MIN_LENGTH
+		public void testConstructor_TooShort() {
+			new PasswordGenerator(PasswordGenerator.MIN_LENGTH - 1, "ab");
+		}
+		@Test(expected = IllegalArgumentException.class)
+		// covers length > MAX_LENGTH
+		public void testConstructor_TooLong() {
+			new PasswordGenerator(PasswordGenerator.MAX_LENGTH + 1, "ab");
+		}
+		@Test(expected = IllegalArgumentException.class)
+		// covers empty alphabet
+		public void testConstructor_EmptyAlphabet() {
+			new PasswordGenerator(PasswordGenerator.MIN_LENGTH, "");
+		}
+		@Test
+		// covers count 0 and 1
+		public void testNextBatch_Small() {
+			PasswordGenerator generator = new PasswordGenerator(10, PasswordGenerator.ALPHANUMERIC);
+
+			assertEquals("Expected no passwords", 0, generator.nextBatch(0).length);
+			assertEquals("Expected configured length", 10, generator.nextBatch(1)[0].length());
+		}
+		@Test
+		// covers count > one chunk
+		public void testNextBatch_Large() {
+			String[] passwords = PasswordGenerator.getDefault().nextBatch(5000);
+			Set<String> distinct = new HashSet<>();
+			for (String password : passwords) {
+				assertEquals("Expected maximum length", PasswordGenerator.MAX_LENGTH, password.length());
+				distinct.add(password);
+			}
+
+			assertEquals("Expected distinct passwords", passwords.length, distinct.size());
+		}
+}
@@ -0,0 +1,112 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PasswordHashingServiceTest {
+	// Partition the input as follows:
+		//	resetPassword(directory, email, newPassword), verifyPassword(email, password)
+		//		hashing threads: idle, busy
+		//		queue: not full, full
+		//		account: registered in directory
+		//
+		// Coverage: Each part covered at least once
+
+		private final CountDownLatch gate = new CountDownLatch(1);
+		private PasswordHasher hasher;
+
+		/** Holds every hash and verification until the gate opens */
+		@Before
+		public void gateHasher() {
+			hasher = Email.getPasswordHasher();
+			final PasswordHasher delegate = hasher;
+			Email.setPasswordHasher(new PasswordHasher() {
+				@Override public String hash(final String password) {
+					await();
+					return delegate.hash(password);
+				}
+				@Override public boolean verify(final String password, final String encodedHash) {
+					await();
+					return delegate.verify(password, encodedHash);
+				}
+			});
+		}
+
+		@After
+		public void restoreHasher() {
+			gate.countDown();
+			Email.setPasswordHasher(hasher);
+		}
+
+		private void await() {
+			try {
+				gate.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Test
+		// covers resetPassword with idle and busy threads, queue not full and
+		// full, registered account
+		public void testResetPassword_Saturated() {
+			EmailDirectory directory = new EmailDirectory();
+			Email foo = new Email("foo", "bar", "001");
+			Email baz = new Email("baz", "qux", "001");
+			Email ann = new Email("ann", "lee", "001");
+			directory.add(foo);
+			directory.add(baz);
+			directory.add(ann);
+			directory.getEvents().subscribe("test", 64, events -> { });
+			long published = directory.getEvents().getPublishedCount();
+
+			try (PasswordHashingService hashing = new PasswordHashingService(1, 1)) {
+				CompletableFuture<Boolean> running = hashing.resetPassword(directory, foo, "password1");
+				CompletableFuture<Boolean> queued = hashing.resetPassword(directory, baz, "password1");
+				CompletableFuture<Boolean> rejected = hashing.resetPassword(directory, ann, "password1");
+
+				assertEquals("Expected one queued reset", 1, hashing.getQueuedCount());
+				assertTrue("Expected rejection at once", rejected.isCompletedExceptionally());
+				try {
+					rejected.join();
+					fail("Expected RejectedExecutionException");
+				} catch (CompletionException e) {
+					assertTrue("Expected rejection, was " + e.getCause(),
+							e.getCause() instanceof RejectedExecutionException);
+				}
+				assertEquals("Expected rejection counted", 1, hashing.getRejectedCount());
+
+				gate.countDown();
+				assertTrue("Expected running reset done", running.join());
+				assertTrue("Expected queued reset done", queued.join());
+			}
+			assertTrue("Expected new password", foo.verifyPassword("password1"));
+			assertFalse("Expected rejected reset not made", ann.verifyPassword("password1"));
+			assertEquals("Expected resets published by the directory", published + 2,
+					directory.getEvents().getPublishedCount());
+		}
+		@Test
+		// covers verifyPassword with idle threads, queue not full
+		public void testVerifyPassword() {
+			Email email = new Email("foo", "bar", "001");
+			gate.countDown();
+			email.resetPassword("password1");
+
+			try (PasswordHashingService hashing = new PasswordHashingService(1, 1)) {
+				assertTrue("Expected current password verified",
+						hashing.verifyPassword(email, "password1").join());
+				assertFalse("Expected wrong password rejected",
+						hashing.verifyPassword(email, "password2").join());
+				assertEquals("Expected nothing rejected", 0, hashing.getRejectedCount());
+			}
+		}
+}
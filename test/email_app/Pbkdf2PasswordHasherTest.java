@@ -0,0 +1,56 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class Pbkdf2PasswordHasherTest {
+	// Partition the input as follows:
+		//	hash(password) -> encodedHash
+		//		same password hashed: once, twice
+		//
+		//	verify(password, encodedHash) -> boolean
+		//		password: matches, doesn't match
+		//		encodedHash: well-formed, malformed, produced with another cost
+		//
+		// Coverage: Each part covered at least once
+
+		@Test
+		// covers hashed once, matching password, well-formed hash
+		public void testVerify_Matches() {
+			Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher(1000);
+			String encoded = hasher.hash("12345678");
+
+			assertTrue("Expected encoded cost", encoded.startsWith("pbkdf2-sha256$1000$"));
+			assertTrue("Expected successful verification", hasher.verify("12345678", encoded));
+		}
+		@Test
+		// covers password doesn't match
+		public void testVerify_DoesNotMatch() {
+			Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher(1000);
+
+			assertFalse("Expected failed verification", hasher.verify("12345679", hasher.hash("12345678")));
+		}
+		@Test
+		// covers hashed twice
+		public void testHash_Salted() {
+			Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher(1000);
+
+			assertNotEquals("Expected different salts", hasher.hash("12345678"), hasher.hash("12345678"));
+		}
+		@Test
+		// covers malformed hash
+		public void testVerify_Malformed() {
+			Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher(1000);
+
+			assertFalse("Expected failed verification", hasher.verify("12345678", "12345678"));
+			assertFalse("Expected failed verification", hasher.verify("12345678", "pbkdf2-sha256$x$AA==$AA=="));
+		}
+		@Test
+		// covers hash produced with another cost
+		public void testVerify_OtherCost() {
+			String encoded = new Pbkdf2PasswordHasher(1000).hash("12345678");
+
+			assertTrue("Expected cost read from hash", new Pbkdf2PasswordHasher(2000).verify("12345678", encoded));
+		}
+}
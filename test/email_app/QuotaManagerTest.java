@@ -0,0 +1,159 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class QuotaManagerTest {
+	// Partition the input as follows:
+		//	deliver(address, messages) -> boolean
+		//		address: primary, alternate, unknown
+		//		free capacity: > messages, == messages, < messages
+		//		concurrent deliveries: 1, > 1 to the same account
+		//
+		//	release(email, messages) -> int
+		//		usage: 0, < messages, >= messages
+		//
+		//	setDepartmentCapacity(department, capacity) -> int
+		//		capacity vs usage: above, below
+		//
+		//	forget(email)
+		//		concurrent deliveries: none, > 1
+		//
+		// Coverage: Each part covered at least once
+
+		@Test
+		// covers primary, free capacity > messages and == messages and < messages
+		public void testDeliver_Capacity() {
+			EmailDirectory directory = new EmailDirectory();
+			Email email = new Email("foo", "bar", "001");
+			directory.add(email);
+			email.setMailCapacity(10);
+			QuotaManager quotas = new QuotaManager(directory);
+
+			assertTrue("Expected delivery below capacity", quotas.deliver("foo.bar@001.company.com", 6));
+			assertTrue("Expected delivery up to capacity", quotas.deliver(email, 4));
+			assertFalse("Expected delivery over capacity rejected", quotas.deliver(email, 1));
+			assertEquals("Expected full mailbox", 10, quotas.getUsage(email));
+			assertEquals("Expected no room", 0, quotas.getRemaining(email));
+			assertEquals("Expected delivered count", 10, quotas.getDeliveredCount());
+			assertEquals("Expected rejected count", 1, quotas.getRejectedCount());
+		}
+		@Test
+		// covers alternate, unknown
+		public void testDeliver_Addresses() {
+			EmailDirectory directory = new EmailDirectory();
+			Email email = new Email("foo", "bar", "001");
+			directory.add(email);
+			directory.createAlternateEmail(email, "baz", "qux");
+			QuotaManager quotas = new QuotaManager(directory);
+
+			assertTrue("Expected delivery to alternate", quotas.deliver("BAZ.qux@001.company.com", 1));
+			assertFalse("Expected unknown address rejected", quotas.deliver("nobody@001.company.com", 1));
+			assertEquals("Expected usage shared with primary", 1, quotas.getUsage(email));
+		}
+		@Test
+		// covers release with usage 0, < messages, >= messages
+		public void testRelease() {
+			EmailDirectory directory = new EmailDirectory();
+			Email email = new Email("foo", "bar", "001");
+			directory.add(email);
+			QuotaManager quotas = new QuotaManager(directory);
+
+			assertEquals("Expected nothing released", 0, quotas.release(email, 5));
+			quotas.deliver(email, 8);
+			assertEquals("Expected partial release", 5, quotas.release(email, 5));
+			assertEquals("Expected release capped at usage", 3, quotas.release(email, 5));
+			assertEquals("Expected empty mailbox", 0, quotas.getTotalUsage());
+		}
+		@Test
+		// covers capacity above and below usage
+		public void testSetDepartmentCapacity() {
+			EmailDirectory directory = new EmailDirectory();
+			Email full = new Email("foo", "bar", "001");
+			Email empty = new Email("baz", "qux", "001");
+			Email other = new Email("mike", "dean", "002");
+			directory.add(full);
+			directory.add(empty);
+			directory.add(other);
+			QuotaManager quotas = new QuotaManager(directory);
+			quotas.deliver(full, 100);
+
+			assertEquals("Expected one account over capacity", 1, quotas.setDepartmentCapacity("001", 50));
+			assertEquals("Expected capacity changed", 50, empty.getMailCapacity());
+			assertEquals("Expected other department unchanged", 250, other.getMailCapacity());
+			assertFalse("Expected delivery rejected while over capacity", quotas.deliver(full, 1));
+			assertEquals("Expected messages kept", 100, quotas.getUsage(full));
+			assertEquals("Expected none over capacity", 0, quotas.setDepartmentCapacity("001", 1000));
+			assertTrue("Expected delivery after raise", quotas.deliver(full, 1));
+		}
+		@Test
+		// covers > 1 concurrent deliveries to the same account
+		public void testDeliver_Concurrent() throws Exception {
+			final EmailDirectory directory = new EmailDirectory();
+			final Email email = new Email("foo", "bar", "001");
+			directory.add(email);
+			email.setMailCapacity(10_000);
+			final QuotaManager quotas = new QuotaManager(directory);
+
+			ExecutorService pool = Executors.newFixedThreadPool(8);
+			List<Future<Integer>> futures = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				futures.add(pool.submit(() -> {
+					int accepted = 0;
+					for (int i = 0; i < 5_000; i++) {
+						accepted += quotas.deliver(email, 1) ? 1 : 0;
+					}
+					return accepted;
+				}));
+			}
+			int accepted = 0;
+			for (Future<Integer> future : futures) {
+				accepted += future.get(30, TimeUnit.SECONDS);
+			}
+			pool.shutdown();
+
+			assertEquals("Expected exactly capacity accepted", 10_000, accepted);
+			assertEquals("Expected usage at capacity", 10_000, quotas.getUsage(email));
+			assertEquals("Expected total usage", 10_000, quotas.getTotalUsage());
+			assertEquals("Expected the rest rejected", 30_000, quotas.getRejectedCount());
+		}
+		@Test
+		// covers forget with > 1 concurrent deliveries
+		public void testForget_ConcurrentDeliveries() throws Exception {
+			final EmailDirectory directory = new EmailDirectory();
+			final Email email = new Email("foo", "bar", "001");
+			directory.add(email);
+			email.setMailCapacity(Integer.MAX_VALUE);
+			final QuotaManager quotas = new QuotaManager(directory);
+
+			ExecutorService pool = Executors.newFixedThreadPool(2);
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 2; t++) {
+				futures.add(pool.submit(() -> {
+					for (int i = 0; i < 20_000; i++) {
+						quotas.deliver(email, 1);
+					}
+				}));
+			}
+			for (int i = 0; i < 2_000; i++) {
+				quotas.forget(email);
+			}
+			for (Future<?> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+			pool.shutdown();
+
+			assertEquals("Expected total usage of the remaining counter", quotas.getUsage(email),
+					quotas.getTotalUsage());
+			quotas.forget(email);
+			assertEquals("Expected no usage left", 0, quotas.getTotalUsage());
+		}
+}
@@ -0,0 +1,380 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class ShardedDirectoryTest {
+	private static final String SECRET = "shard-secret";
+
+	// Partition the input as follows:
+		//	add, remove, lookup
+		//		shards: 1, > 1; in this process, in servers
+		//		address: primary, alternate on the same shard, alternate on another shard, unknown
+		//		conflict: none, alternate taken as primary, primary taken as alternate
+		//		          (nothing published)
+		//
+		//	findByDepartment, findByName, getDepartmentStats, size
+		//		accounts spread over 1, > 1 shards
+		//		shards added: none, concurrently
+		//
+		//	addShard() -> moved, addShard(server) -> moved
+		//		accounts: 0, many; writers: none, concurrent
+		//		copy: succeeds, new shard unreachable, address taken in the new shard
+		//
+		// Coverage: Each part covered at least once
+
+		/** Returns cheap accounts user0.bar@deptX to user(count-1).bar@deptX over 4 departments */
+		private static List<Email> accounts(final int count) {
+			List<Email> emails = new ArrayList<>();
+			for (int i = 0; i < count; i++) {
+				emails.add(Email.restore("user" + i, "bar", "dept" + (i % 4), "", "", "hash", 100, 0));
+			}
+			return emails;
+		}
+
+		/**
+		 * Returns the index of the shard each of emails is placed in by a new
+		 * directory of shards shards, which is where addShard() moves it to
+		 * once there are that many
+		 */
+		private static int[] placement(final List<Email> emails, final int shards) {
+			ShardedDirectory probe = new ShardedDirectory(shards);
+			int[] owners = new int[emails.size()];
+			for (int i = 0; i < emails.size(); i++) {
+				int[] before = probe.getShardSizes();
+				Email email = emails.get(i);
+				probe.add(Email.restore(email.getFirstname(), email.getLastname(), email.getDepartment(),
+						"", "", "hash", 100, 0));
+				int[] after = probe.getShardSizes();
+				while (after[owners[i]] == before[owners[i]]) {
+					owners[i]++;
+				}
+			}
+			return owners;
+		}
+
+		/** Returns the number of changes published by every directory */
+		private static long published(final List<EmailDirectory> directories) {
+			long published = 0;
+			for (EmailDirectory directory : directories) {
+				published += directory.getEvents().getPublishedCount();
+			}
+			return published;
+		}
+
+		@Test
+		// covers 1 shard, primary, unknown, addShard with 0 accounts
+		public void testSingleShard() {
+			ShardedDirectory directory = new ShardedDirectory(1);
+			Email email = new Email("foo", "bar", "001");
+
+			assertEquals("Expected nothing moved", 0, new ShardedDirectory(2).addShard());
+			assertTrue("Expected added", directory.add(email));
+			assertFalse("Expected duplicate rejected", directory.add(email));
+			assertSame("Expected lookup", email, directory.lookup(" FOO.bar@001.company.com"));
+			assertNull("Expected unknown", directory.lookup("unknown@001.company.com"));
+			assertTrue("Expected removed", directory.remove(email));
+			assertEquals("Expected empty", 0, directory.size());
+		}
+		@Test
+		// covers > 1 shards, alternates on any shard, both conflicts
+		public void testAlternatesAcrossShards() {
+			ShardedDirectory directory = new ShardedDirectory(8);
+			List<Email> emails = accounts(64);
+			for (Email email : emails) {
+				assertTrue("Expected added", directory.add(email));
+			}
+			for (int i = 0; i < 32; i++) {
+				Email email = emails.get(i);
+				assertTrue("Expected alternate", directory.createAlternateEmail(email, "alt" + i, "mail"));
+				assertSame("Expected lookup by alternate", email, directory.lookup(email.getAltEmailAddress()));
+			}
+			Email first = emails.get(0);
+			Email copycat = Email.restore("alt0", "mail", first.getDepartment(), "", "", "hash", 100, 0);
+
+			assertFalse("Expected alternate taken as primary rejected",
+					directory.createAlternateEmail(emails.get(1), "user5", "bar"));
+			assertEquals("Expected previous alternate kept", "alt1.mail@dept1.company.com",
+					emails.get(1).getAltEmailAddress());
+			assertFalse("Expected primary taken as alternate rejected", directory.add(copycat));
+			assertTrue("Expected alternate changed", directory.createAlternateEmail(first, "other", "mail"));
+			assertNull("Expected previous alternate released", directory.lookup("alt0.mail@dept0.company.com"));
+			assertTrue("Expected released address reusable", directory.add(copycat));
+			assertTrue("Expected removed", directory.remove(first));
+			assertNull("Expected alternate released", directory.lookup("other.mail@dept0.company.com"));
+		}
+		@Test
+		// covers accounts spread over > 1 shards, scatter-gather queries
+		public void testScatterGather() {
+			ShardedDirectory directory = new ShardedDirectory(4);
+			List<Email> emails = accounts(400);
+			for (Email email : emails) {
+				directory.add(email);
+			}
+			directory.setMailCapacity(emails.get(0), 1000);
+			directory.createAlternateEmail(emails.get(4), "alt", "mail");
+			DepartmentAggregator.Stats stats = directory.getDepartmentStats("DEPT0");
+
+			assertEquals("Expected every account", 400, directory.size());
+			assertEquals("Expected department gathered", 100, directory.findByDepartment("dept0").size());
+			assertEquals("Expected name gathered", 1, directory.findByName("user5.bar").size());
+			assertEquals("Expected accounts", 100, stats.getAccountCount());
+			assertEquals("Expected total", 99 * 100 + 1000, stats.getTotalMailCapacity());
+			assertEquals("Expected max", 1000, stats.getMaxMailCapacity());
+			assertEquals("Expected alternates", 1, stats.getAlternateCount());
+			for (int size : directory.getShardSizes()) {
+				assertTrue("Expected accounts on every shard", size > 0);
+			}
+		}
+		@Test
+		// covers addShard with many accounts, no writers
+		public void testAddShard() {
+			ShardedDirectory directory = new ShardedDirectory(3);
+			List<Email> emails = accounts(3000);
+			for (Email email : emails) {
+				directory.add(email);
+			}
+			for (int i = 0; i < 300; i++) {
+				directory.createAlternateEmail(emails.get(i), "alt" + i, "mail");
+			}
+			int moved = directory.addShard();
+
+			assertEquals("Expected four shards", 4, directory.getShardCount());
+			assertTrue("Expected about a quarter moved: " + moved, 400 < moved && moved < 1100);
+			assertEquals("Expected moved accounts on the new shard", moved, directory.getShardSizes()[3]);
+			assertEquals("Expected no account lost", 3000, directory.size());
+			for (int i = 0; i < emails.size(); i++) {
+				Email email = emails.get(i);
+				assertSame("Expected lookup after rebalancing", email, directory.lookup(email.getEmailAddress()));
+				if (i < 300) {
+					assertSame("Expected alternate after rebalancing", email,
+							directory.lookup(email.getAltEmailAddress()));
+				}
+			}
+		}
+		@Test
+		// covers addShard with concurrent writers
+		public void testAddShard_ConcurrentWriters() throws Exception {
+			final ShardedDirectory directory = new ShardedDirectory(2);
+			final List<Email> emails = accounts(2000);
+			for (Email email : emails) {
+				directory.add(email);
+			}
+			final AtomicBoolean running = new AtomicBoolean(true);
+			ExecutorService pool = Executors.newFixedThreadPool(2);
+			List<Future<?>> writers = new ArrayList<>();
+			for (int t = 0; t < 2; t++) {
+				final int offset = t;
+				writers.add(pool.submit(() -> {
+					int capacity = 1;
+					while (running.get()) {
+						capacity++;
+						for (int i = offset; i < emails.size(); i += 2) {
+							directory.setMailCapacity(emails.get(i), capacity);
+							assertSame("Expected every account found", emails.get(i),
+									directory.lookup(emails.get(i).getEmailAddress()));
+						}
+					}
+				}));
+			}
+			for (int i = 0; i < 4; i++) {
+				directory.addShard();
+			}
+			running.set(false);
+			for (Future<?> writer : writers) {
+				writer.get(60, TimeUnit.SECONDS);
+			}
+			pool.shutdown();
+
+			long total = 0;
+			for (Email email : emails) {
+				total += email.getMailCapacity();
+			}
+			long gathered = 0;
+			for (int d = 0; d < 4; d++) {
+				gathered += directory.getDepartmentStats("dept" + d).getTotalMailCapacity();
+			}
+			assertEquals("Expected six shards", 6, directory.getShardCount());
+			assertEquals("Expected no account lost", 2000, directory.size());
+			assertEquals("Expected exact totals after moves", total, gathered);
+		}
+		@Test
+		// covers queries over every shard while shards are added
+		public void testAddShard_ConcurrentQueries() throws Exception {
+			final ShardedDirectory directory = new ShardedDirectory(2);
+			for (Email email : accounts(2000)) {
+				directory.add(email);
+			}
+			final AtomicBoolean running = new AtomicBoolean(true);
+			ExecutorService pool = Executors.newSingleThreadExecutor();
+			Future<?> reader = pool.submit(() -> {
+				while (running.get()) {
+					assertEquals("Expected every account counted once", 2000, directory.size());
+					assertEquals("Expected every account gathered once", 500,
+							directory.findByDepartment("dept0").size());
+				}
+			});
+			for (int i = 0; i < 4; i++) {
+				directory.addShard();
+			}
+			running.set(false);
+			reader.get(60, TimeUnit.SECONDS);
+			pool.shutdown();
+
+			assertEquals("Expected six shards", 6, directory.getShardCount());
+		}
+		@Test
+		// covers shards in servers, alternates on any shard, primary taken as alternate, addShard(server)
+		public void testRemoteShards() throws IOException {
+			List<EmailDirectory> directories = new ArrayList<>();
+			List<AdminServer> servers = new ArrayList<>();
+			List<InetSocketAddress> addresses = new ArrayList<>();
+			try {
+				for (int i = 0; i < 3; i++) {
+					EmailDirectory shard = new EmailDirectory();
+					AdminServer server = new AdminServer(shard, new InetSocketAddress("127.0.0.1", 0), 2, SECRET);
+					server.start();
+					directories.add(shard);
+					// events are only counted while subscribed
+					shard.getEvents().subscribe("test", 64, events -> { });
+					servers.add(server);
+					addresses.add(new InetSocketAddress("127.0.0.1", server.getPort()));
+				}
+				ShardedDirectory directory = new ShardedDirectory(addresses.subList(0, 2), SECRET, 16);
+				List<Email> emails = accounts(40);
+				for (Email email : emails) {
+					assertTrue("Expected added", directory.add(email));
+				}
+				for (int i = 0; i < 10; i++) {
+					assertTrue("Expected alternate", directory.createAlternateEmail(emails.get(i), "alt" + i, "mail"));
+				}
+				Email copycat = Email.restore("alt0", "mail", "dept0", "", "", "hash", 100, 0);
+				long published = published(directories);
+
+				assertFalse("Expected primary taken as alternate rejected", directory.add(copycat));
+				assertEquals("Expected nothing published for the rejected account", published, published(directories));
+				Email found = directory.lookup("ALT3.mail@dept3.company.com");
+				assertEquals("Expected account found by alternate", emails.get(3).getEmailAddress(),
+						found.getEmailAddress());
+				assertEquals("Expected copy with the alternate", "alt3.mail@dept3.company.com",
+						found.getAltEmailAddress());
+				assertNull("Expected unknown", directory.lookup(""));
+				assertEquals("Expected previous capacity", 100, directory.setMailCapacity(found, 500));
+				assertEquals("Expected capacity changed in its server", 500,
+						directory.lookup(emails.get(3).getEmailAddress()).getMailCapacity());
+				assertEquals("Expected every account held by the servers", 40,
+						directories.get(0).size() + directories.get(1).size());
+				assertEquals("Expected every account", 40, directory.size());
+				assertEquals("Expected department gathered", 10, directory.findByDepartment("dept1").size());
+				assertEquals("Expected name gathered", 1, directory.findByName("user5.bar").size());
+				DepartmentAggregator.Stats stats = directory.getDepartmentStats("dept3");
+				assertEquals("Expected total", 9 * 100 + 500, stats.getTotalMailCapacity());
+				assertEquals("Expected alternates", 2, stats.getAlternateCount());
+
+				int moved = directory.addShard(addresses.get(2), SECRET);
+				assertTrue("Expected accounts moved", moved > 0);
+				assertEquals("Expected moved accounts held by the new server", moved, directories.get(2).size());
+				assertEquals("Expected no account lost", 40, directory.size());
+				for (int i = 0; i < emails.size(); i++) {
+					String address = emails.get(i).getEmailAddress();
+					assertEquals("Expected lookup after rebalancing", address,
+							directory.lookup(address).getEmailAddress());
+					if (i < 10) {
+						assertEquals("Expected alternate after rebalancing", address,
+								directory.lookup("alt" + i + ".mail@dept" + (i % 4) + ".company.com").getEmailAddress());
+					}
+				}
+				assertTrue("Expected removed", directory.remove(emails.get(0)));
+				assertNull("Expected alternate released", directory.lookup("alt0.mail@dept0.company.com"));
+				assertTrue("Expected released address reusable", directory.add(copycat));
+			} finally {
+				for (AdminServer server : servers) {
+					server.close();
+				}
+				for (EmailDirectory shard : directories) {
+					shard.getEvents().close();
+				}
+			}
+		}
+		@Test
+		// covers addShard(server) with the new shard unreachable or an address taken in it
+		public void testAddShard_FailedCopy() throws IOException {
+			ShardedDirectory directory = new ShardedDirectory(2);
+			List<Email> emails = accounts(200);
+			for (Email email : emails) {
+				directory.add(email);
+			}
+			for (int i = 0; i < 20; i++) {
+				directory.createAlternateEmail(emails.get(i), "alt" + i, "mail");
+			}
+			int port;
+			try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"))) {
+				port = socket.getLocalPort();
+			}
+			try {
+				directory.addShard(new InetSocketAddress("127.0.0.1", port), SECRET);
+				fail("Expected unreachable shard");
+			} catch (UncheckedIOException e) {
+				// expected
+			}
+			assertEquals("Expected no shard added", 2, directory.getShardCount());
+			assertEquals("Expected no account lost", 200, directory.size());
+
+			// an account moving from the second shard is taken, after the moves from the first are copied
+			int[] from = placement(emails, 2);
+			int[] to = placement(emails, 3);
+			int conflict = 0;
+			while (from[conflict] != 1 || to[conflict] != 2) {
+				conflict++;
+			}
+			EmailDirectory taken = new EmailDirectory();
+			taken.add(Email.restore(emails.get(conflict).getFirstname(), "bar", emails.get(conflict).getDepartment(),
+					"", "", "hash", 100, 0));
+			taken.getEvents().subscribe("test", 64, events -> { });
+			EmailDirectory empty = new EmailDirectory();
+			try (AdminServer takenServer = new AdminServer(taken, new InetSocketAddress("127.0.0.1", 0), 2, SECRET);
+					AdminServer emptyServer = new AdminServer(empty, new InetSocketAddress("127.0.0.1", 0), 2, SECRET)) {
+				takenServer.start();
+				emptyServer.start();
+				try {
+					directory.addShard(new InetSocketAddress("127.0.0.1", takenServer.getPort()), SECRET);
+					fail("Expected address taken");
+				} catch (IllegalStateException e) {
+					// expected
+				}
+				assertEquals("Expected no shard added", 2, directory.getShardCount());
+				assertEquals("Expected copies rolled back", 1, taken.size());
+				assertTrue("Expected copies made before the conflict", taken.getEvents().getPublishedCount() > 0);
+				assertEquals("Expected no account lost", 200, directory.size());
+
+				int moved = directory.addShard(new InetSocketAddress("127.0.0.1", emptyServer.getPort()), SECRET);
+				assertEquals("Expected moved accounts held by the new server", moved, empty.size());
+				assertEquals("Expected no account lost", 200, directory.size());
+				for (int i = 0; i < emails.size(); i++) {
+					Email email = emails.get(i);
+					assertEquals("Expected lookup after rebalancing", email.getEmailAddress(),
+							directory.lookup(email.getEmailAddress()).getEmailAddress());
+					if (i < 20) {
+						assertEquals("Expected alternate after rebalancing", email.getEmailAddress(),
+								directory.lookup(email.getAltEmailAddress()).getEmailAddress());
+					}
+				}
+			} finally {
+				taken.getEvents().close();
+			}
+		}
+}
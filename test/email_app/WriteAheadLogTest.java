@@ -0,0 +1,179 @@
+package email_app;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteAheadLogTest {
+	// Partition the input as follows:
+		//	replay(file) -> accounts
+		//		file: missing, complete, torn last record
+		//		records: create (with and without suffix), resetPassword, setMailCapacity, createAlternateEmail,
+		//		         remove, mutation of unknown or removed account, create after remove
+		//		metrics: unchanged by replay
+		//
+		//	log*(email) -> future
+		//		callers: one, many concurrent
+		//		log: open, closed, closed concurrently
+		//
+		// Coverage: Each part covered at least once
+
+		private Path file;
+
+		@Before
+		public void createFile() throws IOException {
+			file = Files.createTempFile("accounts", ".wal");
+			Files.delete(file);
+		}
+
+		@After
+		public void deleteFile() throws IOException {
+			Files.deleteIfExists(file);
+		}
+
+		@Test
+		// covers missing file
+		public void testReplay_Missing() throws IOException {
+			assertTrue("Expected no accounts", WriteAheadLog.replay(file).isEmpty());
+		}
+		@Test
+		// covers complete file, every record type, one caller
+		public void testReplay_AllMutations() throws IOException {
+			Email email = new Email("foo", "bar", "001");
+			try (WriteAheadLog log = new WriteAheadLog(file)) {
+				log.logCreate(email).join();
+				email.resetPassword("12345678");
+				log.logResetPassword(email).join();
+				email.setMailCapacity(500);
+				log.logSetMailCapacity(email).join();
+				email.createAlternateEmail("baz", "qux");
+				log.logCreateAlternateEmail(email).join();
+				log.logSetMailCapacity(new Email("unknown", "account", "001")).join();
+			}
+			Map<String, Email> accounts = WriteAheadLog.replay(file);
+			Email replayed = accounts.get("foo.bar@001.company.com");
+
+			assertEquals("Expected one account", 1, accounts.size());
+			assertEquals("Expected same state", email.toString(), replayed.toString());
+			assertTrue("Expected new password", replayed.verifyPassword("12345678"));
+		}
+		@Test
+		// covers remove, mutation of removed account, create after remove
+		public void testReplay_Remove() throws IOException {
+			Email removed = new Email("foo", "bar", "001");
+			Email kept = new Email("baz", "qux", "001");
+			Email recreated = new Email("foo", "bar", "001");
+			try (WriteAheadLog log = new WriteAheadLog(file)) {
+				log.logCreate(removed).join();
+				log.logCreate(kept).join();
+				log.logRemove(removed).join();
+				removed.setMailCapacity(500);
+				log.logSetMailCapacity(removed).join();
+			}
+			Map<String, Email> accounts = WriteAheadLog.replay(file);
+
+			assertEquals("Expected only the kept account", 1, accounts.size());
+			assertTrue("Expected kept account", accounts.containsKey("baz.qux@001.company.com"));
+
+			try (WriteAheadLog log = new WriteAheadLog(file)) {
+				log.logCreate(recreated).join();
+			}
+			accounts = WriteAheadLog.replay(file);
+			Email replayed = accounts.get("foo.bar@001.company.com");
+
+			assertEquals("Expected both accounts", 2, accounts.size());
+			assertEquals("Expected state of the new account", recreated.toString(), replayed.toString());
+		}
+		@Test
+		// covers create with suffix
+		public void testReplay_Suffix() throws IOException {
+			Email email = new Email("john", "smith", "sales", 3);
+			try (WriteAheadLog log = new WriteAheadLog(file)) {
+				log.logCreate(email).join();
+				email.resetPassword("12345678");
+				log.logResetPassword(email).join();
+			}
+			Map<String, Email> accounts = WriteAheadLog.replay(file);
+
+			assertEquals("Expected suffixed address", "john.smith3@sales.company.com",
+					accounts.keySet().iterator().next());
+			assertTrue("Expected reset password", accounts.get(email.getEmailAddress()).verifyPassword("12345678"));
+		}
+		@Test
+		// covers torn last record, many concurrent callers
+		public void testReplay_TornRecord() throws IOException {
+			try (WriteAheadLog log = new WriteAheadLog(file, 16, 1)) {
+				List<CompletableFuture<Void>> futures = new ArrayList<>();
+				for (int i = 0; i < 50; i++) {
+					Email email = new Email("foo" + i, "bar", "001");
+					futures.add(CompletableFuture.runAsync(() -> log.logCreate(email).join()));
+				}
+				CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+			}
+			Files.write(file, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+			assertEquals("Expected every durable record", 50, WriteAheadLog.replay(file).size());
+		}
+		@Test
+		// covers metrics unchanged by replay
+		public void testReplay_MetricsUnchanged() throws IOException {
+			Email email = new Email("foo", "bar", "001");
+			try (WriteAheadLog log = new WriteAheadLog(file)) {
+				log.logCreate(email).join();
+				email.setMailCapacity(500);
+				log.logSetMailCapacity(email).join();
+				email.createAlternateEmail("baz", "qux");
+				log.logCreateAlternateEmail(email).join();
+			}
+			MetricsRegistry metrics = Email.getMetrics();
+			long capacities = metrics.counter("email.capacity.changed").sum();
+			long alternates = metrics.counter("email.alternate.created").sum();
+			Email replayed = WriteAheadLog.replay(file).get(email.getEmailAddress());
+
+			assertEquals("Expected same state", email.toString(), replayed.toString());
+			assertEquals("Expected no capacity change counted", capacities,
+					metrics.counter("email.capacity.changed").sum());
+			assertEquals("Expected no alternate counted", alternates,
+					metrics.counter("email.alternate.created").sum());
+		}
+		@Test
+		// covers log closed concurrently
+		public void testLog_ClosedConcurrently() throws Exception {
+			final WriteAheadLog log = new WriteAheadLog(file, 4, 0);
+			final Email email = new Email("foo", "bar", "001");
+			final List<CompletableFuture<Void>> futures = new ArrayList<>();
+			Thread writer = new Thread(() -> {
+				for (int i = 0; i < 10_000; i++) {
+					futures.add(log.logSetMailCapacity(email));
+				}
+			});
+			writer.start();
+			Thread.sleep(5);
+			log.close();
+			writer.join();
+
+			for (CompletableFuture<Void> future : futures) {
+				assertTrue("Expected every future completed", future.isDone());
+			}
+		}
+		@Test
+		// covers closed log
+		public void testLog_Closed() throws IOException {
+			WriteAheadLog log = new WriteAheadLog(file);
+			log.close();
+
+			assertTrue("Expected failed future",
+					log.logCreate(new Email("foo", "bar", "001")).isCompletedExceptionally());
+		}
+}